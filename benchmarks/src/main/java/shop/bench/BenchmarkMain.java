@@ -0,0 +1,40 @@
+package shop.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar.
+ *
+ * <p>Accepts the usual JMH command line, but unless told otherwise writes
+ * the results as JSON to <code>jmh-result.json</code> and runs the GC
+ * profiler, so that allocation rates are recorded next to the timings
+ * and runs from two releases can be compared directly.</p>
+ */
+public final class BenchmarkMain {
+  private BenchmarkMain() {}
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cli = new CommandLineOptions(args);
+    if (cli.shouldHelp()) {
+      cli.showHelp();
+      return;
+    }
+    if (cli.shouldList() || cli.shouldListWithParams() || cli.shouldListProfilers() || cli.shouldListResultFormats()) {
+      new Runner(cli).list();
+      return;
+    }
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+    if (!cli.getResultFormat().hasValue())
+      options.resultFormat(ResultFormatType.JSON);
+    if (!cli.getResult().hasValue())
+      options.result("jmh-result.json");
+    if (cli.getProfilers().isEmpty())
+      options.addProfiler(GCProfiler.class);
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,28 @@
+package shop.data;
+
+/**
+ * Builds the videos and inventories used by the benchmarks.
+ */
+final class Catalog {
+  private Catalog() {}
+
+  /**
+   * Returns <code>size</code> distinct videos.
+   */
+  static Video[] videos(int size) {
+    Video[] videos = new Video[size];
+    for (int i = 0; i < size; i++)
+      videos[i] = Data.newVideo("title" + i, 1900 + i % 100, "director" + i % 1000);
+    return videos;
+  }
+
+  /**
+   * Returns an inventory holding <code>copies</code> copies of each video.
+   */
+  static InventorySet inventory(Video[] videos, int copies) {
+    InventorySet inventory = (InventorySet) Data.newInventory();
+    for (Video v : videos)
+      inventory.addNumOwned(v, copies);
+    return inventory;
+  }
+}
@@ -0,0 +1,97 @@
+package shop.data;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <code>Composite.run</code>, <code>undo</code> and <code>redo</code>
+ * over restocks of many videos, one by one or in parallel on the
+ * common pool.
+ *
+ * <p>Each child of a composite pushes itself onto the history when it
+ * runs, so after each <code>runUndo</code> the composite is redone and
+ * its children undone through the history, outside the measurement.
+ * That leaves the inventory and the history as they were, instead of
+ * letting the history grow through the iteration.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompositeBenchmark {
+  @Param({"10", "1000", "100000"})
+  int children;
+  @Param({"false", "true"})
+  boolean parallel;
+  Video[] videos;
+  InventorySet inventory;
+  Composite restocked;
+
+  @Setup
+  public void setup() {
+    videos = Catalog.videos(children);
+    inventory = Catalog.inventory(videos, 1);
+    restocked = restock();
+    restocked.run();
+  }
+
+  Composite restock() {
+    Composite c = new Composite(parallel ? ForkJoinPool.commonPool() : null);
+    for (Video v : videos)
+      c.add(Data.newAddCmd(inventory, v, 1));
+    return c;
+  }
+
+  /**
+   * The composite run by the last invocation, whose children are still
+   * on the history.
+   */
+  @State(Scope.Thread)
+  public static class Pushed {
+    InventorySet inventory;
+    Composite composite;
+
+    @TearDown(Level.Invocation)
+    public void pop() {
+      if (composite == null)
+        return;
+      composite.redo();
+      for (int i = composite.commandList.size(); i > 0; i--)
+        Data.newUndoCmd(inventory).run();
+      composite = null;
+    }
+  }
+
+  @Benchmark
+  public Composite runUndo(Pushed pushed) {
+    Composite c = restock();
+    c.run();
+    c.undo();
+    pushed.inventory = inventory;
+    pushed.composite = c;
+    return c;
+  }
+
+  @Benchmark
+  public Composite undoRedo() {
+    restocked.undo();
+    restocked.redo();
+    return restocked;
+  }
+}
@@ -0,0 +1,105 @@
+package shop.data;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shop.command.RerunnableCommand;
+
+/**
+ * Running commands through the history, and undo/redo of them, with
+ * each representation of the history.
+ *
+ * <p><code>runOutIn</code> pushes onto the history, so the entries it
+ * pushed are undone after each invocation, outside the measurement;
+ * otherwise the history would grow through the iteration and the
+ * numbers would include its resizing.  An invocation runs a batch of
+ * commands, so the per-invocation fixture costs little.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryBenchmark {
+  static final int VIDEOS = 1000;
+  static final int BATCH = 100;
+
+  @Param({"1", "1000", "100000"})
+  int depth;
+  @Param({"compact", "objects"})
+  String history;
+  Video[] videos;
+  InventorySet inventory;
+  RerunnableCommand undo;
+  RerunnableCommand redo;
+  int next;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    videos = Catalog.videos(VIDEOS);
+    System.setProperty("shop.history", history);
+    inventory = Catalog.inventory(videos, Integer.MAX_VALUE / 2);
+    for (int i = 0; i < depth; i++)
+      Data.newOutCmd(inventory, videos[i % VIDEOS]).run();
+    undo = Data.newUndoCmd(inventory);
+    redo = Data.newRedoCmd(inventory);
+  }
+
+  @Benchmark
+  public boolean undoRedo() {
+    undo.run();
+    return redo.run();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean undoRedo_mt() {
+    return undoRedo();
+  }
+
+  /**
+   * The number of entries the benchmark pushed onto the history, which
+   * are undone after each invocation.
+   */
+  @State(Scope.Thread)
+  public static class Pushed {
+    RerunnableCommand undo;
+    int count;
+
+    @TearDown(Level.Invocation)
+    public void pop() {
+      for (; count > 0; count--)
+        undo.run();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public boolean runOutIn(Pushed pushed) {
+    boolean ok = true;
+    for (int i = 0; i < BATCH; i++) {
+      Video v = videos[next++ % VIDEOS];
+      ok &= Data.newOutCmd(inventory, v).run();
+      ok &= Data.newInCmd(inventory, v).run();
+    }
+    pushed.undo = undo;
+    pushed.count += 2 * BATCH;
+    return ok;
+  }
+}
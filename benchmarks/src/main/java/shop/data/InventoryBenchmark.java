@@ -0,0 +1,111 @@
+package shop.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-record operations of <code>InventorySet</code>.
+ *
+ * <p>The <code>_mt</code> variants run on four threads.
+ * <code>checkOutCheckIn_mt</code> gives every thread its own inventory,
+ * so it measures the operation without contention;
+ * <code>checkOutCheckIn_shared_mt</code> shares one inventory between
+ * the threads, which start at different videos and contend only for
+ * the map and the store-wide totals.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryBenchmark {
+
+  @State(Scope.Thread)
+  public static class Store {
+    @Param({"1000", "100000"})
+    int size;
+    Video[] videos;
+    InventorySet inventory;
+    int next;
+
+    @Setup
+    public void setup() {
+      videos = Catalog.videos(size);
+      inventory = Catalog.inventory(videos, 2);
+    }
+
+    Video nextVideo() {
+      if (++next == videos.length)
+        next = 0;
+      return videos[next];
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class SharedStore extends Store {
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    // Spread the threads over the catalog
+    int next = THREADS.getAndIncrement() * 7919;
+
+    Video nextVideo(Store s) {
+      next = (next + 1) % s.videos.length;
+      return s.videos[next];
+    }
+  }
+
+  @Benchmark
+  public Record checkOutCheckIn(Store s) {
+    Video v = s.nextVideo();
+    s.inventory.checkOut(v);
+    return s.inventory.checkIn(v);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Record checkOutCheckIn_mt(Store s) {
+    return checkOutCheckIn(s);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Record checkOutCheckIn_shared_mt(SharedStore s, Cursor c) {
+    Video v = c.nextVideo(s);
+    s.inventory.checkOut(v);
+    return s.inventory.checkIn(v);
+  }
+
+  @Benchmark
+  public Record addNumOwned(Store s) {
+    Video v = s.nextVideo();
+    s.inventory.addNumOwned(v, 1);
+    return s.inventory.addNumOwned(v, -1);
+  }
+
+  @Benchmark
+  public Record get(Store s) {
+    return s.inventory.get(s.nextVideo());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Record get_mt(SharedStore s, Cursor c) {
+    return s.inventory.get(c.nextVideo(s));
+  }
+}
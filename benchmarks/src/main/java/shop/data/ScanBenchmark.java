@@ -0,0 +1,65 @@
+package shop.data;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Whole-inventory operations: sorted iteration and <code>toString</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Benchmark)
+public class ScanBenchmark {
+  static final Comparator<Record> BY_VIDEO = (r1, r2) -> r1.video().compareTo(r2.video());
+  static final Comparator<Record> BY_RENTALS = (r1, r2) -> r2.numRentals() - r1.numRentals();
+
+  @Param({"1000", "100000", "1000000", "10000000"})
+  int size;
+  InventorySet inventory;
+
+  @Setup
+  public void setup() {
+    inventory = Catalog.inventory(Catalog.videos(size), 1);
+  }
+
+  @Benchmark
+  public void iteratorByVideo(Blackhole bh) {
+    for (Iterator<Record> i = inventory.iterator(BY_VIDEO); i.hasNext(); )
+      bh.consume(i.next());
+  }
+
+  @Benchmark
+  public void iteratorByRentals(Blackhole bh) {
+    for (Iterator<Record> i = inventory.iterator(BY_RENTALS); i.hasNext(); )
+      bh.consume(i.next());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void iteratorByVideo_mt(Blackhole bh) {
+    iteratorByVideo(bh);
+  }
+
+  @Benchmark
+  public String toStringAll() {
+    return inventory.toString();
+  }
+}
@@ -0,0 +1,51 @@
+package shop.data;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <code>VideoObj.hashCode</code> and <code>compareTo</code>, which every
+ * inventory lookup and sorted listing depends on.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VideoBenchmark {
+  Video video = Data.newVideo("The Godfather Part II", 1974, "Francis Ford Coppola");
+  Video sameTitle = Data.newVideo("The Godfather Part II", 1974, "Francis Coppola");
+  Video otherTitle = Data.newVideo("The Conversation", 1974, "Francis Ford Coppola");
+
+  @Benchmark
+  public int hashCodeOf() {
+    return video.hashCode();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int hashCodeOf_mt() {
+    return video.hashCode();
+  }
+
+  @Benchmark
+  public int compareToSameTitle() {
+    return video.compareTo(sameTitle);
+  }
+
+  @Benchmark
+  public int compareToOtherTitle() {
+    return video.compareTo(otherTitle);
+  }
+}
@@ -0,0 +1,231 @@
+package shop.command;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import shop.metrics.CommandMetrics;
+import shop.metrics.CommandStats;
+
+/**
+ * Limits how many commands run at once, turning away the excess at once
+ * rather than letting every caller slow down together.
+ *
+ * <p>Each command type has a concurrency limit that adapts to its
+ * latency: it grows by one every <code>limit</code> commands that finish
+ * within the target latency, and shrinks by a tenth whenever one takes
+ * longer.  All types also share a total capacity, of which each
+ * <code>Priority</code> may use only a share, so check-outs always have
+ * room while listings and imports are held back.</p>
+ *
+ * <p>A command that is not admitted is not run: <code>execute</code>
+ * returns <code>Outcome.OVERLOADED</code> without blocking, and
+ * <code>retryAfterMillis</code> suggests when to try again.  Shed
+ * commands are counted here and in the command metrics of their type,
+ * as failures with reason "overloaded" but without a latency, so that
+ * shedding does not flatter the type's percentiles.</p>
+ */
+public final class AdmissionControl {
+  static final double BACKOFF = 0.9;
+
+  /**
+   * How much of the total capacity commands of a type may use.
+   */
+  public enum Priority {
+    /** Check-outs, check-ins and the like: all of it. */
+    CRITICAL(1.0),
+    /** Everything else: three quarters. */
+    NORMAL(0.75),
+    /** Listings, imports and other bulk work: half. */
+    BULK(0.5);
+
+    private final double _share;
+
+    private Priority(double share) {
+      _share = share;
+    }
+  }
+
+  private static final Map<String, Priority> DEFAULT_PRIORITIES = Map.of(
+    "out", Priority.CRITICAL, "in", Priority.CRITICAL,
+    "rent", Priority.CRITICAL, "return", Priority.CRITICAL,
+    "list", Priority.BULK, "clear", Priority.BULK, "import", Priority.BULK);
+
+  /**
+   * The limit and counters of one command type.
+   */
+  private static final class Gate {
+    final Priority priority;
+    final int capacity; // of the total, for this priority
+    final CommandStats stats;
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicLong limit; // the bits of a double
+    final LongAdder admitted = new LongAdder();
+    final LongAdder shed = new LongAdder();
+    volatile long latency; // smoothed, in nanoseconds
+
+    Gate(String type, Priority priority, int capacity) {
+      this.priority = priority;
+      this.capacity = Math.max(1, (int) (capacity * priority._share));
+      this.stats = CommandMetrics.stats(type);
+      this.limit = new AtomicLong(Double.doubleToLongBits(this.capacity));
+    }
+
+    double limit() {
+      return Double.longBitsToDouble(limit.get());
+    }
+  }
+
+  private final int _capacity;
+  private final long _targetNanos;
+  private final LongSupplier _nanoTime;
+  private final AtomicInteger _inFlight = new AtomicInteger();
+  private final Map<String, Priority> _priorities = new ConcurrentHashMap<String, Priority>(DEFAULT_PRIORITIES);
+  private final Map<String, Gate> _gates = new ConcurrentHashMap<String, Gate>();
+
+  /**
+   * @param capacity the most commands of all types to run at once.
+   * @param targetMillis the latency above which a type's limit shrinks.
+   * @throws IllegalArgumentException if either is not positive.
+   */
+  public AdmissionControl(int capacity, long targetMillis) {
+    this(capacity, targetMillis, System::nanoTime);
+  }
+
+  /**
+   * @param nanoTime the time source latencies are measured with.
+   */
+  AdmissionControl(int capacity, long targetMillis, LongSupplier nanoTime) {
+    if (capacity <= 0 || targetMillis <= 0)
+      throw new IllegalArgumentException();
+    _capacity = capacity;
+    _targetNanos = targetMillis * 1_000_000;
+    _nanoTime = nanoTime;
+  }
+
+  /**
+   * Sets the priority of a command type.  Types default to
+   * <code>NORMAL</code>, except <code>out</code>, <code>in</code>,
+   * <code>rent</code> and <code>return</code>, which are
+   * <code>CRITICAL</code>, and <code>list</code>, <code>clear</code>
+   * and <code>import</code>, which are <code>BULK</code>.
+   * @throws IllegalArgumentException if commands of the type have
+   * already been executed.
+   */
+  public void setPriority(String type, Priority priority) {
+    if (_gates.containsKey(type))
+      throw new IllegalArgumentException("already in use: " + type);
+    _priorities.put(type, priority);
+  }
+
+  /**
+   * Runs <code>command</code> if a command of <code>type</code> may run
+   * now.
+   * @return <code>Outcome.OVERLOADED</code> if it may not, otherwise the
+   * outcome of the command.
+   */
+  public Outcome execute(String type, Command command) {
+    Gate gate = gate(type);
+    if (!acquire(gate)) {
+      gate.shed.increment();
+      gate.stats.rejected(Outcome.OVERLOADED.reason());
+      return Outcome.OVERLOADED;
+    }
+    long start = _nanoTime.getAsLong();
+    gate.admitted.increment();
+    try {
+      if (command instanceof UndoableCommand)
+        return ((UndoableCommand) command).execute();
+      return command.run() ? Outcome.OK : Outcome.FAILED;
+    } finally {
+      _inFlight.decrementAndGet();
+      gate.inFlight.decrementAndGet();
+      adapt(gate, _nanoTime.getAsLong() - start);
+    }
+  }
+
+  /**
+   * Returns how long a command of <code>type</code> turned away should
+   * wait before trying again: the recent latency of the type, at least
+   * one millisecond.
+   */
+  public long retryAfterMillis(String type) {
+    return Math.max(1, (gate(type).latency + 999_999) / 1_000_000);
+  }
+
+  /**
+   * Returns the current concurrency limit of a command type.
+   */
+  public int limit(String type) {
+    return (int) gate(type).limit();
+  }
+
+  /**
+   * Returns the number of commands of a type running now.
+   */
+  public int inFlight(String type) {
+    return gate(type).inFlight.get();
+  }
+
+  /**
+   * Returns the number of commands of a type admitted so far.
+   */
+  public long admitted(String type) {
+    return gate(type).admitted.sum();
+  }
+
+  /**
+   * Returns the number of commands of a type turned away so far.
+   */
+  public long shed(String type) {
+    return gate(type).shed.sum();
+  }
+
+  private Gate gate(String type) {
+    return _gates.computeIfAbsent(type,
+      t -> new Gate(t, _priorities.getOrDefault(t, Priority.NORMAL), _capacity));
+  }
+
+  /**
+   * Take a place under the type's limit and the priority's share of the
+   * capacity, or neither.
+   */
+  private boolean acquire(Gate gate) {
+    int limit = (int) gate.limit();
+    for (;;) {
+      int n = gate.inFlight.get();
+      if (n >= limit)
+        return false;
+      if (gate.inFlight.compareAndSet(n, n + 1))
+        break;
+    }
+    for (;;) {
+      int n = _inFlight.get();
+      if (n >= gate.capacity) {
+        gate.inFlight.decrementAndGet();
+        return false;
+      }
+      if (_inFlight.compareAndSet(n, n + 1))
+        return true;
+    }
+  }
+
+  /**
+   * Adjust the type's limit to the latency of a finished command.
+   */
+  private void adapt(Gate gate, long nanos) {
+    // Racy, but only ever loses a sample
+    long smoothed = gate.latency;
+    gate.latency = smoothed == 0 ? nanos : smoothed + (nanos - smoothed) / 8;
+    for (;;) {
+      long bits = gate.limit.get();
+      double limit = Double.longBitsToDouble(bits);
+      double next = nanos > _targetNanos ? Math.max(1, limit * BACKOFF) : Math.min(gate.capacity, limit + 1 / limit);
+      if (next == limit || gate.limit.compareAndSet(bits, Double.doubleToLongBits(next)))
+        return;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package shop.command;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one run, undo or redo of a command.
+ *
+ * <p>Disabled by default; enable <code>shop.Command</code> in the
+ * recording settings.  Fields are only filled in when the event is
+ * committed, so a disabled event costs next to nothing.</p>
+ */
+@Name("shop.Command")
+@Label("Command")
+@Category({"Video Store", "Commands"})
+@Description("Run, undo or redo of a command")
+@Enabled(false)
+@StackTrace(false)
+public final class CommandEvent extends Event {
+  @Label("Command")
+  String command;
+
+  @Label("Phase")
+  String phase;
+
+  @Label("Video")
+  String video;
+
+  @Label("Outcome")
+  @Description("\"ok\" or the reason for the failure")
+  String outcome;
+
+  /**
+   * Returns a started event.
+   */
+  public static CommandEvent start() {
+    CommandEvent event = new CommandEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Ends the event and commits it if it is enabled and long enough.
+   * @param command the command type.
+   * @param phase "run", "undo" or "redo".
+   * @param video the affected video, or null.
+   * @param outcome "ok" or the reason for the failure.
+   */
+  public void end(String command, String phase, Object video, String outcome) {
+    if (shouldCommit()) {
+      this.command = command;
+      this.phase = phase;
+      this.video = video == null ? null : video.toString();
+      this.outcome = outcome;
+      commit();
+    }
+  }
+}
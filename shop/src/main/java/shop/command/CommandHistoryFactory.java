@@ -1,5 +1,7 @@
 package shop.command;
 
+import java.util.function.Supplier;
+
 /*
  * The CommandHistoryFactory class is used to create a new CommandHistory object.
  * This class follows the Factory Design Pattern.
@@ -9,4 +11,14 @@ public class CommandHistoryFactory {
   static public CommandHistory newCommandHistory() {
     return new CommandHistoryObj();
   }
+  /*
+   * Returns a new history in the representation selected by the system property shop.history:
+   * "objects" keeps one object per command; anything else, the default, uses the packed
+   * representation made by compact.
+   */
+  static public CommandHistory newCommandHistory(Supplier<CommandHistory> compact) {
+    if ("objects".equals(System.getProperty("shop.history")))
+      return newCommandHistory();
+    return compact.get();
+  }
 }
@@ -1,6 +1,8 @@
 package shop.command;
 import java.util.Stack;
 
+import shop.diagnostics.Diagnostics;
+
 /*
   * The CommandHistoryObj class implements the CommandHistory interface.
   * It is used to store the history of commands executed, undone and redone.
@@ -13,36 +15,50 @@ final class CommandHistoryObj implements CommandHistory {
   Stack<UndoableCommand> _redoStack = new Stack<UndoableCommand>();
   RerunnableCommand _undoCmd = new RerunnableCommand () {
       public boolean run () {
-        boolean result = !_undoStack.empty();
-        if (result) {
-          // Undo
-          UndoableCommand cmd = _undoStack.pop();
-          cmd.undo();
-          _redoStack.push(cmd); 
+        synchronized (CommandHistoryObj.this) {
+          boolean result = !_undoStack.empty();
+          if (result) {
+            // Undo
+            UndoableCommand cmd = _undoStack.pop();
+            cmd.undo();
+            _redoStack.push(cmd); 
+            HistorySizeEvent.emit("undo", _undoStack.size(), _redoStack.size());
+          }
+          return result;
         }
-        return result;
       }
     };
   RerunnableCommand _redoCmd = new RerunnableCommand () {
       public boolean run () {
-        boolean result = !_redoStack.empty();
-        if (result) {
-          // Redo
-          UndoableCommand cmd = _redoStack.pop();
-          cmd.redo();
-          _undoStack.push(cmd);
+        synchronized (CommandHistoryObj.this) {
+          boolean result = !_redoStack.empty();
+          if (result) {
+            // Redo
+            UndoableCommand cmd = _redoStack.pop();
+            try {
+              cmd.redo();
+            } catch (RuntimeException e) {
+              Diagnostics.report("history", "Redo failed: " + e.getMessage(), cmd);
+              throw e;
+            }
+            _undoStack.push(cmd);
+            HistorySizeEvent.emit("redo", _undoStack.size(), _redoStack.size());
+          }
+          return result;
         }
-        return result;
       }
     };
 
   /*
    * Adds a command to the undo stack.
+   * Synchronized with undo and redo, since commands may run on
+   * several threads.
    * @param cmd The command to be added.
    */
-  public void add(UndoableCommand cmd) {
+  public synchronized void add(UndoableCommand cmd) {
     _undoStack.push(cmd);
     _redoStack.clear();
+    HistorySizeEvent.emit("add", _undoStack.size(), _redoStack.size());
   }
   
   /*
@@ -0,0 +1,42 @@
+package shop.command;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted whenever a command history grows or shrinks.
+ */
+@Name("shop.HistorySize")
+@Label("History Size")
+@Category({"Video Store", "Commands"})
+@Description("Sizes of the undo and redo stacks after a change")
+@Enabled(false)
+@StackTrace(false)
+public final class HistorySizeEvent extends Event {
+  @Label("Action")
+  String action;
+
+  @Label("Undoable")
+  int undoable;
+
+  @Label("Redoable")
+  int redoable;
+
+  /**
+   * Commits an event if the event type is enabled.
+   */
+  public static void emit(String action, int undoable, int redoable) {
+    HistorySizeEvent event = new HistorySizeEvent();
+    if (event.shouldCommit()) {
+      event.action = action;
+      event.undoable = undoable;
+      event.redoable = redoable;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package shop.command;
+
+/**
+ * The outcome of running a command: success, or why it failed.
+ *
+ * <p>The outcomes are preallocated constants, so a command that fails
+ * for an expected reason, such as every copy being checked out, costs
+ * no more than one that succeeds: nothing is thrown or allocated.</p>
+ * @see UndoableCommand#execute()
+ */
+public enum Outcome {
+  OK("ok"),
+  ALREADY_RUN("already run"),
+  NOT_FOUND("not found"),
+  NONE_AVAILABLE("none available"),
+  NONE_OUT("none out"),
+  INVALID_CHANGE("invalid change"),
+  STALE("stale"),
+  NOT_RENTED("not rented"),
+  WRONG_TYPE("wrong type"),
+  OVERLOADED("overloaded"),
+  FAILED("failed");
+
+  private final String _reason;
+
+  private Outcome(String reason) {
+    _reason = reason;
+  }
+
+  /**
+   * Returns true if this is <code>OK</code>.
+   */
+  public boolean succeeded() {
+    return this == OK;
+  }
+
+  /**
+   * Returns a short description, as recorded in the command metrics.
+   */
+  public String reason() {
+    return _reason;
+  }
+}
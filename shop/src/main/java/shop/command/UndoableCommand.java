@@ -9,6 +9,16 @@ public interface UndoableCommand extends Command {
    * @return true if command succeeds, false otherwise
    */
   public boolean run ();
+  /**
+   * Do the command, reporting why it failed.
+   * Commands that only know whether they failed return
+   * <code>Outcome.FAILED</code>.
+   * @return <code>Outcome.OK</code> if command succeeds, the reason
+   * it failed otherwise
+   */
+  public default Outcome execute () {
+    return run() ? Outcome.OK : Outcome.FAILED;
+  }
   /**
    * Undo the command.
    */
@@ -0,0 +1,42 @@
+package shop.data;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for an operation that changes many records at
+ * once: clearing or restoring the inventory, or a composite command.
+ */
+@Name("shop.BulkOperation")
+@Label("Bulk Operation")
+@Category({"Video Store", "Inventory"})
+@Description("Operation that changes many records at once")
+@Enabled(false)
+@StackTrace(false)
+final class BulkOperationEvent extends Event {
+  @Label("Operation")
+  String operation;
+
+  @Label("Size")
+  @Description("Number of records or child commands")
+  int size;
+
+  static BulkOperationEvent start() {
+    BulkOperationEvent event = new BulkOperationEvent();
+    event.begin();
+    return event;
+  }
+
+  void end(String operation, int size) {
+    if (shouldCommit()) {
+      this.operation = operation;
+      this.size = size;
+      commit();
+    }
+  }
+}
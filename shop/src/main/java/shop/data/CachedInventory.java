@@ -0,0 +1,142 @@
+package shop.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * An inventory that caches the results of <code>get</code> and sorted
+ * <code>iterator</code> calls on another inventory.
+ *
+ * <p>The caches are bounded and evict the least recently used entries.
+ * The cache listens to the changes of the underlying inventory, whatever
+ * command or undo caused them: a change to a video's record invalidates
+ * the cached record of that video only, and any change invalidates the
+ * sorted listings, since every listing contains every record.</p>
+ *
+ * <p>Commands may be created on the cached inventory; they run against
+ * the underlying inventory.</p>
+ *
+ * @see Data#newCachedInventory(Inventory, long)
+ */
+public final class CachedInventory implements Inventory, InventoryListener {
+  static final int MAX_LISTINGS = 16;
+
+  private final InventorySet _inventory;
+  private final Cache<Video, Optional<Record>> _records;
+  private final Cache<Comparator<Record>, Record[]> _listings;
+  private final AtomicLong _changes = new AtomicLong();
+  private volatile boolean _closed;
+
+  CachedInventory(InventorySet inventory, long maximumSize) {
+    _inventory = inventory;
+    _records = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    _listings = CacheBuilder.newBuilder().maximumSize(MAX_LISTINGS).recordStats().build();
+    inventory.addListener(this);
+  }
+
+  InventorySet inventory() {
+    return _inventory;
+  }
+
+  public void changed(Change change) {
+    _changes.incrementAndGet();
+    _records.invalidate(change.video());
+    _listings.invalidateAll();
+  }
+
+  public int size() {
+    return _inventory.size();
+  }
+
+  public Totals totals() {
+    return _inventory.totals();
+  }
+
+  public Record get(Video v) {
+    if (_closed)
+      return _inventory.get(v);
+    Optional<Record> cached = _records.getIfPresent(v);
+    if (cached != null)
+      return cached.orElse(null);
+    long changes = _changes.get();
+    Record r = _inventory.get(v);
+    _records.put(v, Optional.ofNullable(r));
+    // A change between the read and the put would be hidden by the put.
+    if (_changes.get() != changes)
+      _records.invalidate(v);
+    return r;
+  }
+
+  public Iterator<Record> iterator() {
+    return _inventory.iterator();
+  }
+
+  public Iterator<Record> iterator(Comparator<Record> comparator) {
+    if (_closed)
+      return _inventory.iterator(comparator);
+    Record[] cached = _listings.getIfPresent(comparator);
+    if (cached == null) {
+      long changes = _changes.get();
+      cached = toArray(_inventory.iterator(comparator));
+      _listings.put(comparator, cached);
+      if (_changes.get() != changes)
+        _listings.invalidate(comparator);
+    }
+    return Collections.unmodifiableList(Arrays.asList(cached)).iterator();
+  }
+
+  private static Record[] toArray(Iterator<Record> i) {
+    Record[] records = new Record[16];
+    int n = 0;
+    while (i.hasNext()) {
+      if (n == records.length)
+        records = Arrays.copyOf(records, n * 2);
+      records[n++] = i.next();
+    }
+    return Arrays.copyOf(records, n);
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts of the record cache.
+   */
+  public CacheStats recordStats() {
+    return _records.stats();
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts of the listing cache.
+   */
+  public CacheStats listingStats() {
+    return _listings.stats();
+  }
+
+  /**
+   * Returns the number of records cached.
+   */
+  public long cachedRecords() {
+    return _records.size();
+  }
+
+  /**
+   * Stops caching: removes the cache from the underlying inventory's
+   * listeners and empties it.  Reads are then passed straight through.
+   */
+  public void close() {
+    _closed = true;
+    _inventory.removeListener(this);
+    _records.invalidateAll();
+    _listings.invalidateAll();
+  }
+
+  public String toString() {
+    return _inventory.toString();
+  }
+}
@@ -0,0 +1,101 @@
+package shop.data;
+
+/**
+ * <p>An immutable description of one mutation of an inventory record.</p>
+ *
+ * <p>Every successful mutation of an <code>Inventory</code>, including
+ * those caused by undo and redo, is reported to its listeners as one
+ * <code>Change</code> per affected video.</p>
+ *
+ * @see InventoryListener
+ * @see Data
+ */
+public final class Change {
+  /**
+   * What caused a change.
+   */
+  public enum Cause {
+    /** Copies were added or removed. */
+    ADD,
+    /** A copy was checked out. */
+    OUT,
+    /** A copy was checked in. */
+    IN,
+    /** The inventory was cleared. */
+    CLEAR,
+    /** A command was undone. */
+    UNDO,
+    /** A command was redone. */
+    REDO,
+    /** A replica applied a change of its primary. */
+    REPLICATE,
+    /** Records were reconciled with another inventory. */
+    SYNC
+  }
+
+  private final long _seq;
+  private final Video _video;
+  private final Record _oldRecord;
+  private final Record _newRecord;
+  private final Cause _cause;
+
+  Change(long seq, Video video, Record oldRecord, Record newRecord, Cause cause) {
+    _seq = seq;
+    _video = video;
+    _oldRecord = oldRecord;
+    _newRecord = newRecord;
+    _cause = cause;
+  }
+
+  /**
+   * Returns the sequence number of the mutation.
+   * <p>Sequence numbers increase with every mutation of an inventory.</p>
+   */
+  public long seq() {
+    return _seq;
+  }
+
+  /**
+   * Returns the video whose record changed.
+   */
+  public Video video() {
+    return _video;
+  }
+
+  /**
+   * Returns the record before the change, or null if the record was created.
+   */
+  public Record oldRecord() {
+    return _oldRecord;
+  }
+
+  /**
+   * Returns the record after the change, or null if the record was removed.
+   */
+  public Record newRecord() {
+    return _newRecord;
+  }
+
+  /**
+   * Returns what caused the change.
+   */
+  public Cause cause() {
+    return _cause;
+  }
+
+  /**
+   * Returns a change with the effect of this change followed by
+   * <code>later</code>, which must be for the same video, or null if
+   * together they have no effect: a record created and then removed.
+   * The result has the sequence number and cause of <code>later</code>.
+   */
+  Change coalesce(Change later) {
+    if (_oldRecord == null && later._newRecord == null)
+      return null;
+    return new Change(later._seq, _video, _oldRecord, later._newRecord, later._cause);
+  }
+
+  public String toString() {
+    return "Change[seq=" + _seq + ", cause=" + _cause + ", old=" + _oldRecord + ", new=" + _newRecord + "]";
+  }
+}
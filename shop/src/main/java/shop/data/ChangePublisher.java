@@ -0,0 +1,179 @@
+package shop.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the changes of an inventory to <code>Flow</code> subscribers.
+ *
+ * <p>Each subscriber has its own buffer, keyed by video.  When a change
+ * arrives for a video that already has an undelivered change, the two
+ * are coalesced into one with the older record and the newer record, so
+ * a slow subscriber receives the net change per video rather than every
+ * step.  Changes are delivered in sequence order, asynchronously, on the
+ * publisher's executor, and only as requested.</p>
+ *
+ * <p>A buffer holds at most <code>capacity</code> videos.  A subscriber
+ * that falls further behind receives <code>onError</code> with an
+ * <code>IllegalStateException</code> and should resubscribe and reread
+ * the inventory.</p>
+ *
+ * <p>The publisher listens to the inventory only while it has
+ * subscribers, so an inventory without subscribers does not even
+ * allocate the changes.</p>
+ *
+ * @see Data#changes(Inventory)
+ */
+final class ChangePublisher implements Flow.Publisher<Change>, InventoryListener {
+  static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private final InventorySet _inventory;
+  private final Executor _executor;
+  private final int _capacity;
+  private final List<ChangeSubscription> _subscriptions = new CopyOnWriteArrayList<ChangeSubscription>();
+
+  ChangePublisher(InventorySet inventory, Executor executor, int capacity) {
+    _inventory = inventory;
+    _executor = executor;
+    _capacity = capacity;
+  }
+
+  ChangePublisher(InventorySet inventory) {
+    this(inventory, ForkJoinPool.commonPool(), DEFAULT_CAPACITY);
+  }
+
+  public void subscribe(Flow.Subscriber<? super Change> subscriber) {
+    Objects.requireNonNull(subscriber);
+    ChangeSubscription subscription = new ChangeSubscription(subscriber);
+    synchronized (this) {
+      if (_subscriptions.isEmpty())
+        _inventory.addListener(this);
+      _subscriptions.add(subscription);
+    }
+    subscriber.onSubscribe(subscription);
+  }
+
+  public void changed(Change change) {
+    for (ChangeSubscription s : _subscriptions)
+      s.offer(change);
+  }
+
+  /**
+   * Returns the number of current subscribers.
+   */
+  int subscribers() {
+    return _subscriptions.size();
+  }
+
+  private synchronized void remove(ChangeSubscription subscription) {
+    if (_subscriptions.remove(subscription) && _subscriptions.isEmpty())
+      _inventory.removeListener(this);
+  }
+
+  /**
+   * The buffer and demand of one subscriber.  Delivery runs as a task on
+   * the executor; <code>_wip</code> ensures only one task runs at a time
+   * and that offers made while it runs are not missed.
+   */
+  private final class ChangeSubscription implements Flow.Subscription, Runnable {
+    private final Flow.Subscriber<? super Change> _subscriber;
+    private final LinkedHashMap<Video, Change> _pending = new LinkedHashMap<Video, Change>();
+    private final AtomicInteger _wip = new AtomicInteger();
+    private long _demand;
+    private boolean _done;
+    private Throwable _error;
+
+    ChangeSubscription(Flow.Subscriber<? super Change> subscriber) {
+      _subscriber = subscriber;
+    }
+
+    void offer(Change change) {
+      synchronized (this) {
+        if (_done || _error != null)
+          return;
+        // Remove and re-insert so the buffer stays in sequence order
+        Change previous = _pending.remove(change.video());
+        Change merged = previous == null ? change : previous.coalesce(change);
+        if (merged == null) {
+          return;
+        } else if (_pending.size() >= _capacity) {
+          _pending.clear();
+          _error = new IllegalStateException("subscriber fell behind by more than " + _capacity + " videos");
+        } else {
+          _pending.put(change.video(), merged);
+        }
+      }
+      schedule();
+    }
+
+    public void request(long n) {
+      synchronized (this) {
+        if (n <= 0) {
+          _pending.clear();
+          _error = new IllegalArgumentException("non-positive request");
+        } else {
+          _demand = _demand + n < 0 ? Long.MAX_VALUE : _demand + n;
+        }
+      }
+      schedule();
+    }
+
+    public void cancel() {
+      synchronized (this) {
+        _done = true;
+        _pending.clear();
+      }
+      remove(this);
+    }
+
+    private void schedule() {
+      if (_wip.getAndIncrement() == 0)
+        _executor.execute(this);
+    }
+
+    public void run() {
+      int missed = 1;
+      do {
+        for (;;) {
+          Change next = null;
+          Throwable error = null;
+          synchronized (this) {
+            if (_done)
+              return;
+            if (_error != null) {
+              error = _error;
+              _done = true;
+            } else if (_demand > 0 && !_pending.isEmpty()) {
+              Iterator<Change> i = _pending.values().iterator();
+              next = i.next();
+              i.remove();
+              _demand--;
+            }
+          }
+          if (error != null) {
+            remove(this);
+            _subscriber.onError(error);
+            return;
+          }
+          if (next == null)
+            break;
+          try {
+            _subscriber.onNext(next);
+          } catch (Throwable t) {
+            cancel();
+            _subscriber.onError(t);
+            return;
+          }
+        }
+        missed = _wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+  }
+}
@@ -1,40 +1,67 @@
 package shop.data;
 
-import shop.command.UndoableCommand;
+import java.util.ArrayList;
+import java.util.List;
+
+import shop.command.Outcome;
+import shop.metrics.CommandMetrics;
+import shop.metrics.CommandStats;
 
 /**
  * Implementation of command to add or remove inventory.
  * @see Data
  */
-final class CmdAdd implements UndoableCommand {
-  private boolean _runOnce;
+final class CmdAdd extends InstrumentedCommand {
+  static final CommandStats STATS = CommandMetrics.stats("add");
   private InventorySet _inventory;
   private Record _oldvalue;
+  private List<Reservation> _served;
   private Video _video;
   private int _change;
+  private long _expected;
   CmdAdd(InventorySet inventory, Video video, int change) {
+    this(inventory, video, change, InventorySet.ANY);
+  }
+  CmdAdd(InventorySet inventory, Video video, int change, long expected) {
+    super(STATS);
     _inventory = inventory;
     _video = video;
     _change = change;
+    _expected = expected;
   }
-  public boolean run() {
-    if (_runOnce)
-      return false;
-    _runOnce = true;
-    try {
-      _oldvalue = _inventory.addNumOwned(_video, _change);
-      _inventory.getHistory().add(this);
-      return true;
-    } catch (IllegalArgumentException e) {
-      return false;
-    } catch (ClassCastException e) {
-      return false;
-    }
-  }
-  public void undo() {
+  Outcome doExecute() {
+    List<Reservation> served = new ArrayList<Reservation>();
+    Record result = _inventory.addNumOwned(_video, _change, _expected, Change.Cause.ADD, served);
+    Outcome outcome = InventorySet.outcome(result);
+    if (!outcome.succeeded())
+      return outcome;
+    _oldvalue = result;
+    _served = served;
+    _inventory.getHistory().add(this);
+    return Outcome.OK;
+  }
+  void doUndo() {
     _inventory.replaceEntry(_video,_oldvalue);
+    _inventory.requeue(_served);
+  }
+  void doRedo() {
+    List<Reservation> served = new ArrayList<Reservation>();
+    Outcome outcome = InventorySet.outcome(_inventory.addNumOwned(_video, _change, InventorySet.ANY, Change.Cause.REDO, served));
+    if (!outcome.succeeded())
+      throw new IllegalArgumentException(outcome.reason());
+    _served = served;
+  }
+  Video video() {
+    return _video;
+  }
+  // For the history's encoding
+  int change() {
+    return _change;
+  }
+  Record oldvalue() {
+    return _oldvalue;
   }
-  public void redo() {
-    _inventory.addNumOwned(_video, _change);
+  List<Reservation> served() {
+    return _served;
   }
 }
@@ -2,37 +2,31 @@ package shop.data;
 
 import java.util.Map;
 
-import shop.command.UndoableCommand;
+import shop.command.Outcome;
+import shop.metrics.CommandMetrics;
+import shop.metrics.CommandStats;
 
 /**
  * Implementation of command to clear the inventory.
  * @see Data
  */
-final class CmdClear implements UndoableCommand {
-  private boolean _runOnce;
+final class CmdClear extends InstrumentedCommand {
+  private static final CommandStats STATS = CommandMetrics.stats("clear");
   private InventorySet _inventory;
   private Map<Video,Record> _oldvalue;
   CmdClear(InventorySet inventory) {
+    super(STATS);
     _inventory = inventory;
   }
-  public boolean run() {
-    if (_runOnce)
-      return false;
-    _runOnce = true;
-    try {
-      _oldvalue = _inventory.clear();
-      _inventory.getHistory().add(this);
-      return true;
-    } catch (IllegalArgumentException e) {
-      return false;
-    } catch (ClassCastException e) {
-      return false;
-    }
+  Outcome doExecute() {
+    _oldvalue = _inventory.clear();
+    _inventory.getHistory().add(this);
+    return Outcome.OK;
   }
-  public void undo() {
+  void doUndo() {
     _inventory.replaceMap(_oldvalue);
   }
-  public void redo() {
-    _inventory.clear();
+  void doRedo() {
+    _inventory.clear(Change.Cause.REDO);
   }
 }
@@ -1,38 +1,63 @@
 package shop.data;
 
-import shop.command.UndoableCommand;
+import java.util.ArrayList;
+import java.util.List;
+
+import shop.command.Outcome;
+import shop.metrics.CommandMetrics;
+import shop.metrics.CommandStats;
 
 /**
  * Implementation of command to check in a video.
  * @see Data
  */
-final class CmdIn implements UndoableCommand {
-  private boolean _runOnce;
+class CmdIn extends InstrumentedCommand {
+  static final CommandStats STATS = CommandMetrics.stats("in");
   private InventorySet _inventory;
   private Video _video;
   private Record _oldvalue;
+  private long _expected;
+  private List<Reservation> _served;
   CmdIn(InventorySet inventory, Video video) {
+    this(inventory, video, InventorySet.ANY);
+  }
+  CmdIn(InventorySet inventory, Video video, long expected) {
+    super(STATS);
     _inventory = inventory;
     _video = video;
+    _expected = expected;
+  }
+  Outcome doExecute() {
+    List<Reservation> served = new ArrayList<Reservation>();
+    Record result = _inventory.checkIn(_video, _expected, Change.Cause.IN, served, customer());
+    Outcome outcome = InventorySet.outcome(result);
+    if (!outcome.succeeded())
+      return outcome;
+    _oldvalue = result;
+    _served = served;
+    _inventory.getHistory().add(this);
+    return Outcome.OK;
   }
-  public boolean run() {
-    if (_runOnce)
-      return false;
-    _runOnce = true;
-    try {
-      _oldvalue = _inventory.checkIn(_video);
-      _inventory.getHistory().add(this);
-      return true;
-    } catch (IllegalArgumentException e) {
-      return false;
-    } catch (ClassCastException e) {
-      return false;
-    }
-  }
-  public void undo() {
+  void doUndo() {
     _inventory.replaceEntry(_video,_oldvalue);
+    _inventory.requeue(_served);
+  }
+  void doRedo() {
+    List<Reservation> served = new ArrayList<Reservation>();
+    Outcome outcome = InventorySet.outcome(_inventory.checkIn(_video, InventorySet.ANY, Change.Cause.REDO, served, customer()));
+    if (!outcome.succeeded())
+      throw new IllegalArgumentException(outcome.reason());
+    _served = served;
+  }
+  Video video() {
+    return _video;
+  }
+  // The customer returning the copy, if any
+  Customer customer() {
+    return null;
   }
-  public void redo() {
-    _inventory.checkIn(_video);
+  // For the history's encoding
+  List<Reservation> served() {
+    return _served;
   }
 }
@@ -1,38 +1,50 @@
-	package shop.data;
+package shop.data;
 
-import shop.command.UndoableCommand;
+import shop.command.Outcome;
+import shop.metrics.CommandMetrics;
+import shop.metrics.CommandStats;
 
 /**
  * Implementation of command to check out a video.
  * @see Data
  */
-final class CmdOut implements UndoableCommand {
-  private boolean _runOnce;
+class CmdOut extends InstrumentedCommand {
+  static final CommandStats STATS = CommandMetrics.stats("out");
   private InventorySet _inventory;
   private Video _video;
   private Record _oldvalue;
+  private long _expected;
   CmdOut(InventorySet inventory, Video video) {
+    this(inventory, video, InventorySet.ANY);
+  }
+  CmdOut(InventorySet inventory, Video video, long expected) {
+    super(STATS);
     _inventory = inventory;
     _video = video;
+    _expected = expected;
   }
-  public boolean run() {
-    if (_runOnce)
-      return false;
-    _runOnce = true;
-    try {
-      _oldvalue = _inventory.checkOut(_video);
-      _inventory.getHistory().add(this);
-      return true;
-    } catch (IllegalArgumentException e) {
-      return false;
-    } catch (ClassCastException e) {
-      return false;
-    }
+  Outcome doExecute() {
+    Record result = _inventory.checkOut(_video, _expected, Change.Cause.OUT, customer());
+    Outcome outcome = InventorySet.outcome(result);
+    if (!outcome.succeeded())
+      return outcome;
+    _oldvalue = result;
+    _inventory.getHistory().add(this);
+    return Outcome.OK;
   }
-  public void undo() {
+  void doUndo() {
     _inventory.replaceEntry(_video,_oldvalue);
   }
-  public void redo() {
-    _inventory.checkOut(_video);
+  void doRedo() {
+    Outcome outcome = InventorySet.outcome(_inventory.checkOut(_video, InventorySet.ANY, Change.Cause.REDO, customer()));
+    if (!outcome.succeeded())
+      throw new IllegalArgumentException(outcome.reason());
+  }
+  Video video() {
+    return _video;
+  }
+  // The customer renting the copy, if any
+  Customer customer() {
+    return null;
   }
 }
@@ -0,0 +1,26 @@
+package shop.data;
+
+/**
+ * Implementation of command to check out a video to a customer.
+ * The customer's rental is recorded with the video locked, together
+ * with the check-out.
+ * @see Data
+ */
+final class CmdRent extends CmdOut {
+  private final CustomerSet _customers;
+  private final Customer _customer;
+  private final Video _video;
+  CmdRent(InventorySet inventory, Customer customer, Video video) {
+    super(inventory, video);
+    _customers = inventory.getCustomers();
+    _customer = customer;
+    _video = video;
+  }
+  void doUndo() {
+    super.doUndo();
+    _customers.unrent(_customer, _video);
+  }
+  Customer customer() {
+    return _customer;
+  }
+}
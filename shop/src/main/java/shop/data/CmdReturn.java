@@ -0,0 +1,26 @@
+package shop.data;
+
+/**
+ * Implementation of command to check in a video a customer has rented.
+ * The customer's rental is checked and removed with the video locked,
+ * together with the check-in.
+ * @see Data
+ */
+final class CmdReturn extends CmdIn {
+  private final CustomerSet _customers;
+  private final Customer _customer;
+  private final Video _video;
+  CmdReturn(InventorySet inventory, Customer customer, Video video) {
+    super(inventory, video);
+    _customers = inventory.getCustomers();
+    _customer = customer;
+    _video = video;
+  }
+  void doUndo() {
+    super.doUndo();
+    _customers.rent(_customer, _video);
+  }
+  Customer customer() {
+    return _customer;
+  }
+}
@@ -0,0 +1,280 @@
+package shop.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import shop.command.CommandEvent;
+import shop.command.CommandHistory;
+import shop.command.HistorySizeEvent;
+import shop.command.Outcome;
+import shop.command.RerunnableCommand;
+import shop.command.UndoableCommand;
+import shop.diagnostics.Diagnostics;
+import shop.metrics.CommandStats;
+import shop.metrics.CommandStats.Phase;
+
+/**
+ * A command history that keeps the common commands as packed
+ * <code>long</code>s rather than objects.
+ *
+ * <p>A check-out, a check-in or an addition is stored as one word: an
+ * opcode, the video's interned id and the change in copies.  Undo and
+ * redo are rebuilt from the word when needed: undo adds the inverse
+ * change to the video's counters, and redo reruns the mutation.  A
+ * removal of a video's last copies takes a second word holding the
+ * counters needed to restore the record.  The history thus holds no
+ * references to commands, videos or records, and costs 8 or 16 bytes
+ * per entry.</p>
+ *
+ * <p>Other commands, and those that handed copies to reservations, are
+ * kept as objects in a side stack, marked by an <code>OBJECT</code>
+ * word.</p>
+ */
+final class CompactHistory implements CommandHistory {
+  // Word layout: video id in the high 32 bits, a signed 28-bit change
+  // in bits 4-31, the opcode in bits 0-3.
+  private static final int OBJECT = 0, OUT = 1, IN = 2, ADD = 3, REMOVE = 4;
+  private static final int OP_BITS = 4;
+  private static final int OP_MASK = (1 << OP_BITS) - 1;
+  private static final int MAX_CHANGE = (1 << (31 - OP_BITS)) - 1;
+
+  private final InventorySet _inventory;
+  private final VideoIds _ids;
+  private final Stack _undo = new Stack();
+  private final Stack _redo = new Stack();
+
+  /**
+   * A stack of words, with the objects the <code>OBJECT</code> words
+   * stand for.
+   */
+  private static final class Stack {
+    long[] words = new long[16];
+    int size;
+    final List<UndoableCommand> objects = new ArrayList<UndoableCommand>();
+    int entries;
+
+    void push(long word) {
+      if (size == words.length)
+        words = Arrays.copyOf(words, size * 2);
+      words[size++] = word;
+    }
+    void push(UndoableCommand cmd) {
+      objects.add(cmd);
+      push(OBJECT);
+    }
+    long pop() {
+      return words[--size];
+    }
+    UndoableCommand popObject() {
+      return objects.remove(objects.size() - 1);
+    }
+    void clear() {
+      size = 0;
+      entries = 0;
+      objects.clear();
+    }
+  }
+
+  private final RerunnableCommand _undoCmd = new RerunnableCommand() {
+      public boolean run() {
+        synchronized (CompactHistory.this) {
+          if (_undo.entries == 0)
+            return false;
+          move(_undo, _redo, true);
+          HistorySizeEvent.emit("undo", _undo.entries, _redo.entries);
+          return true;
+        }
+      }
+    };
+  private final RerunnableCommand _redoCmd = new RerunnableCommand() {
+      public boolean run() {
+        synchronized (CompactHistory.this) {
+          if (_redo.entries == 0)
+            return false;
+          try {
+            move(_redo, _undo, false);
+          } catch (RuntimeException e) {
+            Diagnostics.report("history", "Redo failed: " + e.getMessage(), null);
+            throw e;
+          }
+          HistorySizeEvent.emit("redo", _undo.entries, _redo.entries);
+          return true;
+        }
+      }
+    };
+
+  CompactHistory(InventorySet inventory, VideoIds ids) {
+    _inventory = inventory;
+    _ids = ids;
+  }
+
+  public synchronized void add(UndoableCommand cmd) {
+    if (!encode(cmd))
+      _undo.push(cmd);
+    _undo.entries++;
+    _redo.clear();
+    HistorySizeEvent.emit("add", _undo.entries, _redo.entries);
+  }
+
+  public RerunnableCommand getUndo() {
+    return _undoCmd;
+  }
+
+  public RerunnableCommand getRedo() {
+    return _redoCmd;
+  }
+
+  /**
+   * Push the encoding of <code>cmd</code> onto the undo stack.
+   * @return false if it has no encoding.
+   */
+  private boolean encode(UndoableCommand cmd) {
+    Class<?> type = cmd.getClass();
+    if (type == CmdOut.class) {
+      CmdOut out = (CmdOut) cmd;
+      _undo.push(word(OUT, out.video(), 0));
+      return true;
+    } else if (type == CmdIn.class) {
+      CmdIn in = (CmdIn) cmd;
+      if (!in.served().isEmpty())
+        return false;
+      _undo.push(word(IN, in.video(), 0));
+      return true;
+    } else if (type == CmdAdd.class) {
+      CmdAdd add = (CmdAdd) cmd;
+      Record old = add.oldvalue();
+      if (!add.served().isEmpty() || Math.abs(add.change()) > MAX_CHANGE)
+        return false;
+      if (old != null && old.numOwned() + add.change() == 0) {
+        // The record is removed: keep what is needed to restore it
+        _undo.push(((long) old.numOwned() << 32) | (old.numRentals() & 0xFFFFFFFFL));
+        _undo.push(word(REMOVE, add.video(), 0));
+      } else {
+        _undo.push(word(ADD, add.video(), add.change()));
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private long word(int op, Video video, int change) {
+    return ((long) _ids.intern(video) << 32) | ((long) (change << OP_BITS) & 0xFFFFFFFFL) | op;
+  }
+
+  /**
+   * Pop an entry from <code>from</code>, undo or redo it, and push it
+   * onto <code>to</code>.
+   */
+  private void move(Stack from, Stack to, boolean undo) {
+    long word = from.pop();
+    from.entries--;
+    int op = (int) word & OP_MASK;
+    if (op == OBJECT) {
+      UndoableCommand cmd = from.popObject();
+      if (undo)
+        cmd.undo();
+      else
+        cmd.redo();
+      to.push(cmd);
+    } else {
+      long extra = op == REMOVE ? from.pop() : 0;
+      List<Reservation> served = Collections.emptyList();
+      if (undo)
+        apply(word, extra, 0);
+      else
+        served = reapply(word, extra);
+      if (served.isEmpty()) {
+        if (op == REMOVE)
+          to.push(extra);
+        to.push(word);
+      } else {
+        to.push(new Decoded(word, extra, served));
+      }
+    }
+    to.entries++;
+  }
+
+  /**
+   * Undo the entry encoded by <code>word</code> and <code>extra</code>,
+   * and the hand-off of <code>handedOff</code> copies after it.
+   */
+  private void apply(long word, long extra, int handedOff) {
+    int op = (int) word & OP_MASK;
+    Video video = _ids.video((int) (word >>> 32));
+    int change = ((int) word) >> OP_BITS;
+    CommandStats stats = stats(op);
+    long start = stats.start();
+    CommandEvent event = CommandEvent.start();
+    switch (op) {
+      case OUT:    _inventory.adjust(video, 0, -1, -1, Change.Cause.UNDO); break;
+      case IN:     _inventory.adjust(video, 0, 1 - handedOff, -handedOff, Change.Cause.UNDO); break;
+      case ADD:    _inventory.adjust(video, -change, -handedOff, -handedOff, Change.Cause.UNDO); break;
+      default:     _inventory.adjust(video, (int) (extra >>> 32), 0, (int) extra, Change.Cause.UNDO); break;
+    }
+    InstrumentedCommand.end(stats, Phase.UNDO, start, event, video, null);
+  }
+
+  /**
+   * Redo the entry encoded by <code>word</code> and <code>extra</code>.
+   * @return the reservations served copies by the redo.
+   * @throws IllegalArgumentException if the command no longer applies.
+   */
+  private List<Reservation> reapply(long word, long extra) {
+    int op = (int) word & OP_MASK;
+    Video video = _ids.video((int) (word >>> 32));
+    int change = ((int) word) >> OP_BITS;
+    CommandStats stats = stats(op);
+    long start = stats.start();
+    CommandEvent event = CommandEvent.start();
+    Record result;
+    List<Reservation> served = new ArrayList<Reservation>();
+    switch (op) {
+      case OUT:    result = _inventory.checkOut(video, Change.Cause.REDO); break;
+      case IN:     result = _inventory.checkIn(video, InventorySet.ANY, Change.Cause.REDO, served); break;
+      case ADD:    result = _inventory.addNumOwned(video, change, InventorySet.ANY, Change.Cause.REDO, served); break;
+      default:     result = _inventory.addNumOwned(video, -(int) (extra >>> 32), Change.Cause.REDO); break;
+    }
+    Outcome outcome = InventorySet.outcome(result);
+    if (!outcome.succeeded()) {
+      InstrumentedCommand.end(stats, Phase.REDO, start, event, video, outcome.reason());
+      throw new IllegalArgumentException(outcome.reason());
+    }
+    InstrumentedCommand.end(stats, Phase.REDO, start, event, video, null);
+    return served;
+  }
+
+  private static CommandStats stats(int op) {
+    switch (op) {
+      case OUT: return CmdOut.STATS;
+      case IN:  return CmdIn.STATS;
+      default:  return CmdAdd.STATS;
+    }
+  }
+
+  /**
+   * An encoded entry whose redo handed copies to reservations, kept as
+   * an object until it is undone, which puts them back on the waitlist.
+   */
+  private final class Decoded implements UndoableCommand {
+    private final long _word;
+    private final long _extra;
+    private List<Reservation> _served;
+    Decoded(long word, long extra, List<Reservation> served) {
+      _word = word;
+      _extra = extra;
+      _served = served;
+    }
+    public boolean run() {
+      return false;
+    }
+    public void undo() {
+      apply(_word, _extra, _served.size());
+      _inventory.requeue(_served);
+    }
+    public void redo() {
+      _served = reapply(_word, _extra);
+    }
+  }
+}
@@ -1,20 +1,59 @@
 package shop.data;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
+import shop.command.Outcome;
 import shop.command.UndoableCommand;
+import shop.metrics.CommandMetrics;
+import shop.metrics.CommandStats;
 
 /**
  * The Composite class implements the UndoableCommand interface.
  * It is used to execute, undo and redo a list of commands as a single command.
  * This class follows the Composite Design Pattern.
+ * By default the commands run one by one; they are not isolated from other commands;
+ * use a Transaction to change several videos atomically.
+ *
+ * <p>A composite created with a <code>ForkJoinPool</code> runs its
+ * children concurrently where it can: adds, check-outs and check-ins
+ * are grouped by the video they change, and the groups run in parallel,
+ * each in order.  Any other child, such as a clear, a rental, a return
+ * or another composite, waits for the children before it and runs
+ * alone: rentals and returns also change the customers, so they are not
+ * grouped with the plain check-outs and check-ins they extend.</p>
  */
-public class Composite implements UndoableCommand{
-    private boolean _runOnce;
+public class Composite extends InstrumentedCommand{
+    private static final CommandStats STATS = CommandMetrics.stats("composite");
+    private final ForkJoinPool _pool;
     List<UndoableCommand> commandList = new ArrayList<UndoableCommand>();
 
+    /**
+     * Creates a composite that runs its commands one by one.
+     */
+    public Composite() {
+        this(null);
+    }
+
+    /**
+     * Creates a composite that runs the commands of different videos
+     * concurrently on <code>pool</code>.  With a pool of one thread
+     * they run one by one.
+     * @param pool the pool to run on, or null to run commands one by one.
+     */
+    public Composite(ForkJoinPool pool) {
+        super(STATS);
+        _pool = pool;
+    }
+
     /**
      * Adds a command to the list of commands.
      * @param c The command to be added.
@@ -24,45 +63,195 @@ public class Composite implements UndoableCommand{
     }
 
     /**
-     * Executes all the commands in the list.
-     * If a command throws an IllegalArgumentException or a ClassCastException, it stops executing the remaining commands and returns false.
-     * @return true if all commands are executed successfully, false otherwise.
+     * Executes all the commands in the list, stopping at the first that fails.
+     * A command that throws an IllegalArgumentException fails with <code>Outcome.FAILED</code>,
+     * and one that throws a ClassCastException with <code>Outcome.WRONG_TYPE</code>.
+     * When run in parallel, commands of other videos may have run after the one that failed.
+     * @return <code>Outcome.OK</code> if all commands are executed successfully,
+     * otherwise the outcome of the first command in the list that failed.
      */
-    public boolean run() {
-        if(_runOnce){
-            return false;
-        }
-        _runOnce = true;
+    Outcome doExecute() {
+        BulkOperationEvent bulk = BulkOperationEvent.start();
+        Outcome outcome = parallel() ? executeInParallel() : executeInOrder();
+        bulk.end(outcome.succeeded() ? "composite run" : "composite run failed", commandList.size());
+        return outcome;
+    }
+
+    private Outcome executeInOrder() {
         for(UndoableCommand c : commandList){
-            try {
-                c.run();
-            } catch (IllegalArgumentException e) {
-                return false;
-            } catch (ClassCastException e) {
-                return false;
-            }
+            Outcome outcome = execute(c);
+            if(!outcome.succeeded())
+                return outcome;
+        }
+        return Outcome.OK;
+    }
+
+    private Outcome executeInParallel() {
+        Plan plan = plan();
+        Outcome[] outcomes = new Outcome[commandList.size()];
+        AtomicBoolean failed = new AtomicBoolean();
+        for(int[] firsts : plan.firsts){
+            forEachGroup(firsts, first -> {
+                for(int i = first; i >= 0 && !failed.get(); i = plan.next[i]){
+                    outcomes[i] = execute(commandList.get(i));
+                    if(!outcomes[i].succeeded())
+                        failed.set(true);
+                }
+            });
+            if(failed.get())
+                break;
+        }
+        for(Outcome outcome : outcomes){
+            if(outcome != null && !outcome.succeeded())
+                return outcome;
+        }
+        return Outcome.OK;
+    }
+
+    private static Outcome execute(UndoableCommand c) {
+        try {
+            return c.execute();
+        } catch (IllegalArgumentException e) {
+            return Outcome.FAILED;
+        } catch (ClassCastException e) {
+            return Outcome.WRONG_TYPE;
         }
-        return true;
     }
 
     /**
      * Undoes all the commands in the list in reverse order.
      */
-    public void undo() {
-        List<UndoableCommand> tmp = commandList;
-        Collections.reverse(tmp);
-        for(UndoableCommand c : tmp){
-            c.undo();
+    void doUndo() {
+        BulkOperationEvent bulk = BulkOperationEvent.start();
+        if(parallel()){
+            Plan plan = plan();
+            for(ListIterator<int[]> s = plan.lasts.listIterator(plan.lasts.size()); s.hasPrevious(); ){
+                forEachGroup(s.previous(), last -> {
+                    for(int i = last; i >= 0; i = plan.prev[i])
+                        commandList.get(i).undo();
+                });
+            }
+        } else {
+            for(ListIterator<UndoableCommand> i = commandList.listIterator(commandList.size()); i.hasPrevious(); ){
+                i.previous().undo();
+            }
         }
+        bulk.end("composite undo", commandList.size());
     }
 
     /**
      * Redoes all the commands in the list.
      */
-    public void redo() {
-        for(UndoableCommand c : commandList){
-            c.redo();
+    void doRedo() {
+        BulkOperationEvent bulk = BulkOperationEvent.start();
+        if(parallel()){
+            Plan plan = plan();
+            for(int[] firsts : plan.firsts){
+                forEachGroup(firsts, first -> {
+                    for(int i = first; i >= 0; i = plan.next[i])
+                        commandList.get(i).redo();
+                });
+            }
+        } else {
+            for(UndoableCommand c : commandList){
+                c.redo();
+            }
         }
+        bulk.end("composite redo", commandList.size());
+    }
+
+    /**
+     * The commands split into steps that run one after another.  Each
+     * step is a set of groups that may run concurrently; a group is the
+     * commands of one video, or a single command that must run alone.
+     * A group is a chain of command indexes, linked forward from its
+     * first command by <code>next</code> and back from its last by
+     * <code>prev</code>, ending at -1.
+     */
+    private static final class Plan {
+        final int[] next;
+        final int[] prev;
+        final List<int[]> firsts = new ArrayList<int[]>(); // by step
+        final List<int[]> lasts = new ArrayList<int[]>(); // by step
+
+        Plan(int size) {
+            next = new int[size];
+            prev = new int[size];
+            Arrays.fill(next, -1);
+            Arrays.fill(prev, -1);
+        }
+
+        void step(int[] firsts, int[] lasts) {
+            if(firsts.length > 0){
+                this.firsts.add(firsts);
+                this.lasts.add(lasts);
+            }
+        }
+    }
+
+    private Plan plan() {
+        Plan plan = new Plan(commandList.size());
+        Map<Video, int[]> groups = new LinkedHashMap<Video, int[]>(); // first and last of each
+        for(int i = 0; i < commandList.size(); i++){
+            Video video = videoOf(commandList.get(i));
+            if(video == null){
+                endStep(plan, groups);
+                plan.step(new int[] { i }, new int[] { i });
+                continue;
+            }
+            int[] group = groups.get(video);
+            if(group == null){
+                groups.put(video, new int[] { i, i });
+            } else {
+                plan.next[group[1]] = i;
+                plan.prev[i] = group[1];
+                group[1] = i;
+            }
+        }
+        endStep(plan, groups);
+        return plan;
+    }
+
+    private static void endStep(Plan plan, Map<Video, int[]> groups) {
+        int[] firsts = new int[groups.size()];
+        int[] lasts = new int[groups.size()];
+        int n = 0;
+        for(int[] group : groups.values()){
+            firsts[n] = group[0];
+            lasts[n++] = group[1];
+        }
+        plan.step(firsts, lasts);
+        groups.clear();
+    }
+
+    /**
+     * Returns the only video <code>c</code> changes, or null if it may
+     * change more, or customers.  The classes are matched exactly, since
+     * subclasses such as CmdRent change customers too.
+     */
+    private static Video videoOf(UndoableCommand c) {
+        Class<?> type = c.getClass();
+        if(type == CmdAdd.class)
+            return ((CmdAdd) c).video();
+        if(type == CmdOut.class)
+            return ((CmdOut) c).video();
+        if(type == CmdIn.class)
+            return ((CmdIn) c).video();
+        return null;
+    }
+
+    /**
+     * Returns true if the children should run concurrently: there is a
+     * pool, with more than one thread.
+     */
+    private boolean parallel() {
+        return _pool != null && _pool.getParallelism() > 1;
+    }
+
+    private void forEachGroup(int[] groups, IntConsumer action) {
+        if(groups.length == 1)
+            action.accept(groups[0]);
+        else
+            _pool.submit(() -> IntStream.of(groups).parallel().forEach(action)).join();
     }
-    
 }
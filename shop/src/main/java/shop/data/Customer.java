@@ -0,0 +1,27 @@
+package shop.data;
+
+/**
+ * <p>An immutable customer.</p>
+ *
+ * <p>Comprises a pair: id, name.</p>
+ *
+ * @see Data
+ * @objecttype Immutable Data Class
+ * @objectinvariant
+ *   <ul>
+ *     <li>id is not negative</li>
+ *     <li>name is non-null, no leading or final spaces, not empty string</li>
+ *   </ul>
+ */
+public interface Customer {
+
+  /**
+   *  Return the value of the attribute.
+   */
+  public long id();
+
+  /**
+   *  Return the value of the attribute.
+   */
+  public String name();
+}
@@ -0,0 +1,24 @@
+package shop.data;
+
+/**
+ * Immutable Data Class for customer objects.
+ * Comprises a pair: id, name.
+ *
+ * @objecttype Immutable Data Class
+ * @see Data
+ */
+public record CustomerObj(long id, String name) implements Customer {
+
+    /**
+     * Initialize all object attributes.
+     * Name is "trimmed" to remove leading and final space.
+     * @throws IllegalArgumentException if any object invariant is violated.
+     */
+    public CustomerObj(long id, String name) {
+        if ((id < 0) || (name == null) || "".equals(name.trim())) {
+            throw new IllegalArgumentException();
+        }
+        this.id = id;
+        this.name = name.trim();
+    }
+}
@@ -0,0 +1,145 @@
+package shop.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Implementation of Customers interface.
+ *
+ * <p>Rentals are indexed both ways with primitive arrays:</p>
+ * <ul>
+ * <li>customer id to an exact-size <code>int[]</code> of video ids,
+ * one per copy held;</li>
+ * <li>video id to a <code>long[]</code> of customer ids, one per copy
+ * out, with its length in <code>_holderCount</code>.</li>
+ * </ul>
+ * <p>Both lookups are a hash probe or an array index followed by a scan
+ * of the few copies involved.</p>
+ * <p>The methods are synchronized, since commands on different videos
+ * may run at the same time.</p>
+ * @see Data
+ */
+final class CustomerSet implements Customers {
+  private static final int[] NONE = new int[0];
+  private static final long[] NO_HOLDERS = new long[0];
+
+  private final LongMap<Customer> _customers = new LongMap<Customer>();
+  private final LongMap<int[]> _rentals = new LongMap<int[]>();
+  private final VideoIds _videoIds;
+  private long[][] _holders = new long[16][];
+  private int[] _holderCount = new int[16];
+
+  CustomerSet(VideoIds videoIds) {
+    _videoIds = videoIds;
+  }
+
+  public synchronized int size() {
+    return _customers.size();
+  }
+
+  public synchronized Customer get(long id) {
+    return _customers.get(id);
+  }
+
+  public synchronized List<Video> rentals(Customer customer) {
+    int[] ids = _rentals.get(customer.id());
+    if (ids == null)
+      return Collections.emptyList();
+    List<Video> result = new ArrayList<Video>(ids.length);
+    for (int id : ids)
+      result.add(_videoIds.video(id));
+    return result;
+  }
+
+  public synchronized List<Customer> holders(Video video) {
+    int id = _videoIds.id(video);
+    if (id < 0 || id >= _holders.length || _holderCount[id] == 0)
+      return Collections.emptyList();
+    List<Customer> result = new ArrayList<Customer>(_holderCount[id]);
+    for (int i = 0; i < _holderCount[id]; i++)
+      result.add(_customers.get(_holders[id][i]));
+    return result;
+  }
+
+  /**
+   * Register a customer, replacing any customer with the same id.
+   */
+  synchronized void add(Customer customer) {
+    _customers.put(customer.id(), customer);
+  }
+
+  /**
+   * Returns true if <code>customer</code> holds a copy of <code>video</code>.
+   */
+  synchronized boolean holds(Customer customer, Video video) {
+    int id = _videoIds.id(video);
+    int[] ids = _rentals.get(customer.id());
+    return id >= 0 && ids != null && indexOf(ids, id) >= 0;
+  }
+
+  /**
+   * Record that <code>customer</code> took a copy of <code>video</code>.
+   */
+  synchronized void rent(Customer customer, Video video) {
+    int id = _videoIds.intern(video);
+    int[] ids = _rentals.get(customer.id());
+    if (ids == null)
+      ids = NONE;
+    int[] grown = Arrays.copyOf(ids, ids.length + 1);
+    grown[ids.length] = id;
+    _rentals.put(customer.id(), grown);
+
+    if (id >= _holders.length) {
+      int capacity = Math.max(id + 1, _holders.length * 2);
+      _holders = Arrays.copyOf(_holders, capacity);
+      _holderCount = Arrays.copyOf(_holderCount, capacity);
+    }
+    long[] holders = _holders[id] == null ? NO_HOLDERS : _holders[id];
+    if (_holderCount[id] == holders.length)
+      holders = _holders[id] = Arrays.copyOf(holders, Math.max(2, holders.length * 2));
+    holders[_holderCount[id]++] = customer.id();
+  }
+
+  /**
+   * Record that <code>customer</code> returned a copy of <code>video</code>.
+   * @return false if the customer held no copy.
+   */
+  synchronized boolean unrent(Customer customer, Video video) {
+    int id = _videoIds.id(video);
+    int[] ids = _rentals.get(customer.id());
+    int i = id < 0 || ids == null ? -1 : indexOf(ids, id);
+    if (i < 0)
+      return false;
+    if (ids.length == 1) {
+      _rentals.remove(customer.id());
+    } else {
+      int[] shrunk = new int[ids.length - 1];
+      System.arraycopy(ids, 0, shrunk, 0, i);
+      System.arraycopy(ids, i + 1, shrunk, i, ids.length - i - 1);
+      _rentals.put(customer.id(), shrunk);
+    }
+
+    long[] holders = _holders[id];
+    int count = _holderCount[id];
+    for (int j = 0; j < count; j++) {
+      if (holders[j] == customer.id()) {
+        holders[j] = holders[count - 1];
+        _holderCount[id] = count - 1;
+        break;
+      }
+    }
+    if (_holderCount[id] == 0)
+      _holders[id] = null;
+    return true;
+  }
+
+  private static int indexOf(int[] ids, int id) {
+    for (int i = 0; i < ids.length; i++) {
+      if (ids[i] == id)
+        return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,32 @@
+package shop.data;
+
+import java.util.List;
+
+/**
+ * The customers of an inventory and the copies they have checked out.
+ * Customers are registered with <code>Data.newCustomer</code> and rent
+ * and return copies with <code>Data.newRentCmd</code> and
+ * <code>Data.newReturnCmd</code>.
+ * @see Data#customers(Inventory)
+ */
+public interface Customers {
+  /**
+   *  Return the number of registered customers.
+   */
+  public int size();
+
+  /**
+   *  Return the customer with the given id, or null.
+   */
+  public Customer get(long id);
+
+  /**
+   *  Return the videos a customer has checked out, one entry per copy.
+   */
+  public List<Video> rentals(Customer customer);
+
+  /**
+   *  Return the customers holding a copy of a video, one entry per copy.
+   */
+  public List<Customer> holders(Video video);
+}
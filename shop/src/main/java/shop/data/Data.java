@@ -1,5 +1,12 @@
 package shop.data;
 
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
 import shop.command.RerunnableCommand;
 import shop.command.UndoableCommand;
 
@@ -8,6 +15,20 @@ import shop.command.UndoableCommand;
  */
 public class Data {
   private Data() {}
+
+  /**
+   * Returns the <code>InventorySet</code> behind <code>inventory</code>,
+   * looking through a <code>CachedInventory</code>.
+   * @throws IllegalArgumentException if <code>inventory<code> not created by a call to <code>newInventory</code>.
+   */
+  static private InventorySet set(Inventory inventory) {
+    if (inventory instanceof CachedInventory)
+      inventory = ((CachedInventory) inventory).inventory();
+    if (!(inventory instanceof InventorySet))
+      throw new IllegalArgumentException();
+    return (InventorySet) inventory;
+  }
+
   /**
    * Returns a new Inventory.
    */
@@ -15,6 +36,207 @@ public class Data {
     return new InventorySet();
   }
 
+  /**
+   * Returns a new Inventory that keeps its last
+   * <code>retainedVersions</code> versions, for <code>asOf</code>.
+   * <p>Each change to a record commits a new version, sharing all but a
+   * few nodes with the one before, so the memory kept is proportional
+   * to <code>retainedVersions</code> rather than to the inventory's
+   * size.</p>
+   * @throws IllegalArgumentException if <code>retainedVersions</code>
+   * is not positive.
+   */
+  static public Inventory newInventory(int retainedVersions) {
+    return new InventorySet(retainedVersions, Clock.systemUTC());
+  }
+
+  /**
+   * Returns a read-only view of the inventory as of version
+   * <code>version</code>: after the change with that sequence number.
+   * The view is not affected by later changes.
+   * @throws IllegalArgumentException if the inventory does not keep
+   * versions or the version is no longer retained.
+   */
+  static public InventorySnapshot asOf(Inventory inventory, long version) {
+    return set(inventory).asOf(version);
+  }
+
+  /**
+   * Returns a read-only view of the inventory as of <code>time</code>:
+   * the newest version committed at or before it.
+   * @throws IllegalArgumentException if the inventory does not keep
+   * versions or the version is no longer retained.
+   */
+  static public InventorySnapshot asOf(Inventory inventory, Instant time) {
+    return set(inventory).asOf(time);
+  }
+
+  /**
+   * Returns a read-only view of the newest version of the inventory.
+   * @throws IllegalArgumentException if the inventory does not keep
+   * versions.
+   */
+  static public InventorySnapshot snapshot(Inventory inventory) {
+    return set(inventory).snapshot();
+  }
+
+  /**
+   * Returns the reports over <code>inventory</code>, computed on the
+   * common fork-join pool.
+   */
+  static public Reports newReports(Inventory inventory) {
+    return new Reports(inventory, ForkJoinPool.commonPool(), false);
+  }
+
+  /**
+   * Returns the reports over <code>inventory</code>, computed on a pool
+   * of <code>parallelism</code> threads.  Close the reports to release
+   * the pool.
+   * @throws IllegalArgumentException if <code>parallelism</code> is not
+   * positive.
+   */
+  static public Reports newReports(Inventory inventory, int parallelism) {
+    return new Reports(inventory, new ForkJoinPool(parallelism), true);
+  }
+
+  /**
+   * Returns an inventory that caches the reads of <code>inventory</code>,
+   * holding at most <code>maximumSize</code> records.
+   * Commands created on the result run against <code>inventory</code>.
+   */
+  static public CachedInventory newCachedInventory(Inventory inventory, long maximumSize) {
+    return new CachedInventory(set(inventory), maximumSize);
+  }
+
+  /**
+   * Registers a listener that is notified of every subsequent change
+   * to the inventory.
+   * @throws IllegalArgumentException if <code>inventory<code> not created by a call to <code>newInventory</code>.
+   */
+  static public void addListener(Inventory inventory, InventoryListener listener) {
+    set(inventory).addListener(listener);
+  }
+
+  /**
+   * Unregisters a listener added with <code>addListener</code>.
+   */
+  static public void removeListener(Inventory inventory, InventoryListener listener) {
+    set(inventory).removeListener(listener);
+  }
+
+  /**
+   * Returns a publisher of the changes of <code>inventory</code>.
+   * <p>Subscribers receive changes asynchronously and as requested.
+   * Undelivered changes are coalesced per video; a subscriber more than
+   * 65536 videos behind receives <code>onError</code>.</p>
+   */
+  static public Flow.Publisher<Change> changes(Inventory inventory) {
+    return set(inventory).changes();
+  }
+
+  /**
+   * Starts streaming the changes of <code>inventory</code> to replicas.
+   * @param port the port to listen on, or 0 for any free port.
+   * @throws IOException if the server socket cannot be opened.
+   */
+  static public ReplicationPrimary newReplicationPrimary(Inventory inventory, int port) throws IOException {
+    return new ReplicationPrimary(set(inventory), port, ReplicationLog.DEFAULT_RETENTION);
+  }
+
+  /**
+   * Returns a new Inventory that keeps a hash tree of its records, so
+   * that it can be reconciled with another such inventory by sending
+   * only the records that differ.
+   * @see #syncFrom(Inventory, String, int)
+   */
+  static public Inventory newSyncedInventory() {
+    return new InventorySet(null, new MerkleTree(MerkleTree.DEFAULT_DEPTH));
+  }
+
+  /**
+   * Starts serving <code>inventory</code> to inventories reconciling
+   * with it.
+   * @param port the port to listen on, or 0 for any free port.
+   * @throws IllegalArgumentException if the inventory was not created by
+   * <code>newSyncedInventory</code>.
+   * @throws IOException if the server socket cannot be opened.
+   */
+  static public SyncServer newSyncServer(Inventory inventory, int port) throws IOException {
+    return new SyncServer(set(inventory), port);
+  }
+
+  /**
+   * Makes <code>inventory</code> match the inventory served at
+   * <code>host:port</code>, such as a branch catching up with the head
+   * office.  Only the records that differ are sent.
+   * <p>The changes are not commands: they cannot be undone.</p>
+   * @throws IllegalArgumentException if the inventory was not created by
+   * <code>newSyncedInventory</code>.
+   * @throws IOException if the connection fails.
+   */
+  static public SyncResult syncFrom(Inventory inventory, String host, int port) throws IOException {
+    return SyncClient.sync(set(inventory), host, port, false);
+  }
+
+  /**
+   * Makes the inventory served at <code>host:port</code> match
+   * <code>inventory</code>.  Only the records that differ are sent.
+   * @throws IllegalArgumentException if the inventory was not created by
+   * <code>newSyncedInventory</code>.
+   * @throws IOException if the connection fails.
+   */
+  static public SyncResult syncTo(Inventory inventory, String host, int port) throws IOException {
+    return SyncClient.sync(set(inventory), host, port, true);
+  }
+
+  /**
+   * Returns a read-only replica of the inventory served by the
+   * primary at <code>host:port</code>.
+   * The replica connects immediately and reconnects after failures.
+   */
+  static public ReplicaInventory newReplica(String host, int port) {
+    ReplicaInventory replica = new ReplicaInventory(host, port);
+    replica.connect();
+    return replica;
+  }
+
+  /**
+   * Starts counting the rentals of <code>inventory</code> over time.
+   * Call <code>close</code> on the result to stop its background roll-up;
+   * it keeps counting until removed with <code>removeListener</code>.
+   */
+  static public RentalMetrics newRentalMetrics(Inventory inventory) {
+    RentalMetrics metrics = new RentalMetrics(Clock.systemUTC());
+    set(inventory).addListener(metrics);
+    metrics.start();
+    return metrics;
+  }
+
+  /**
+   * Starts tracking a due date for each copy checked out of
+   * <code>inventory</code>, one <code>loan</code> after its check-out.
+   * Call <code>close</code> on the result to stop tracking.
+   * @throws IllegalArgumentException if <code>loan</code> is not
+   * positive.
+   */
+  static public DueDates newDueDates(Inventory inventory, Duration loan) {
+    return newDueDates(inventory, loan, Clock.systemUTC());
+  }
+
+  /**
+   * As <code>newDueDates(inventory, loan)</code>, with the time taken
+   * from <code>clock</code>, which may be simulated; see
+   * <code>DueDates.advance</code>.
+   * @throws IllegalArgumentException if <code>loan</code> is not
+   * positive.
+   */
+  static public DueDates newDueDates(Inventory inventory, Duration loan, Clock clock) {
+    DueDates dueDates = new DueDates(clock, loan.toMillis(), DueDates.TICK_MILLIS);
+    dueDates.follow(set(inventory));
+    dueDates.start();
+    return dueDates;
+  }
+
   /**
    * Factory method for Video objects.
    * Title and director are "trimmed" to remove leading and final space.
@@ -24,6 +246,25 @@ public class Data {
     return new VideoObj(title, year, director);
   }
 
+  /**
+   * Registers a customer with the inventory.
+   * A customer registered earlier with the same id is replaced.
+   * Name is "trimmed" to remove leading and final space.
+   * @throws IllegalArgumentException if Customer invariant violated.
+   */
+  static public Customer newCustomer(Inventory inventory, long id, String name) {
+    Customer customer = new CustomerObj(id, name);
+    set(inventory).getCustomers().add(customer);
+    return customer;
+  }
+
+  /**
+   * Returns the customers of the inventory and their rentals.
+   */
+  static public Customers customers(Inventory inventory) {
+    return set(inventory).getCustomers();
+  }
+
   /**
    * Returns a command to add or remove copies of a video from the inventory.
    * <p>The returned command has the following behavior:</p>
@@ -35,43 +276,130 @@ public class Data {
    * <li>If <code>change</code> brings the number of copies to be less
    * than one, the record is removed from the inventory.</li>
    * </ul>
+   * <p><code>execute</code> returns <code>Outcome.NOT_FOUND</code> if
+   * copies are removed from a video not in the inventory, and
+   * <code>Outcome.INVALID_CHANGE</code> if fewer copies than are checked
+   * out would remain.</p>
    * @param video the video to be added.
    * @param change the number of copies to add (or remove if negative).
    * @throws IllegalArgumentException if <code>inventory<code> not created by a call to <code>newInventory</code>.
    */
   static public UndoableCommand newAddCmd(Inventory inventory, Video video, int change) {
-    if (!(inventory instanceof InventorySet))
-      throw new IllegalArgumentException();
-    return new CmdAdd((InventorySet) inventory, video, change);
+    return new CmdAdd(set(inventory), video, change);
+  }
+
+  /**
+   * Returns a command to add or remove copies of a video, provided the
+   * video's record has not changed since it was read.
+   * <p>The command fails with <code>Outcome.STALE</code> if the record's version
+   * is no longer <code>expectedVersion</code>.  Undo and redo are
+   * unconditional.</p>
+   * @param expectedVersion the version of the record read, or
+   * <code>Record.ABSENT</code> if the video must not be in the inventory.
+   */
+  static public UndoableCommand newAddCmd(Inventory inventory, Video video, int change, long expectedVersion) {
+    return new CmdAdd(set(inventory), video, change, expectedVersion);
   }
 
   /**
    * Returns a command to check out a video.
+   * <p><code>execute</code> returns <code>Outcome.NOT_FOUND</code> if
+   * the video is not in the inventory, and
+   * <code>Outcome.NONE_AVAILABLE</code> if every copy is checked out.</p>
    * @param video the video to be checked out.
    */
   static public UndoableCommand newOutCmd(Inventory inventory, Video video) {
-    if (!(inventory instanceof InventorySet))
-      throw new IllegalArgumentException();
-    return new CmdOut((InventorySet) inventory, video);
+    return new CmdOut(set(inventory), video);
+  }
+
+  /**
+   * Returns a command to check out a video, provided the video's record
+   * has not changed since it was read.
+   * <p>The command fails with <code>Outcome.STALE</code> if the record's version
+   * is no longer <code>expectedVersion</code>.</p>
+   * @param expectedVersion the version of the record read.
+   */
+  static public UndoableCommand newOutCmd(Inventory inventory, Video video, long expectedVersion) {
+    return new CmdOut(set(inventory), video, expectedVersion);
   }
   
+  /**
+   * Returns a command to check out a video to a customer.
+   * @param customer the customer taking the copy.
+   * @param video the video to be checked out.
+   * @throws IllegalArgumentException if the customer is not registered.
+   */
+  static public UndoableCommand newRentCmd(Inventory inventory, Customer customer, Video video) {
+    InventorySet set = set(inventory);
+    if (set.getCustomers().get(customer.id()) == null)
+      throw new IllegalArgumentException();
+    return new CmdRent(set, customer, video);
+  }
+
+  /**
+   * Returns a command to check in a copy a customer has rented.
+   * The command fails with <code>Outcome.NOT_RENTED</code> if the
+   * customer holds no copy of the video.
+   * @param customer the customer returning the copy.
+   * @param video the video to be checked in.
+   */
+  static public UndoableCommand newReturnCmd(Inventory inventory, Customer customer, Video video) {
+    return new CmdReturn(set(inventory), customer, video);
+  }
+
+  /**
+   * Joins the waitlist of a video whose copies are all checked out.
+   * <p>The next copy that is checked in or added is handed to the
+   * oldest reservation, completing its future.</p>
+   * @param video the video to wait for.
+   * @throws IllegalArgumentException if the video is not in the inventory
+   * or a copy is available.
+   */
+  static public Reservation newReservation(Inventory inventory, Video video) {
+    return set(inventory).reserve(video);
+  }
+
   /**
    * Returns a command to check in a video.
+   * <p>If the video has a waitlist, the copy is handed straight to the
+   * oldest reservation.</p>
+   * <p><code>execute</code> returns <code>Outcome.NOT_FOUND</code> if
+   * the video is not in the inventory, and <code>Outcome.NONE_OUT</code>
+   * if no copy is checked out.</p>
    * @param video the video to be checked in.
    */
   static public UndoableCommand newInCmd(Inventory inventory, Video video) {
-    if (!(inventory instanceof InventorySet))
-      throw new IllegalArgumentException();
-    return new CmdIn((InventorySet) inventory, video);
+    return new CmdIn(set(inventory), video);
+  }
+
+  /**
+   * Returns a command to check in a video, provided the video's record
+   * has not changed since it was read.
+   * <p>The command fails with <code>Outcome.STALE</code> if the record's version
+   * is no longer <code>expectedVersion</code>.</p>
+   * @param expectedVersion the version of the record read.
+   */
+  static public UndoableCommand newInCmd(Inventory inventory, Video video, long expectedVersion) {
+    return new CmdIn(set(inventory), video, expectedVersion);
   }
   
+  /**
+   * Returns an empty transaction: a command that applies check-outs,
+   * check-ins and additions to several videos atomically.
+   * <p>Add the lines to the transaction, then run it.  The transaction
+   * fails, changing nothing, if any line would fail; its outcome is
+   * that of the first line that fails.</p>
+   * @see Transaction
+   */
+  static public Transaction newTransaction(Inventory inventory) {
+    return new Transaction(set(inventory));
+  }
+
   /**
    * Returns a command to remove all records from the inventory.
    */
   static public UndoableCommand newClearCmd(Inventory inventory) {
-    if (!(inventory instanceof InventorySet))
-      throw new IllegalArgumentException();
-    return new CmdClear((InventorySet) inventory);
+    return new CmdClear(set(inventory));
   }
 
   
@@ -79,9 +407,7 @@ public class Data {
    * Returns a command to undo that will undo the last successful UndoableCommand. 
    */
   static public RerunnableCommand newUndoCmd(Inventory inventory) {
-    if (!(inventory instanceof InventorySet))
-      throw new IllegalArgumentException();
-    InventorySet set = (InventorySet) inventory;
+    InventorySet set = set(inventory);
     return set.getHistory().getUndo();
   }
 
@@ -89,9 +415,7 @@ public class Data {
    * Returns a command to redo that last successfully undone command. 
    */
   static public RerunnableCommand newRedoCmd(Inventory inventory) {
-    if (!(inventory instanceof InventorySet))
-      throw new IllegalArgumentException();
-    InventorySet set = (InventorySet) inventory;
+    InventorySet set = set(inventory);
     return set.getHistory().getRedo();
   }
 }  
@@ -0,0 +1,282 @@
+package shop.data;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The due dates of the copies checked out of an inventory.
+ *
+ * <p>Loans are taken from the changes of an inventory: whenever the
+ * <code>numOut</code> of a record rises, a loan due one loan period
+ * later is started for each new copy out; whenever it falls, the
+ * loans ending soonest are ended, except that an undo ends the newest,
+ * which are the ones it takes back.  So check-outs, check-ins, undo,
+ * redo and transactions are all followed.</p>
+ *
+ * <p>The loans a change ends are kept, up to <code>MAX_ENDED</code> per
+ * video, so that undoing it restores them with their original due
+ * dates rather than starting new ones; likewise a redo restores the
+ * loans its undo ended.  Undo and redo take back changes newest first,
+ * so the loans to restore are always the video's most recently ended.</p>
+ *
+ * <p>Each loan is a timer of a <code>TimingWheel</code>, so starting and
+ * ending one takes constant time however many are outstanding, and no
+ * scan of the loans is ever needed.  A background task advances the
+ * wheel every tick and notifies the <code>OverdueListener</code>s of
+ * each loan as it falls due; an overdue loan stays outstanding until
+ * its copy is checked in.</p>
+ *
+ * @see Data#newDueDates(Inventory, java.time.Duration)
+ */
+public final class DueDates implements InventoryListener, Closeable {
+  static final long TICK_MILLIS = 1000;
+  static final int MAX_ENDED = 64;
+
+  /**
+   * One copy out; linked in its video's loans, soonest due first.
+   */
+  private static final class Loan extends TimingWheel.Timer {
+    final Video video;
+    final long due;
+    Loan before, after;
+    boolean fired;
+
+    Loan(Video video, long due) {
+      this.video = video;
+      this.due = due;
+    }
+  }
+
+  /**
+   * The loans of one video.
+   */
+  private static final class Loans {
+    Loan first, last;
+    int size;
+  }
+
+  private final Clock _clock;
+  private final long _loanMillis;
+  private final long _tickMillis;
+  private final TimingWheel<Loan> _wheel;
+  private final Map<Video, Loans> _loans = new HashMap<Video, Loans>();
+  // Loans ended by other changes, newest last, to restore on undo
+  private final Map<Video, Deque<Loan>> _ended = new HashMap<Video, Deque<Loan>>();
+  // Loans ended by undo, newest last, to restore on redo
+  private final Map<Video, Deque<Loan>> _undone = new HashMap<Video, Deque<Loan>>();
+  private final List<OverdueListener> _listeners = new CopyOnWriteArrayList<OverdueListener>();
+  private long _outstanding;
+  private long _overdue;
+  private InventorySet _inventory;
+  private ScheduledExecutorService _ticker;
+
+  /**
+   * @throws IllegalArgumentException if <code>loanMillis</code> or
+   * <code>tickMillis</code> is not positive.
+   */
+  DueDates(Clock clock, long loanMillis, long tickMillis) {
+    if (loanMillis <= 0 || tickMillis <= 0)
+      throw new IllegalArgumentException();
+    _clock = clock;
+    _loanMillis = loanMillis;
+    _tickMillis = tickMillis;
+    _wheel = new TimingWheel<Loan>(Math.floorDiv(clock.millis(), tickMillis) + 1);
+  }
+
+  /**
+   * Start following <code>inventory</code>; the copies already out get
+   * a full loan period from now.
+   */
+  synchronized void follow(InventorySet inventory) {
+    _inventory = inventory;
+    // A change racing with the scan waits for this lock, then sets its
+    // video's loans to the newer count
+    inventory.addListener(this);
+    for (Record r : inventory)
+      reconcile(r.video(), r.numOut(), null);
+  }
+
+  /**
+   * Advance in the background every tick until closed.
+   */
+  void start() {
+    _ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "due-dates");
+      t.setDaemon(true);
+      return t;
+    });
+    _ticker.scheduleWithFixedDelay(this::advance, _tickMillis, _tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop following the inventory and stop the background task.
+   */
+  public void close() {
+    if (_ticker != null)
+      _ticker.shutdown();
+    if (_inventory != null)
+      _inventory.removeListener(this);
+  }
+
+  public void addListener(OverdueListener listener) {
+    _listeners.add(listener);
+  }
+
+  public void removeListener(OverdueListener listener) {
+    _listeners.remove(listener);
+  }
+
+  public synchronized void changed(Change change) {
+    Record rec = change.newRecord();
+    reconcile(change.video(), rec == null ? 0 : rec.numOut(), change.cause());
+  }
+
+  /**
+   * Returns the number of copies out.
+   */
+  public synchronized long outstanding() {
+    return _outstanding;
+  }
+
+  /**
+   * Returns the number of copies out past their due date.
+   */
+  public synchronized long overdue() {
+    return _overdue;
+  }
+
+  /**
+   * Returns the due dates of the copies of <code>video</code> out,
+   * soonest first.
+   */
+  public synchronized List<Instant> dueDates(Video video) {
+    List<Instant> dates = new ArrayList<Instant>();
+    Loans loans = _loans.get(video);
+    for (Loan l = loans == null ? null : loans.first; l != null; l = l.after)
+      dates.add(Instant.ofEpochMilli(l.due));
+    return dates;
+  }
+
+  /**
+   * Fire the loans due by the clock's current time, and notify the
+   * listeners of them.  Called every tick by the background task; call
+   * it directly to follow a simulated clock.
+   */
+  public void advance() {
+    List<Loan> fired = new ArrayList<Loan>();
+    synchronized (this) {
+      _wheel.advance(Math.floorDiv(_clock.millis(), _tickMillis), l -> {
+        l.fired = true;
+        fired.add(l);
+      });
+      _overdue += fired.size();
+    }
+    for (Loan l : fired) {
+      Instant due = Instant.ofEpochMilli(l.due);
+      for (OverdueListener listener : _listeners)
+        listener.overdue(l.video, due);
+    }
+  }
+
+  /**
+   * Start or end loans of <code>video</code> until there are
+   * <code>out</code>.  An undo ends the newest loans and restores those
+   * last ended by another change; a redo restores those last ended by
+   * an undo.
+   * @param cause the cause of the change, or null for none.
+   */
+  private void reconcile(Video video, int out, Change.Cause cause) {
+    Loans loans = _loans.get(video);
+    int have = loans == null ? 0 : loans.size;
+    if (have == out)
+      return;
+    if (loans == null) {
+      loans = new Loans();
+      _loans.put(video, loans);
+    }
+    boolean undo = cause == Change.Cause.UNDO;
+    Map<Video, Deque<Loan>> restore = undo ? _ended : cause == Change.Cause.REDO ? _undone : null;
+    Deque<Loan> kept = restore == null ? null : restore.get(video);
+    if (have < out && restore == null)
+      // A new change: there is nothing left to redo
+      _undone.remove(video);
+    for (; have < out; have++) {
+      Loan l = kept == null || kept.isEmpty() ? null : kept.pollLast();
+      if (l == null)
+        l = new Loan(video, _clock.millis() + _loanMillis);
+      insert(loans, l);
+      _outstanding++;
+      if (l.fired)
+        _overdue++;
+      else
+        // Round up, so no loan fires early
+        _wheel.schedule(l, Math.floorDiv(l.due + _tickMillis - 1, _tickMillis));
+    }
+    if (kept != null && kept.isEmpty())
+      restore.remove(video);
+    if (have > out && cause != null) {
+      Map<Video, Deque<Loan>> keep = undo ? _undone : _ended;
+      kept = keep.computeIfAbsent(video, v -> new ArrayDeque<Loan>());
+    } else {
+      kept = null;
+    }
+    for (; have > out; have--) {
+      Loan l = undo ? loans.last : loans.first;
+      if (l.before == null)
+        loans.first = l.after;
+      else
+        l.before.after = l.after;
+      if (l.after == null)
+        loans.last = l.before;
+      else
+        l.after.before = l.before;
+      l.before = l.after = null;
+      loans.size--;
+      _outstanding--;
+      if (!_wheel.cancel(l))
+        _overdue--;
+      if (kept != null) {
+        if (kept.size() == MAX_ENDED)
+          kept.pollFirst();
+        kept.addLast(l);
+      }
+    }
+    if (loans.size == 0)
+      _loans.remove(video);
+  }
+
+  /**
+   * Link <code>l</code> into <code>loans</code> in order of due date.
+   */
+  private static void insert(Loans loans, Loan l) {
+    // New loans are due last; only restored ones go further back
+    Loan after = null;
+    Loan before = loans.last;
+    while (before != null && before.due > l.due) {
+      after = before;
+      before = before.before;
+    }
+    l.before = before;
+    l.after = after;
+    if (before == null)
+      loans.first = l;
+    else
+      before.after = l;
+    if (after == null)
+      loans.last = l;
+    else
+      after.before = l;
+    loans.size++;
+  }
+}
@@ -0,0 +1,109 @@
+package shop.data;
+
+import shop.command.CommandEvent;
+import shop.command.Outcome;
+import shop.command.UndoableCommand;
+import shop.metrics.CommandStats;
+import shop.metrics.CommandStats.Phase;
+
+/**
+ * Base of the inventory commands: runs each command at most once, and
+ * records the latency and outcome of every run, undo and redo in the
+ * command's <code>CommandStats</code> and as a <code>CommandEvent</code>.
+ *
+ * <p>Subclasses implement <code>doExecute</code>, <code>doUndo</code>
+ * and <code>doRedo</code>.  A redo that no longer applies throws an
+ * IllegalArgumentException, which is recorded as a failure with its
+ * message as the reason.</p>
+ */
+abstract class InstrumentedCommand implements UndoableCommand {
+  private static final String[] PHASES = { "run", "undo", "redo" }; // by Phase
+  private final CommandStats _stats;
+  private boolean _runOnce;
+
+  /**
+   * @param stats the statistics of the command type, which also names
+   * the type in events.
+   */
+  InstrumentedCommand(CommandStats stats) {
+    _stats = stats;
+  }
+
+  public boolean run() {
+    return execute().succeeded();
+  }
+
+  public final Outcome execute() {
+    long start = _stats.start();
+    CommandEvent event = CommandEvent.start();
+    Outcome outcome;
+    if (_runOnce) {
+      outcome = Outcome.ALREADY_RUN;
+    } else {
+      _runOnce = true;
+      try {
+        outcome = doExecute();
+      } catch (ClassCastException e) {
+        outcome = Outcome.WRONG_TYPE;
+      }
+    }
+    end(_stats, Phase.RUN, start, event, video(), outcome.succeeded() ? null : outcome.reason());
+    return outcome;
+  }
+
+  public final void undo() {
+    long start = _stats.start();
+    CommandEvent event = CommandEvent.start();
+    doUndo();
+    end(_stats, Phase.UNDO, start, event, video(), null);
+  }
+
+  public final void redo() {
+    long start = _stats.start();
+    CommandEvent event = CommandEvent.start();
+    try {
+      doRedo();
+    } catch (IllegalArgumentException e) {
+      end(_stats, Phase.REDO, start, event, video(), e.getMessage());
+      throw e;
+    }
+    end(_stats, Phase.REDO, start, event, video(), null);
+  }
+
+  /**
+   * Do the command; called at most once.
+   * @return <code>Outcome.OK</code> if it succeeds, the reason it
+   * failed otherwise.
+   */
+  abstract Outcome doExecute();
+
+  /**
+   * Undo the command.
+   */
+  abstract void doUndo();
+
+  /**
+   * Redo the command.
+   * @throws IllegalArgumentException if it no longer applies.
+   */
+  abstract void doRedo();
+
+  /**
+   * Returns the only video the command changes, or null.
+   */
+  Video video() {
+    return null;
+  }
+
+  /**
+   * Records the end of an operation that began at <code>start</code>.
+   * @param failure the reason it failed, or null if it succeeded.
+   */
+  static void end(CommandStats stats, Phase phase, long start, CommandEvent event, Video video, String failure) {
+    if (failure == null)
+      stats.succeeded(phase, start);
+    else
+      stats.failed(phase, start, failure);
+    event.end(stats.name(), PHASES[phase.ordinal()], video, failure == null ? "ok" : failure);
+  }
+}
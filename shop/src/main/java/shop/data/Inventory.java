@@ -38,6 +38,24 @@ public interface Inventory extends Iterable<Record> {
    */
   public Iterator<Record> iterator(Comparator<Record> comparator);
 
+  /**
+   *  Return the store-wide totals: the number of titles and the copies
+   *  owned, out and rented.
+   *  <p>The default sums the records; an inventory created by
+   *  <code>Data</code> keeps the totals as counters, so reading them
+   *  takes constant time.</p>
+   */
+  public default Totals totals() {
+    long titles = 0, owned = 0, out = 0, rentals = 0;
+    for (Record r : this) {
+      titles++;
+      owned += r.numOwned();
+      out += r.numOut();
+      rentals += r.numRentals();
+    }
+    return new Totals(titles, owned, out, rentals);
+  }
+
   /**
    * Returns the inventory as a string; one record per line.
    */
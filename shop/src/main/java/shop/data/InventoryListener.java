@@ -0,0 +1,20 @@
+package shop.data;
+
+/**
+ * A callback that is notified of every change to an inventory.
+ *
+ * <p>Listeners are called synchronously by the thread that mutates the
+ * inventory, in the order the changes are applied, so they should return
+ * quickly.  A listener that throws does not undo the change or stop the
+ * other listeners from being called; the exception is reported to
+ * <code>Diagnostics</code>.</p>
+ *
+ * @see Data#addListener(Inventory, InventoryListener)
+ */
+public interface InventoryListener {
+  /**
+   * Called after a record has been created, modified or removed.
+   * @param change the applied change.
+   */
+  public void changed(Change change);
+}
@@ -0,0 +1,40 @@
+package shop.data;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for an operation that visits every record of an
+ * inventory, such as a sorted listing or <code>toString</code>.
+ */
+@Name("shop.InventoryScan")
+@Label("Inventory Scan")
+@Category({"Video Store", "Inventory"})
+@Description("Full scan of the inventory")
+@Enabled(false)
+final class InventoryScanEvent extends Event {
+  @Label("Operation")
+  String operation;
+
+  @Label("Records")
+  int records;
+
+  static InventoryScanEvent start() {
+    InventoryScanEvent event = new InventoryScanEvent();
+    event.begin();
+    return event;
+  }
+
+  void end(String operation, int records) {
+    if (shouldCommit()) {
+      this.operation = operation;
+      this.records = records;
+      commit();
+    }
+  }
+}
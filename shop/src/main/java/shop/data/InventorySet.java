@@ -1,19 +1,64 @@
 package shop.data;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
 import shop.command.CommandHistory;
 import shop.command.CommandHistoryFactory;
+import shop.command.Outcome;
+import shop.diagnostics.Diagnostics;
+import shop.metrics.CommandMetrics;
+import shop.metrics.CommandStats;
+import shop.metrics.CommandStats.Phase;
 
 /**
  * Implementation of Inventory interface.
+ *
+ * <p>Safe for concurrent use.  Each video's changes are serialized by a
+ * lock held only while the record is updated and listeners notified;
+ * reads do not lock.  Commands on different videos run in parallel.</p>
  * @see Data
  */
 final class InventorySet implements Inventory {
+  private static final CommandStats GET_STATS = CommandMetrics.stats("read.get");
+  private static final CommandStats ITERATOR_STATS = CommandMetrics.stats("read.iterator");
+  private static final CommandStats SORTED_STATS = CommandMetrics.stats("read.sorted");
+  private static final CommandStats TOSTRING_STATS = CommandMetrics.stats("read.toString");
+
+  /**
+   * Version expected by an unconditional mutation.
+   */
+  static final long ANY = -1;
+
+  // One failure record per outcome, returned by the mutators in place
+  // of a result
+  private static final Record[] FAILURES = new Record[Outcome.values().length];
+  static {
+    for (Outcome o : Outcome.values())
+      FAILURES[o.ordinal()] = new Failure(o);
+  }
+
   // Chose to use Map of Record, rather than RecordObj, because of
   // Java's broken generic types.  The story is too sad to retell, but
   // involves the fact that Iterable<? extends Record> is not a valid
@@ -22,55 +67,507 @@ final class InventorySet implements Inventory {
   //
   // Seems like the best approach for Java generics is to use the
   // external representation internally and downcast when necessary.
-  private Map<Video,Record> _data;
+  //
+  // Each video's record is held in a Slot, whose lock serializes the
+  // changes to that video.  Reads do not lock.
+  private final ConcurrentHashMap<Video,Slot> _data = new ConcurrentHashMap<Video,Slot>();
+  // Store-wide totals, updated on every put and remove
+  private final LongAdder _titles = new LongAdder();
+  private final LongAdder _owned = new LongAdder();
+  private final LongAdder _out = new LongAdder();
+  private final LongAdder _rentals = new LongAdder();
   private final CommandHistory _history;
+  private final VideoIds _videoIds = new VideoIds();
+  private final CustomerSet _customers = new CustomerSet(_videoIds);
+  private final Map<Video,Deque<Reservation>> _waitlists = new HashMap<Video,Deque<Reservation>>();
+  private final List<InventoryListener> _listeners = new CopyOnWriteArrayList<InventoryListener>();
+  private final AtomicLong _seq = new AtomicLong();
+  private final InventoryVersions _versions; // null unless versions are kept
+  private final MerkleTree _merkle; // null unless kept for sync
+  private ChangePublisher _changes;
+
+  /**
+   * The record of one video and the lock that serializes its changes.
+   * The record is null while a slot is being filled or after its record
+   * is removed.  An empty slot is marked dead and dropped from the map
+   * when unlocked; a thread that then acquires it retries with a new
+   * slot.
+   */
+  private static final class Slot extends ReentrantLock {
+    private static final long serialVersionUID = 1L;
+    volatile Record record;
+    boolean dead;
+  }
 
   InventorySet() {
-    _data = new HashMap<Video,Record>();
-    _history = CommandHistoryFactory.newCommandHistory();
+    this(null, null);
+  }
+
+  /**
+   * Create an inventory that keeps its last <code>retention</code>
+   * versions.
+   */
+  InventorySet(int retention, Clock clock) {
+    this(new InventoryVersions(retention, clock), null);
+  }
+
+  /**
+   * Create an inventory that keeps <code>versions</code> and
+   * <code>merkle</code> up to date; either may be null.
+   */
+  InventorySet(InventoryVersions versions, MerkleTree merkle) {
+    _history = CommandHistoryFactory.newCommandHistory(() -> new CompactHistory(this, _videoIds));
+    _versions = versions;
+    _merkle = merkle;
+  }
+
+  /**
+   * Returns a new record; used to rebuild records outside this class.
+   */
+  static Record newRecord(Video video, int numOwned, int numOut, int numRentals) {
+    return new RecordObj(video, numOwned, numOut, numRentals);
   }
 
   /**
    * If <code>record</code> is null, then delete record for <code>video</code>;
    * otherwise replace record for <code>video</code>.
+   * Used to undo commands.
    */
   void replaceEntry(Video video, Record record) {
-    _data.remove(video);
-    if (record != null)
-      _data.put(video,((RecordObj)record).copy());
+    replaceEntry(video, record, Change.Cause.UNDO);
+  }
+
+  void replaceEntry(Video video, Record record, Change.Cause cause) {
+    Slot slot = lock(video);
+    try {
+      if (record != null)
+        put(slot, video, ((RecordObj)record).copy(), cause);
+      else
+        remove(slot, video, cause);
+    } finally {
+      unlock(video, slot);
+    }
   }
 
   /**
    * Overwrite the map.
+   * Used to undo commands.
    */
   void replaceMap(Map<Video,Record> data) {
-    _data = data;
+    replaceMap(data, Change.Cause.UNDO);
+  }
+
+  void replaceMap(Map<Video,Record> data, Change.Cause cause) {
+    BulkOperationEvent event = BulkOperationEvent.start();
+    Set<Video> videos = new HashSet<Video>(_data.keySet());
+    videos.addAll(data.keySet());
+    List<Video> sorted = sorted(videos);
+    List<Slot> slots = lockAll(sorted);
+    try {
+      for (int i = 0; i < sorted.size(); i++) {
+        Record r = data.get(sorted.get(i));
+        if (r == null)
+          remove(slots.get(i), sorted.get(i), cause);
+        else
+          put(slots.get(i), sorted.get(i), ((RecordObj)r).copy(), cause);
+      }
+    } finally {
+      unlockAll(sorted, slots);
+    }
+    event.end("replace", data.size());
+  }
+
+  /**
+   * Replace the records of the videos in <code>records</code>, removing
+   * those mapped to null, with all the videos locked together.
+   * Used to undo transactions.
+   */
+  void replaceEntries(Map<Video,Record> records, Change.Cause cause) {
+    List<Video> sorted = sorted(records.keySet());
+    List<Slot> slots = lockAll(sorted);
+    try {
+      for (int i = 0; i < sorted.size(); i++) {
+        Record r = records.get(sorted.get(i));
+        store(slots.get(i), sorted.get(i), r == null ? null : ((RecordObj)r).copy(), cause);
+      }
+    } finally {
+      unlockAll(sorted, slots);
+    }
+  }
+
+  /**
+   * Apply the lines of a transaction atomically.  The videos are locked
+   * in order; each line is checked against the records as left by the
+   * lines before it, and the records are only changed if every line
+   * succeeds.  A video changed by several lines gets one new record.
+   * @param checkVersions false to ignore the versions the lines expect.
+   * @param cause the cause of the changes, or null for the cause of the
+   * last line on each video.
+   * @param old filled with the records before the transaction, with
+   * null for videos that had none.
+   * @param served if not null, copies freed by check-ins and additions
+   * are handed to waiting reservations, which are added to it.
+   * @return <code>Outcome.OK</code>, or the outcome of the first line
+   * that fails, in which case nothing is changed.
+   */
+  Outcome apply(List<Transaction.Line> lines, boolean checkVersions, Change.Cause cause, Map<Video,Record> old,
+                List<Reservation> served) {
+    Map<Video,Change.Cause> causes = new HashMap<Video,Change.Cause>();
+    for (Transaction.Line line : lines)
+      causes.put(line.video, cause == null ? line.cause() : cause);
+    Set<Video> frees = new HashSet<Video>();
+    for (Transaction.Line line : lines) {
+      if (line.frees())
+        frees.add(line.video);
+    }
+    List<Video> sorted = sorted(causes.keySet());
+    List<Slot> slots = lockAll(sorted);
+    try {
+      Map<Video,Record> before = new HashMap<Video,Record>();
+      for (int i = 0; i < sorted.size(); i++)
+        before.put(sorted.get(i), slots.get(i).record);
+      Map<Video,Record> next = new HashMap<Video,Record>();
+      for (Transaction.Line line : lines) {
+        if (checkVersions && stale(before.get(line.video), line.expected))
+          return Outcome.STALE;
+        Record rec = next.containsKey(line.video) ? next.get(line.video) : before.get(line.video);
+        Record changed = line.apply(rec);
+        if (changed instanceof Failure)
+          return outcome(changed);
+        next.put(line.video, changed);
+      }
+      for (int i = 0; i < sorted.size(); i++) {
+        Video video = sorted.get(i);
+        store(slots.get(i), video, next.get(video), causes.get(video));
+        if (frees.contains(video))
+          handOff(slots.get(i), video, causes.get(video), served);
+      }
+      old.putAll(before);
+    } finally {
+      unlockAll(sorted, slots);
+    }
+    serve(served);
+    return Outcome.OK;
+  }
+
+  /**
+   * Register a listener to be notified of every subsequent change.
+   * Listeners are called with the changed video locked, so the changes
+   * of one video reach them in order.
+   */
+  void addListener(InventoryListener listener) {
+    _listeners.add(listener);
+  }
+
+  /**
+   * Unregister a listener.
+   */
+  void removeListener(InventoryListener listener) {
+    _listeners.remove(listener);
+  }
+
+  /**
+   * Lock the slot of <code>video</code>, creating it if needed.
+   */
+  private Slot lock(Video video) {
+    for (;;) {
+      Slot slot = _data.computeIfAbsent(video, v -> new Slot());
+      slot.lock();
+      if (!slot.dead)
+        return slot;
+      slot.unlock();
+    }
+  }
+
+  /**
+   * Unlock a slot, dropping it if it is empty.
+   */
+  private void unlock(Video video, Slot slot) {
+    if (slot.record == null && !slot.dead && slot.getHoldCount() == 1) {
+      slot.dead = true;
+      _data.remove(video, slot);
+    }
+    slot.unlock();
+  }
+
+  /**
+   * Lock the slots of <code>videos</code>, which must be sorted.
+   * Everything that locks more than one video locks them in this order,
+   * so they cannot deadlock.
+   */
+  List<Slot> lockAll(List<Video> videos) {
+    List<Slot> slots = new ArrayList<Slot>(videos.size());
+    try {
+      for (Video v : videos)
+        slots.add(lock(v));
+    } catch (RuntimeException e) {
+      unlockAll(videos, slots);
+      throw e;
+    }
+    return slots;
+  }
+
+  void unlockAll(List<Video> videos, List<Slot> slots) {
+    for (int i = slots.size() - 1; i >= 0; i--)
+      unlock(videos.get(i), slots.get(i));
+  }
+
+  /**
+   * Returns the videos in canonical locking order.
+   */
+  @SuppressWarnings("unchecked")
+  static List<Video> sorted(Collection<Video> videos) {
+    List<Video> sorted = new ArrayList<Video>(videos);
+    sorted.sort((a, b) -> a.compareTo(b));
+    return sorted;
+  }
+
+  /**
+   * Store <code>record</code> for <code>video</code> with a new version
+   * and notify listeners.  The slot must be locked.
+   */
+  private void put(Slot slot, Video video, RecordObj record, Change.Cause cause) {
+    if (_versions == null)
+      record.version = _seq.incrementAndGet();
+    else
+      _versions.commit(video, seq -> {
+        record.version = seq;
+        return record;
+      });
+    Record old = slot.record;
+    slot.record = record;
+    count(old, record);
+    if (_merkle != null)
+      _merkle.replace(video, old, record);
+    publish(record.version, video, old, record, cause);
+  }
+
+  /**
+   * Remove the record for <code>video</code> and notify listeners.  The
+   * slot must be locked.
+   */
+  private void remove(Slot slot, Video video, Change.Cause cause) {
+    Record old = slot.record;
+    if (old != null) {
+      slot.record = null;
+      count(old, null);
+      if (_merkle != null)
+        _merkle.replace(video, old, null);
+      long seq = _versions == null ? _seq.incrementAndGet() : _versions.commit(video, s -> null);
+      publish(seq, video, old, null, cause);
+    }
+  }
+
+  /**
+   * Update the totals for the replacement of <code>old</code> by
+   * <code>record</code>; either may be null.
+   */
+  private void count(Record old, Record record) {
+    if (old == null)
+      _titles.increment();
+    else if (record == null)
+      _titles.decrement();
+    int owned = (record == null ? 0 : record.numOwned()) - (old == null ? 0 : old.numOwned());
+    int out = (record == null ? 0 : record.numOut()) - (old == null ? 0 : old.numOut());
+    int rentals = (record == null ? 0 : record.numRentals()) - (old == null ? 0 : old.numRentals());
+    if (owned != 0)
+      _owned.add(owned);
+    if (out != 0)
+      _out.add(out);
+    if (rentals != 0)
+      _rentals.add(rentals);
+  }
+
+  /**
+   * Store <code>record</code>, or remove the record if it is null.  The
+   * slot must be locked.
+   */
+  private void store(Slot slot, Video video, Record record, Change.Cause cause) {
+    if (record == null)
+      remove(slot, video, cause);
+    else
+      put(slot, video, (RecordObj)record, cause);
+  }
+
+  private void publish(long seq, Video video, Record oldRecord, Record newRecord, Change.Cause cause) {
+    if (_listeners.isEmpty())
+      return;
+    Change change = new Change(seq, video, oldRecord, newRecord, cause);
+    for (InventoryListener l : _listeners) {
+      // The change is already stored; a failing listener must not fail it
+      try {
+        l.changed(change);
+      } catch (RuntimeException e) {
+        Diagnostics.report("inventory", "Listener failed: " + e, l);
+      }
+    }
+  }
+
+  /**
+   * Returns true if <code>rec</code> does not have the expected version.
+   */
+  private static boolean stale(Record rec, long expected) {
+    return expected != ANY && expected != (rec == null ? Record.ABSENT : rec.version());
+  }
+
+  /**
+   * Returns the failure record for <code>outcome</code>.
+   */
+  static Record failure(Outcome outcome) {
+    return FAILURES[outcome.ordinal()];
+  }
+
+  /**
+   * Returns the outcome of a mutation: the outcome of a failure record,
+   * or <code>Outcome.OK</code> for any other result.
+   */
+  static Outcome outcome(Record result) {
+    return result instanceof Failure ? ((Failure) result).outcome : Outcome.OK;
   }
 
 
   public int size() {
-    return _data.size();
+    return (int) _titles.sum();
+  }
+
+  /**
+   * Returns the totals kept as counters.  Each total is exact when no
+   * command is running; while commands run, the totals may come from
+   * slightly different moments.
+   */
+  public Totals totals() {
+    return new Totals(_titles.sum(), _owned.sum(), _out.sum(), _rentals.sum());
   }
 
   public Record get(Video v) {
-    if(!_data.containsKey(v)){
+    long start = GET_STATS.start();
+    Slot slot = _data.get(v);
+    Record rec = slot == null ? null : slot.record;
+    if(rec == null){
+      GET_STATS.succeeded(Phase.RUN, start);
       return null;
     }
     //return a copy
-    Record rec = _data.get(v);
+    GET_STATS.succeeded(Phase.RUN, start);
     return copy(rec);
   }
 
   private Record copy(Record r) {
-    return new RecordObj(r.video(), r.numOwned(), r.numOut(), r.numRentals());
+    return ((RecordObj)r).copy();
+  }
+
+  /**
+   * Returns the records, skipping empty slots.  The iterator is weakly
+   * consistent: it reflects some of the changes made while it is in use.
+   */
+  private Iterator<Record> records() {
+    Iterator<Slot> slots = _data.values().iterator();
+    return new Iterator<Record>() {
+      private Record _next = advance();
+      private Record advance() {
+        while (slots.hasNext()) {
+          Record r = slots.next().record;
+          if (r != null)
+            return r;
+        }
+        return null;
+      }
+      public boolean hasNext() {
+        return _next != null;
+      }
+      public Record next() {
+        if (_next == null)
+          throw new NoSuchElementException();
+        Record r = _next;
+        _next = advance();
+        return r;
+      }
+    };
   }
 
   public Iterator<Record> iterator() {
-    return Collections.unmodifiableCollection(_data.values()).iterator();
+    long start = ITERATOR_STATS.start();
+    Iterator<Record> result = records();
+    ITERATOR_STATS.succeeded(Phase.RUN, start);
+    return result;
+  }
+
+  /**
+   * Returns a parallel stream of one consistent state of the records:
+   * the newest version if versions are kept, otherwise a copy.
+   */
+  Stream<Record> stream() {
+    if (_versions != null)
+      return snapshot().stream();
+    return copyRecords().parallelStream();
+  }
+
+  /**
+   * Returns the records as they are at one moment, copied with every
+   * video locked.  Videos given records while the others were being
+   * locked are locked too, by starting again with them included.
+   * Blocks commands for as long as the copy takes.
+   */
+  List<Record> copyRecords() {
+    Set<Video> videos = new HashSet<Video>(_data.keySet());
+    for (;;) {
+      List<Video> sorted = sorted(videos);
+      List<Slot> slots = lockAll(sorted);
+      try {
+        boolean complete = true;
+        for (Map.Entry<Video,Slot> e : _data.entrySet()) {
+          if (e.getValue().record != null && videos.add(e.getKey()))
+            complete = false;
+        }
+        if (complete) {
+          List<Record> records = new ArrayList<Record>(slots.size());
+          for (Slot slot : slots) {
+            if (slot.record != null)
+              records.add(slot.record);
+          }
+          return records;
+        }
+      } finally {
+        unlockAll(sorted, slots);
+      }
+    }
   }
 
   public Iterator<Record> iterator(Comparator<Record> comparator) {
-    return Collections.unmodifiableCollection(_data.values()).stream().sorted(comparator).iterator();
+    long start = SORTED_STATS.start();
+    InventoryScanEvent event = InventoryScanEvent.start();
+    // Sort eagerly so that the measured time covers the sort
+    List<Record> list = new ArrayList<Record>(size());
+    records().forEachRemaining(list::add);
+    Record[] records = list.toArray(new Record[0]);
+    Arrays.sort(records, comparator);
+    Iterator<Record> result = Collections.unmodifiableList(Arrays.asList(records)).iterator();
+    SORTED_STATS.succeeded(Phase.RUN, start);
+    event.end("sorted iterator", records.length);
+    return result;
+  }
+
+  /**
+   * Add <code>owned</code>, <code>out</code> and <code>rentals</code> to
+   * the counters of a video's record, counting from zero if it has
+   * none, and remove the record if no copies remain.  The counters are
+   * not checked.  Used to undo commands from the compact history.
+   */
+  void adjust(Video video, int owned, int out, int rentals, Change.Cause cause) {
+    Slot slot = lock(video);
+    try {
+      Record rec = slot.record;
+      int numOwned = owned + (rec == null ? 0 : rec.numOwned());
+      if (numOwned <= 0) {
+        remove(slot, video, cause);
+        return;
+      }
+      put(slot, video, new RecordObj(video, numOwned,
+                                     out + (rec == null ? 0 : rec.numOut()),
+                                     rentals + (rec == null ? 0 : rec.numRentals())), cause);
+    } finally {
+      unlock(video, slot);
+    }
   }
 
   /**
@@ -83,79 +580,429 @@ final class InventorySet implements Inventory {
    * than one, the record is removed from the inventory.
    * @param video the video to be added.
    * @param change the number of copies to add (or remove if negative).
-   * @throws IllegalArgumentException if video null or change is zero
+   * Copies that are checked out cannot be removed.
+   * @return the record before the change, or null if there was none;
+   * or a failure record, whose <code>outcome</code> is
+   * <code>NOT_FOUND</code> if copies are removed from a video with no
+   * record, or <code>INVALID_CHANGE</code> if fewer than
+   * <code>numOut</code> copies would remain.
    */
   Record addNumOwned(Video video, int change) {
-    if(!_data.containsKey(video) && change <= 0){
-      System.out.println("Inventory Error: Tried to remove non-existent video");
-      throw new IllegalArgumentException();
-    } else if(!_data.containsKey(video)){
-      _data.put(video, new RecordObj(video, change, 0, 0));
+    return addNumOwned(video, change, ANY, Change.Cause.ADD);
+  }
+
+  Record addNumOwned(Video video, int change, Change.Cause cause) {
+    return addNumOwned(video, change, ANY, cause);
+  }
+
+  /**
+   * Add or remove copies of a video if its record still has the
+   * expected version.
+   * @param expected the expected version, <code>Record.ABSENT</code> if
+   * the video must have no record, or <code>ANY</code>.
+   * @return as for <code>addNumOwned(Video, int)</code>, or a failure
+   * record with outcome <code>STALE</code> if the version does not
+   * match.
+   */
+  Record addNumOwned(Video video, int change, long expected, Change.Cause cause) {
+    return addNumOwned(video, change, expected, cause, null);
+  }
+
+  /**
+   * Add or remove copies of a video, and hand the copies added to
+   * waiting reservations before any other command can take them.
+   * @param served if not null, the reservations served are added to it.
+   */
+  Record addNumOwned(Video video, int change, long expected, Change.Cause cause, List<Reservation> served) {
+    Slot slot = lock(video);
+    Record rec;
+    try {
+      rec = slot.record;
+      if (stale(rec, expected))
+        return failure(Outcome.STALE);
+      Record next = added(video, rec, change);
+      if (next instanceof Failure)
+        return next;
+      store(slot, video, next, cause);
+      handOff(slot, video, cause, served);
+    } finally {
+      unlock(video, slot);
+    }
+    serve(served);
+    return rec;
+  }
+
+  /**
+   * Returns the record after adding <code>change</code> copies, null
+   * if no copies remain, or a failure record.
+   */
+  static Record added(Video video, Record rec, int change) {
+    if(rec == null && change <= 0){
+      Diagnostics.report("inventory", "Tried to remove non-existent video", video);
+      return failure(Outcome.NOT_FOUND);
+    } else if(rec == null){
+      return new RecordObj(video, change, 0, 0);
+    }
+    int numOwned = rec.numOwned() + change;
+    if(numOwned < rec.numOut()){
+      return failure(Outcome.INVALID_CHANGE);
+    } else if(numOwned == 0){
       return null;
-    } else {
-      Record rec = _data.get(video);
-      if(rec.numOwned() + change == 0){
-        _data.remove(video);
-      } else if(rec.numOwned() + change < 0){
-        throw new IllegalArgumentException();
-      } else {
-        _data.put(video, new RecordObj(video, rec.numOwned() + change, 0, 0));
-      }
-      return rec;
-    }  
+    }
+    return new RecordObj(video, numOwned, rec.numOut(), rec.numRentals());
   }
 
   /**
    * Check out a video.
    * @param video the video to be checked out.
-   * @throws IllegalArgumentException if video has no record or numOut
-   * equals numOwned.
+   * @return the record before the check-out, or a failure record with
+   * outcome <code>NOT_FOUND</code> if video has no record or
+   * <code>NONE_AVAILABLE</code> if numOut equals numOwned.
    */
   Record checkOut(Video video) {
-    if(!_data.containsKey(video)){
-      System.out.println("Inventory Error: Video does not exist in the inventory.");
-      throw new IllegalArgumentException();
-    } else {
-      Record rec = _data.get(video);
-      if(rec.numOut() == rec.numOwned()){
-        System.out.println("Inventory Error: All copies of the video are already checked out.");
-        throw new IllegalArgumentException();
-      } else {
-        _data.put(video, new RecordObj(video, rec.numOwned(), rec.numOut() + 1, rec.numRentals() + 1));
-        return rec;
-      }
+    return checkOut(video, ANY, Change.Cause.OUT);
+  }
+
+  Record checkOut(Video video, Change.Cause cause) {
+    return checkOut(video, ANY, cause);
+  }
+
+  /**
+   * Check out a video if its record still has the expected version.
+   * @return as for <code>checkOut(Video)</code>, or a failure record
+   * with outcome <code>STALE</code> if the version does not match.
+   */
+  Record checkOut(Video video, long expected, Change.Cause cause) {
+    return checkOut(video, expected, cause, null);
+  }
+
+  /**
+   * Check out a video, and record that <code>customer</code> holds the
+   * copy while the video is still locked.
+   * @param customer the customer renting the copy, or null.
+   */
+  Record checkOut(Video video, long expected, Change.Cause cause, Customer customer) {
+    Slot slot = lock(video);
+    try {
+      Record rec = slot.record;
+      if (stale(rec, expected))
+        return failure(Outcome.STALE);
+      Record next = checkedOut(video, rec);
+      if (next instanceof Failure)
+        return next;
+      store(slot, video, next, cause);
+      if (customer != null)
+        _customers.rent(customer, video);
+      return rec;
+    } finally {
+      unlock(video, slot);
+    }
+  }
+
+  /**
+   * Returns the record after checking out a copy, or a failure record.
+   */
+  static Record checkedOut(Video video, Record rec) {
+    if(rec == null){
+      Diagnostics.report("inventory", "Video does not exist in the inventory", video);
+      return failure(Outcome.NOT_FOUND);
+    } else if(rec.numOut() == rec.numOwned()){
+      Diagnostics.report("inventory", "All copies of the video are already checked out", video);
+      return failure(Outcome.NONE_AVAILABLE);
     }
+    return new RecordObj(video, rec.numOwned(), rec.numOut() + 1, rec.numRentals() + 1);
   }
   
   /**
    * Check in a video.
    * @param video the video to be checked in.
-   * @throws IllegalArgumentException if video has no record or numOut
-   * non-positive.
+   * @return the record before the check-in, or a failure record with
+   * outcome <code>NOT_FOUND</code> if video has no record or
+   * <code>NONE_OUT</code> if numOut is non-positive.
    */
   Record checkIn(Video video) {
-    if(!_data.containsKey(video)){
-      throw new IllegalArgumentException();
-    } else {
-      Record rec = _data.get(video);
-      if(rec.numOut() <= 0){
-        throw new IllegalArgumentException();
-      } else {
-        _data.put(video, new RecordObj(video, rec.numOwned(), rec.numOut() - 1, rec.numRentals()));
-        return rec;
-      }
+    return checkIn(video, ANY, Change.Cause.IN);
+  }
+
+  Record checkIn(Video video, Change.Cause cause) {
+    return checkIn(video, ANY, cause);
+  }
+
+  /**
+   * Check in a video if its record still has the expected version.
+   * @return as for <code>checkIn(Video)</code>, or a failure record
+   * with outcome <code>STALE</code> if the version does not match.
+   */
+  Record checkIn(Video video, long expected, Change.Cause cause) {
+    return checkIn(video, expected, cause, null);
+  }
+
+  Record checkIn(Video video, long expected, Change.Cause cause, List<Reservation> served) {
+    return checkIn(video, expected, cause, served, null);
+  }
+
+  /**
+   * Check in a video, and hand the copy to the oldest waiting
+   * reservation before any other command can take it.  If a customer is
+   * given, the check-in is a return of a copy the customer holds; the
+   * customer's rental is checked and removed while the video is locked,
+   * so a copy cannot be returned twice.
+   * @param served if not null, the reservations served are added to it.
+   * @param customer the customer returning the copy, or null.
+   * @return as for <code>checkIn(Video)</code>, or a failure record with
+   * outcome <code>NOT_RENTED</code> if the customer holds no copy.
+   */
+  Record checkIn(Video video, long expected, Change.Cause cause, List<Reservation> served, Customer customer) {
+    Slot slot = lock(video);
+    Record rec;
+    try {
+      if (customer != null && !_customers.holds(customer, video))
+        return failure(Outcome.NOT_RENTED);
+      rec = slot.record;
+      if (stale(rec, expected))
+        return failure(Outcome.STALE);
+      Record next = checkedIn(video, rec);
+      if (next instanceof Failure)
+        return next;
+      store(slot, video, next, cause);
+      if (customer != null)
+        _customers.unrent(customer, video);
+      handOff(slot, video, cause, served);
+    } finally {
+      unlock(video, slot);
+    }
+    serve(served);
+    return rec;
+  }
+
+  /**
+   * Returns the record after checking in a copy, or a failure record.
+   */
+  static Record checkedIn(Video video, Record rec) {
+    if(rec == null){
+      return failure(Outcome.NOT_FOUND);
+    } else if(rec.numOut() <= 0){
+      return failure(Outcome.NONE_OUT);
     }
+    return new RecordObj(video, rec.numOwned(), rec.numOut() - 1, rec.numRentals());
   }
   
+  /**
+   * Join the waitlist of a video whose copies are all checked out.
+   * @throws IllegalArgumentException if video has no record or a copy
+   * is available.
+   */
+  Reservation reserve(Video video) {
+    Slot slot = lock(video);
+    try {
+      Record rec = slot.record;
+      if(rec == null){
+        throw new IllegalArgumentException("not found");
+      } else if(rec.numOut() < rec.numOwned()){
+        throw new IllegalArgumentException("available");
+      }
+      Reservation reservation = new Reservation(video);
+      synchronized (_waitlists) {
+        _waitlists.computeIfAbsent(video, v -> new ArrayDeque<Reservation>()).addLast(reservation);
+      }
+      return reservation;
+    } finally {
+      unlock(video, slot);
+    }
+  }
+
+  /**
+   * Hand available copies of a video to the oldest waiting reservations,
+   * adding them to <code>served</code>.  Each copy handed over stays
+   * checked out and counts as a rental.  The slot must be locked, so no
+   * other command takes the copies first.  The waitlist's monitor is
+   * only held to claim the reservations, not while the records are
+   * stored, and the futures are completed by <code>serve</code> once
+   * the slot is unlocked.
+   * @param cause the cause of the mutation that made the copies available.
+   * @param served the list to add to, or null to hand nothing over.
+   */
+  private void handOff(Slot slot, Video video, Change.Cause cause, List<Reservation> served) {
+    Record rec = slot.record;
+    if (served == null || rec == null || rec.numOut() >= rec.numOwned())
+      return;
+    List<Reservation> claimed = new ArrayList<Reservation>();
+    synchronized (_waitlists) {
+      Deque<Reservation> waitlist = _waitlists.get(video);
+      if (waitlist == null)
+        return;
+      while (claimed.size() < rec.numOwned() - rec.numOut() && !waitlist.isEmpty()) {
+        Reservation reservation = waitlist.removeFirst();
+        if (reservation.claim())
+          claimed.add(reservation);
+      }
+      if (waitlist.isEmpty())
+        _waitlists.remove(video);
+    }
+    for (Reservation reservation : claimed) {
+      RecordObj next = new RecordObj(video, rec.numOwned(), rec.numOut() + 1, rec.numRentals() + 1);
+      put(slot, video, next, cause);
+      rec = next;
+      reservation.hold(copy(next));
+      served.add(reservation);
+    }
+  }
+
+  /**
+   * Complete the futures of the reservations handed copies.  No slot
+   * may be locked, since the futures run their dependent actions.
+   */
+  private static void serve(List<Reservation> served) {
+    if (served == null)
+      return;
+    for (Reservation reservation : served)
+      reservation.serve();
+  }
+
+  /**
+   * Undo <code>handOff</code>: put the served reservations back at the
+   * head of their waitlist, in their original order.  The records must
+   * be restored separately.
+   */
+  void requeue(List<Reservation> served) {
+    synchronized (_waitlists) {
+      for (int i = served.size() - 1; i >= 0; i--) {
+        Reservation reservation = served.get(i);
+        reservation.unserve();
+        _waitlists.computeIfAbsent(reservation.video(), v -> new ArrayDeque<Reservation>()).addFirst(reservation);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of reservations waiting for a video.
+   */
+  int waiting(Video video) {
+    synchronized (_waitlists) {
+      Deque<Reservation> waitlist = _waitlists.get(video);
+      return waitlist == null ? 0 : waitlist.size();
+    }
+  }
+
   /**
    * Remove all records from the inventory.
    */
   Map<Video, Record> clear() {
-    Map<Video, Record> oldData = _data;
-    _data.clear();  
+    return clear(Change.Cause.CLEAR);
+  }
+
+  /**
+   * Remove all records from the inventory.  All videos are locked
+   * together, so the removal is atomic with respect to other commands.
+   * Reservations waiting for the videos removed are cancelled, since
+   * no copy of them will come back.
+   */
+  Map<Video, Record> clear(Change.Cause cause) {
+    BulkOperationEvent event = BulkOperationEvent.start();
+    Map<Video, Record> oldData = new HashMap<Video,Record>();
+    List<Reservation> cancelled = new ArrayList<Reservation>();
+    List<Video> sorted = sorted(_data.keySet());
+    List<Slot> slots = lockAll(sorted);
+    try {
+      for (int i = 0; i < sorted.size(); i++) {
+        Record r = slots.get(i).record;
+        if (r != null) {
+          oldData.put(sorted.get(i), r);
+          remove(slots.get(i), sorted.get(i), cause);
+        }
+      }
+      synchronized (_waitlists) {
+        for (Video video : oldData.keySet()) {
+          Deque<Reservation> waitlist = _waitlists.remove(video);
+          if (waitlist != null)
+            cancelled.addAll(waitlist);
+        }
+      }
+    } finally {
+      unlockAll(sorted, slots);
+    }
+    for (Reservation reservation : cancelled)
+      reservation.cancel();
+    event.end("clear", oldData.size());
     return oldData;
   }
 
+  /**
+   * Return a reference to the customers.
+   */
+  CustomerSet getCustomers() {
+    return _customers;
+  }
+
+  /**
+   * Return the publisher of this inventory's changes, creating it on
+   * first use.
+   */
+  synchronized ChangePublisher changes() {
+    if (_changes == null)
+      _changes = new ChangePublisher(this);
+    return _changes;
+  }
+
+  /**
+   * Returns a read-only view of version <code>seq</code>.
+   * @throws IllegalArgumentException if versions are not kept or the
+   * version is no longer retained.
+   */
+  InventorySnapshot asOf(long seq) {
+    return new InventorySnapshot(versions().get(seq));
+  }
+
+  /**
+   * Returns a read-only view of the newest version committed at or
+   * before <code>time</code>.
+   * @throws IllegalArgumentException if versions are not kept or the
+   * version is no longer retained.
+   */
+  InventorySnapshot asOf(Instant time) {
+    return new InventorySnapshot(versions().at(time));
+  }
+
+  /**
+   * Returns a read-only view of the newest version.
+   * @throws IllegalArgumentException if versions are not kept.
+   */
+  InventorySnapshot snapshot() {
+    return new InventorySnapshot(versions().head());
+  }
+
+  /**
+   * Returns the hash tree of the records.
+   * @throws IllegalArgumentException if the tree is not kept.
+   */
+  MerkleTree merkle() {
+    if (_merkle == null)
+      throw new IllegalArgumentException("not synced");
+    return _merkle;
+  }
+
+  /**
+   * Returns the records of the videos in the given buckets of the hash
+   * tree, by video.  Scans the whole inventory.
+   */
+  Map<Video,Record> bucketRecords(BitSet buckets) {
+    MerkleTree merkle = merkle();
+    Map<Video,Record> records = new HashMap<Video,Record>();
+    Iterator<Record> i = records();
+    while (i.hasNext()) {
+      Record r = i.next();
+      if (buckets.get(merkle.bucket(r.video())))
+        records.put(r.video(), r);
+    }
+    return records;
+  }
+
+  private InventoryVersions versions() {
+    if (_versions == null)
+      throw new IllegalArgumentException("no versions");
+    return _versions;
+  }
+
   /**
    * Return a reference to the history.
    */
@@ -164,16 +1011,24 @@ final class InventorySet implements Inventory {
   }
 
   public String toString() {
+    long start = TOSTRING_STATS.start();
+    InventoryScanEvent event = InventoryScanEvent.start();
     StringBuffer buffer = new StringBuffer();
-    if(_data.isEmpty()){
+    Iterator<Record> i = records();
+    if(!i.hasNext()){
+      TOSTRING_STATS.succeeded(Phase.RUN, start);
       return new String("  No videos in inventory\n");
     }
     buffer.append("Database:\n");
-    for (Record r : _data.values()) {
+    int n = 0;
+    while (i.hasNext()) {
       buffer.append("  ");
-      buffer.append(r);
+      buffer.append(i.next());
       buffer.append("\n");
+      n++;
     }
+    TOSTRING_STATS.succeeded(Phase.RUN, start);
+    event.end("toString", n);
     return buffer.toString();
   }
 
@@ -193,6 +1048,7 @@ final class InventorySet implements Inventory {
     int numOwned;   // copies owned
     int numOut;     // copies currently rented
     int numRentals; // total times video has been rented
+    long version;   // set when stored in the inventory
     
     RecordObj(Video video, int numOwned, int numOut, int numRentals) {
       this.video = video;
@@ -201,7 +1057,9 @@ final class InventorySet implements Inventory {
       this.numRentals = numRentals;
     }
     RecordObj copy() {
-      return new RecordObj(video, numOwned, numOut, numRentals);
+      RecordObj copy = new RecordObj(video, numOwned, numOut, numRentals);
+      copy.version = version;
+      return copy;
     }
     public Video video() {
       return video;
@@ -215,6 +1073,9 @@ final class InventorySet implements Inventory {
     public int numRentals() {
       return numRentals;
     }
+    public long version() {
+      return version;
+    }
     public boolean equals(Object thatObject) {
       return video.equals(((Record)thatObject).video());
     }
@@ -234,4 +1095,34 @@ final class InventorySet implements Inventory {
       return buffer.toString();
     }
   }
+
+  /**
+   * The result of a mutation that failed, in place of a record.
+   * There is one per outcome and it is never stored, so failing costs
+   * no allocation and no exception.
+   */
+  private static final class Failure implements Record {
+    final Outcome outcome;
+    Failure(Outcome outcome) {
+      this.outcome = outcome;
+    }
+    public Video video() {
+      return null;
+    }
+    public int numOwned() {
+      return 0;
+    }
+    public int numOut() {
+      return 0;
+    }
+    public int numRentals() {
+      return 0;
+    }
+    public long version() {
+      return Record.ABSENT;
+    }
+    public String toString() {
+      return outcome.reason();
+    }
+  }
 }
@@ -0,0 +1,99 @@
+package shop.data;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A read-only view of one version of an inventory.
+ *
+ * <p>The view never changes, whatever happens to the inventory after
+ * it is opened, and reading it takes no locks.  Commands cannot be
+ * created on a snapshot.</p>
+ *
+ * @see Data#asOf(Inventory, long)
+ * @see Data#asOf(Inventory, Instant)
+ */
+public final class InventorySnapshot implements Inventory {
+  private final InventoryVersions.Version _version;
+  private volatile Totals _totals; // computed on first use
+
+  InventorySnapshot(InventoryVersions.Version version) {
+    _version = version;
+  }
+
+  /**
+   * Returns the sequence number of the version: the number of changes
+   * committed to the inventory up to it.
+   */
+  public long version() {
+    return _version.seq;
+  }
+
+  /**
+   * Returns the time the version was committed.
+   */
+  public Instant timestamp() {
+    return Instant.ofEpochMilli(_version.millis);
+  }
+
+  public int size() {
+    return _version.records.size();
+  }
+
+  /**
+   * Returns the totals of the version, summed on first use.
+   */
+  public Totals totals() {
+    Totals totals = _totals;
+    if (totals == null)
+      _totals = totals = Inventory.super.totals();
+    return totals;
+  }
+
+  public Record get(Video v) {
+    return _version.records.get(v);
+  }
+
+  public Iterator<Record> iterator() {
+    return _version.records.iterator();
+  }
+
+  public Iterator<Record> iterator(Comparator<Record> comparator) {
+    List<Record> records = records();
+    records.sort(comparator);
+    return Collections.unmodifiableList(records).iterator();
+  }
+
+  /**
+   * Returns a parallel stream of the records.
+   */
+  Stream<Record> stream() {
+    return StreamSupport.stream(_version.records.spliterator(), true);
+  }
+
+  private List<Record> records() {
+    List<Record> records = new ArrayList<Record>(size());
+    for (Record r : _version.records)
+      records.add(r);
+    return records;
+  }
+
+  public String toString() {
+    if (size() == 0)
+      return "  No videos in inventory\n";
+    StringBuffer buffer = new StringBuffer();
+    buffer.append("Database:\n");
+    for (Record r : _version.records) {
+      buffer.append("  ");
+      buffer.append(r);
+      buffer.append("\n");
+    }
+    return buffer.toString();
+  }
+}
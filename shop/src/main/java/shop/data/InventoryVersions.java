@@ -0,0 +1,154 @@
+package shop.data;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongFunction;
+
+/**
+ * The recent versions of an inventory.
+ *
+ * <p>Every change to a record commits a new version: an immutable
+ * <code>RecordTrie</code> of all the records, numbered with the change's
+ * sequence number and stamped with the time.  Versions share all but a
+ * few nodes with their predecessor.  Committing is a compare-and-set of
+ * the newest version, so versions are numbered in the order they were
+ * committed, with no gaps.</p>
+ *
+ * <p>The newest <code>retention</code> versions are kept in a ring; an
+ * older version is dropped as soon as no snapshot refers to it.</p>
+ */
+final class InventoryVersions {
+  /**
+   * One version of the inventory.
+   */
+  static final class Version {
+    final long seq;
+    final long millis;
+    final RecordTrie records;
+    Version(long seq, long millis, RecordTrie records) {
+      this.seq = seq;
+      this.millis = millis;
+      this.records = records;
+    }
+  }
+
+  private final Clock _clock;
+  private final AtomicReference<Version> _head;
+  private final AtomicReferenceArray<Version> _ring;
+
+  InventoryVersions(int retention, Clock clock) {
+    if (retention <= 0)
+      throw new IllegalArgumentException();
+    _clock = clock;
+    _ring = new AtomicReferenceArray<Version>(retention);
+    Version first = new Version(0, clock.millis(), RecordTrie.EMPTY);
+    _head = new AtomicReference<Version>(first);
+    _ring.set(0, first);
+  }
+
+  /**
+   * Commit the change of <code>video</code>'s record.
+   * @param record returns the new record, or null to remove it, given
+   * the sequence number of the version; it may be called more than once.
+   * @return the sequence number of the version.
+   */
+  long commit(Video video, LongFunction<Record> record) {
+    for (;;) {
+      Version head = _head.get();
+      long seq = head.seq + 1;
+      // Keep time from going backwards, so versions are ordered by time too
+      long millis = Math.max(head.millis, _clock.millis());
+      Version next = new Version(seq, millis, head.records.with(video, record.apply(seq)));
+      if (_head.compareAndSet(head, next)) {
+        store(next);
+        return seq;
+      }
+    }
+  }
+
+  /**
+   * Store a version in its ring slot, unless a thread that committed
+   * later has already stored a newer one there.
+   */
+  private void store(Version v) {
+    int i = index(v.seq);
+    for (;;) {
+      Version current = _ring.get(i);
+      if ((current != null && current.seq > v.seq) || _ring.compareAndSet(i, current, v))
+        return;
+    }
+  }
+
+  /**
+   * Returns the newest version.
+   */
+  Version head() {
+    return _head.get();
+  }
+
+  /**
+   * Returns version <code>seq</code>.
+   * @throws IllegalArgumentException if the version is not retained.
+   */
+  Version get(long seq) {
+    Version head = _head.get();
+    if (seq > head.seq || seq <= head.seq - _ring.length() || seq < 0)
+      throw new IllegalArgumentException("not retained");
+    Version v = slot(seq);
+    if (v.seq != seq)
+      throw new IllegalArgumentException("not retained");
+    return v;
+  }
+
+  /**
+   * Returns the newest version committed at or before <code>time</code>.
+   * @throws IllegalArgumentException if the version is not retained.
+   */
+  Version at(Instant time) {
+    long millis = time.toEpochMilli();
+    search:
+    for (;;) {
+      Version head = _head.get();
+      if (head.millis <= millis)
+        return head;
+      // Binary search the retained versions, which are ordered by time
+      long lo = Math.max(0, head.seq - _ring.length() + 1);
+      long hi = head.seq;
+      Version found = null;
+      while (lo <= hi) {
+        long mid = (lo + hi) >>> 1;
+        Version v = slot(mid);
+        if (v.seq != mid)
+          continue search; // overwritten while searching
+        if (v.millis <= millis) {
+          found = v;
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      if (found == null)
+        throw new IllegalArgumentException("not retained");
+      return found;
+    }
+  }
+
+  /**
+   * Returns the version in the ring slot of <code>seq</code>, waiting
+   * for a version just committed to be stored.
+   */
+  private Version slot(long seq) {
+    for (;;) {
+      Version v = _ring.get(index(seq));
+      if (v != null && v.seq >= seq)
+        return v;
+      Thread.yield();
+    }
+  }
+
+  private int index(long seq) {
+    return (int) (seq % _ring.length());
+  }
+}
@@ -0,0 +1,120 @@
+package shop.data;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from non-negative <code>long</code> keys to objects.
+ *
+ * <p>Uses open addressing with linear probing over parallel arrays, so an
+ * entry costs a <code>long</code> and a reference instead of an entry
+ * object and a boxed key.  This matters with tens of millions of
+ * customers.</p>
+ */
+final class LongMap<V> {
+  private static final long FREE = -1;
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private long[] _keys;
+  private Object[] _values;
+  private int _size;
+  private int _threshold;
+
+  LongMap() {
+    allocate(16);
+  }
+
+  int size() {
+    return _size;
+  }
+
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    int mask = _keys.length - 1;
+    for (int i = slot(key, mask); _keys[i] != FREE; i = (i + 1) & mask) {
+      if (_keys[i] == key)
+        return (V) _values[i];
+    }
+    return null;
+  }
+
+  /**
+   * Associate <code>value</code> with <code>key</code>.
+   * @return the previous value, or null.
+   */
+  @SuppressWarnings("unchecked")
+  V put(long key, V value) {
+    if (key < 0)
+      throw new IllegalArgumentException();
+    int mask = _keys.length - 1;
+    int i = slot(key, mask);
+    for (; _keys[i] != FREE; i = (i + 1) & mask) {
+      if (_keys[i] == key) {
+        V old = (V) _values[i];
+        _values[i] = value;
+        return old;
+      }
+    }
+    _keys[i] = key;
+    _values[i] = value;
+    if (++_size > _threshold)
+      rehash(_keys.length * 2);
+    return null;
+  }
+
+  /**
+   * Remove the value of <code>key</code>.
+   * @return the removed value, or null.
+   */
+  @SuppressWarnings("unchecked")
+  V remove(long key) {
+    int mask = _keys.length - 1;
+    int i = slot(key, mask);
+    while (_keys[i] != key) {
+      if (_keys[i] == FREE)
+        return null;
+      i = (i + 1) & mask;
+    }
+    V old = (V) _values[i];
+    // Shift back following entries of the same probe run
+    for (int j = (i + 1) & mask; _keys[j] != FREE; j = (j + 1) & mask) {
+      int home = slot(_keys[j], mask);
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        _keys[i] = _keys[j];
+        _values[i] = _values[j];
+        i = j;
+      }
+    }
+    _keys[i] = FREE;
+    _values[i] = null;
+    _size--;
+    return old;
+  }
+
+  private void allocate(int capacity) {
+    _keys = new long[capacity];
+    Arrays.fill(_keys, FREE);
+    _values = new Object[capacity];
+    _threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private void rehash(int capacity) {
+    long[] keys = _keys;
+    Object[] values = _values;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < keys.length; j++) {
+      if (keys[j] == FREE)
+        continue;
+      int i = slot(keys[j], mask);
+      while (_keys[i] != FREE)
+        i = (i + 1) & mask;
+      _keys[i] = keys[j];
+      _values[i] = values[j];
+    }
+  }
+
+  private static int slot(long key, int mask) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+}
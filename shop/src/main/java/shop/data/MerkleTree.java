@@ -0,0 +1,128 @@
+package shop.data;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A hash tree over an inventory's records, for finding where two
+ * inventories differ without comparing every record.
+ *
+ * <p>Videos are spread over <code>2^depth</code> buckets by a hash of
+ * their title, year and director, which is the same in every process.
+ * A bucket's hash is the exclusive or of the digests of its records,
+ * so a change updates it in place, without reading the bucket's other
+ * records.  Each node above the buckets hashes its two children.
+ * Nodes are numbered from 1 at the root, node <code>i</code> having
+ * children <code>2i</code> and <code>2i+1</code>; the buckets are
+ * nodes <code>2^depth</code> and up.</p>
+ *
+ * <p>Updates are lock-free: a change updates its bucket and marks the
+ * nodes above it stale, stopping at the first that already is.  The
+ * stale nodes are rehashed when read.</p>
+ */
+final class MerkleTree {
+  static final int DEFAULT_DEPTH = 16;
+
+  private final int _depth;
+  private final int _buckets;
+  private final AtomicLongArray _bucketHashes;
+  private final AtomicIntegerArray _stale; // by node, for nodes above the buckets
+  private final long[] _nodes; // guarded by this
+
+  /**
+   * @throws IllegalArgumentException if <code>depth</code> is not
+   * between 1 and 24.
+   */
+  MerkleTree(int depth) {
+    if (depth < 1 || depth > 24)
+      throw new IllegalArgumentException();
+    _depth = depth;
+    _buckets = 1 << depth;
+    _bucketHashes = new AtomicLongArray(_buckets);
+    _stale = new AtomicIntegerArray(_buckets);
+    _nodes = new long[_buckets];
+  }
+
+  int depth() {
+    return _depth;
+  }
+
+  /**
+   * Returns the number of buckets, which is also the number of the
+   * first bucket's node.
+   */
+  int buckets() {
+    return _buckets;
+  }
+
+  /**
+   * Returns the bucket of <code>video</code>.
+   */
+  int bucket(Video video) {
+    return (int) (hash(video) >>> (Long.SIZE - _depth));
+  }
+
+  /**
+   * Account for the replacement of <code>old</code> by
+   * <code>record</code> as the record of <code>video</code>; either may
+   * be null.
+   */
+  void replace(Video video, Record old, Record record) {
+    long delta = (old == null ? 0 : digest(old)) ^ (record == null ? 0 : digest(record));
+    if (delta == 0)
+      return;
+    int bucket = bucket(video);
+    _bucketHashes.getAndAccumulate(bucket, delta, (a, b) -> a ^ b);
+    for (int i = (bucket + _buckets) >>> 1; i >= 1; i >>>= 1) {
+      if (_stale.getAndSet(i, 1) != 0)
+        break;
+    }
+  }
+
+  /**
+   * Returns the hash of node <code>i</code>.
+   * @throws IllegalArgumentException if there is no such node.
+   */
+  synchronized long node(int i) {
+    if (i < 1 || i >= 2 * _buckets)
+      throw new IllegalArgumentException();
+    return hashOf(i);
+  }
+
+  private long hashOf(int i) {
+    if (i >= _buckets)
+      return _bucketHashes.get(i - _buckets);
+    if (_stale.get(i) != 0) {
+      // Clear first, so a change made while rehashing marks it again
+      _stale.set(i, 0);
+      _nodes[i] = mix(hashOf(2 * i) ^ (hashOf(2 * i + 1) * 0x9E3779B97F4A7C15L));
+    }
+    return _nodes[i];
+  }
+
+  /**
+   * Returns a hash of <code>video</code> that depends only on its
+   * fields.
+   */
+  static long hash(Video video) {
+    return mix(((long) video.title().hashCode() << 32) ^ (video.director().hashCode() & 0xFFFFFFFFL)
+               ^ ((long) video.year() * 0xC2B2AE3D27D4EB4FL));
+  }
+
+  /**
+   * Returns the digest of a record's video and counters; not its
+   * version, which is local to each inventory.
+   */
+  static long digest(Record r) {
+    long h = hash(r.video());
+    h = mix(h ^ (((long) r.numOwned() << 32) | (r.numOut() & 0xFFFFFFFFL)));
+    return mix(h ^ r.numRentals());
+  }
+
+  // The finalizer of SplitMix64
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
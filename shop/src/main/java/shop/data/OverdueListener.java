@@ -0,0 +1,19 @@
+package shop.data;
+
+import java.time.Instant;
+
+/**
+ * A callback that is notified as rentals become overdue.
+ *
+ * <p>Listeners are called by the thread advancing the due dates, in
+ * order of due date, and outside any lock.</p>
+ *
+ * @see DueDates#addListener(OverdueListener)
+ */
+public interface OverdueListener {
+  /**
+   * Called once for each copy of <code>video</code> that was not
+   * checked in by <code>due</code>.
+   */
+  public void overdue(Video video, Instant due);
+}
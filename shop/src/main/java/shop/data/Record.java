@@ -12,6 +12,12 @@ package shop.data;
  * @see Data
  */
 public interface Record {
+  /**
+   * The version a video has when it has no record, for conditional
+   * commands that create one.
+   */
+  public static final long ABSENT = 0;
+
   /**
    * Returns the video.
    * <p><b>Invariant:</b> <code>video() != null</code>.</p>
@@ -32,6 +38,15 @@ public interface Record {
    * <p><b>Invariant:</b> <code>numRentals() >= numOut()</code>.</p>
    */
   public int numRentals();
+  /**
+   * Returns the version of the record.
+   * <p>Every change to a record gives it a new version, greater than
+   * all earlier versions in the inventory, so a record read earlier
+   * can be checked for staleness by comparing versions.</p>
+   * <p><b>Invariant:</b> <code>version() > ABSENT</code> for records
+   * in an inventory.</p>
+   */
+  public long version();
   /**
    *  Return a string representation of the object in the following format:
    * <code>"video [numOwned,numOut,numRentals]"</code>.
@@ -0,0 +1,334 @@
+package shop.data;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * An immutable map from videos to records: a hash array mapped trie.
+ *
+ * <p><code>with</code> returns a new trie sharing every node except the
+ * few on the path to the changed video, so keeping many versions of a
+ * large inventory costs little more than one.  Each branch holds up to
+ * 32 entries, selected by five bits of the video's hash, and stores
+ * only the entries present, indexed by a bitmap.  An entry is a record,
+ * a branch, or a collision node for videos with equal hashes.</p>
+ */
+final class RecordTrie implements Iterable<Record> {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  private static final class Branch {
+    final int bitmap;
+    final Object[] entries;
+    Branch(int bitmap, Object[] entries) {
+      this.bitmap = bitmap;
+      this.entries = entries;
+    }
+  }
+
+  private static final class Collision {
+    final int hash;
+    final Record[] records;
+    Collision(int hash, Record[] records) {
+      this.hash = hash;
+      this.records = records;
+    }
+  }
+
+  static final RecordTrie EMPTY = new RecordTrie(new Branch(0, new Object[0]), 0);
+
+  private final Branch _root;
+  private final int _size;
+
+  private RecordTrie(Branch root, int size) {
+    _root = root;
+    _size = size;
+  }
+
+  int size() {
+    return _size;
+  }
+
+  /**
+   * Returns the record of <code>video</code>, or null.
+   */
+  Record get(Video video) {
+    int hash = hash(video);
+    Object node = _root;
+    for (int shift = 0; ; shift += BITS) {
+      if (node instanceof Branch) {
+        Branch b = (Branch) node;
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((b.bitmap & bit) == 0)
+          return null;
+        node = b.entries[Integer.bitCount(b.bitmap & (bit - 1))];
+      } else if (node instanceof Collision) {
+        for (Record r : ((Collision) node).records) {
+          if (r.video().equals(video))
+            return r;
+        }
+        return null;
+      } else {
+        Record r = (Record) node;
+        return r.video().equals(video) ? r : null;
+      }
+    }
+  }
+
+  /**
+   * Returns a trie with <code>record</code> stored for <code>video</code>,
+   * or with no record for <code>video</code> if <code>record</code> is null.
+   */
+  RecordTrie with(Video video, Record record) {
+    boolean present = get(video) != null;
+    if (!present && record == null)
+      return this;
+    Object root = with(_root, 0, hash(video), video, record);
+    return new RecordTrie(root == null ? EMPTY._root : (Branch) root,
+                          _size + (present ? 0 : 1) - (record == null ? 1 : 0));
+  }
+
+  /**
+   * Returns <code>node</code> changed, or null if nothing remains.  A
+   * branch left with a single record below the root collapses into the
+   * record.
+   */
+  private static Object with(Object node, int shift, int hash, Video video, Record record) {
+    if (node instanceof Branch) {
+      Branch b = (Branch) node;
+      int bit = 1 << ((hash >>> shift) & MASK);
+      int i = Integer.bitCount(b.bitmap & (bit - 1));
+      if ((b.bitmap & bit) == 0)
+        return insert(b, bit, i, record);
+      Object entry = b.entries[i];
+      Object changed;
+      if (entry instanceof Record && !((Record) entry).video().equals(video))
+        changed = merge(entry, hash(((Record) entry).video()), record, hash, shift + BITS);
+      else
+        changed = entry instanceof Record ? record : with(entry, shift + BITS, hash, video, record);
+      if (changed == null)
+        return remove(b, bit, i, shift);
+      return replace(b, i, changed);
+    } else {
+      Collision c = (Collision) node;
+      if (c.hash != hash)
+        return merge(c, c.hash, record, hash, shift);
+      int i = 0;
+      while (i < c.records.length && !c.records[i].video().equals(video))
+        i++;
+      if (record == null) {
+        if (c.records.length == 2)
+          return c.records[1 - i];
+        Record[] rs = new Record[c.records.length - 1];
+        System.arraycopy(c.records, 0, rs, 0, i);
+        System.arraycopy(c.records, i + 1, rs, i, rs.length - i);
+        return new Collision(hash, rs);
+      }
+      Record[] rs = Arrays.copyOf(c.records, Math.max(c.records.length, i + 1));
+      rs[i] = record;
+      return new Collision(hash, rs);
+    }
+  }
+
+  /**
+   * Returns a node holding two entries with different keys.
+   */
+  private static Object merge(Object a, int hashA, Object b, int hashB, int shift) {
+    if (hashA == hashB)
+      return new Collision(hashA, new Record[] { (Record) a, (Record) b });
+    if (shift >= Integer.SIZE)
+      throw new IllegalStateException();
+    int bitA = 1 << ((hashA >>> shift) & MASK);
+    int bitB = 1 << ((hashB >>> shift) & MASK);
+    if (bitA == bitB)
+      return new Branch(bitA, new Object[] { merge(a, hashA, b, hashB, shift + BITS) });
+    return new Branch(bitA | bitB, Integer.compareUnsigned(bitA, bitB) < 0 ? new Object[] { a, b } : new Object[] { b, a });
+  }
+
+  private static Branch insert(Branch b, int bit, int i, Object entry) {
+    Object[] entries = new Object[b.entries.length + 1];
+    System.arraycopy(b.entries, 0, entries, 0, i);
+    entries[i] = entry;
+    System.arraycopy(b.entries, i, entries, i + 1, b.entries.length - i);
+    return new Branch(b.bitmap | bit, entries);
+  }
+
+  private static Object remove(Branch b, int bit, int i, int shift) {
+    if (b.entries.length == 1)
+      return null;
+    if (b.entries.length == 2 && shift > 0 && !(b.entries[1 - i] instanceof Branch))
+      return b.entries[1 - i];
+    Object[] entries = new Object[b.entries.length - 1];
+    System.arraycopy(b.entries, 0, entries, 0, i);
+    System.arraycopy(b.entries, i + 1, entries, i, entries.length - i);
+    return new Branch(b.bitmap & ~bit, entries);
+  }
+
+  private static Branch replace(Branch b, int i, Object entry) {
+    if (b.entries[i] == entry)
+      return b;
+    Object[] entries = b.entries.clone();
+    entries[i] = entry;
+    return new Branch(b.bitmap, entries);
+  }
+
+  private static int hash(Video video) {
+    int h = video.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns the records, in no particular order.
+   */
+  public Iterator<Record> iterator() {
+    return new Walk(_root.entries, 0, _root.entries.length);
+  }
+
+  /**
+   * Returns a spliterator over the records that splits along the trie's
+   * branches, for parallel streams.
+   */
+  public Spliterator<Record> spliterator() {
+    return new Split(_root.entries, 0, _root.entries.length, _size);
+  }
+
+  /**
+   * Walks the records below <code>entries[lo..hi)</code>, depth first.
+   */
+  private static final class Walk implements Iterator<Record> {
+    // The entry arrays being walked and the next index in each
+    private final Object[][] _stack = new Object[Integer.SIZE / BITS + 2][];
+    private final int[] _index = new int[_stack.length];
+    private final int _end;
+    private int _depth;
+    private Record[] _collision;
+    private int _collisionIndex;
+    private Record _next;
+
+    Walk(Object[] entries, int lo, int hi) {
+      _stack[0] = entries;
+      _index[0] = lo;
+      _end = hi;
+      _next = advance();
+    }
+
+    private Record advance() {
+      if (_collision != null) {
+        if (_collisionIndex < _collision.length)
+          return _collision[_collisionIndex++];
+        _collision = null;
+      }
+      while (_depth >= 0) {
+        if (_index[_depth] == (_depth == 0 ? _end : _stack[_depth].length)) {
+          _depth--;
+          continue;
+        }
+        Object entry = _stack[_depth][_index[_depth]++];
+        if (entry instanceof Branch) {
+          _depth++;
+          _stack[_depth] = ((Branch) entry).entries;
+          _index[_depth] = 0;
+        } else if (entry instanceof Collision) {
+          _collision = ((Collision) entry).records;
+          _collisionIndex = 1;
+          return _collision[0];
+        } else {
+          return (Record) entry;
+        }
+      }
+      return null;
+    }
+
+    public boolean hasNext() {
+      return _next != null;
+    }
+
+    public Record next() {
+      if (_next == null)
+        throw new NoSuchElementException();
+      Record r = _next;
+      _next = advance();
+      return r;
+    }
+  }
+
+  /**
+   * Splits <code>entries[lo..hi)</code> in half, descending into a
+   * branch when only one entry is left.
+   */
+  private static final class Split implements Spliterator<Record> {
+    private Object[] _entries;
+    private int _lo;
+    private int _hi;
+    private long _estimate;
+    private Walk _walk; // set once tryAdvance is used
+
+    Split(Object[] entries, int lo, int hi, long estimate) {
+      _entries = entries;
+      _lo = lo;
+      _hi = hi;
+      _estimate = estimate;
+    }
+
+    public Spliterator<Record> trySplit() {
+      if (_walk != null)
+        return null;
+      while (_hi - _lo == 1 && _entries[_lo] instanceof Branch) {
+        _entries = ((Branch) _entries[_lo]).entries;
+        _lo = 0;
+        _hi = _entries.length;
+      }
+      if (_hi - _lo < 2)
+        return null;
+      int mid = (_lo + _hi) >>> 1;
+      _estimate >>>= 1;
+      Split prefix = new Split(_entries, _lo, mid, _estimate);
+      _lo = mid;
+      return prefix;
+    }
+
+    public boolean tryAdvance(Consumer<? super Record> action) {
+      if (_walk == null) {
+        _walk = new Walk(_entries, _lo, _hi);
+        _lo = _hi;
+      }
+      if (!_walk.hasNext())
+        return false;
+      action.accept(_walk.next());
+      return true;
+    }
+
+    public void forEachRemaining(Consumer<? super Record> action) {
+      if (_walk != null) {
+        _walk.forEachRemaining(action);
+        return;
+      }
+      for (int i = _lo; i < _hi; i++)
+        visit(_entries[i], action);
+      _lo = _hi;
+    }
+
+    private static void visit(Object entry, Consumer<? super Record> action) {
+      if (entry instanceof Branch) {
+        for (Object e : ((Branch) entry).entries)
+          visit(e, action);
+      } else if (entry instanceof Collision) {
+        for (Record r : ((Collision) entry).records)
+          action.accept(r);
+      } else {
+        action.accept((Record) entry);
+      }
+    }
+
+    public long estimateSize() {
+      return _estimate;
+    }
+
+    public int characteristics() {
+      return IMMUTABLE | NONNULL | DISTINCT;
+    }
+  }
+}
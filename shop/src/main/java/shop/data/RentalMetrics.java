@@ -0,0 +1,283 @@
+package shop.data;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts rentals per video per minute, and rolls minutes up into hours
+ * and hours into days.
+ *
+ * <p>Rentals are taken from the changes of an inventory: whenever the
+ * <code>numRentals</code> of a record changes, the difference is added to
+ * the current minute, so undo and redo of check-outs are counted too.
+ * Each bucket only holds the videos rented in it.</p>
+ *
+ * <p>A background task merges completed minutes into their hour and
+ * completed hours into their day, then drops buckets older than their
+ * retention, so memory stays bounded.  Queries add up the coarsest
+ * buckets that fit the window and the finer buckets not yet rolled
+ * up.  Minutes are kept for three hours and hours for eight days, so the
+ * start of an older window is rounded up to the hour or the day.</p>
+ *
+ * @see Data#newRentalMetrics(Inventory)
+ */
+public final class RentalMetrics implements InventoryListener, Closeable {
+  static final long MINUTE = 60_000;
+  static final long HOUR = 60 * MINUTE;
+  static final long DAY = 24 * HOUR;
+  static final long ROLLUP_SECONDS = 10;
+
+  /**
+   * The number of rentals in the hour starting at <code>hour</code>.
+   */
+  public record HourCount(Instant hour, long rentals) {}
+
+  private final Clock _clock;
+  private final VideoIds _videoIds = new VideoIds();
+  private final Level _minutes = new Level(MINUTE, 3 * HOUR);
+  private final Level _hours = new Level(HOUR, 8 * DAY);
+  private final Level _days = new Level(DAY, 400 * DAY);
+  private ScheduledExecutorService _rollup;
+
+  RentalMetrics(Clock clock) {
+    _clock = clock;
+  }
+
+  /**
+   * Roll up in the background until closed.
+   */
+  void start() {
+    _rollup = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "rental-metrics-rollup");
+      t.setDaemon(true);
+      return t;
+    });
+    _rollup.scheduleWithFixedDelay(this::rollUp, ROLLUP_SECONDS, ROLLUP_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop the background roll-up.
+   */
+  public void close() {
+    if (_rollup != null)
+      _rollup.shutdown();
+  }
+
+  public synchronized void changed(Change change) {
+    if (change.oldRecord() == null || change.newRecord() == null)
+      return;
+    int delta = change.newRecord().numRentals() - change.oldRecord().numRentals();
+    if (delta != 0)
+      _minutes.bucket(_clock.millis()).add(_videoIds.intern(change.video()), delta);
+  }
+
+  /**
+   * Returns the number of rentals of <code>video</code> in the last
+   * <code>window</code>.
+   */
+  public synchronized long rentals(Video video, Duration window) {
+    int id = _videoIds.id(video);
+    return id < 0 ? 0 : sum(id, _clock.millis() - window.toMillis());
+  }
+
+  /**
+   * Returns the number of rentals of all videos in the last
+   * <code>window</code>.
+   */
+  public synchronized long rentals(Duration window) {
+    return sum(-1, _clock.millis() - window.toMillis());
+  }
+
+  /**
+   * Returns the hour with the most rentals in the last <code>window</code>,
+   * or null if there were none.
+   */
+  public synchronized HourCount busiestHour(Duration window) {
+    long from = _clock.millis() - window.toMillis();
+    Map<Long, Long> totals = new HashMap<Long, Long>();
+    for (Bucket b : _hours.buckets) {
+      if (b.start >= from)
+        totals.merge(b.start, b.total, Long::sum);
+    }
+    for (Bucket b : _minutes.buckets) {
+      if (b.start >= from && !b.rolled)
+        totals.merge(b.start - b.start % HOUR, b.total, Long::sum);
+    }
+    HourCount busiest = null;
+    for (Map.Entry<Long, Long> e : totals.entrySet()) {
+      if (busiest == null || e.getValue() > busiest.rentals())
+        busiest = new HourCount(Instant.ofEpochMilli(e.getKey()), e.getValue());
+    }
+    return busiest;
+  }
+
+  /**
+   * Merge completed minutes into hours and completed hours into days, and
+   * drop expired buckets.
+   */
+  synchronized void rollUp() {
+    long now = _clock.millis();
+    _minutes.rollInto(_hours, now);
+    _hours.rollInto(_days, now);
+    _days.expire(now, false);
+  }
+
+  /**
+   * Sum the counts of a video, or of all videos if <code>id</code> is
+   * negative, from <code>from</code> to now.  A bucket is counted if it
+   * lies in the window and has not been rolled into a parent that is
+   * also counted.
+   */
+  private long sum(int id, long from) {
+    long sum = 0;
+    for (Bucket b : _days.buckets) {
+      if (b.start >= from)
+        sum += b.count(id);
+    }
+    for (Bucket b : _hours.buckets) {
+      if (b.start >= from && (!b.rolled || b.start - b.start % DAY < from))
+        sum += b.count(id);
+    }
+    for (Bucket b : _minutes.buckets) {
+      if (b.start >= from && (!b.rolled || b.start - b.start % HOUR < from))
+        sum += b.count(id);
+    }
+    return sum;
+  }
+
+  /**
+   * The buckets of one granularity, oldest first.
+   */
+  private static final class Level {
+    final long width;
+    final long retention;
+    final Deque<Bucket> buckets = new ArrayDeque<Bucket>();
+
+    Level(long width, long retention) {
+      this.width = width;
+      this.retention = retention;
+    }
+
+    /**
+     * Returns the bucket containing <code>time</code>, creating it if it
+     * is newer than the newest bucket.  Clocks that step back reuse the
+     * newest bucket.
+     */
+    Bucket bucket(long time) {
+      long start = time - time % width;
+      Bucket last = buckets.peekLast();
+      if (last != null && last.start >= start)
+        return last;
+      Bucket b = new Bucket(start);
+      buckets.addLast(b);
+      return b;
+    }
+
+    /**
+     * Merge completed buckets into <code>parent</code>, then expire.
+     */
+    void rollInto(Level parent, long now) {
+      long current = now - now % width;
+      for (Bucket b : buckets) {
+        if (b.start >= current)
+          break;
+        if (!b.rolled) {
+          parent.bucket(b.start).addAll(b);
+          b.rolled = true;
+        }
+      }
+      expire(now, true);
+    }
+
+    /**
+     * Drop buckets older than the retention.  Buckets of a level with a
+     * parent are kept until they have been rolled up.
+     */
+    void expire(long now, boolean hasParent) {
+      for (Iterator<Bucket> i = buckets.iterator(); i.hasNext(); ) {
+        Bucket b = i.next();
+        if (b.start >= now - retention || hasParent && !b.rolled)
+          break;
+        i.remove();
+      }
+    }
+  }
+
+  /**
+   * Rental counts per video id in one time interval, in an open-addressing
+   * map from video id to count.
+   */
+  private static final class Bucket {
+    final long start;
+    boolean rolled;
+    long total;
+    int[] ids = new int[8];
+    int[] counts = new int[8];
+    int size;
+
+    Bucket(long start) {
+      this.start = start;
+      Arrays.fill(ids, -1);
+    }
+
+    long count(int id) {
+      if (id < 0)
+        return total;
+      int mask = ids.length - 1;
+      for (int i = id * 0x9E3779B9 & mask; ids[i] != -1; i = (i + 1) & mask) {
+        if (ids[i] == id)
+          return counts[i];
+      }
+      return 0;
+    }
+
+    void add(int id, int delta) {
+      total += delta;
+      int mask = ids.length - 1;
+      int i = id * 0x9E3779B9 & mask;
+      for (; ids[i] != -1; i = (i + 1) & mask) {
+        if (ids[i] == id) {
+          counts[i] += delta;
+          return;
+        }
+      }
+      ids[i] = id;
+      counts[i] = delta;
+      if (++size * 2 > ids.length)
+        grow();
+    }
+
+    void addAll(Bucket b) {
+      for (int i = 0; i < b.ids.length; i++) {
+        if (b.ids[i] != -1)
+          add(b.ids[i], b.counts[i]);
+      }
+    }
+
+    private void grow() {
+      int[] oldIds = ids;
+      int[] oldCounts = counts;
+      ids = new int[oldIds.length * 2];
+      counts = new int[oldIds.length * 2];
+      Arrays.fill(ids, -1);
+      size = 0;
+      long oldTotal = total;
+      for (int i = 0; i < oldIds.length; i++) {
+        if (oldIds[i] != -1)
+          add(oldIds[i], oldCounts[i]);
+      }
+      total = oldTotal;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package shop.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only copy of an inventory that follows a
+ * <code>ReplicationPrimary</code>.
+ *
+ * <p>A background thread applies the primary's log entries in order.
+ * After a disconnect it reconnects and catches up from the last applied
+ * sequence number.  Commands cannot be run against a replica:
+ * <code>Data.newAddCmd</code> and friends reject it.</p>
+ *
+ * @see Data#newReplica(String, int)
+ */
+public final class ReplicaInventory implements Inventory {
+  static final long RECONNECT_MILLIS = 100;
+
+  private final String _host;
+  private final int _port;
+  private final InventorySet _inventory = new InventorySet();
+  private volatile long _appliedSeq;
+  private volatile long _primarySeq;
+  private volatile long _lastContactMillis;
+  private volatile boolean _running;
+  private volatile Socket _socket;
+  private Thread _receiver;
+
+  ReplicaInventory(String host, int port) {
+    _host = host;
+    _port = port;
+  }
+
+  /**
+   * Starts following the primary, catching up from <code>appliedSeq()</code>.
+   * Does nothing if already connected.
+   */
+  public synchronized void connect() {
+    if (_running)
+      return;
+    _running = true;
+    _receiver = new Thread(this::receive, "replica-receiver");
+    _receiver.setDaemon(true);
+    _receiver.start();
+  }
+
+  /**
+   * Stops following the primary.  The replica keeps its current state
+   * and can be reconnected with <code>connect()</code>.
+   */
+  public synchronized void disconnect() {
+    _running = false;
+    Socket socket = _socket;
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+    try {
+      _receiver.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns the sequence number of the last change applied.
+   */
+  public long appliedSeq() {
+    return _appliedSeq;
+  }
+
+  /**
+   * Returns the newest sequence number the primary has reported.
+   */
+  public long primarySeq() {
+    return _primarySeq;
+  }
+
+  /**
+   * Returns the number of changes the replica is known to be behind.
+   */
+  public long lag() {
+    return Math.max(0, _primarySeq - _appliedSeq);
+  }
+
+  /**
+   * Returns the milliseconds since the primary was last heard from,
+   * or -1 if it never was.
+   */
+  public long millisSinceContact() {
+    long last = _lastContactMillis;
+    return last == 0 ? -1 : System.currentTimeMillis() - last;
+  }
+
+  public int size() {
+    synchronized (_inventory) {
+      return _inventory.size();
+    }
+  }
+
+  public Totals totals() {
+    return _inventory.totals();
+  }
+
+  public Record get(Video v) {
+    synchronized (_inventory) {
+      return _inventory.get(v);
+    }
+  }
+
+  public Iterator<Record> iterator() {
+    synchronized (_inventory) {
+      return records().iterator();
+    }
+  }
+
+  public Iterator<Record> iterator(Comparator<Record> comparator) {
+    synchronized (_inventory) {
+      List<Record> records = records();
+      records.sort(comparator);
+      return records.iterator();
+    }
+  }
+
+  public String toString() {
+    synchronized (_inventory) {
+      return _inventory.toString();
+    }
+  }
+
+  private List<Record> records() {
+    List<Record> result = new ArrayList<Record>(_inventory.size());
+    for (Record r : _inventory)
+      result.add(r);
+    return result;
+  }
+
+  private void receive() {
+    while (_running) {
+      try (Socket socket = new Socket(_host, _port)) {
+        _socket = socket;
+        if (!_running)
+          return;
+        socket.setTcpNoDelay(true);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeLong(_appliedSeq);
+        out.flush();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        while (_running)
+          apply(in);
+      } catch (IOException e) {
+        // reconnect below
+      }
+      if (_running) {
+        try {
+          Thread.sleep(RECONNECT_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void apply(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    long seq = in.readLong();
+    switch (type) {
+      case ReplicationCodec.PUT: {
+        Record record = ReplicationCodec.readRecord(in);
+        synchronized (_inventory) {
+          _inventory.replaceEntry(record.video(), record, Change.Cause.REPLICATE);
+        }
+        break;
+      }
+      case ReplicationCodec.REMOVE: {
+        Video video = ReplicationCodec.readVideo(in);
+        synchronized (_inventory) {
+          _inventory.replaceEntry(video, null, Change.Cause.REPLICATE);
+        }
+        break;
+      }
+      case ReplicationCodec.SNAPSHOT: {
+        int count = in.readInt();
+        Map<Video,Record> data = new HashMap<Video,Record>();
+        for (int i = 0; i < count; i++) {
+          Record record = ReplicationCodec.readRecord(in);
+          data.put(record.video(), record);
+        }
+        synchronized (_inventory) {
+          _inventory.replaceMap(data, Change.Cause.REPLICATE);
+        }
+        break;
+      }
+      case ReplicationCodec.HEARTBEAT:
+        _primarySeq = Math.max(_primarySeq, seq);
+        _lastContactMillis = System.currentTimeMillis();
+        return;
+      default:
+        throw new IOException("Unknown frame type " + type);
+    }
+    _appliedSeq = seq;
+    _primarySeq = Math.max(_primarySeq, seq);
+    _lastContactMillis = System.currentTimeMillis();
+  }
+}
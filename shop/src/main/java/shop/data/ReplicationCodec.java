@@ -0,0 +1,81 @@
+package shop.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Wire format shared by <code>ReplicationPrimary</code> and
+ * <code>ReplicaInventory</code>.
+ *
+ * <p>After connecting, a replica sends the sequence number of the last
+ * entry it applied.  The primary then sends a stream of frames, each
+ * starting with a type byte:</p>
+ * <ul>
+ * <li><code>PUT seq video numOwned numOut numRentals</code></li>
+ * <li><code>REMOVE seq video</code></li>
+ * <li><code>SNAPSHOT seq count record*</code>: replaces the whole inventory</li>
+ * <li><code>HEARTBEAT seq</code>: the newest sequence number of the primary</li>
+ * </ul>
+ */
+final class ReplicationCodec {
+  static final byte PUT = 1;
+  static final byte REMOVE = 2;
+  static final byte SNAPSHOT = 3;
+  static final byte HEARTBEAT = 4;
+
+  private ReplicationCodec() {}
+
+  static void writeVideo(DataOutput out, Video video) throws IOException {
+    out.writeUTF(video.title());
+    out.writeInt(video.year());
+    out.writeUTF(video.director());
+  }
+
+  static Video readVideo(DataInput in) throws IOException {
+    String title = in.readUTF();
+    int year = in.readInt();
+    String director = in.readUTF();
+    return Data.newVideo(title, year, director);
+  }
+
+  static void writeRecord(DataOutput out, Record record) throws IOException {
+    writeVideo(out, record.video());
+    out.writeInt(record.numOwned());
+    out.writeInt(record.numOut());
+    out.writeInt(record.numRentals());
+  }
+
+  static Record readRecord(DataInput in) throws IOException {
+    Video video = readVideo(in);
+    int numOwned = in.readInt();
+    int numOut = in.readInt();
+    int numRentals = in.readInt();
+    return InventorySet.newRecord(video, numOwned, numOut, numRentals);
+  }
+
+  static void writeEntry(DataOutput out, ReplicationLog.Entry e) throws IOException {
+    if (e.record == null) {
+      out.writeByte(REMOVE);
+      out.writeLong(e.seq);
+      writeVideo(out, e.video);
+    } else {
+      out.writeByte(PUT);
+      out.writeLong(e.seq);
+      writeRecord(out, e.record);
+    }
+  }
+
+  static void writeSnapshot(DataOutput out, ReplicationLog.Snapshot s) throws IOException {
+    out.writeByte(SNAPSHOT);
+    out.writeLong(s.seq);
+    out.writeInt(s.records.size());
+    for (Record r : s.records)
+      writeRecord(out, r);
+  }
+
+  static void writeHeartbeat(DataOutput out, long seq) throws IOException {
+    out.writeByte(HEARTBEAT);
+    out.writeLong(seq);
+  }
+}
@@ -0,0 +1,195 @@
+package shop.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, ordered log of the changes applied to a primary inventory.
+ *
+ * <p>Each change is stored as the new state of one record, so applying
+ * entries is idempotent.  Entries are numbered by their position in the
+ * log; the newest <code>retention</code> entries are kept in a ring.</p>
+ *
+ * <p>The log also mirrors the current state of the primary so that a
+ * replica that has fallen behind the ring can be sent a snapshot that is
+ * consistent with a log position.  The log is registered as a listener
+ * before the mirror is seeded from the inventory, so a change made while
+ * seeding is logged, and wins over whatever the seeding scan saw.</p>
+ *
+ * <p>The inventory calls the listener with the changed video locked, so
+ * <code>changed</code> only appends the change to a lock-free queue;
+ * writers to different videos never wait for each other or for the
+ * log.  The changes are numbered, stored in the ring and mirrored by
+ * the log's own thread, or by a reader that finds them queued, under the
+ * log's monitor.  The queue keeps the order in which the changes of each
+ * video were made.</p>
+ *
+ * @see ReplicationPrimary
+ */
+final class ReplicationLog implements InventoryListener {
+  static final int DEFAULT_RETENTION = 1 << 16;
+
+  /**
+   * One log entry: the record of <code>video</code> after change
+   * <code>seq</code>, or null if the record was removed.
+   */
+  static final class Entry {
+    final long seq;
+    final Video video;
+    final Record record;
+    Entry(long seq, Video video, Record record) {
+      this.seq = seq;
+      this.video = video;
+      this.record = record;
+    }
+  }
+
+  /**
+   * The records of the primary as of log position <code>seq</code>.
+   */
+  static final class Snapshot {
+    final long seq;
+    final List<Record> records;
+    Snapshot(long seq, List<Record> records) {
+      this.seq = seq;
+      this.records = records;
+    }
+  }
+
+  // The most changes logged at once, so a reader is not held up by a
+  // stream of new ones
+  private static final int BATCH = 4096;
+
+  private final Entry[] _ring;
+  private final Map<Video,Record> _mirror = new HashMap<Video,Record>();
+  private final Queue<Change> _pending = new ConcurrentLinkedQueue<Change>(); // not yet logged
+  private boolean _seeded; // changes are only logged once seeded
+  private long _head; // seq of the newest entry; 0 if none
+  private volatile Thread _logger; // logs the pending changes, once started
+  private volatile boolean _idle; // the logger is parked, or about to park
+  private volatile boolean _closed;
+
+  ReplicationLog(int retention) {
+    if (retention <= 0)
+      throw new IllegalArgumentException();
+    _ring = new Entry[retention];
+  }
+
+  /**
+   * Fills the mirror with <code>records</code>, a scan of the inventory
+   * made after this log started listening to it, then logs the changes
+   * queued since then on top of it, so that their records win.
+   */
+  void seed(Iterable<Record> records) {
+    List<Record> scan = new ArrayList<Record>();
+    for (Record r : records)
+      scan.add(r);
+    synchronized (this) {
+      for (Record r : scan)
+        _mirror.put(r.video(), r);
+      _seeded = true;
+      drain();
+    }
+  }
+
+  /**
+   * Starts the thread that logs the changes as they arrive.
+   */
+  void start() {
+    Thread logger = new Thread(this::log, "replication-log");
+    logger.setDaemon(true);
+    _logger = logger;
+    logger.start();
+  }
+
+  /**
+   * Stops the thread started by <code>start</code>.
+   */
+  void close() {
+    _closed = true;
+    Thread logger = _logger;
+    if (logger != null)
+      LockSupport.unpark(logger);
+  }
+
+  public void changed(Change change) {
+    _pending.offer(change);
+    if (_idle)
+      LockSupport.unpark(_logger);
+  }
+
+  private void log() {
+    while (!_closed) {
+      if (!_pending.isEmpty()) {
+        drain();
+        continue;
+      }
+      // A writer that queues a change after the check below sees _idle
+      _idle = true;
+      if (_pending.isEmpty() && !_closed)
+        LockSupport.park(this);
+      _idle = false;
+    }
+  }
+
+  /**
+   * Log the queued changes, and wake the readers waiting for them.
+   */
+  private synchronized void drain() {
+    if (!_seeded)
+      return;
+    int n = 0;
+    for (Change change; n < BATCH && (change = _pending.poll()) != null; n++) {
+      Entry e = new Entry(++_head, change.video(), change.newRecord());
+      _ring[(int) (e.seq % _ring.length)] = e;
+      if (e.record == null)
+        _mirror.remove(e.video);
+      else
+        _mirror.put(e.video, e.record);
+    }
+    if (n > 0)
+      notifyAll();
+  }
+
+  /**
+   * Returns the sequence number of the newest entry.
+   */
+  synchronized long head() {
+    drain();
+    return _head;
+  }
+
+  /**
+   * Returns the entries after <code>seq</code>, waiting up to
+   * <code>timeoutMillis</code> for one to arrive.
+   * @return the entries, possibly empty, or null if some entries after
+   * <code>seq</code> are no longer retained.
+   */
+  synchronized List<Entry> after(long seq, long timeoutMillis) throws InterruptedException {
+    drain();
+    if (_head <= seq && timeoutMillis > 0) {
+      wait(timeoutMillis);
+      drain();
+    }
+    if (seq < _head - _ring.length || seq > _head)
+      return null;
+    List<Entry> result = new ArrayList<Entry>((int) (_head - seq));
+    for (long s = seq + 1; s <= _head; s++)
+      result.add(_ring[(int) (s % _ring.length)]);
+    return result;
+  }
+
+  /**
+   * Returns the current records together with the log position they
+   * correspond to.
+   */
+  synchronized Snapshot snapshot() {
+    drain();
+    return new Snapshot(_head, new ArrayList<Record>(_mirror.values()));
+  }
+}
@@ -0,0 +1,136 @@
+package shop.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams the changes of an inventory to any number of replicas.
+ *
+ * <p>Every change applied to the primary, whether by running, undoing or
+ * redoing a command, is appended to a <code>ReplicationLog</code>.  Each
+ * connected replica gets its own sender thread which ships the log
+ * entries after the replica's last applied sequence number, and falls
+ * back to a full snapshot if those entries are no longer retained.</p>
+ *
+ * @see Data#newReplicationPrimary(Inventory, int)
+ * @see ReplicaInventory
+ */
+public final class ReplicationPrimary implements Closeable {
+  static final long HEARTBEAT_MILLIS = 200;
+
+  private final InventorySet _inventory;
+  private final ReplicationLog _log;
+  private final ServerSocket _server;
+  private final Set<Socket> _replicas = ConcurrentHashMap.newKeySet();
+  private volatile boolean _closed;
+
+  ReplicationPrimary(InventorySet inventory, int port, int retention) throws IOException {
+    _inventory = inventory;
+    // Open the socket first, so a failure leaves no listener behind
+    _server = new ServerSocket(port);
+    _log = new ReplicationLog(retention);
+    _inventory.addListener(_log);
+    try {
+      _log.seed(inventory);
+    } catch (RuntimeException e) {
+      _inventory.removeListener(_log);
+      _server.close();
+      throw e;
+    }
+    _log.start();
+    Thread acceptor = new Thread(this::accept, "replication-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Returns the port replicas connect to.
+   */
+  public int port() {
+    return _server.getLocalPort();
+  }
+
+  /**
+   * Returns the sequence number of the newest change in the log.
+   */
+  public long headSeq() {
+    return _log.head();
+  }
+
+  /**
+   * Returns the number of currently connected replicas.
+   */
+  public int replicaCount() {
+    return _replicas.size();
+  }
+
+  /**
+   * Stops accepting replicas and disconnects the connected ones.
+   */
+  public void close() throws IOException {
+    _closed = true;
+    _inventory.removeListener(_log);
+    _log.close();
+    _server.close();
+    for (Socket s : _replicas)
+      s.close();
+  }
+
+  private void accept() {
+    while (!_closed) {
+      try {
+        Socket socket = _server.accept();
+        socket.setTcpNoDelay(true);
+        Thread sender = new Thread(() -> serve(socket), "replication-sender");
+        sender.setDaemon(true);
+        sender.start();
+      } catch (IOException e) {
+        // the server socket was closed
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    _replicas.add(socket);
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      long seq = in.readLong();
+      while (!_closed) {
+        List<ReplicationLog.Entry> entries = _log.after(seq, HEARTBEAT_MILLIS);
+        if (entries == null) {
+          ReplicationLog.Snapshot snapshot = _log.snapshot();
+          ReplicationCodec.writeSnapshot(out, snapshot);
+          seq = snapshot.seq;
+        } else {
+          for (ReplicationLog.Entry e : entries) {
+            ReplicationCodec.writeEntry(out, e);
+            seq = e.seq;
+          }
+        }
+        ReplicationCodec.writeHeartbeat(out, _log.head());
+        out.flush();
+      }
+    } catch (IOException e) {
+      // the replica disconnected
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      _replicas.remove(socket);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+}
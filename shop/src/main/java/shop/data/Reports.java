@@ -0,0 +1,119 @@
+package shop.data;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Group-by and aggregate reports over the records of an inventory,
+ * computed in parallel on a fork-join pool.
+ *
+ * <p>Each report reads a single consistent state.  If the inventory
+ * keeps versions, or is itself a snapshot, the report reads one version
+ * and takes no locks, so it never blocks commands.  Otherwise the
+ * records are first copied with every video locked, which blocks
+ * commands while the copy is made.  Inventories of other classes are
+ * scanned live, and are consistent per record only.</p>
+ *
+ * @see Data#newReports(Inventory, int)
+ */
+public final class Reports implements Closeable {
+  // Accumulates titles, owned, out and rentals
+  private static final Collector<Record, long[], Totals> TOTALS = Collector.of(
+    () -> new long[4],
+    (a, r) -> {
+      a[0]++;
+      a[1] += r.numOwned();
+      a[2] += r.numOut();
+      a[3] += r.numRentals();
+    },
+    (a, b) -> {
+      for (int i = 0; i < a.length; i++)
+        a[i] += b[i];
+      return a;
+    },
+    a -> new Totals(a[0], a[1], a[2], a[3]),
+    Collector.Characteristics.UNORDERED);
+
+  private final Inventory _inventory;
+  private final ForkJoinPool _pool;
+  private final boolean _ownPool;
+
+  Reports(Inventory inventory, ForkJoinPool pool, boolean ownPool) {
+    _inventory = inventory;
+    _pool = pool;
+    _ownPool = ownPool;
+  }
+
+  /**
+   * Runs an ad-hoc report.  <code>query</code> receives a parallel
+   * stream of the records, and runs on the report's pool.
+   */
+  public <R> R query(Function<Stream<Record>, R> query) {
+    return _pool.submit(() -> query.apply(stream(_inventory))).join();
+  }
+
+  /**
+   * Returns the totals of the whole inventory.
+   */
+  public Totals totals() {
+    return query(records -> records.collect(TOTALS));
+  }
+
+  /**
+   * Returns the totals of the records grouped by <code>key</code>.
+   */
+  public <K> Map<K, Totals> groupBy(Function<? super Video, ? extends K> key) {
+    return query(records -> records.collect(Collectors.groupingBy(r -> key.apply(r.video()), TOTALS)));
+  }
+
+  /**
+   * Returns the totals per director, in order of director.
+   */
+  public Map<String, Totals> byDirector() {
+    return new TreeMap<String, Totals>(groupBy(Video::director));
+  }
+
+  /**
+   * Returns the totals per release year, in order of year.
+   */
+  public Map<Integer, Totals> byYear() {
+    return new TreeMap<Integer, Totals>(groupBy(Video::year));
+  }
+
+  /**
+   * Returns the videos that have never been rented, in order.
+   */
+  public List<Video> neverRented() {
+    return query(records -> records
+      .filter(r -> r.numRentals() == 0)
+      .map(Record::video)
+      .sorted()
+      .collect(Collectors.toList()));
+  }
+
+  /**
+   * Shuts down the report's pool, if it has its own.
+   */
+  public void close() {
+    if (_ownPool)
+      _pool.shutdown();
+  }
+
+  private static Stream<Record> stream(Inventory inventory) {
+    if (inventory instanceof InventorySnapshot)
+      return ((InventorySnapshot) inventory).stream();
+    if (inventory instanceof CachedInventory)
+      return ((CachedInventory) inventory).inventory().stream();
+    if (inventory instanceof InventorySet)
+      return ((InventorySet) inventory).stream();
+    return StreamSupport.stream(inventory.spliterator(), true);
+  }
+}
@@ -0,0 +1,104 @@
+package shop.data;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>A place in the waitlist of a video whose copies are all checked out.</p>
+ *
+ * <p>When a copy is checked in, or copies are added, it is handed to the
+ * oldest waiting reservation: the copy stays checked out, counts as a new
+ * rental, and the reservation's future completes with the updated
+ * record.</p>
+ *
+ * <p>If the command that served a reservation is undone, the reservation
+ * goes back to the head of the waitlist and <code>future()</code> returns
+ * a new, incomplete future.</p>
+ *
+ * <p>A copy is handed over in two steps: the inventory claims the
+ * reservation while the video is locked, and completes the future once
+ * it is unlocked, so that dependent actions run without the inventory's
+ * locks.  A claimed reservation can no longer be cancelled.</p>
+ *
+ * @see Data#newReservation(Inventory, Video)
+ */
+public final class Reservation {
+  private final Video _video;
+  private volatile CompletableFuture<Record> _future = new CompletableFuture<Record>();
+  private volatile boolean _cancelled;
+  private boolean _claimed; // guarded by this
+  private volatile Record _record;
+
+  Reservation(Video video) {
+    _video = video;
+  }
+
+  /**
+   * Returns the reserved video.
+   */
+  public Video video() {
+    return _video;
+  }
+
+  /**
+   * Returns the future that completes when a copy is handed to this
+   * reservation.
+   */
+  public CompletableFuture<Record> future() {
+    return _future;
+  }
+
+  /**
+   * Leave the waitlist.  Has no effect once a copy has been handed over.
+   * @return true if the reservation was cancelled.
+   */
+  public boolean cancel() {
+    synchronized (this) {
+      if (_claimed || _future.isDone())
+        return false;
+      _cancelled = true;
+    }
+    return _future.cancel(false);
+  }
+
+  /**
+   * Returns true if the reservation was cancelled.
+   */
+  public boolean isCancelled() {
+    return _cancelled;
+  }
+
+  /**
+   * Reserve a copy for this reservation, unless it was cancelled.
+   * @return false if it was cancelled.
+   */
+  synchronized boolean claim() {
+    if (_cancelled)
+      return false;
+    _claimed = true;
+    return true;
+  }
+
+  /**
+   * Set the record the future completes with.
+   */
+  void hold(Record record) {
+    _record = record;
+  }
+
+  /**
+   * Complete the future of a claimed reservation.
+   */
+  void serve() {
+    _future.complete(_record);
+  }
+
+  /**
+   * Undo <code>claim</code> and <code>serve</code>.
+   */
+  synchronized void unserve() {
+    _claimed = false;
+    _record = null;
+    if (_future.isDone())
+      _future = new CompletableFuture<Record>();
+  }
+}
@@ -0,0 +1,123 @@
+package shop.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * Reconciles an inventory with one served by a <code>SyncServer</code>.
+ *
+ * <p>The two hash trees are compared from the root down, one level per
+ * round trip, descending only into the nodes that differ, so the cost
+ * grows with the number of buckets that differ rather than with the
+ * size of the inventories.  Then only the records of those buckets are
+ * sent, one way.</p>
+ *
+ * <p>The inventories may change while they are reconciled; changes
+ * made meanwhile may be missed, and are found by the next
+ * reconciliation.</p>
+ */
+final class SyncClient {
+  private SyncClient() {}
+
+  /**
+   * Reconcile <code>local</code> with the inventory served at
+   * <code>host:port</code>.
+   * @param push true to make the remote inventory match the local one,
+   * false for the other way round.
+   * @throws IOException if the connection fails, or the trees differ
+   * in depth.
+   */
+  static SyncResult sync(InventorySet local, String host, int port, boolean push) throws IOException {
+    MerkleTree tree = local.merkle();
+    try (Socket socket = new Socket(host, port)) {
+      socket.setTcpNoDelay(true);
+      Counting counting = new Counting(socket.getInputStream());
+      DataInputStream in = new DataInputStream(new BufferedInputStream(counting));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      out.writeInt(tree.depth());
+      out.flush();
+      if (in.readInt() != tree.depth())
+        throw new IOException("hash trees differ in depth");
+
+      int[] differing = differing(new int[] { 1 }, tree, in, out);
+      while (differing.length > 0 && differing[0] < tree.buckets()) {
+        int[] children = new int[2 * differing.length];
+        for (int i = 0; i < differing.length; i++) {
+          children[2 * i] = 2 * differing[i];
+          children[2 * i + 1] = 2 * differing[i] + 1;
+        }
+        differing = differing(children, tree, in, out);
+      }
+      BitSet buckets = new BitSet();
+      for (int node : differing)
+        buckets.set(node - tree.buckets());
+
+      int changed = 0;
+      if (!buckets.isEmpty()) {
+        if (push) {
+          out.writeByte(SyncServer.APPLY);
+          SyncServer.writeBuckets(out, buckets);
+          SyncServer.writeRecords(out, local.bucketRecords(buckets));
+          out.flush();
+          changed = in.readInt();
+        } else {
+          out.writeByte(SyncServer.BUCKETS);
+          SyncServer.writeBuckets(out, buckets);
+          out.flush();
+          Map<Video,Record> records = SyncServer.readRecords(in);
+          changed = SyncServer.reconcile(local, buckets, records);
+        }
+      }
+      return new SyncResult(buckets.cardinality(), changed, out.size(), counting.count);
+    }
+  }
+
+  /**
+   * Returns the nodes whose hashes differ from the remote tree's.
+   */
+  private static int[] differing(int[] nodes, MerkleTree tree, DataInputStream in, DataOutputStream out) throws IOException {
+    out.writeByte(SyncServer.NODES);
+    SyncServer.writeInts(out, nodes);
+    out.flush();
+    if (in.readInt() != nodes.length)
+      throw new IOException("bad reply");
+    int[] differing = new int[nodes.length];
+    int n = 0;
+    for (int node : nodes) {
+      if (in.readLong() != tree.node(node))
+        differing[n++] = node;
+    }
+    return Arrays.copyOf(differing, n);
+  }
+
+  /**
+   * Counts the bytes read through it.
+   */
+  private static final class Counting extends FilterInputStream {
+    long count;
+    Counting(InputStream in) {
+      super(in);
+    }
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0)
+        count++;
+      return b;
+    }
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0)
+        count += n;
+      return n;
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package shop.data;
+
+/**
+ * What a reconciliation of two inventories found and cost.
+ * @param buckets the number of buckets that differed.
+ * @param records the number of records changed to make them agree.
+ * @param bytesSent the bytes sent to the other inventory.
+ * @param bytesReceived the bytes received from it.
+ * @see Data#syncFrom(Inventory, String, int)
+ * @see Data#syncTo(Inventory, String, int)
+ */
+public record SyncResult(int buckets, int records, long bytesSent, long bytesReceived) {
+}
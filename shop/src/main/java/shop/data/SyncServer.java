@@ -0,0 +1,203 @@
+package shop.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves an inventory's hash tree and records to other inventories
+ * reconciling with it.
+ *
+ * <p>After connecting, a client sends the depth of its hash tree and
+ * the server replies with its own; the connection is dropped if they
+ * differ.  The client then sends requests, each starting with a type
+ * byte, and reads each reply before sending the next:</p>
+ * <ul>
+ * <li><code>NODES count index*</code>: the reply is <code>count
+ * hash*</code>, the hashes of the given nodes.</li>
+ * <li><code>BUCKETS count bucket*</code>: the reply is <code>count
+ * record*</code>, the records in the given buckets.</li>
+ * <li><code>APPLY count bucket* count record*</code>: the server makes
+ * the given buckets hold exactly the given records, and replies with
+ * the number of records it changed.</li>
+ * </ul>
+ * <p>Records are encoded as by <code>ReplicationCodec</code>.</p>
+ *
+ * @see Data#newSyncServer(Inventory, int)
+ * @see Data#syncFrom(Inventory, String, int)
+ */
+public final class SyncServer implements Closeable {
+  static final byte NODES = 1;
+  static final byte BUCKETS = 2;
+  static final byte APPLY = 3;
+
+  private final InventorySet _inventory;
+  private final ServerSocket _server;
+  private final Set<Socket> _clients = ConcurrentHashMap.newKeySet();
+  private volatile boolean _closed;
+
+  SyncServer(InventorySet inventory, int port) throws IOException {
+    inventory.merkle(); // fail now if the inventory keeps no tree
+    _inventory = inventory;
+    _server = new ServerSocket(port);
+    Thread acceptor = new Thread(this::accept, "sync-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Returns the port clients connect to.
+   */
+  public int port() {
+    return _server.getLocalPort();
+  }
+
+  /**
+   * Stops accepting clients and disconnects the connected ones.
+   */
+  public void close() throws IOException {
+    _closed = true;
+    _server.close();
+    for (Socket s : _clients)
+      s.close();
+  }
+
+  private void accept() {
+    while (!_closed) {
+      try {
+        Socket socket = _server.accept();
+        socket.setTcpNoDelay(true);
+        Thread handler = new Thread(() -> serve(socket), "sync-handler");
+        handler.setDaemon(true);
+        handler.start();
+      } catch (IOException e) {
+        // the server socket was closed
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    _clients.add(socket);
+    MerkleTree tree = _inventory.merkle();
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      int depth = in.readInt();
+      out.writeInt(tree.depth());
+      out.flush();
+      if (depth != tree.depth())
+        return;
+      for (;;) {
+        // Read each request whole before replying, so neither side
+        // blocks writing while the other is
+        byte type = in.readByte();
+        if (type == NODES) {
+          int[] nodes = readInts(in);
+          out.writeInt(nodes.length);
+          for (int i : nodes)
+            out.writeLong(tree.node(i));
+        } else if (type == BUCKETS) {
+          BitSet buckets = readBuckets(in, tree);
+          writeRecords(out, _inventory.bucketRecords(buckets));
+        } else if (type == APPLY) {
+          BitSet buckets = readBuckets(in, tree);
+          Map<Video,Record> records = readRecords(in);
+          out.writeInt(reconcile(_inventory, buckets, records));
+        } else {
+          return;
+        }
+        out.flush();
+      }
+    } catch (IOException e) {
+      // the client disconnected
+    } catch (IllegalArgumentException e) {
+      // a node or bucket out of range
+    } finally {
+      _clients.remove(socket);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+
+  /**
+   * Make the given buckets of <code>inventory</code> hold exactly
+   * <code>records</code>, changing only the records that differ.
+   * @return the number of records changed.
+   */
+  static int reconcile(InventorySet inventory, BitSet buckets, Map<Video,Record> records) {
+    Map<Video,Record> ours = inventory.bucketRecords(buckets);
+    Map<Video,Record> changes = new HashMap<Video,Record>();
+    for (Video v : ours.keySet()) {
+      if (!records.containsKey(v))
+        changes.put(v, null);
+    }
+    for (Record r : records.values()) {
+      Record old = ours.get(r.video());
+      if (old == null || MerkleTree.digest(old) != MerkleTree.digest(r))
+        changes.put(r.video(), r);
+    }
+    inventory.replaceEntries(changes, Change.Cause.SYNC);
+    return changes.size();
+  }
+
+  static void writeInts(DataOutput out, int[] values) throws IOException {
+    out.writeInt(values.length);
+    for (int v : values)
+      out.writeInt(v);
+  }
+
+  static int[] readInts(DataInput in) throws IOException {
+    int[] values = new int[in.readInt()];
+    for (int i = 0; i < values.length; i++)
+      values[i] = in.readInt();
+    return values;
+  }
+
+  static void writeBuckets(DataOutput out, BitSet buckets) throws IOException {
+    writeInts(out, buckets.stream().toArray());
+  }
+
+  /**
+   * @throws IllegalArgumentException if a bucket is out of range.
+   */
+  static BitSet readBuckets(DataInput in, MerkleTree tree) throws IOException {
+    BitSet buckets = new BitSet();
+    for (int b : readInts(in)) {
+      if (b < 0 || b >= tree.buckets())
+        throw new IllegalArgumentException();
+      buckets.set(b);
+    }
+    return buckets;
+  }
+
+  static void writeRecords(DataOutput out, Map<Video,Record> records) throws IOException {
+    out.writeInt(records.size());
+    for (Record r : records.values())
+      ReplicationCodec.writeRecord(out, r);
+  }
+
+  static Map<Video,Record> readRecords(DataInput in) throws IOException {
+    int n = in.readInt();
+    Map<Video,Record> records = new HashMap<Video,Record>();
+    for (int i = 0; i < n; i++) {
+      Record r = ReplicationCodec.readRecord(in);
+      records.put(r.video(), r);
+    }
+    return records;
+  }
+}
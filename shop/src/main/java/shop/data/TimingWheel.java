@@ -0,0 +1,161 @@
+package shop.data;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel: timers in constant time, however many
+ * are pending.
+ *
+ * <p>Time advances in ticks.  Each of the <code>LEVELS</code> wheels has
+ * <code>SLOTS</code> slots, a slot of level <code>i</code> spanning
+ * <code>SLOTS^i</code> ticks; a timer goes in the lowest level whose
+ * span of the wheel reaches its due tick.  As each tick is processed,
+ * the level 0 slot for it fires, and at the start of each turn of a
+ * level its current slot is cascaded: its timers are rescheduled into
+ * lower levels.  Each timer is cascaded at most once per level, and
+ * stretches with no timer due are skipped a turn of a wheel at a time,
+ * so advancing costs little more than the timers fired.</p>
+ *
+ * <p>Timers are intrusive doubly linked nodes, so scheduling and
+ * cancelling do not allocate or search.  Not thread-safe.</p>
+ */
+final class TimingWheel<T extends TimingWheel.Timer> {
+  static final int LEVELS = 6;
+  static final int SHIFT = 6;
+  static final int SLOTS = 1 << SHIFT;
+  static final int MASK = SLOTS - 1;
+
+  /**
+   * A node of a slot's list; unlinked when not scheduled.
+   */
+  static class Timer {
+    Timer prev, next;
+    long tick;
+    int level;
+
+    final boolean scheduled() {
+      return next != null;
+    }
+  }
+
+  private final Timer[] _slots = new Timer[LEVELS * SLOTS];
+  private final int[] _counts = new int[LEVELS];
+  private long _tick; // the next tick to process
+  private int _size;
+
+  /**
+   * @param tick the first tick not yet processed.
+   */
+  TimingWheel(long tick) {
+    for (int i = 0; i < _slots.length; i++) {
+      Timer head = new Timer();
+      head.prev = head.next = head;
+      _slots[i] = head;
+    }
+    _tick = tick;
+  }
+
+  /**
+   * Returns the number of timers scheduled.
+   */
+  int size() {
+    return _size;
+  }
+
+  /**
+   * Schedules <code>timer</code> to fire at tick <code>tick</code>, or at
+   * the next tick processed if that has passed.
+   * @throws IllegalArgumentException if the timer is already scheduled.
+   */
+  void schedule(T timer, long tick) {
+    if (timer.scheduled())
+      throw new IllegalArgumentException("already scheduled");
+    timer.tick = Math.max(tick, _tick);
+    insert(timer);
+    _size++;
+  }
+
+  /**
+   * Unschedules <code>timer</code>; returns false if it was not
+   * scheduled.
+   */
+  boolean cancel(T timer) {
+    if (!timer.scheduled())
+      return false;
+    unlink(timer);
+    _size--;
+    return true;
+  }
+
+  /**
+   * Processes the ticks up to and including <code>tick</code>, passing
+   * each timer that fires to <code>fired</code>, in order of due tick.
+   */
+  @SuppressWarnings("unchecked")
+  void advance(long tick, Consumer<? super T> fired) {
+    while (_tick <= tick) {
+      // Nothing happens before the next turn of the lowest level in use
+      int lowest = 0;
+      while (lowest < LEVELS && _counts[lowest] == 0)
+        lowest++;
+      if (lowest == LEVELS) {
+        _tick = tick + 1;
+        return;
+      }
+      if (lowest > 0) {
+        long turn = 1L << (SHIFT * lowest);
+        _tick = Math.min((_tick + turn - 1) & -turn, tick + 1);
+        if (_tick > tick)
+          return;
+      }
+      // Cascade from the highest level whose turn starts at this tick
+      int level = 0;
+      while (level < LEVELS - 1 && (_tick & ((1L << (SHIFT * (level + 1))) - 1)) == 0)
+        level++;
+      for (; level > 0; level--) {
+        Timer head = slot(level, _tick);
+        while (head.next != head) {
+          Timer t = head.next;
+          unlink(t);
+          insert(t);
+        }
+      }
+      Timer head = slot(0, _tick);
+      while (head.next != head) {
+        Timer t = head.next;
+        unlink(t);
+        _size--;
+        fired.accept((T) t);
+      }
+      _tick++;
+    }
+  }
+
+  private void insert(Timer timer) {
+    long delta = timer.tick - _tick;
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (SHIFT * (level + 1)))
+      level++;
+    // Beyond the top wheel's reach, wait in its furthest slot and be
+    // cascaded back into it
+    long tick = Math.min(timer.tick, _tick + (1L << (SHIFT * LEVELS)) - 1);
+    Timer head = slot(level, tick);
+    timer.level = level;
+    _counts[level]++;
+    timer.prev = head.prev;
+    timer.next = head;
+    head.prev.next = timer;
+    head.prev = timer;
+  }
+
+  private Timer slot(int level, long tick) {
+    return _slots[level * SLOTS + (int) ((tick >>> (SHIFT * level)) & MASK)];
+  }
+
+  private void unlink(Timer timer) {
+    _counts[timer.level]--;
+    timer.prev.next = timer.next;
+    timer.next.prev = timer.prev;
+    timer.prev = timer.next = null;
+  }
+}
@@ -0,0 +1,23 @@
+package shop.data;
+
+/**
+ * Store-wide or per-group aggregates of records: the number of titles
+ * and the copies owned, out and rented.
+ * @see Inventory#totals()
+ * @see Reports
+ */
+public record Totals(long titles, long owned, long out, long rentals) {
+  /**
+   * Returns the fraction of the copies owned that are out.
+   */
+  public double utilization() {
+    return owned <= 0 ? 0 : Math.min(1, (double) out / owned);
+  }
+
+  /**
+   * Returns the fraction of the copies owned that are available.
+   */
+  public double availability() {
+    return owned <= 0 ? 0 : 1 - utilization();
+  }
+}
@@ -0,0 +1,184 @@
+package shop.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import shop.command.Outcome;
+import shop.metrics.CommandMetrics;
+import shop.metrics.CommandStats;
+
+/**
+ * A command that checks out, checks in, adds or removes copies of
+ * several videos as one atomic change, such as renting a box set.
+ *
+ * <p>Unlike a <code>Composite</code>, a transaction is all or nothing
+ * and isolated from other commands: it locks the videos it names in
+ * their natural order, so that transactions cannot deadlock, checks
+ * every line, and either changes every record or none.  Transactions
+ * on disjoint videos do not block each other.  A transaction is one
+ * entry in the history, and undoing it restores all its videos
+ * together.</p>
+ *
+ * <p>Lines are applied in the order they were added; a video may
+ * appear in several lines.</p>
+ * @see Data#newTransaction(Inventory)
+ */
+public final class Transaction extends InstrumentedCommand {
+  private static final CommandStats STATS = CommandMetrics.stats("transaction");
+
+  /**
+   * One change to one video.
+   */
+  static final class Line {
+    private static final int ADD = 0, OUT = 1, IN = 2;
+    final Video video;
+    final int op;
+    final int change;
+    final long expected;
+    Line(Video video, int op, int change, long expected) {
+      this.video = video;
+      this.op = op;
+      this.change = change;
+      this.expected = expected;
+    }
+    /**
+     * Returns the record after this line, null if it is removed, or a
+     * failure record.
+     */
+    Record apply(Record rec) {
+      switch (op) {
+        case OUT: return InventorySet.checkedOut(video, rec);
+        case IN:  return InventorySet.checkedIn(video, rec);
+        default:  return InventorySet.added(video, rec, change);
+      }
+    }
+    /**
+     * Returns true if this line may make a copy available.
+     */
+    boolean frees() {
+      return op != OUT;
+    }
+    Change.Cause cause() {
+      switch (op) {
+        case OUT: return Change.Cause.OUT;
+        case IN:  return Change.Cause.IN;
+        default:  return Change.Cause.ADD;
+      }
+    }
+  }
+
+  private final InventorySet _inventory;
+  private final List<Line> _lines = new ArrayList<Line>();
+  private boolean _started;
+  private Map<Video,Record> _oldvalue;
+  private List<Reservation> _served = Collections.emptyList();
+
+  Transaction(InventorySet inventory) {
+    super(STATS);
+    _inventory = inventory;
+  }
+
+  /**
+   * Check out a copy of <code>video</code>.
+   * @return this transaction.
+   */
+  public Transaction checkOut(Video video) {
+    return line(video, Line.OUT, 0, InventorySet.ANY);
+  }
+
+  /**
+   * Check out a copy of <code>video</code> if its record still has the
+   * version read.
+   * @return this transaction.
+   */
+  public Transaction checkOut(Video video, long expectedVersion) {
+    return line(video, Line.OUT, 0, expectedVersion);
+  }
+
+  /**
+   * Check in a copy of <code>video</code>.
+   * @return this transaction.
+   */
+  public Transaction checkIn(Video video) {
+    return line(video, Line.IN, 0, InventorySet.ANY);
+  }
+
+  /**
+   * Check in a copy of <code>video</code> if its record still has the
+   * version read.
+   * @return this transaction.
+   */
+  public Transaction checkIn(Video video, long expectedVersion) {
+    return line(video, Line.IN, 0, expectedVersion);
+  }
+
+  /**
+   * Add copies of <code>video</code>, or remove them if
+   * <code>change</code> is negative.
+   * @return this transaction.
+   */
+  public Transaction add(Video video, int change) {
+    return line(video, Line.ADD, change, InventorySet.ANY);
+  }
+
+  /**
+   * Add or remove copies of <code>video</code> if its record still has
+   * the version read.
+   * @param expectedVersion the version read, or <code>Record.ABSENT</code>.
+   * @return this transaction.
+   */
+  public Transaction add(Video video, int change, long expectedVersion) {
+    return line(video, Line.ADD, change, expectedVersion);
+  }
+
+  /**
+   * Returns the number of lines.
+   */
+  public int size() {
+    return _lines.size();
+  }
+
+  private Transaction line(Video video, int op, int change, long expected) {
+    if (video == null)
+      throw new IllegalArgumentException();
+    if (_started)
+      throw new IllegalStateException("already run");
+    _lines.add(new Line(video, op, change, expected));
+    return this;
+  }
+
+  /**
+   * Run the transaction.
+   * @return <code>Outcome.OK</code>, or the outcome of the first line
+   * that failed.
+   */
+  Outcome doExecute() {
+    _started = true;
+    Map<Video,Record> old = new HashMap<Video,Record>();
+    List<Reservation> served = new ArrayList<Reservation>();
+    Outcome outcome = _inventory.apply(_lines, true, null, old, served);
+    if (!outcome.succeeded())
+      return outcome;
+    _oldvalue = old;
+    _served = served;
+    _inventory.getHistory().add(this);
+    return Outcome.OK;
+  }
+
+  void doUndo() {
+    _inventory.replaceEntries(_oldvalue, Change.Cause.UNDO);
+    _inventory.requeue(_served);
+  }
+
+  void doRedo() {
+    List<Reservation> served = new ArrayList<Reservation>();
+    Outcome outcome = _inventory.apply(_lines, false, Change.Cause.REDO, new HashMap<Video,Record>(), served);
+    if (!outcome.succeeded())
+      throw new IllegalArgumentException(outcome.reason());
+    _served = served;
+  }
+
+}
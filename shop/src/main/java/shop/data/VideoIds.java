@@ -0,0 +1,52 @@
+package shop.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns each video a small, dense <code>int</code> id, so that
+ * structures with many entries per video can store an <code>int</code>
+ * instead of a reference.  Ids are never reused.  Safe for concurrent
+ * use.
+ */
+final class VideoIds {
+  private final Map<Video,Integer> _ids = new HashMap<Video,Integer>();
+  private final List<Video> _videos = new ArrayList<Video>();
+
+  /**
+   * Returns the id of <code>video</code>, assigning one if needed.
+   */
+  synchronized int intern(Video video) {
+    Integer id = _ids.get(video);
+    if (id == null) {
+      id = _videos.size();
+      _ids.put(video, id);
+      _videos.add(video);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the id of <code>video</code>, or -1 if it has none.
+   */
+  synchronized int id(Video video) {
+    Integer id = _ids.get(video);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Returns the video with the given id.
+   */
+  synchronized Video video(int id) {
+    return _videos.get(id);
+  }
+
+  /**
+   * Returns the number of ids assigned.
+   */
+  synchronized int size() {
+    return _videos.size();
+  }
+}
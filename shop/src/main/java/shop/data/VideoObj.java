@@ -1,5 +1,7 @@
 package shop.data;
 
+import shop.diagnostics.Diagnostics;
+
 /**
  * Immutable Data Class for video objects.
  * Comprises a triple: title, year, director.
@@ -21,7 +23,7 @@ public record VideoObj(String title, int year, String director) implements Video
         || (director == null)
         || (year <= 1800)
         || (year >= 5000)) {
-        System.out.println("Video Error: Invalid year");
+        Diagnostics.report("video", "Invalid year or missing title or director", year);
         throw new IllegalArgumentException();
         }
         this.title = title.trim();
@@ -29,7 +31,7 @@ public record VideoObj(String title, int year, String director) implements Video
         this.year = year;
         if (  ("".equals(this.title))
         || ("".equals(this.director))) {
-        System.out.println("Video Error: Empty title or director");
+        Diagnostics.report("video", "Empty title or director", null);
         throw new IllegalArgumentException();
         }
     }
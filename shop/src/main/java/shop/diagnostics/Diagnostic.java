@@ -0,0 +1,78 @@
+package shop.diagnostics;
+
+import java.time.Instant;
+
+/**
+ * One diagnostic event: what went wrong, where, and to what.
+ *
+ * <p>Events are formatted by the writer thread, not by the thread that
+ * reports them, so the subject must be immutable.</p>
+ * @see Diagnostics#report(String, String, Object)
+ */
+public final class Diagnostic {
+  private final long _millis;
+  private final String _thread;
+  private final String _source;
+  private final String _message;
+  private final Object _subject;
+
+  Diagnostic(long millis, String thread, String source, String message, Object subject) {
+    _millis = millis;
+    _thread = thread;
+    _source = source;
+    _message = message;
+    _subject = subject;
+  }
+
+  /**
+   * Returns the time the event was reported.
+   */
+  public Instant timestamp() {
+    return Instant.ofEpochMilli(_millis);
+  }
+
+  /**
+   * Returns the name of the thread that reported the event.
+   */
+  public String thread() {
+    return _thread;
+  }
+
+  /**
+   * Returns the part of the store that reported the event, such as
+   * <code>inventory</code>.
+   */
+  public String source() {
+    return _source;
+  }
+
+  public String message() {
+    return _message;
+  }
+
+  /**
+   * Returns the object the event is about, such as a video, or null.
+   */
+  public Object subject() {
+    return _subject;
+  }
+
+  /**
+   * Returns the event as one line of text.
+   */
+  public String toString() {
+    StringBuilder buffer = new StringBuilder();
+    buffer.append(timestamp());
+    buffer.append(" [");
+    buffer.append(_thread);
+    buffer.append("] ");
+    buffer.append(_source);
+    buffer.append(": ");
+    buffer.append(_message);
+    if (_subject != null) {
+      buffer.append(": ");
+      buffer.append(_subject);
+    }
+    return buffer.toString();
+  }
+}
@@ -0,0 +1,87 @@
+package shop.diagnostics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue of diagnostics, for many producers and a
+ * single consumer.
+ *
+ * <p>Each slot carries a sequence number saying whose turn it is: a
+ * producer claims the next position with a compare-and-set of the tail,
+ * then fills the slot and advances its sequence to publish it; the
+ * consumer takes the slot and advances the sequence a lap further to
+ * free it.  A producer that finds the queue full fails at once rather
+ * than waiting.</p>
+ */
+final class DiagnosticRing {
+  private final AtomicReferenceArray<Diagnostic> _slots;
+  private final AtomicLongArray _sequences;
+  private final int _mask;
+  private final AtomicLong _tail = new AtomicLong(); // next position to claim
+  private long _head; // next position to take; consumer only
+
+  /**
+   * @throws IllegalArgumentException if <code>capacity</code> is not a
+   * positive power of two.
+   */
+  DiagnosticRing(int capacity) {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+      throw new IllegalArgumentException();
+    _slots = new AtomicReferenceArray<Diagnostic>(capacity);
+    _sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++)
+      _sequences.set(i, i);
+    _mask = capacity - 1;
+  }
+
+  /**
+   * Add <code>d</code> to the queue.
+   * @return false if the queue is full.
+   */
+  boolean offer(Diagnostic d) {
+    for (;;) {
+      long tail = _tail.get();
+      int i = (int) tail & _mask;
+      long seq = _sequences.get(i);
+      if (seq == tail) {
+        if (_tail.compareAndSet(tail, tail + 1)) {
+          _slots.lazySet(i, d);
+          _sequences.lazySet(i, tail + 1);
+          return true;
+        }
+      } else if (seq < tail) {
+        return false; // the slot still holds an event from the last lap
+      }
+    }
+  }
+
+  /**
+   * Move up to <code>max</code> events to <code>batch</code>, oldest
+   * first.  Only the consumer may call this.
+   * @return the number of events moved.
+   */
+  int drainTo(List<Diagnostic> batch, int max) {
+    int n = 0;
+    while (n < max) {
+      int i = (int) _head & _mask;
+      if (_sequences.get(i) != _head + 1)
+        break; // empty, or claimed but not yet filled
+      batch.add(_slots.get(i));
+      _slots.lazySet(i, null);
+      _sequences.lazySet(i, _head + _mask + 1);
+      _head++;
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Returns the number of events ever added.
+   */
+  long added() {
+    return _tail.get();
+  }
+}
@@ -0,0 +1,46 @@
+package shop.diagnostics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Where the writer thread sends diagnostics, a batch at a time.
+ */
+public interface DiagnosticSink extends Closeable {
+  /**
+   * Write a batch of events, oldest first.
+   */
+  public void write(List<Diagnostic> batch) throws IOException;
+
+  public default void close() throws IOException {}
+
+  /**
+   * Returns a sink that prints each batch to <code>out</code> with a
+   * single call, and never closes it.
+   */
+  public static DiagnosticSink console(PrintStream out) {
+    return batch -> {
+      StringBuilder buffer = new StringBuilder();
+      for (Diagnostic d : batch) {
+        buffer.append(d);
+        buffer.append('\n');
+      }
+      out.print(buffer);
+      out.flush();
+    };
+  }
+
+  /**
+   * Returns a sink that appends to <code>path</code>, moving it aside
+   * once it grows past <code>maxBytes</code>.
+   * @param files the number of files kept, counting <code>path</code>.
+   * @throws IllegalArgumentException if <code>maxBytes</code> or
+   * <code>files</code> is not positive.
+   */
+  public static DiagnosticSink rotatingFile(Path path, long maxBytes, int files) throws IOException {
+    return new RotatingFileSink(path, maxBytes, files);
+  }
+}
@@ -0,0 +1,230 @@
+package shop.diagnostics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects diagnostics from the store without ever blocking it.
+ *
+ * <p>Reporting an event only adds it to a lock-free ring; a background
+ * thread takes the events in batches and writes them to a sink.  When
+ * more than <code>ratePerSecond</code> events arrive in a second, or the
+ * ring is full because the sink is slow, further events are dropped and
+ * counted, and the writer notes how many were lost.</p>
+ *
+ * <p>The static <code>report</code> method uses a shared instance,
+ * configured by system properties:</p>
+ * <ul>
+ * <li><code>shop.diagnostics</code>: <code>console</code> (the
+ * default) for standard output, <code>off</code>, or the path of a
+ * file to write.</li>
+ * <li><code>shop.diagnostics.maxBytes</code> and
+ * <code>shop.diagnostics.files</code>: when to rotate the file and how
+ * many files to keep (default 1 MiB and 5).</li>
+ * <li><code>shop.diagnostics.rate</code>: events accepted per second
+ * (default 1000).</li>
+ * </ul>
+ */
+public final class Diagnostics implements Closeable {
+  private static final int CAPACITY = 1024;
+  private static final int BATCH = 256;
+  private static final long WINDOW_NANOS = 1_000_000_000L;
+  private static final long IDLE_NANOS = 10_000_000L;
+
+  private final DiagnosticRing _ring = new DiagnosticRing(CAPACITY);
+  private final DiagnosticSink _sink;
+  private final int _rate;
+  private final Thread _writer;
+  private final LongAdder _dropped = new LongAdder();
+  // The current one-second window and the events accepted in it
+  private volatile long _window;
+  private final AtomicInteger _windowCount = new AtomicInteger();
+  // Set by the writer only: events taken from the ring, and written
+  private volatile long _taken;
+  private volatile long _written;
+  private volatile boolean _closed;
+
+  /**
+   * The shared instance, created on first use; null if diagnostics are
+   * off.
+   */
+  private static final class Shared {
+    static final Diagnostics INSTANCE = fromProperties();
+  }
+
+  /**
+   * Start a writer thread sending events to <code>sink</code>.
+   * @throws IllegalArgumentException if <code>ratePerSecond</code> is
+   * not positive.
+   */
+  public Diagnostics(DiagnosticSink sink, int ratePerSecond) {
+    if (sink == null || ratePerSecond <= 0)
+      throw new IllegalArgumentException();
+    _sink = sink;
+    _rate = ratePerSecond;
+    _window = System.nanoTime() / WINDOW_NANOS;
+    _writer = new Thread(this::drain, "diagnostics-writer");
+    _writer.setDaemon(true);
+    _writer.start();
+  }
+
+  private static Diagnostics fromProperties() {
+    String target = System.getProperty("shop.diagnostics", "console");
+    if (target.equals("off"))
+      return null;
+    int rate = Integer.getInteger("shop.diagnostics.rate", 1000);
+    DiagnosticSink sink;
+    if (target.equals("console")) {
+      sink = DiagnosticSink.console(System.out);
+    } else {
+      try {
+        sink = DiagnosticSink.rotatingFile(Paths.get(target),
+                                           Long.getLong("shop.diagnostics.maxBytes", 1 << 20),
+                                           Integer.getInteger("shop.diagnostics.files", 5));
+      } catch (IOException e) {
+        System.err.println("Cannot open diagnostics file " + target + ": " + e);
+        sink = DiagnosticSink.console(System.err);
+      }
+    }
+    Diagnostics diagnostics = new Diagnostics(sink, rate);
+    // Write what is left when the program exits
+    Runtime.getRuntime().addShutdownHook(new Thread(diagnostics::close, "diagnostics-close"));
+    return diagnostics;
+  }
+
+  /**
+   * Report an event to the shared instance.
+   * @param source the part of the store reporting, such as
+   * <code>inventory</code>.
+   * @param subject the object the event is about, which must be
+   * immutable, or null.
+   */
+  public static void report(String source, String message, Object subject) {
+    Diagnostics shared = Shared.INSTANCE;
+    if (shared != null)
+      shared.publish(source, message, subject);
+  }
+
+  /**
+   * Returns the shared instance, or null if diagnostics are off.
+   */
+  public static Diagnostics shared() {
+    return Shared.INSTANCE;
+  }
+
+  /**
+   * Queue an event for the writer.  Never blocks.
+   * @return false if the event was dropped.
+   */
+  public boolean publish(String source, String message, Object subject) {
+    if (_closed)
+      return false;
+    if (!admit()) {
+      _dropped.increment();
+      return false;
+    }
+    Diagnostic d = new Diagnostic(System.currentTimeMillis(), Thread.currentThread().getName(),
+                                  source, message, subject);
+    if (!_ring.offer(d)) {
+      _dropped.increment();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the current window has room for another event.
+   * Windows are reset without locking, so a few events more than the
+   * rate may get through when a window starts.
+   */
+  private boolean admit() {
+    long window = System.nanoTime() / WINDOW_NANOS;
+    if (window != _window) {
+      _window = window;
+      _windowCount.set(0);
+    }
+    return _windowCount.incrementAndGet() <= _rate;
+  }
+
+  /**
+   * Returns the number of events dropped, over the rate or because the
+   * ring was full.
+   */
+  public long dropped() {
+    return _dropped.sum();
+  }
+
+  /**
+   * Returns the number of events written to the sink.
+   */
+  public long written() {
+    return _written;
+  }
+
+  /**
+   * Wait until every event queued so far has been written.
+   */
+  public void flush() {
+    long target = _ring.added();
+    while (_taken < target && _writer.isAlive()) {
+      LockSupport.unpark(_writer);
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Write the queued events, stop the writer and close the sink.
+   * Later events are ignored.
+   */
+  public void close() {
+    _closed = true;
+    LockSupport.unpark(_writer);
+    try {
+      _writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void drain() {
+    List<Diagnostic> batch = new ArrayList<Diagnostic>(BATCH + 1);
+    long reported = 0; // drops already noted
+    for (;;) {
+      // Read before draining, so the events queued before close are written
+      boolean closed = _closed;
+      batch.clear();
+      int n = _ring.drainTo(batch, BATCH);
+      long dropped = _dropped.sum();
+      if (dropped != reported) {
+        batch.add(new Diagnostic(System.currentTimeMillis(), Thread.currentThread().getName(),
+                                 "diagnostics", (dropped - reported) + " events dropped", null));
+        reported = dropped;
+      }
+      if (!batch.isEmpty()) {
+        try {
+          _sink.write(batch);
+          _written += n;
+        } catch (IOException e) {
+          _dropped.add(n);
+          reported += n; // nowhere to note them
+        }
+        _taken += n;
+      } else if (closed) {
+        break;
+      } else {
+        LockSupport.parkNanos(this, IDLE_NANOS);
+      }
+    }
+    try {
+      _sink.close();
+    } catch (IOException e) {
+      // Nothing left to report it to
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package shop.diagnostics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends diagnostics to a file.  When the file grows past its limit it
+ * is renamed <code>name.1</code>, an existing <code>name.1</code> becomes
+ * <code>name.2</code>, and so on; the oldest file is deleted.
+ */
+final class RotatingFileSink implements DiagnosticSink {
+  private final Path _path;
+  private final long _maxBytes;
+  private final int _files;
+  private Writer _out;
+  private long _size;
+
+  RotatingFileSink(Path path, long maxBytes, int files) throws IOException {
+    if (maxBytes <= 0 || files <= 0)
+      throw new IllegalArgumentException();
+    _path = path;
+    _maxBytes = maxBytes;
+    _files = files;
+    open();
+  }
+
+  private void open() throws IOException {
+    _out = Files.newBufferedWriter(_path, StandardCharsets.UTF_8,
+                                   StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    _size = Files.size(_path);
+  }
+
+  public void write(List<Diagnostic> batch) throws IOException {
+    for (Diagnostic d : batch) {
+      String line = d + "\n";
+      _out.write(line);
+      _size += line.getBytes(StandardCharsets.UTF_8).length;
+      if (_size >= _maxBytes)
+        rotate();
+    }
+    _out.flush();
+  }
+
+  private void rotate() throws IOException {
+    _out.close();
+    Files.deleteIfExists(rotated(_files - 1));
+    for (int i = _files - 2; i >= 0; i--) {
+      Path from = rotated(i);
+      if (Files.exists(from))
+        Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+    }
+    open();
+  }
+
+  /**
+   * Returns the path of the <code>i</code>th older file; 0 is the
+   * current one.
+   */
+  private Path rotated(int i) {
+    return i == 0 ? _path : _path.resolveSibling(_path.getFileName() + "." + i);
+  }
+
+  public void close() throws IOException {
+    _out.close();
+  }
+}
@@ -0,0 +1,262 @@
+package shop.load;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import shop.command.AdmissionControl;
+import shop.command.Outcome;
+import shop.data.Data;
+import shop.data.Inventory;
+import shop.data.Record;
+import shop.data.Video;
+import shop.metrics.LatencyHistogram;
+
+/**
+ * Generates synthetic rental traffic against an inventory and reports
+ * throughput and latency percentiles per operation.
+ *
+ * <p>The catalog is built with <code>Data.newVideo</code> and
+ * <code>Data.newAddCmd</code>.  Worker threads then pick operations
+ * according to the configured mix and videos according to a Zipf
+ * distribution, so a few titles receive most of the traffic.</p>
+ *
+ * <p>The workers apply their operations concurrently; the inventory
+ * serializes the changes to each video.  With <code>--record</code>,
+ * each operation is applied and written while holding the inventory's
+ * monitor, so the file lists the operations in the order they were
+ * applied; <code>--replay</code> applies a recorded file in that order
+ * on one thread, which reproduces the run exactly.  The fingerprint
+ * printed at the end identifies the final inventory state.</p>
+ *
+ * <p><code>--admission</code> runs the operations through an
+ * <code>AdmissionControl</code> of that capacity, with the target
+ * latency in milliseconds given by <code>--target</code>.  Operations
+ * turned away are counted as shed, not timed, and their worker waits
+ * for the suggested retry delay.  They are not applied, so a recording
+ * of such a run does not list them.</p>
+ *
+ * <pre>
+ * java shop.load.LoadGenerator --videos 100000 --threads 8 --seconds 30 --zipf 1.1 --record run.wl
+ * java shop.load.LoadGenerator --replay run.wl
+ * java shop.load.LoadGenerator --threads 64 --mix out=90,list=10 --admission 16 --target 2
+ * </pre>
+ */
+public final class LoadGenerator {
+  static final String DEFAULT_MIX = "out=450,in=450,add=40,remove=30,undo=29,list=1";
+
+  private final Map<String, String> _options;
+  private final Map<Operation, LatencyHistogram> _latency = new HashMap<Operation, LatencyHistogram>();
+  private final Map<Operation, LongAdder> _failures = new HashMap<Operation, LongAdder>();
+  private final Map<Operation, LongAdder> _shed = new HashMap<Operation, LongAdder>();
+
+  private LoadGenerator(Map<String, String> options) {
+    _options = options;
+    for (Operation op : Operation.values()) {
+      _latency.put(op, new LatencyHistogram());
+      _failures.put(op, new LongAdder());
+      _shed.put(op, new LongAdder());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("--"))
+        throw new IllegalArgumentException("Expected an option: " + args[i]);
+      options.put(args[i].substring(2), args[i + 1]);
+    }
+    LoadGenerator generator = new LoadGenerator(options);
+    if (options.containsKey("replay"))
+      generator.replay(options.get("replay"));
+    else
+      generator.generate();
+  }
+
+  /**
+   * Returns video <code>i</code> of a generated catalog.
+   */
+  static Video video(int i) {
+    return Data.newVideo("Title " + i, 1900 + i % 120, "Director " + i % 5000);
+  }
+
+  static Video[] catalog(Inventory inventory, int videos, int copies) {
+    Video[] catalog = new Video[videos];
+    for (int i = 0; i < videos; i++) {
+      catalog[i] = video(i);
+      Data.newAddCmd(inventory, catalog[i], copies).run();
+    }
+    return catalog;
+  }
+
+  private void generate() throws Exception {
+    int videos = intOption("videos", 10000);
+    int copies = intOption("copies", 3);
+    int threads = intOption("threads", Runtime.getRuntime().availableProcessors());
+    long seconds = intOption("seconds", 10);
+    long opsPerThread = Long.parseLong(_options.getOrDefault("ops", Long.toString(Long.MAX_VALUE)));
+    long seed = Long.parseLong(_options.getOrDefault("seed", "42"));
+    ZipfSampler zipf = new ZipfSampler(videos, Double.parseDouble(_options.getOrDefault("zipf", "1.0")));
+    Operation[] mix = mix(_options.getOrDefault("mix", DEFAULT_MIX));
+
+    Inventory inventory = Data.newInventory();
+    Video[] catalog = catalog(inventory, videos, copies);
+    String recordPath = _options.get("record");
+    WorkloadFile.Writer recorder = recordPath == null ? null : new WorkloadFile.Writer(recordPath, videos, copies);
+    AdmissionControl admission = _options.containsKey("admission")
+      ? new AdmissionControl(intOption("admission", 0), intOption("target", 5)) : null;
+
+    long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+    List<Thread> workers = new ArrayList<Thread>();
+    long begin = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      SplittableRandom random = new SplittableRandom(seed + t);
+      Thread worker = new Thread(() -> {
+        for (long n = 0; n < opsPerThread && System.nanoTime() < deadline; n++) {
+          Operation op = mix[random.nextInt(mix.length)];
+          int video = zipf.sample(random) - 1;
+          long start = System.nanoTime();
+          boolean ok;
+          if (admission != null) {
+            Outcome outcome = admission.execute(op.shortName(), () -> apply(inventory, catalog, recorder, op, video));
+            if (outcome == Outcome.OVERLOADED) {
+              _shed.get(op).increment();
+              pause(admission.retryAfterMillis(op.shortName()));
+              continue;
+            }
+            ok = outcome.succeeded();
+          } else {
+            ok = apply(inventory, catalog, recorder, op, video);
+          }
+          record(op, start, ok);
+        }
+      }, "load-" + t);
+      workers.add(worker);
+      worker.start();
+    }
+    for (Thread worker : workers)
+      worker.join();
+    long elapsed = System.nanoTime() - begin;
+    if (recorder != null)
+      recorder.close();
+    System.out.printf("videos=%d copies=%d threads=%d zipf=%s mix=%s%n", videos, copies, threads,
+      _options.getOrDefault("zipf", "1.0"), _options.getOrDefault("mix", DEFAULT_MIX));
+    report(elapsed, inventory);
+  }
+
+  private void replay(String path) throws Exception {
+    try (WorkloadFile.Reader reader = new WorkloadFile.Reader(path)) {
+      Inventory inventory = Data.newInventory();
+      Video[] catalog = catalog(inventory, reader.videos(), reader.copies());
+      long begin = System.nanoTime();
+      while (reader.next()) {
+        long start = System.nanoTime();
+        boolean ok = reader.op().apply(inventory, catalog[reader.video()]);
+        record(reader.op(), start, ok);
+      }
+      System.out.printf("replay of %s: videos=%d copies=%d%n", path, reader.videos(), reader.copies());
+      report(System.nanoTime() - begin, inventory);
+    }
+  }
+
+  /**
+   * Applies <code>op</code> to a video of the catalog, and writes it to
+   * <code>recorder</code>, if any.
+   */
+  private static boolean apply(Inventory inventory, Video[] catalog, WorkloadFile.Writer recorder, Operation op, int video) {
+    if (recorder == null)
+      return op.apply(inventory, catalog[video]);
+    // The recording must list the operations in the order applied.
+    synchronized (inventory) {
+      boolean ok = op.apply(inventory, catalog[video]);
+      write(recorder, op, video);
+      return ok;
+    }
+  }
+
+  private static void pause(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void write(WorkloadFile.Writer recorder, Operation op, int video) {
+    try {
+      recorder.write(op, video);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void record(Operation op, long start, boolean ok) {
+    _latency.get(op).record(System.nanoTime() - start);
+    if (!ok)
+      _failures.get(op).increment();
+  }
+
+  private void report(long elapsedNanos, Inventory inventory) {
+    double seconds = elapsedNanos / 1e9;
+    long total = 0;
+    for (LatencyHistogram h : _latency.values())
+      total += h.count();
+    System.out.printf("%d operations in %.2f s: %.0f ops/s%n", total, seconds, total / seconds);
+    System.out.printf("%-6s %10s %8s %8s %10s %9s %9s %9s %9s %9s%n",
+      "op", "count", "failed", "shed", "ops/s", "mean(us)", "p50(us)", "p99(us)", "p99.9(us)", "max(us)");
+    for (Operation op : Operation.values()) {
+      LatencyHistogram h = _latency.get(op);
+      if (h.count() == 0 && _shed.get(op).sum() == 0)
+        continue;
+      System.out.printf("%-6s %10d %8d %8d %10.0f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+        op.shortName(), h.count(), _failures.get(op).sum(), _shed.get(op).sum(), h.count() / seconds,
+        h.mean() / 1e3, h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3,
+        h.percentile(0.999) / 1e3, h.max() / 1e3);
+    }
+    System.out.printf("fingerprint: %016x%n", fingerprint(inventory));
+  }
+
+  /**
+   * Returns a hash of the contents of the inventory that does not depend
+   * on iteration order.
+   */
+  static long fingerprint(Inventory inventory) {
+    long sum = 0;
+    for (Record r : inventory) {
+      long h = r.video().hashCode();
+      h = h * 31 + r.numOwned();
+      h = h * 31 + r.numOut();
+      h = h * 31 + r.numRentals();
+      h *= 0x9E3779B97F4A7C15L;
+      sum += h ^ (h >>> 32);
+    }
+    return sum;
+  }
+
+  /**
+   * Expands a mix like <code>out=45,in=45,list=10</code> into an array in
+   * which each operation appears as often as its weight.
+   */
+  static Operation[] mix(String spec) {
+    List<Operation> result = new ArrayList<Operation>();
+    for (String part : spec.split(",")) {
+      String[] kv = part.trim().split("=");
+      Operation op = Operation.forShortName(kv[0].trim());
+      for (int i = Integer.parseInt(kv[1].trim()); i > 0; i--)
+        result.add(op);
+    }
+    if (result.isEmpty())
+      throw new IllegalArgumentException("Empty mix: " + spec);
+    return result.toArray(new Operation[0]);
+  }
+
+  private int intOption(String name, int defaultValue) {
+    String value = _options.get(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+}
@@ -0,0 +1,75 @@
+package shop.load;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+import shop.data.Data;
+import shop.data.Inventory;
+import shop.data.Record;
+import shop.data.Video;
+
+/**
+ * The operations a workload is made of.
+ */
+enum Operation {
+  CHECK_OUT {
+    boolean apply(Inventory inventory, Video video) {
+      return Data.newOutCmd(inventory, video).run();
+    }
+  },
+  CHECK_IN {
+    boolean apply(Inventory inventory, Video video) {
+      return Data.newInCmd(inventory, video).run();
+    }
+  },
+  ADD {
+    boolean apply(Inventory inventory, Video video) {
+      return Data.newAddCmd(inventory, video, 1).run();
+    }
+  },
+  REMOVE {
+    boolean apply(Inventory inventory, Video video) {
+      return Data.newAddCmd(inventory, video, -1).run();
+    }
+  },
+  UNDO {
+    boolean apply(Inventory inventory, Video video) {
+      return Data.newUndoCmd(inventory).run();
+    }
+  },
+  LIST {
+    boolean apply(Inventory inventory, Video video) {
+      Iterator<Record> i = inventory.iterator(BY_VIDEO);
+      while (i.hasNext())
+        i.next();
+      return true;
+    }
+  };
+
+  static final Comparator<Record> BY_VIDEO = (r1, r2) -> r1.video().compareTo(r2.video());
+
+  /**
+   * Apply the operation to <code>video</code>, which some operations ignore.
+   * @return true if the operation succeeded.
+   */
+  abstract boolean apply(Inventory inventory, Video video);
+
+  /**
+   * Returns the name used on the command line, e.g. <code>out</code>.
+   */
+  String shortName() {
+    switch (this) {
+      case CHECK_OUT: return "out";
+      case CHECK_IN: return "in";
+      default: return name().toLowerCase();
+    }
+  }
+
+  static Operation forShortName(String name) {
+    for (Operation op : values()) {
+      if (op.shortName().equals(name))
+        return op;
+    }
+    throw new IllegalArgumentException("Unknown operation: " + name);
+  }
+}
@@ -0,0 +1,100 @@
+package shop.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A recorded workload: the catalog parameters followed by the operations
+ * in the order they were applied to the inventory.
+ *
+ * <p>Format: magic, catalog size, copies per video, then one
+ * <code>(byte operation, int video)</code> pair per operation.</p>
+ */
+final class WorkloadFile {
+  private static final int MAGIC = 0x5750_4c31; // "WPL1"
+
+  private WorkloadFile() {}
+
+  /**
+   * Writes operations to a workload file.
+   */
+  static final class Writer implements Closeable {
+    private final DataOutputStream _out;
+
+    Writer(String path, int videos, int copies) throws IOException {
+      _out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+      _out.writeInt(MAGIC);
+      _out.writeInt(videos);
+      _out.writeInt(copies);
+    }
+
+    void write(Operation op, int video) throws IOException {
+      _out.writeByte(op.ordinal());
+      _out.writeInt(video);
+    }
+
+    public void close() throws IOException {
+      _out.close();
+    }
+  }
+
+  /**
+   * Reads operations from a workload file.
+   */
+  static final class Reader implements Closeable {
+    private final DataInputStream _in;
+    private final int _videos;
+    private final int _copies;
+    private Operation _op;
+    private int _video;
+
+    Reader(String path) throws IOException {
+      _in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+      if (_in.readInt() != MAGIC)
+        throw new IOException(path + " is not a workload file");
+      _videos = _in.readInt();
+      _copies = _in.readInt();
+    }
+
+    int videos() {
+      return _videos;
+    }
+
+    int copies() {
+      return _copies;
+    }
+
+    /**
+     * Advance to the next operation.
+     * @return false at the end of the file.
+     */
+    boolean next() throws IOException {
+      try {
+        _op = Operation.values()[_in.readByte()];
+        _video = _in.readInt();
+        return true;
+      } catch (EOFException e) {
+        return false;
+      }
+    }
+
+    Operation op() {
+      return _op;
+    }
+
+    int video() {
+      return _video;
+    }
+
+    public void close() throws IOException {
+      _in.close();
+    }
+  }
+}
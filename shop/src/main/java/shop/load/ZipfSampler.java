@@ -0,0 +1,76 @@
+package shop.load;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples ranks 1..n with probability proportional to
+ * <code>1 / rank^exponent</code>.
+ *
+ * <p>Uses rejection-inversion sampling (Hormann and Derflinger), which
+ * needs constant memory and time whatever the number of elements, so it
+ * can model catalogs of millions of titles.</p>
+ */
+final class ZipfSampler {
+  private final int _n;
+  private final double _exponent;
+  private final double _hIntegralX1;
+  private final double _hIntegralN;
+  private final double _s;
+
+  ZipfSampler(int n, double exponent) {
+    if (n <= 0 || exponent <= 0)
+      throw new IllegalArgumentException();
+    _n = n;
+    _exponent = exponent;
+    _hIntegralX1 = hIntegral(1.5) - 1;
+    _hIntegralN = hIntegral(n + 0.5);
+    _s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+  }
+
+  /**
+   * Returns a rank between 1 and n; rank 1 is the most popular.
+   */
+  int sample(SplittableRandom random) {
+    while (true) {
+      double u = _hIntegralN + random.nextDouble() * (_hIntegralX1 - _hIntegralN);
+      double x = hIntegralInverse(u);
+      int k = (int) (x + 0.5);
+      if (k < 1)
+        k = 1;
+      else if (k > _n)
+        k = _n;
+      if (k - x <= _s || u >= hIntegral(k + 0.5) - h(k))
+        return k;
+    }
+  }
+
+  private double hIntegral(double x) {
+    double logX = Math.log(x);
+    return helper2((1 - _exponent) * logX) * logX;
+  }
+
+  private double h(double x) {
+    return Math.exp(-_exponent * Math.log(x));
+  }
+
+  private double hIntegralInverse(double x) {
+    double t = x * (1 - _exponent);
+    if (t < -1)
+      t = -1;
+    return Math.exp(helper1(t) * x);
+  }
+
+  /** Returns <code>log(1 + x) / x</code>, accurate near zero. */
+  private static double helper1(double x) {
+    if (Math.abs(x) > 1e-8)
+      return Math.log1p(x) / x;
+    return 1 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+  }
+
+  /** Returns <code>(exp(x) - 1) / x</code>, accurate near zero. */
+  private static double helper2(double x) {
+    if (Math.abs(x) > 1e-8)
+      return Math.expm1(x) / x;
+    return 1 + x * 0.5 * (1 + x * (1.0 / 3.0) * (1 + 0.25 * x));
+  }
+}
@@ -7,19 +7,26 @@ import javax.swing.JOptionPane;
 /*
  * The GUIInputSource class implements the InputSource interface.
  * It is used to get input from the user using a GUI.
+ * Dialogs are shown on the event dispatch thread even when a command asks from a background worker.
  */
 public class GUIInputSource implements InputSource {
 
     @Override
     public String validateInput(Predicate<String> validator, String prompt, String errorPrompt) {
         String input;
-        input = JOptionPane.showInputDialog(null, prompt);
+        input = showInputDialog(prompt);
         if(validator.test(input)){
             return input;
         }
         do {
-            input = JOptionPane.showInputDialog(null, errorPrompt);
+            input = showInputDialog(errorPrompt);
         } while (!validator.test(input));
         return input;
     }
+
+    private static String showInputDialog(String prompt) {
+        String[] input = new String[1];
+        GUIOutputSource.onEventThread(() -> input[0] = JOptionPane.showInputDialog(null, prompt));
+        return input[0];
+    }
 }
@@ -1,20 +1,41 @@
 package shop.main;
 
+import java.lang.reflect.InvocationTargetException;
+
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 /**
  * The GUIOutputSource class implements the OutputSource interface.
  * It is used to print messages to the user using a GUI.
+ * Commands run on a background worker, so dialogs are shown on the event dispatch thread
+ * and the worker waits until they are dismissed.
  */
 public class GUIOutputSource implements OutputSource {
 
     @Override
     public void printMessage(String message) {
-        JOptionPane.showMessageDialog(null, message);
+        onEventThread(() -> JOptionPane.showMessageDialog(null, message));
     }
 
     public void printError(String message) {
-        JOptionPane.showMessageDialog(null, message, "Error", JOptionPane.ERROR_MESSAGE);
+        onEventThread(() -> JOptionPane.showMessageDialog(null, message, "Error", JOptionPane.ERROR_MESSAGE));
     }
 
+    /*
+     * Runs the dialog on the event dispatch thread and waits for it to finish.
+     */
+    static void onEventThread(Runnable dialog) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            dialog.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(dialog);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
 }
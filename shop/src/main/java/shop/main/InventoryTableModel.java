@@ -0,0 +1,224 @@
+package shop.main;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+import shop.data.Change;
+import shop.data.Data;
+import shop.data.Inventory;
+import shop.data.InventoryListener;
+import shop.data.Record;
+import shop.data.Video;
+
+/**
+ * The InventoryTableModel class is a TableModel that shows the records of an inventory,
+ * sorted by video and optionally filtered by a substring of the title or director.
+ *
+ * The model keeps the sorted rows as immutable records in a SortedRows index, so the table
+ * only asks for the cells of the rows it paints, a lookup by position, and never touches the
+ * inventory on the event dispatch thread. The inventory has no index by position, so the rows
+ * are loaded by one sorted scan on the worker that runs commands, the only thread that
+ * mutates the inventory, when the model is created, when the filter changes and when asked
+ * to reload; the scan reports its progress. Afterwards the model listens to the inventory and
+ * applies each change as a single row insert, update or delete, which moves at most one block
+ * of rows; changes are queued and applied in one batch per event, and a batch too large to
+ * apply row by row is replaced by a reload.
+ */
+public class InventoryTableModel extends AbstractTableModel implements InventoryListener {
+    private static final long serialVersionUID = 1L;
+    static final int MAX_BATCH = 1000;
+    static final int PROGRESS_STEP = 65536;
+
+    private static final String[] COLUMNS = { "Title", "Year", "Director", "Owned", "Out", "Rentals" };
+    private static final Comparator<Record> BY_VIDEO = (a, b) -> a.video().compareTo(b.video());
+
+    /** The rows loaded by the worker, to replace the model's rows. */
+    private static final class Snapshot {
+        final SortedRows rows;
+        Snapshot(SortedRows rows) {
+            this.rows = rows;
+        }
+    }
+
+    private final Inventory inventory;
+    private final Executor worker;
+    private final IntConsumer progress;
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<Object>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicLong changeCount = new AtomicLong();
+    // Only accessed on the event dispatch thread.
+    private SortedRows rows = new SortedRows(BY_VIDEO);
+    private String filter = "";
+    private boolean reloadPending;
+
+    /**
+     * Constructor for the InventoryTableModel class.
+     * @param inventory The inventory to show.
+     * @param worker The executor that runs commands against the inventory.
+     * @param progress Receives the percentage of a reload that is done, on the event dispatch thread.
+     */
+    public InventoryTableModel(Inventory inventory, Executor worker, IntConsumer progress) {
+        this.inventory = inventory;
+        this.worker = worker;
+        this.progress = progress;
+        worker.execute(() -> Data.addListener(inventory, this));
+        reload();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 0 || column == 2 ? String.class : Integer.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Record r = rows.get(row);
+        switch (column) {
+            case 0: return r.video().title();
+            case 1: return r.video().year();
+            case 2: return r.video().director();
+            case 3: return r.numOwned();
+            case 4: return r.numOut();
+            default: return r.numRentals();
+        }
+    }
+
+    /**
+     * Returns the video shown in a row.
+     */
+    public Video videoAt(int row) {
+        return rows.get(row).video();
+    }
+
+    /**
+     * Shows only the records whose title or director contains the text, ignoring case.
+     * Must be called on the event dispatch thread.
+     */
+    public void setFilter(String text) {
+        String normalized = text.trim().toLowerCase(Locale.ROOT);
+        if (normalized.equals(filter))
+            return;
+        filter = normalized;
+        reload();
+    }
+
+    /**
+     * Reloads all rows on the worker.
+     * Changes queued before the new rows arrive are already part of them and are skipped.
+     */
+    public void reload() {
+        reloadPending = true;
+        String f = filter;
+        worker.execute(() -> {
+            SortedRows loaded = new SortedRows(BY_VIDEO);
+            int size = Math.max(1, inventory.size());
+            int scanned = 0;
+            for (Iterator<Record> i = inventory.iterator(BY_VIDEO); i.hasNext(); ) {
+                Record r = i.next();
+                if (matches(r, f))
+                    loaded.append(r);
+                if (++scanned % PROGRESS_STEP == 0) {
+                    int percent = (int) (100L * scanned / size);
+                    SwingUtilities.invokeLater(() -> progress.accept(percent));
+                }
+            }
+            enqueue(new Snapshot(loaded));
+        });
+    }
+
+    /**
+     * Called on the worker for every change to the inventory.
+     */
+    @Override
+    public void changed(Change change) {
+        changeCount.incrementAndGet();
+        enqueue(change);
+    }
+
+    /**
+     * Returns the number of changes to the inventory the model has been told of, so the
+     * progress of a running command can be shown.
+     */
+    public long changeCount() {
+        return changeCount.get();
+    }
+
+    private void enqueue(Object update) {
+        pending.add(update);
+        if (drainScheduled.compareAndSet(false, true))
+            SwingUtilities.invokeLater(this::drain);
+    }
+
+    /**
+     * Applies the queued updates on the event dispatch thread.
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        int changes = 0;
+        Object update;
+        while ((update = pending.poll()) != null) {
+            if (update instanceof Snapshot) {
+                rows = ((Snapshot) update).rows;
+                reloadPending = false;
+                progress.accept(100);
+                fireTableDataChanged();
+            } else if (!reloadPending) {
+                if (++changes > MAX_BATCH)
+                    reload();
+                else
+                    apply((Change) update);
+            }
+        }
+    }
+
+    private void apply(Change change) {
+        Record oldRecord = change.oldRecord() != null && matches(change.oldRecord(), filter) ? change.oldRecord() : null;
+        Record newRecord = change.newRecord() != null && matches(change.newRecord(), filter) ? change.newRecord() : null;
+        if (oldRecord == null && newRecord == null)
+            return;
+        Record key = oldRecord != null ? oldRecord : newRecord;
+        int row = rows.indexOf(key);
+        if (row >= 0 && newRecord != null) {
+            rows.set(row, newRecord);
+            fireTableRowsUpdated(row, row);
+        } else if (row >= 0) {
+            rows.remove(row);
+            fireTableRowsDeleted(row, row);
+        } else if (newRecord != null) {
+            row = -row - 1;
+            rows.add(row, newRecord);
+            fireTableRowsInserted(row, row);
+        }
+    }
+
+    private static boolean matches(Record r, String filter) {
+        return filter.isEmpty()
+            || r.video().title().toLowerCase(Locale.ROOT).contains(filter)
+            || r.video().director().toLowerCase(Locale.ROOT).contains(filter);
+    }
+}
@@ -0,0 +1,214 @@
+package shop.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import shop.data.Record;
+
+/**
+ * The SortedRows class is a sorted list of records that supports finding, inserting and
+ * removing a row without shifting every row after it.
+ *
+ * The rows are kept in blocks of at most 2 * BLOCK records, so an insert or delete shifts
+ * one block. The sizes of the blocks are kept in a Fenwick tree, so the block holding a
+ * position is found in logarithmic time; the tree is rebuilt when a block is split or
+ * removed. The block of the last lookup is remembered, since the table asks for neighbouring
+ * rows. Not thread-safe.
+ */
+final class SortedRows {
+    static final int BLOCK = 512;
+
+    private final Comparator<Record> order;
+    private final List<List<Record>> blocks = new ArrayList<List<Record>>();
+    private int size;
+    // Fenwick tree of the block sizes, indexed from 1; null when it must be rebuilt.
+    private int[] sizes;
+    // The block of the last lookup by position, and the position of its first row.
+    private int lastBlock = -1;
+    private int lastStart;
+
+    SortedRows(Comparator<Record> order) {
+        this.order = order;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a record that sorts after every row.
+     */
+    void append(Record r) {
+        if (blocks.isEmpty() || blocks.get(blocks.size() - 1).size() >= BLOCK)
+            blocks.add(new ArrayList<Record>(BLOCK));
+        blocks.get(blocks.size() - 1).add(r);
+        size++;
+        sizes = null;
+    }
+
+    /**
+     * Returns the row at a position.
+     */
+    Record get(int row) {
+        if (row < 0 || row >= size)
+            throw new IndexOutOfBoundsException(Integer.toString(row));
+        if (lastBlock < 0 || row < lastStart || row >= lastStart + blocks.get(lastBlock).size()) {
+            // Descend the tree to the last block that starts at or before the row
+            int[] tree = sizes();
+            int block = 0;
+            int start = 0;
+            for (int step = Integer.highestOneBit(blocks.size()); step > 0; step >>= 1) {
+                if (block + step <= blocks.size() && start + tree[block + step] <= row) {
+                    block += step;
+                    start += tree[block];
+                }
+            }
+            lastBlock = block;
+            lastStart = start;
+        }
+        return blocks.get(lastBlock).get(row - lastStart);
+    }
+
+    /**
+     * Returns the position of the row that sorts equal to the key, or (-(insertion point) - 1)
+     * if there is none, as Collections.binarySearch does.
+     */
+    int indexOf(Record key) {
+        int block = block(key);
+        if (block == blocks.size())
+            return -size - 1;
+        int start = start(block);
+        lastBlock = block;
+        lastStart = start;
+        int i = Collections.binarySearch(blocks.get(block), key, order);
+        return i >= 0 ? start + i : i - start;
+    }
+
+    /**
+     * Replaces the row at a position with a record that sorts equal to it.
+     */
+    void set(int row, Record r) {
+        int block = locate(row);
+        blocks.get(block).set(row - lastStart, r);
+    }
+
+    /**
+     * Inserts a record at a position; the rows must stay sorted.
+     */
+    void add(int row, Record r) {
+        if (row == size) {
+            // Into the last block, which may then be split below
+            if (blocks.isEmpty())
+                append(r);
+            else
+                add(blocks.size() - 1, blocks.get(blocks.size() - 1).size(), r);
+            return;
+        }
+        int block = locate(row);
+        add(block, row - lastStart, r);
+    }
+
+    private void add(int block, int index, Record r) {
+        blocks.get(block).add(index, r);
+        size++;
+        resize(block, 1);
+        split(block);
+    }
+
+    /**
+     * Removes the row at a position.
+     */
+    void remove(int row) {
+        int block = locate(row);
+        List<Record> b = blocks.get(block);
+        b.remove(row - lastStart);
+        size--;
+        resize(block, -1);
+        if (b.isEmpty()) {
+            blocks.remove(block);
+            sizes = null;
+            lastBlock = -1;
+        }
+    }
+
+    /**
+     * Returns the block of the row at a position, and remembers it.
+     */
+    private int locate(int row) {
+        get(row);
+        return lastBlock;
+    }
+
+    /**
+     * Returns the position of the first row of a block.
+     */
+    private int start(int block) {
+        if (block == lastBlock)
+            return lastStart;
+        int[] tree = sizes();
+        int start = 0;
+        for (int i = block; i > 0; i -= i & -i)
+            start += tree[i];
+        return start;
+    }
+
+    /**
+     * Returns the tree of block sizes, building it if needed.
+     */
+    private int[] sizes() {
+        if (sizes == null) {
+            sizes = new int[blocks.size() + 1];
+            for (int i = 1; i <= blocks.size(); i++) {
+                sizes[i] += blocks.get(i - 1).size();
+                int parent = i + (i & -i);
+                if (parent <= blocks.size())
+                    sizes[parent] += sizes[i];
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Records that the size of a block changed by delta.
+     */
+    private void resize(int block, int delta) {
+        if (sizes == null)
+            return;
+        for (int i = block + 1; i < sizes.length; i += i & -i)
+            sizes[i] += delta;
+    }
+
+    /**
+     * Returns the first block whose last row does not sort before the key, or the number of
+     * blocks if there is none.
+     */
+    private int block(Record key) {
+        int low = 0;
+        int high = blocks.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            List<Record> b = blocks.get(mid);
+            if (order.compare(b.get(b.size() - 1), key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Splits a block that has grown too large in two.
+     */
+    private void split(int block) {
+        List<Record> b = blocks.get(block);
+        if (b.size() <= 2 * BLOCK)
+            return;
+        List<Record> tail = new ArrayList<Record>(b.subList(BLOCK, b.size()));
+        b.subList(BLOCK, b.size()).clear();
+        blocks.add(block + 1, tail);
+        sizes = null;
+        lastBlock = -1;
+    }
+}
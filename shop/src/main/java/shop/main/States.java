@@ -1,7 +1,9 @@
 package shop.main;
 
+import shop.command.Outcome;
 import shop.data.Data;
 import shop.data.Inventory;
+import shop.data.Record;
 import shop.data.Video;
 
 /**
@@ -106,11 +108,8 @@ public enum States implements State{
             Video video = Data.newVideo(title, year, director);
             int copies = Integer.parseInt(inputSource.validateInput(s -> s.matches("\\d+"), "Enter the number of copies to add: ",
             "Invalid number of copies.\n"));
-            if(Data.newAddCmd(inventory, video, copies).run()){
-                outputSource.printMessage("Video added to inventory.");
-            } else {
-                outputSource.printMessage("An error occurred.");
-            }
+            Outcome outcome = Data.newAddCmd(inventory, video, copies).execute();
+            outputSource.printMessage(message(outcome, "Video added to inventory."));
             next = StartState;
         }
         public State nextState(){
@@ -132,11 +131,8 @@ public enum States implements State{
             Video video = Data.newVideo(title, year, director);
             int copies = Integer.parseInt(inputSource.validateInput(s -> s.matches("\\d+"), "Enter the number of copies to add: ",
             "Invalid number of copies.\n"));
-            if(Data.newAddCmd(inventory, video, -copies).run()){
-                outputSource.printMessage("Video removed from inventory.");
-            } else {
-                outputSource.printMessage("Video not in inventory.");
-            }
+            Outcome outcome = Data.newAddCmd(inventory, video, -copies).execute();
+            outputSource.printMessage(message(outcome, "Video removed from inventory."));
             next = StartState;
         }
         public State nextState(){
@@ -156,21 +152,26 @@ public enum States implements State{
             "Enter the year of the video: ", "Invalid year.\n"));
             String director = inputSource.validateInput(s -> !s.equals(""),"Enter the director of the video: ", "Director cannot be empty.\n");
             Video video = Data.newVideo(title, year, director);
-            if(inventory.get(video) == null){
+            // Read the record once; the command only applies if it is unchanged.
+            Record record = inventory.get(video);
+            if(record == null){
                 outputSource.printMessage("Video not in inventory.");
                 next = StartState;
                 return;
             }
-            else if (inventory.get(video).numOut() == inventory.get(video).numOwned()){
-                outputSource.printMessage("All copies of the video are checked out.");
+            else if (record.numOut() == record.numOwned()){
+                String join = inputSource.validateInput(s -> s.equals("yes") || s.equals("no"),
+                "All copies of the video are checked out. Join the waitlist? (yes/no)", "Please answer yes or no.\n");
+                if(join.equals("yes")){
+                    Data.newReservation(inventory, video).future().thenAccept(
+                        r -> outputSource.printMessage("Waitlist: a copy of " + r.video().title() + " has been checked out to you."));
+                    outputSource.printMessage("Added to the waitlist.");
+                }
                 next = StartState;
                 return;
             }
-            if(Data.newOutCmd(inventory, video).run()){
-                outputSource.printMessage("Video checked out.");
-            } else {
-                outputSource.printMessage("An error occurred.");
-            }
+            Outcome outcome = Data.newOutCmd(inventory, video, record.version()).execute();
+            outputSource.printMessage(message(outcome, "Video checked out."));
             next = StartState;
         }
         public State nextState(){
@@ -190,21 +191,19 @@ public enum States implements State{
             "Enter the year of the video: ", "Invalid year.\n"));
             String director = inputSource.validateInput(s -> !s.equals(""),"Enter the director of the video: ", "Director cannot be empty.\n");
             Video video = Data.newVideo(title, year, director);
-            if(inventory.get(video) == null){
+            Record record = inventory.get(video);
+            if(record == null){
                 outputSource.printMessage("Video not in inventory.");
                 next = StartState;
                 return;
             }
-            else if (inventory.get(video).numOut() == 0){
+            else if (record.numOut() == 0){
                 outputSource.printMessage("No copies checked out.");
                 next = StartState;
                 return;
             }
-            if(Data.newInCmd(inventory, video).run()){
-                outputSource.printMessage("Video checked in.");
-            } else {
-                outputSource.printMessage("An error occurred.");
-            }
+            Outcome outcome = Data.newInCmd(inventory, video, record.version()).execute();
+            outputSource.printMessage(message(outcome, "Video checked in."));
             next = StartState;
         }
         public State nextState(){
@@ -264,7 +263,25 @@ public enum States implements State{
     // The next state to transition to.
     private static State next;
     // The inventory of videos.
-    private static Inventory inventory = Data.newInventory();
+    private static Inventory inventory = Data.newCachedInventory(Data.newInventory(), 10000);
+
+    // Returns the inventory of videos, for views that display it.
+    static Inventory getInventory() {
+        return inventory;
+    }
+    
+    // Returns the message for the outcome of a command, given the message for success.
+    private static String message(Outcome outcome, String ok) {
+        switch (outcome) {
+            case OK: return ok;
+            case NOT_FOUND: return "Video not in inventory.";
+            case NONE_AVAILABLE: return "All copies of the video are checked out.";
+            case NONE_OUT: return "No copies checked out.";
+            case INVALID_CHANGE: return "Copies that are checked out cannot be removed.";
+            case STALE: return "The video was changed by someone else. Please try again.";
+            default: return "An error occurred.";
+        }
+    }
     
     // The process method processes the input and output.
     public abstract void process(InputSource inputSource, OutputSource outputSource);
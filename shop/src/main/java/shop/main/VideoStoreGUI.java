@@ -1,21 +1,62 @@
 package shop.main;
 
+import java.awt.BorderLayout;
 import java.awt.GridLayout;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import shop.data.Totals;
+import shop.metrics.MetricsReporter;
 
 /*
  * The VideoStoreGUI class is used to create a GUI for the video store application.
-    * It extends the JFrame class and creates a window with buttons for the user to interact with the application.
+    * It extends the JFrame class and creates a window with buttons for the user to interact with the application,
+    * above a table of the inventory that updates as commands change it.
+    * Commands run one at a time on a background worker so the window stays responsive; the status bar shows
+    * which command is running, how many records it has changed so far, how many commands are queued,
+    * and the store totals.
     * The processCommand method is used to process the user's command based on the current state.
     * The setupButtons method is used to create buttons for the user to interact with the application.
     * The main method creates an instance of the VideoStoreGUI class to start the application.
  */
 public class VideoStoreGUI extends JFrame {
+    // How long typing in the filter field must pause before the table is filtered.
+    static final int FILTER_DELAY_MILLIS = 200;
+    // How often the store totals in the status bar are refreshed.
+    static final int TOTALS_REFRESH_MILLIS = 500;
+
     private State currentState = States.StartState;
     private InputSource inputSource = new GUIInputSource();
     private OutputSource outputSource = new GUIOutputSource();
+    // Runs commands in order; it is the only thread that changes the inventory.
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "gui-commands");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger queued = new AtomicInteger();
+    // The running command, or null, and the model's change count when it started.
+    private String running;
+    private volatile long runningSince;
+    private final JLabel status = new JLabel(" ");
+    private final JLabel rowCount = new JLabel();
+    private final JLabel totals = new JLabel();
+    private final JProgressBar progress = new JProgressBar(0, 100);
+    private final InventoryTableModel model = new InventoryTableModel(States.getInventory(), worker, this::showProgress);
 
     /**
      * Constructor for the VideoStoreGUI class.
@@ -23,14 +64,18 @@ public class VideoStoreGUI extends JFrame {
      */
     public VideoStoreGUI() {
         super("Video Store");
-        setupButtons();
+        setLayout(new BorderLayout());
+        add(setupButtons(), BorderLayout.NORTH);
+        add(setupTable(), BorderLayout.CENTER);
+        add(setupStatusBar(), BorderLayout.SOUTH);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(400, 200);
+        setSize(900, 600);
         setVisible(true);
     }
 
     /*
      * The processCommand method is used to process the user's command based on the current state.
+     * It runs on the worker.
      */
     private void processCommand() {
         currentState.process(inputSource, outputSource);
@@ -38,92 +83,135 @@ public class VideoStoreGUI extends JFrame {
     }
 
     /*
-     * The setupButtons method is used to create buttons for the user to interact with the application.
+     * The runState method queues a command to be processed on the worker.
      */
-    private void setupButtons() {
-        setLayout(new GridLayout(4, 2));
-
-        JButton addButton = new JButton("Add Video");
-        addButton.addActionListener(e -> {
-            currentState = States.AddState;
-            processCommand();
-            currentState = currentState.nextState();
-        });
-
-        JButton removeButton = new JButton("Remove Video");
-        removeButton.addActionListener(e -> {
-            currentState = States.RemoveState;
-            processCommand();
-            currentState = currentState.nextState();
-        });
-
-        JButton initButton = new JButton("Initialize with 10 videos");
-        initButton.addActionListener(e -> {
-            currentState = States.InitState;
-            processCommand();
-            currentState = currentState.nextState();
+    private void runState(State state, String name) {
+        queued.incrementAndGet();
+        showStatus(running);
+        worker.execute(() -> {
+            queued.decrementAndGet();
+            runningSince = model.changeCount();
+            SwingUtilities.invokeLater(() -> showStatus(name));
+            try {
+                currentState = state;
+                processCommand();
+                currentState = currentState.nextState();
+            } finally {
+                SwingUtilities.invokeLater(() -> showStatus(null));
+            }
         });
+    }
 
-        JButton checkOutButton = new JButton("Check Out Video");
-        checkOutButton.addActionListener(e -> {
-            currentState = States.CheckOutState;
-            processCommand();
-            currentState = currentState.nextState();
-        });
+    /*
+     * The showStatus method shows the running command, or none if name is null, the records it has
+     * changed so far, and the queue length.
+     */
+    private void showStatus(String name) {
+        running = name;
+        int waiting = queued.get();
+        String text = name == null ? "Ready" : "Running: " + name;
+        long changed = model.changeCount() - runningSince;
+        if (name != null && changed > 0)
+            text += ", " + changed + " records changed";
+        if (waiting > 0)
+            text += " (" + waiting + " queued)";
+        status.setText(text);
+        progress.setIndeterminate(name != null);
+    }
 
-        JButton checkInButton = new JButton("Check In Video");
-        checkInButton.addActionListener(e -> {
-            currentState = States.CheckInState;
-            processCommand();
-            currentState = currentState.nextState();
-        });
+    /*
+     * The showProgress method shows how much of a table reload is done.
+     */
+    private void showProgress(int percent) {
+        progress.setIndeterminate(false);
+        progress.setValue(percent == 100 ? 0 : percent);
+    }
 
+    /*
+     * The setupButtons method is used to create buttons for the user to interact with the application.
+     */
+    private JPanel setupButtons() {
+        JPanel buttons = new JPanel(new GridLayout(2, 5));
+        addButton(buttons, "Add Video", States.AddState);
+        addButton(buttons, "Remove Video", States.RemoveState);
+        addButton(buttons, "Initialize with 10 videos", States.InitState);
+        addButton(buttons, "Check Out Video", States.CheckOutState);
+        addButton(buttons, "Check In Video", States.CheckInState);
+
+        // The table always shows the inventory, so listing reloads it rather than
+        // building the whole inventory as one string.
         JButton listButton = new JButton("List Videos");
-        listButton.addActionListener(e -> {
-            currentState = States.ListState;
-            processCommand();
-            currentState = currentState.nextState();
-        });
+        listButton.addActionListener(e -> model.reload());
+        buttons.add(listButton);
+
+        addButton(buttons, "Clear Inventory", States.ClearState);
+        addButton(buttons, "Undo", States.UndoState);
+        addButton(buttons, "Redo", States.RedoState);
+        addButton(buttons, "Exit", States.ExitState);
+        return buttons;
+    }
 
-        JButton clearButton = new JButton("Clear Inventory");
-        clearButton.addActionListener(e -> {
-            currentState = States.ClearState;
-            processCommand();
-            currentState = currentState.nextState();
-        });
+    private void addButton(JPanel buttons, String label, State state) {
+        JButton button = new JButton(label);
+        button.addActionListener(e -> runState(state, label));
+        buttons.add(button);
+    }
 
-        JButton undoButton = new JButton("Undo");
-        undoButton.addActionListener(e -> {
-            currentState = States.UndoState;
-            processCommand();
-            currentState = currentState.nextState();
+    /*
+     * The setupTable method creates the inventory table and the field that filters it.
+     */
+    private JPanel setupTable() {
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        model.addTableModelListener(e -> rowCount.setText(model.getRowCount() + " videos"));
+
+        JTextField filter = new JTextField();
+        Timer delay = new Timer(FILTER_DELAY_MILLIS, e -> model.setFilter(filter.getText()));
+        delay.setRepeats(false);
+        filter.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { delay.restart(); }
+            public void removeUpdate(DocumentEvent e) { delay.restart(); }
+            public void changedUpdate(DocumentEvent e) { delay.restart(); }
         });
 
-        JButton redoButton = new JButton("Redo");
-        redoButton.addActionListener(e -> {
-            currentState = States.RedoState;
-            processCommand();
-            currentState = currentState.nextState();
-        });
+        JPanel filterPanel = new JPanel(new BorderLayout());
+        filterPanel.add(new JLabel("Filter: "), BorderLayout.WEST);
+        filterPanel.add(filter, BorderLayout.CENTER);
+        filterPanel.add(rowCount, BorderLayout.EAST);
 
-        JButton exitButton = new JButton("Exit");
-        exitButton.addActionListener(e -> {
-            currentState = States.ExitState;
-            processCommand();
-            currentState = currentState.nextState();
-        });
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(filterPanel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        return panel;
+    }
+
+    /*
+     * The setupStatusBar method creates the bar showing the running command and its progress, the totals
+     * and reload progress.
+     */
+    private JPanel setupStatusBar() {
+        JPanel bar = new JPanel(new BorderLayout());
+        bar.add(status, BorderLayout.WEST);
+        bar.add(totals, BorderLayout.CENTER);
+        bar.add(progress, BorderLayout.EAST);
+        totals.setHorizontalAlignment(JLabel.CENTER);
+        showStatus(null);
+        showTotals();
+        // The totals are counters, so reading them on the event thread is cheap.
+        new Timer(TOTALS_REFRESH_MILLIS, e -> {
+            showTotals();
+            showStatus(running);
+        }).start();
+        return bar;
+    }
 
-        add(addButton);
-        add(removeButton);
-        add(initButton);
-        add(checkOutButton);
-        add(checkInButton);
-        add(listButton);
-        add(clearButton);
-        add(undoButton);
-        add(redoButton);
-        add(exitButton);
-        
+    /*
+     * The showTotals method shows the store-wide totals.
+     */
+    private void showTotals() {
+        Totals t = States.getInventory().totals();
+        totals.setText(String.format("%d titles, %d copies, %d out, %d rentals, %.0f%% available",
+            t.titles(), t.owned(), t.out(), t.rentals(), 100 * t.availability()));
     }
 
     /**
@@ -131,6 +219,7 @@ public class VideoStoreGUI extends JFrame {
      * @param args The command line arguments.
      */
     public static void main(String[] args) {
-        new VideoStoreGUI();
+        MetricsReporter.startIfConfigured();
+        SwingUtilities.invokeLater(VideoStoreGUI::new);
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package shop.main;
 
+import shop.metrics.MetricsReporter;
+
 /*
  * The VideoStoreTextUI class is used to run the video store text user interface.
  */
@@ -22,6 +24,7 @@ public class VideoStoreTextUI {
      * The main method creates an instance of the VideoStoreTextUI class to start the application.
      */
     public static void main(String[] args) {
+        MetricsReporter.startIfConfigured();
         VideoStoreTextUI ui = new VideoStoreTextUI();
         ui.run();
     }
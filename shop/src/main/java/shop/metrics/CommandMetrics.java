@@ -0,0 +1,70 @@
+package shop.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A static registry of <code>CommandStats</code>, one per command type.
+ *
+ * <p>Each <code>CommandStats</code> is registered with the platform MBean
+ * server as <code>shop:type=Commands,name=&lt;type&gt;</code>.  Metrics
+ * are enabled unless the system property <code>shop.metrics</code> is
+ * <code>false</code>.</p>
+ */
+public final class CommandMetrics {
+  private static final Map<String, CommandStats> _stats = new ConcurrentHashMap<String, CommandStats>();
+  private static volatile boolean _enabled = !"false".equals(System.getProperty("shop.metrics"));
+
+  private CommandMetrics() {}
+
+  /**
+   * Returns the statistics of a command type, creating and registering
+   * them on first use.  Callers should keep the result in a constant.
+   */
+  public static CommandStats stats(String name) {
+    return _stats.computeIfAbsent(name, CommandMetrics::register);
+  }
+
+  public static boolean isEnabled() {
+    return _enabled;
+  }
+
+  public static void setEnabled(boolean enabled) {
+    _enabled = enabled;
+  }
+
+  /**
+   * Returns the statistics of all command types, by name.
+   */
+  public static Map<String, CommandStats> all() {
+    return new TreeMap<String, CommandStats>(_stats);
+  }
+
+  /**
+   * Returns a text report with one line per command type.
+   */
+  public static String report() {
+    StringBuilder buffer = new StringBuilder();
+    for (CommandStats s : all().values()) {
+      buffer.append(s);
+      buffer.append("\n");
+    }
+    return buffer.toString();
+  }
+
+  private static CommandStats register(String name) {
+    CommandStats stats = new CommandStats(name);
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(stats,
+        new ObjectName("shop:type=Commands,name=" + ObjectName.quote(name)));
+    } catch (JMException e) {
+      // JMX is optional; the statistics are still available through all()
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,173 @@
+package shop.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput, failures and latencies of one command type.
+ *
+ * <p>Callers take a timestamp with <code>start()</code> before the
+ * operation and report its end with <code>succeeded</code> or
+ * <code>failed</code>.  When metrics are disabled <code>start()</code>
+ * returns 0 and nothing is recorded.</p>
+ *
+ * @see CommandMetrics#stats(String)
+ */
+public final class CommandStats implements CommandStatsMXBean {
+  /**
+   * The part of a command's life cycle being measured.
+   */
+  public enum Phase { RUN, UNDO, REDO }
+
+  /**
+   * Failure reason of a command that was run more than once.
+   */
+  public static final String ALREADY_RUN = "already run";
+
+  private final String _name;
+  private final LatencyHistogram[] _latency = new LatencyHistogram[Phase.values().length];
+  private final LongAdder[] _count = new LongAdder[Phase.values().length];
+  private final Map<String, LongAdder> _failures = new ConcurrentHashMap<String, LongAdder>();
+
+  CommandStats(String name) {
+    _name = name;
+    for (Phase p : Phase.values()) {
+      _latency[p.ordinal()] = new LatencyHistogram();
+      _count[p.ordinal()] = new LongAdder();
+    }
+  }
+
+  /**
+   * Returns the command type.
+   */
+  public String name() {
+    return _name;
+  }
+
+  /**
+   * Returns the start timestamp of an operation, or 0 if metrics are disabled.
+   */
+  public long start() {
+    return CommandMetrics.isEnabled() ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Record a successful operation that began at <code>start</code>.
+   */
+  public void succeeded(Phase phase, long start) {
+    if (start == 0)
+      return;
+    _latency[phase.ordinal()].record(System.nanoTime() - start);
+    _count[phase.ordinal()].increment();
+  }
+
+  /**
+   * Record a failed operation that began at <code>start</code>.
+   * @param reason short description of the failure; null is counted as "unknown".
+   */
+  public void failed(Phase phase, long start, String reason) {
+    if (start == 0)
+      return;
+    _latency[phase.ordinal()].record(System.nanoTime() - start);
+    _count[phase.ordinal()].increment();
+    _failures.computeIfAbsent(reason == null ? "unknown" : reason, r -> new LongAdder()).increment();
+  }
+
+  /**
+   * Record an operation that was turned away before it started, such as
+   * a command shed under overload.  It counts as a failure but has no
+   * latency, so it does not skew the percentiles of the operations that
+   * did run.
+   * @param reason short description of the failure; null is counted as "unknown".
+   */
+  public void rejected(String reason) {
+    if (!CommandMetrics.isEnabled())
+      return;
+    _failures.computeIfAbsent(reason == null ? "unknown" : reason, r -> new LongAdder()).increment();
+  }
+
+  /**
+   * Returns the latency histogram of a phase.
+   */
+  public LatencyHistogram latency(Phase phase) {
+    return _latency[phase.ordinal()];
+  }
+
+  public long getRunCount() {
+    return _count[Phase.RUN.ordinal()].sum();
+  }
+
+  public long getUndoCount() {
+    return _count[Phase.UNDO.ordinal()].sum();
+  }
+
+  public long getRedoCount() {
+    return _count[Phase.REDO.ordinal()].sum();
+  }
+
+  public long getFailureCount() {
+    long sum = 0;
+    for (LongAdder a : _failures.values())
+      sum += a.sum();
+    return sum;
+  }
+
+  public Map<String, Long> getFailuresByReason() {
+    Map<String, Long> result = new TreeMap<String, Long>();
+    for (Map.Entry<String, LongAdder> e : _failures.entrySet())
+      result.put(e.getKey(), e.getValue().sum());
+    return result;
+  }
+
+  public double getRunMeanMicros() {
+    return micros(latency(Phase.RUN).mean());
+  }
+
+  public double getRunP50Micros() {
+    return micros(latency(Phase.RUN).percentile(0.5));
+  }
+
+  public double getRunP99Micros() {
+    return micros(latency(Phase.RUN).percentile(0.99));
+  }
+
+  public double getRunP999Micros() {
+    return micros(latency(Phase.RUN).percentile(0.999));
+  }
+
+  public double getRunMaxMicros() {
+    return micros(latency(Phase.RUN).max());
+  }
+
+  public double getUndoP99Micros() {
+    return micros(latency(Phase.UNDO).percentile(0.99));
+  }
+
+  public double getRedoP99Micros() {
+    return micros(latency(Phase.REDO).percentile(0.99));
+  }
+
+  public void reset() {
+    for (Phase p : Phase.values()) {
+      _latency[p.ordinal()].reset();
+      _count[p.ordinal()].reset();
+    }
+    _failures.clear();
+  }
+
+  /**
+   * Returns a one-line summary of the statistics.
+   */
+  public String toString() {
+    return String.format("%-14s run=%d undo=%d redo=%d failed=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus %s",
+      _name, getRunCount(), getUndoCount(), getRedoCount(), getFailureCount(),
+      getRunP50Micros(), getRunP99Micros(), getRunP999Micros(), getRunMaxMicros(),
+      getFailuresByReason());
+  }
+
+  private static double micros(long nanos) {
+    return nanos / 1000.0;
+  }
+}
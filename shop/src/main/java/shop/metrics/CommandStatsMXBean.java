@@ -0,0 +1,23 @@
+package shop.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the statistics of one command type or inventory read.
+ * Latencies are reported in microseconds.
+ */
+public interface CommandStatsMXBean {
+  public long getRunCount();
+  public long getUndoCount();
+  public long getRedoCount();
+  public long getFailureCount();
+  public Map<String, Long> getFailuresByReason();
+  public double getRunMeanMicros();
+  public double getRunP50Micros();
+  public double getRunP99Micros();
+  public double getRunP999Micros();
+  public double getRunMaxMicros();
+  public double getUndoP99Micros();
+  public double getRedoP99Micros();
+  public void reset();
+}
@@ -0,0 +1,147 @@
+package shop.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds.
+ *
+ * <p>Values are counted in log-linear buckets: each power of two is split
+ * into eight sub-buckets, so a reported percentile is at most 12.5%
+ * above the true value.  Recording is wait-free.</p>
+ *
+ * <p>Most latencies of one operation fall into the same few buckets, so
+ * the bucket counts are striped by thread, as <code>LongAdder</code>
+ * stripes its sum: threads recording at once update different arrays
+ * instead of contending on one cache line.  A stripe is allocated the
+ * first time a thread hashed to it records; after that, recording
+ * never allocates.  Reads add up the stripes.</p>
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BITS = 3;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+  // A power of two, at least twice the number of processors
+  private static final int STRIPES =
+    Math.min(64, Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+
+  private final AtomicReferenceArray<AtomicLongArray> _stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+  private final LongAdder _count = new LongAdder();
+  private final LongAdder _sum = new LongAdder();
+  private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Record one latency.  Negative values are counted as zero.
+   */
+  public void record(long nanos) {
+    if (nanos < 0)
+      nanos = 0;
+    stripe().incrementAndGet(index(nanos));
+    _count.increment();
+    _sum.add(nanos);
+    _max.accumulate(nanos);
+  }
+
+  /**
+   * Returns the number of recorded values.
+   */
+  public long count() {
+    return _count.sum();
+  }
+
+  /**
+   * Returns the mean of the recorded values, or 0 if there are none.
+   */
+  public long mean() {
+    long count = _count.sum();
+    return count == 0 ? 0 : _sum.sum() / count;
+  }
+
+  /**
+   * Returns the largest recorded value.
+   */
+  public long max() {
+    return _max.get();
+  }
+
+  /**
+   * Returns an upper bound of the value at the given quantile.
+   * @param quantile between 0 and 1, e.g. 0.99.
+   */
+  public long percentile(double quantile) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int s = 0; s < STRIPES; s++) {
+      AtomicLongArray stripe = _stripes.get(s);
+      if (stripe == null)
+        continue;
+      for (int i = 0; i < BUCKETS; i++) {
+        long n = stripe.get(i);
+        counts[i] += n;
+        total += n;
+      }
+    }
+    if (total == 0)
+      return 0;
+    long rank = (long) Math.ceil(quantile * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= Math.max(rank, 1))
+        return Math.min(upperBound(i), max());
+    }
+    return max();
+  }
+
+  /**
+   * Forget all recorded values.
+   */
+  public void reset() {
+    for (int s = 0; s < STRIPES; s++) {
+      AtomicLongArray stripe = _stripes.get(s);
+      if (stripe == null)
+        continue;
+      for (int i = 0; i < BUCKETS; i++)
+        stripe.set(i, 0);
+    }
+    _count.reset();
+    _sum.reset();
+    _max.reset();
+  }
+
+  /**
+   * Returns the bucket counts of the calling thread's stripe.
+   */
+  private AtomicLongArray stripe() {
+    long id = Thread.currentThread().getId();
+    int s = (int) ((id * 0x9E3779B97F4A7C15L) >>> 58) & (STRIPES - 1);
+    AtomicLongArray stripe = _stripes.get(s);
+    if (stripe == null) {
+      _stripes.compareAndSet(s, null, new AtomicLongArray(BUCKETS));
+      stripe = _stripes.get(s);
+    }
+    return stripe;
+  }
+
+  static int index(long value) {
+    if (value < SUB_COUNT)
+      return (int) value;
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+    return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+  }
+
+  static long lowerBound(int index) {
+    if (index < SUB_COUNT)
+      return index;
+    int exp = index / SUB_COUNT + SUB_BITS - 1;
+    long sub = index % SUB_COUNT;
+    return (1L << exp) | (sub << (exp - SUB_BITS));
+  }
+
+  static long upperBound(int index) {
+    return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+  }
+}
@@ -0,0 +1,70 @@
+package shop.metrics;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically prints the command statistics, with the throughput of
+ * each command type since the previous report.
+ */
+public final class MetricsReporter {
+  private final PrintStream _out;
+  private final ScheduledExecutorService _executor;
+  private final Map<String, Long> _lastCounts = new HashMap<String, Long>();
+  private long _lastNanos = System.nanoTime();
+
+  private MetricsReporter(PrintStream out) {
+    _out = out;
+    _executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "metrics-reporter");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Starts printing a report to <code>out</code> every <code>period</code>.
+   */
+  public static MetricsReporter start(PrintStream out, long period, TimeUnit unit) {
+    MetricsReporter reporter = new MetricsReporter(out);
+    reporter._executor.scheduleAtFixedRate(reporter::report, period, period, unit);
+    return reporter;
+  }
+
+  /**
+   * Starts printing a report to standard error if the system property
+   * <code>shop.metrics.report</code> gives a period in seconds.
+   * @return the reporter, or null if none was configured.
+   */
+  public static MetricsReporter startIfConfigured() {
+    long seconds = Long.getLong("shop.metrics.report", 0);
+    return seconds > 0 ? start(System.err, seconds, TimeUnit.SECONDS) : null;
+  }
+
+  /**
+   * Stops the reporter.
+   */
+  public void stop() {
+    _executor.shutdown();
+  }
+
+  private synchronized void report() {
+    long now = System.nanoTime();
+    double seconds = (now - _lastNanos) / 1e9;
+    _lastNanos = now;
+    StringBuilder buffer = new StringBuilder("Command metrics:\n");
+    for (CommandStats s : CommandMetrics.all().values()) {
+      long count = s.getRunCount() + s.getUndoCount() + s.getRedoCount();
+      Long last = _lastCounts.put(s.name(), count);
+      buffer.append(String.format("  %8.1f ops/s  ", (count - (last == null ? 0 : last)) / seconds));
+      buffer.append(s);
+      buffer.append("\n");
+    }
+    _out.print(buffer);
+    _out.flush();
+  }
+}
@@ -0,0 +1,31 @@
+package shop.search;
+
+import java.util.Comparator;
+
+import shop.data.Video;
+
+/**
+ * The copies of a video held by one store.
+ * @param store the store's name.
+ * @param priority the store's priority; lower is nearer.
+ * @param owned the copies the store owns.
+ * @param out the copies currently checked out.
+ */
+public record Availability(String store, int priority, Video video, int owned, int out) {
+  /**
+   * Stores with a copy in stock first, then nearer stores, then those
+   * with more copies in stock.
+   */
+  public static final Comparator<Availability> RANKING =
+    Comparator.comparing((Availability a) -> a.available() == 0)
+      .thenComparingInt(Availability::priority)
+      .thenComparing(Comparator.comparingInt(Availability::available).reversed())
+      .thenComparing(Availability::store);
+
+  /**
+   * Returns the copies in stock.
+   */
+  public int available() {
+    return owned - out;
+  }
+}
@@ -0,0 +1,209 @@
+package shop.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import shop.data.Inventory;
+import shop.data.Video;
+import shop.diagnostics.Diagnostics;
+
+/**
+ * Answers availability and search queries across the inventories of
+ * many stores.
+ *
+ * <p>A query is sent to every store at once, each on its own pooled
+ * thread, so it takes as long as the slowest store rather than the sum
+ * of them.  A store that has not answered by its timeout, or that
+ * fails, is left out, and named in the answer's <code>missing</code>
+ * list, so a slow store delays an answer but never prevents it.</p>
+ *
+ * <p>Availabilities are ranked by <code>Availability.RANKING</code>:
+ * stores with a copy in stock first, nearest first.  Search matches are
+ * merged by video, keeping the best score, and ranked by score, then
+ * by their best store.</p>
+ */
+public final class FederatedSearch implements Closeable {
+  /**
+   * A video matching a query, its best score in any store, and its
+   * availability in the stores that have it, best first.
+   */
+  public record Match(Video video, double score, List<Availability> stores) {}
+
+  /**
+   * The results of a query, best first, and the names of the stores
+   * that did not answer in time or failed.
+   */
+  public record Answer<T>(List<T> results, List<String> missing) {
+    /**
+     * Returns true if every store answered.
+     */
+    public boolean complete() {
+      return missing.isEmpty();
+    }
+  }
+
+  private static final Comparator<Match> RANKING =
+    Comparator.comparing(Match::score, Comparator.reverseOrder())
+      .thenComparing((Match m) -> m.stores().get(0), Availability.RANKING);
+
+  private record Entry(Store store, long timeoutNanos) {}
+
+  private interface Call<T> {
+    T call(Store store) throws IOException;
+  }
+
+  private final long _timeoutMillis;
+  private final List<Entry> _stores = new CopyOnWriteArrayList<Entry>();
+  private final ExecutorService _executor = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "federated-search");
+    t.setDaemon(true);
+    return t;
+  });
+
+  /**
+   * @param timeoutMillis how long to wait for each store, unless given
+   * when it is added.
+   * @throws IllegalArgumentException if <code>timeoutMillis</code> is
+   * not positive.
+   */
+  public FederatedSearch(long timeoutMillis) {
+    if (timeoutMillis <= 0)
+      throw new IllegalArgumentException();
+    _timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Returns a store over an inventory in this process.  The store
+   * indexes the inventory until it is closed.
+   */
+  public static Store local(String name, int priority, Inventory inventory) {
+    return new LocalStore(name, priority, inventory);
+  }
+
+  /**
+   * Returns a store over the inventory served by a
+   * <code>StoreServer</code> at <code>host:port</code>.
+   */
+  public static Store remote(String name, int priority, String host, int port) {
+    return new RemoteStore(name, priority, host, port);
+  }
+
+  /**
+   * Adds a store, waiting for it for the default timeout.
+   */
+  public void add(Store store) {
+    add(store, _timeoutMillis);
+  }
+
+  /**
+   * Adds a store, waiting for it at most <code>timeoutMillis</code>.
+   * @throws IllegalArgumentException if <code>timeoutMillis</code> is
+   * not positive.
+   */
+  public void add(Store store, long timeoutMillis) {
+    if (timeoutMillis <= 0)
+      throw new IllegalArgumentException();
+    _stores.add(new Entry(store, TimeUnit.MILLISECONDS.toNanos(timeoutMillis)));
+  }
+
+  /**
+   * Returns the number of stores.
+   */
+  public int size() {
+    return _stores.size();
+  }
+
+  /**
+   * Returns the stores that have <code>video</code>, best first.
+   */
+  public Answer<Availability> availability(Video video) {
+    List<String> missing = new ArrayList<String>();
+    List<Availability> results = gather(s -> s.availability(video), missing);
+    results.sort(Availability.RANKING);
+    return new Answer<Availability>(results, missing);
+  }
+
+  /**
+   * Returns the best <code>limit</code> matches of <code>query</code>
+   * across all stores, best first.
+   */
+  public Answer<Match> search(String query, int limit) {
+    List<String> missing = new ArrayList<String>();
+    Map<Video, List<Availability>> stores = new LinkedHashMap<Video, List<Availability>>();
+    Map<Video, Double> scores = new LinkedHashMap<Video, Double>();
+    for (List<Match> matches : gather(s -> s.search(query, limit), missing)) {
+      for (Match m : matches) {
+        stores.computeIfAbsent(m.video(), v -> new ArrayList<Availability>()).addAll(m.stores());
+        scores.merge(m.video(), m.score(), Math::max);
+      }
+    }
+    List<Match> results = new ArrayList<Match>(stores.size());
+    for (Map.Entry<Video, List<Availability>> e : stores.entrySet()) {
+      e.getValue().sort(Availability.RANKING);
+      results.add(new Match(e.getKey(), scores.get(e.getKey()), Collections.unmodifiableList(e.getValue())));
+    }
+    results.sort(RANKING);
+    return new Answer<Match>(results.size() > limit ? results.subList(0, limit) : results, missing);
+  }
+
+  /**
+   * Stops the query threads and closes every store.
+   */
+  public void close() throws IOException {
+    _executor.shutdownNow();
+    for (Entry e : _stores)
+      e.store().close();
+  }
+
+  /**
+   * Calls every store at once and returns the non-null results of those
+   * that answer in time, adding the names of the others to
+   * <code>missing</code>.
+   */
+  private <T> List<T> gather(Call<T> call, List<String> missing) {
+    long start = System.nanoTime();
+    List<Entry> stores = List.copyOf(_stores);
+    List<Future<T>> futures = new ArrayList<Future<T>>(stores.size());
+    for (Entry e : stores)
+      futures.add(_executor.submit(() -> call.call(e.store())));
+    List<T> results = new ArrayList<T>(stores.size());
+    boolean interrupted = false;
+    for (int i = 0; i < stores.size(); i++) {
+      Store store = stores.get(i).store();
+      Future<T> future = futures.get(i);
+      try {
+        long wait = interrupted ? 0 : stores.get(i).timeoutNanos() - (System.nanoTime() - start);
+        T result = future.get(Math.max(0, wait), TimeUnit.NANOSECONDS);
+        if (result != null)
+          results.add(result);
+      } catch (TimeoutException e) {
+        future.cancel(true);
+        missing.add(store.name());
+      } catch (ExecutionException e) {
+        Diagnostics.report("search", "Store failed: " + e.getCause(), store.name());
+        missing.add(store.name());
+      } catch (InterruptedException e) {
+        // Collect whatever has already answered
+        interrupted = true;
+        future.cancel(true);
+        missing.add(store.name());
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+    return results;
+  }
+}
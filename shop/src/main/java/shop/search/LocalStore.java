@@ -0,0 +1,54 @@
+package shop.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import shop.data.Inventory;
+import shop.data.Record;
+import shop.data.Video;
+
+/**
+ * A store whose inventory is in this process, searched through its own
+ * <code>SearchIndex</code>.
+ */
+final class LocalStore implements Store {
+  private final String _name;
+  private final int _priority;
+  private final Inventory _inventory;
+  private final SearchIndex _index;
+
+  LocalStore(String name, int priority, Inventory inventory) {
+    _name = name;
+    _priority = priority;
+    _inventory = inventory;
+    _index = SearchIndex.index(inventory);
+  }
+
+  public String name() {
+    return _name;
+  }
+
+  public int priority() {
+    return _priority;
+  }
+
+  public Availability availability(Video video) {
+    Record r = _inventory.get(video);
+    return r == null ? null : new Availability(_name, _priority, video, r.numOwned(), r.numOut());
+  }
+
+  public List<FederatedSearch.Match> search(String query, int limit) {
+    List<FederatedSearch.Match> matches = new ArrayList<FederatedSearch.Match>();
+    for (SearchIndex.Hit hit : _index.search(query, limit)) {
+      // Skip videos removed since the search
+      Availability a = availability(hit.video());
+      if (a != null)
+        matches.add(new FederatedSearch.Match(hit.video(), hit.score(), List.of(a)));
+    }
+    return matches;
+  }
+
+  public void close() {
+    _index.close();
+  }
+}
@@ -0,0 +1,71 @@
+package shop.search;
+
+import java.util.Arrays;
+
+/**
+ * The documents containing one term, as a compressed byte array.
+ *
+ * <p>Documents are appended in increasing id order.  Each posting is
+ * stored as one varint holding the gap from the previous id, shifted
+ * left by two, with the fields the term occurs in as the low bits.
+ * Gaps between documents sharing a term are usually small, so most
+ * postings take one or two bytes.</p>
+ */
+final class PostingList {
+  static final int TITLE = 1;
+  static final int DIRECTOR = 2;
+
+  private byte[] _bytes = new byte[4];
+  private int _length;
+  private int _size;
+  private int _last = -1;
+
+  /**
+   * Returns the number of postings, including those of removed documents.
+   */
+  int size() {
+    return _size;
+  }
+
+  /**
+   * Appends a document.
+   * @throws IllegalArgumentException if <code>doc</code> is not greater than the last document.
+   */
+  void add(int doc, int fields) {
+    if (doc <= _last)
+      throw new IllegalArgumentException("out of order");
+    long value = ((long) (doc - _last) << 2) | fields;
+    _last = doc;
+    _size++;
+    if (_length + 10 > _bytes.length)
+      _bytes = Arrays.copyOf(_bytes, Math.max(_bytes.length * 2, _length + 10));
+    while ((value & ~0x7FL) != 0) {
+      _bytes[_length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    _bytes[_length++] = (byte) value;
+  }
+
+  /**
+   * Receives the postings of a list in order.
+   */
+  interface Visitor {
+    void visit(int doc, int fields);
+  }
+
+  void forEach(Visitor visitor) {
+    int doc = -1;
+    for (int i = 0; i < _length; ) {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = _bytes[i++];
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      doc += (int) (value >>> 2);
+      visitor.visit(doc, (int) value & 3);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package shop.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import shop.data.Video;
+
+/**
+ * A store served by a <code>StoreServer</code>.
+ *
+ * <p>Each query opens its own connection, so queries from different
+ * threads never wait for one another.  Connecting and reading time out
+ * after <code>TIMEOUT_MILLIS</code>, so a call abandoned by
+ * <code>FederatedSearch</code> does not hold its thread for long.</p>
+ */
+final class RemoteStore implements Store {
+  static final int TIMEOUT_MILLIS = 5000;
+
+  private final String _name;
+  private final int _priority;
+  private final InetSocketAddress _address;
+
+  RemoteStore(String name, int priority, String host, int port) {
+    _name = name;
+    _priority = priority;
+    _address = new InetSocketAddress(host, port);
+  }
+
+  public String name() {
+    return _name;
+  }
+
+  public int priority() {
+    return _priority;
+  }
+
+  public Availability availability(Video video) throws IOException {
+    try (Socket socket = connect()) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      out.writeByte(StoreServer.AVAILABILITY);
+      StoreServer.writeVideo(out, video);
+      out.flush();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      if (!in.readBoolean())
+        return null;
+      int owned = in.readInt();
+      return new Availability(_name, _priority, video, owned, in.readInt());
+    }
+  }
+
+  public List<FederatedSearch.Match> search(String query, int limit) throws IOException {
+    try (Socket socket = connect()) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      out.writeByte(StoreServer.SEARCH);
+      out.writeUTF(query);
+      out.writeInt(limit);
+      out.flush();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      int n = in.readInt();
+      List<FederatedSearch.Match> matches = new ArrayList<FederatedSearch.Match>(n);
+      for (int i = 0; i < n; i++) {
+        Video video;
+        try {
+          video = StoreServer.readVideo(in);
+        } catch (IllegalArgumentException e) {
+          throw new IOException("bad reply", e);
+        }
+        double score = in.readDouble();
+        int owned = in.readInt();
+        Availability a = new Availability(_name, _priority, video, owned, in.readInt());
+        matches.add(new FederatedSearch.Match(video, score, List.of(a)));
+      }
+      return matches;
+    }
+  }
+
+  private Socket connect() throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(_address, TIMEOUT_MILLIS);
+      socket.setSoTimeout(TIMEOUT_MILLIS);
+      socket.setTcpNoDelay(true);
+      return socket;
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+}
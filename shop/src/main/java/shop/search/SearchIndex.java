@@ -0,0 +1,339 @@
+package shop.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import shop.data.Change;
+import shop.data.Data;
+import shop.data.Inventory;
+import shop.data.InventoryListener;
+import shop.data.Record;
+import shop.data.Video;
+
+/**
+ * A full-text index over the titles and directors of the videos in an
+ * inventory.
+ *
+ * <p>Titles and directors are split into terms by
+ * <code>Tokenizer</code>.  Each term maps to a compressed list of the
+ * videos containing it.  A query matches a video if every query word
+ * matches one of its terms, either exactly, within a small edit distance
+ * (one edit for words of three to five letters, two for longer words),
+ * or, for the last word only, as a prefix.  So <code>"godfathr"</code>
+ * finds <i>The Godfather</i> and <code>"copp"</code> finds Coppola.</p>
+ *
+ * <p>Results are ranked by the sum over query words of the best matching
+ * term's weight: rarer terms weigh more, title matches more than
+ * director matches, and exact matches more than prefix or fuzzy ones.
+ * Ranking can optionally be boosted by the number of rentals.</p>
+ *
+ * <p>The index listens to its inventory and is updated as records are
+ * added and removed.  Removed videos are skipped at query time and
+ * purged when they make up half of the index.  Searches may run
+ * concurrently with each other and with updates.</p>
+ */
+public final class SearchIndex implements InventoryListener {
+  static final double TITLE_WEIGHT = 2;
+  static final double DIRECTOR_WEIGHT = 1;
+  static final double PREFIX_WEIGHT = 0.6;
+  static final double EDIT_PENALTY = 0.3;
+  static final int MAX_EXPANSIONS = 128;
+  static final int MIN_PURGE = 1024;
+
+  /**
+   * A matching video and its score; higher scores rank first.
+   */
+  public record Hit(Video video, double score) {}
+
+  private final Inventory _inventory;
+  private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+  private final TermTrie _terms = new TermTrie();
+  private final Map<Video, Integer> _docs = new HashMap<Video, Integer>();
+  private final List<Video> _videos = new ArrayList<Video>();
+  private int[] _rentals = new int[16];
+  private Set<Video> _changed = new HashSet<Video>(); // while the inventory is scanned
+  private final ThreadLocal<DocScores[]> _scratch =
+    ThreadLocal.withInitial(() -> new DocScores[] { new DocScores(), new DocScores() });
+
+  private SearchIndex(Inventory inventory) {
+    _inventory = inventory;
+  }
+
+  /**
+   * Indexes the records of <code>inventory</code> and keeps the index up
+   * to date with its changes until <code>close</code> is called.
+   * @throws IllegalArgumentException if <code>inventory<code> not created by a call to <code>Data.newInventory</code>.
+   */
+  public static SearchIndex index(Inventory inventory) {
+    SearchIndex index = new SearchIndex(inventory);
+    // Listen before scanning, so that no change is missed
+    Data.addListener(inventory, index);
+    index.seed(inventory);
+    return index;
+  }
+
+  /**
+   * Indexes the records of a scan of the inventory, skipping the videos
+   * changed since the index started listening: the scan may have seen
+   * them before the change.
+   */
+  private void seed(Iterable<Record> records) {
+    for (Record r : records) {
+      _lock.writeLock().lock();
+      try {
+        if (!_changed.contains(r.video()))
+          add(r.video(), r.numRentals());
+      } finally {
+        _lock.writeLock().unlock();
+      }
+    }
+    _lock.writeLock().lock();
+    _changed = null;
+    _lock.writeLock().unlock();
+  }
+
+  /**
+   * Stops following changes to the inventory.
+   */
+  public void close() {
+    Data.removeListener(_inventory, this);
+  }
+
+  /**
+   * Returns the number of videos indexed.
+   */
+  public int size() {
+    _lock.readLock().lock();
+    try {
+      return _docs.size();
+    } finally {
+      _lock.readLock().unlock();
+    }
+  }
+
+  public void changed(Change change) {
+    _lock.writeLock().lock();
+    try {
+      if (_changed != null)
+        _changed.add(change.video());
+      if (change.newRecord() == null)
+        remove(change.video());
+      else
+        add(change.video(), change.newRecord().numRentals());
+    } finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the best <code>limit</code> matches of <code>query</code>,
+   * best first.
+   */
+  public List<Hit> search(String query, int limit) {
+    return search(query, limit, false);
+  }
+
+  /**
+   * Returns the best <code>limit</code> matches of <code>query</code>,
+   * best first.
+   * @param byRentals if true, scores are boosted by the logarithm of the
+   *  number of rentals, so popular videos rank above equally good matches.
+   */
+  public List<Hit> search(String query, int limit, boolean byRentals) {
+    List<String> words = Tokenizer.tokenize(query);
+    if (words.isEmpty() || limit <= 0)
+      return Collections.emptyList();
+    _lock.readLock().lock();
+    try {
+      DocScores[] scratch = _scratch.get();
+      DocScores scores = scratch[0].reset(_videos.size());
+      DocScores word = scratch[1].reset(_videos.size());
+      try {
+        match(words.get(0), words.size() == 1, scores);
+        for (int i = 1; i < words.size() && scores.size() > 0; i++) {
+          match(words.get(i), i == words.size() - 1, word);
+          scores.retain(word);
+          word.clear();
+        }
+        return top(scores, limit, byRentals);
+      } finally {
+        scores.clear();
+        word.clear();
+      }
+    } finally {
+      _lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds the score of every live document matching <code>word</code> to
+   * <code>scores</code>.
+   */
+  private void match(String word, boolean prefix, DocScores scores) {
+    int[] expansions = new int[1];
+    double docs = _docs.size();
+    TermTrie.Visitor visitor = (term, postings, edits) -> {
+      double weight = term.equals(word) ? 1 : edits > 0 ? 1 - EDIT_PENALTY * edits : PREFIX_WEIGHT;
+      double idf = Math.log(1 + docs / postings.size());
+      postings.forEach((doc, fields) -> {
+        if (_videos.get(doc) != null)
+          scores.max(doc, weight * idf * ((fields & PostingList.TITLE) != 0 ? TITLE_WEIGHT : DIRECTOR_WEIGHT));
+      });
+      return ++expansions[0] < MAX_EXPANSIONS;
+    };
+    _terms.fuzzy(word, maxEdits(word), visitor);
+    if (prefix && word.length() > 1 && expansions[0] < MAX_EXPANSIONS)
+      _terms.prefix(word, visitor);
+  }
+
+  static int maxEdits(String word) {
+    return word.length() < 3 ? 0 : word.length() < 6 ? 1 : 2;
+  }
+
+  private List<Hit> top(DocScores scores, int limit, boolean byRentals) {
+    PriorityQueue<Hit> best = new PriorityQueue<Hit>(limit + 1, (a, b) -> Double.compare(a.score(), b.score()));
+    scores.forEach((doc, score) -> {
+      if (byRentals)
+        score *= 1 + Math.log1p(_rentals[doc]);
+      if (best.size() < limit || score > best.peek().score()) {
+        best.add(new Hit(_videos.get(doc), score));
+        if (best.size() > limit)
+          best.poll();
+      }
+    });
+    List<Hit> hits = new ArrayList<Hit>(best);
+    hits.sort((a, b) -> Double.compare(b.score(), a.score()));
+    return hits;
+  }
+
+  /**
+   * Indexes <code>video</code>, or updates its rentals if it is indexed.
+   */
+  private void add(Video video, int rentals) {
+    Integer existing = _docs.get(video);
+    if (existing != null) {
+      _rentals[existing] = rentals;
+      return;
+    }
+    Map<String, Integer> fields = new HashMap<String, Integer>();
+    for (String term : Tokenizer.tokenize(video.title()))
+      fields.merge(term, PostingList.TITLE, (a, b) -> a | b);
+    for (String term : Tokenizer.tokenize(video.director()))
+      fields.merge(term, PostingList.DIRECTOR, (a, b) -> a | b);
+    int doc = _videos.size();
+    _videos.add(video);
+    _docs.put(video, doc);
+    if (doc == _rentals.length)
+      _rentals = Arrays.copyOf(_rentals, doc * 2);
+    _rentals[doc] = rentals;
+    for (Map.Entry<String, Integer> e : fields.entrySet())
+      _terms.postings(e.getKey()).add(doc, e.getValue());
+  }
+
+  private void remove(Video video) {
+    Integer doc = _docs.remove(video);
+    if (doc == null)
+      return;
+    _videos.set(doc, null);
+    if (_videos.size() >= MIN_PURGE && _videos.size() > 2 * _docs.size())
+      purge();
+  }
+
+  /**
+   * Rebuild the index from the live documents.
+   */
+  private void purge() {
+    List<Video> videos = new ArrayList<Video>();
+    List<Integer> rentals = new ArrayList<Integer>();
+    for (int doc = 0; doc < _videos.size(); doc++) {
+      if (_videos.get(doc) != null) {
+        videos.add(_videos.get(doc));
+        rentals.add(_rentals[doc]);
+      }
+    }
+    _terms.clear();
+    _docs.clear();
+    _videos.clear();
+    for (int i = 0; i < videos.size(); i++)
+      add(videos.get(i), rentals.get(i));
+  }
+
+  /**
+   * Scores of the documents matched by a query, indexed by document id,
+   * with a list of the documents scored so they can be visited and reset
+   * without scanning the whole array.  Every score is positive, so zero
+   * marks an absent document.  Each searching thread reuses its own
+   * instances.
+   */
+  private static final class DocScores {
+    interface Visitor {
+      void visit(int doc, double score);
+    }
+
+    private float[] _scores = new float[0];
+    private int[] _docs = new int[16];
+    private int _size;
+
+    DocScores reset(int capacity) {
+      if (_scores.length < capacity)
+        _scores = new float[capacity];
+      return this;
+    }
+
+    int size() {
+      return _size;
+    }
+
+    /**
+     * Sets the score of <code>doc</code> to <code>score</code> if it is
+     * absent or lower.
+     */
+    void max(int doc, double score) {
+      if (_scores[doc] == 0) {
+        if (_size == _docs.length)
+          _docs = Arrays.copyOf(_docs, _size * 2);
+        _docs[_size++] = doc;
+      }
+      _scores[doc] = Math.max(_scores[doc], (float) score);
+    }
+
+    /**
+     * Keeps only the documents also scored by <code>that</code>, adding
+     * its scores.
+     */
+    void retain(DocScores that) {
+      int n = 0;
+      for (int i = 0; i < _size; i++) {
+        int doc = _docs[i];
+        float score = that._scores[doc];
+        if (score > 0) {
+          _scores[doc] += score;
+          _docs[n++] = doc;
+        } else {
+          _scores[doc] = 0;
+        }
+      }
+      _size = n;
+    }
+
+    void forEach(Visitor visitor) {
+      for (int i = 0; i < _size; i++)
+        visitor.visit(_docs[i], _scores[_docs[i]]);
+    }
+
+    void clear() {
+      for (int i = 0; i < _size; i++)
+        _scores[_docs[i]] = 0;
+      _size = 0;
+    }
+  }
+}
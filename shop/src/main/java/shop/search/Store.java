@@ -0,0 +1,42 @@
+package shop.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import shop.data.Video;
+
+/**
+ * One store's inventory, as queried by <code>FederatedSearch</code>.
+ * @see FederatedSearch#local(String, int, shop.data.Inventory)
+ * @see FederatedSearch#remote(String, int, String, int)
+ */
+public interface Store extends Closeable {
+  /**
+   * Returns the store's name.
+   */
+  public String name();
+
+  /**
+   * Returns the store's priority, such as its distance; lower is nearer.
+   */
+  public int priority();
+
+  /**
+   * Returns the store's copies of <code>video</code>, or null if it has
+   * none.
+   */
+  public Availability availability(Video video) throws IOException;
+
+  /**
+   * Returns the store's best <code>limit</code> matches of
+   * <code>query</code>, best first, each with this store's availability
+   * only.
+   */
+  public List<FederatedSearch.Match> search(String query, int limit) throws IOException;
+
+  /**
+   * Releases the store's resources.  The default does nothing.
+   */
+  public default void close() throws IOException {}
+}
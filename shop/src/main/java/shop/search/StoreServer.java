@@ -0,0 +1,154 @@
+package shop.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import shop.data.Data;
+import shop.data.Inventory;
+import shop.data.Video;
+
+/**
+ * Answers availability and search queries about an inventory for
+ * stores in other processes.
+ *
+ * <p>A client sends requests, each starting with a type byte, and reads
+ * each reply before sending the next:</p>
+ * <ul>
+ * <li><code>AVAILABILITY video</code>: the reply is <code>false</code>,
+ * or <code>true owned out</code>.</li>
+ * <li><code>SEARCH query limit</code>: the reply is <code>count (video
+ * score owned out)*</code>, best first.</li>
+ * </ul>
+ * <p>Videos are sent as title, year and director.</p>
+ *
+ * @see FederatedSearch#remote(String, int, String, int)
+ */
+public final class StoreServer implements Closeable {
+  static final byte AVAILABILITY = 1;
+  static final byte SEARCH = 2;
+
+  private final LocalStore _store;
+  private final ServerSocket _server;
+  private final Set<Socket> _clients = ConcurrentHashMap.newKeySet();
+  private volatile boolean _closed;
+
+  private StoreServer(Inventory inventory, int port) throws IOException {
+    _server = new ServerSocket(port);
+    _store = new LocalStore("", 0, inventory);
+    Thread acceptor = new Thread(this::accept, "store-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Serves <code>inventory</code> on <code>port</code>, or on any free
+   * port if it is 0.
+   */
+  public static StoreServer serve(Inventory inventory, int port) throws IOException {
+    return new StoreServer(inventory, port);
+  }
+
+  /**
+   * Returns the port clients connect to.
+   */
+  public int port() {
+    return _server.getLocalPort();
+  }
+
+  /**
+   * Stops accepting clients, disconnects the connected ones and stops
+   * indexing the inventory.
+   */
+  public void close() throws IOException {
+    _closed = true;
+    _server.close();
+    for (Socket s : _clients)
+      s.close();
+    _store.close();
+  }
+
+  private void accept() {
+    while (!_closed) {
+      try {
+        Socket socket = _server.accept();
+        socket.setTcpNoDelay(true);
+        Thread handler = new Thread(() -> serve(socket), "store-handler");
+        handler.setDaemon(true);
+        handler.start();
+      } catch (IOException e) {
+        // the server socket was closed
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    _clients.add(socket);
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      for (;;) {
+        byte type = in.readByte();
+        if (type == AVAILABILITY) {
+          Availability a = _store.availability(readVideo(in));
+          out.writeBoolean(a != null);
+          if (a != null) {
+            out.writeInt(a.owned());
+            out.writeInt(a.out());
+          }
+        } else if (type == SEARCH) {
+          String query = in.readUTF();
+          List<FederatedSearch.Match> matches = _store.search(query, in.readInt());
+          out.writeInt(matches.size());
+          for (FederatedSearch.Match m : matches) {
+            Availability a = m.stores().get(0);
+            writeVideo(out, m.video());
+            out.writeDouble(m.score());
+            out.writeInt(a.owned());
+            out.writeInt(a.out());
+          }
+        } else {
+          return;
+        }
+        out.flush();
+      }
+    } catch (IOException e) {
+      // the client disconnected
+    } catch (IllegalArgumentException e) {
+      // an invalid video
+    } finally {
+      _clients.remove(socket);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+
+  static void writeVideo(DataOutput out, Video video) throws IOException {
+    out.writeUTF(video.title());
+    out.writeInt(video.year());
+    out.writeUTF(video.director());
+  }
+
+  /**
+   * @throws IllegalArgumentException if the video is invalid.
+   */
+  static Video readVideo(DataInput in) throws IOException {
+    String title = in.readUTF();
+    int year = in.readInt();
+    String director = in.readUTF();
+    return Data.newVideo(title, year, director);
+  }
+}
@@ -0,0 +1,168 @@
+package shop.search;
+
+import java.util.Arrays;
+
+/**
+ * The term dictionary: a trie mapping terms to their posting lists.
+ *
+ * <p>Besides exact lookup, the trie finds the terms starting with a
+ * prefix, and the terms within a bounded edit distance of a word.  The
+ * fuzzy search walks the trie computing one row of the Levenshtein
+ * matrix per node, and abandons a branch as soon as every entry of the
+ * row exceeds the bound, so only a small part of the dictionary is
+ * visited.</p>
+ */
+final class TermTrie {
+  private static final char[] NO_KEYS = new char[0];
+  private static final Node[] NO_KIDS = new Node[0];
+
+  private static final class Node {
+    char[] keys = NO_KEYS;
+    Node[] kids = NO_KIDS;
+    PostingList postings;
+
+    Node child(char c) {
+      int i = Arrays.binarySearch(keys, c);
+      return i < 0 ? null : kids[i];
+    }
+
+    Node addChild(char c) {
+      int i = Arrays.binarySearch(keys, c);
+      if (i >= 0)
+        return kids[i];
+      i = -i - 1;
+      char[] k = new char[keys.length + 1];
+      Node[] n = new Node[kids.length + 1];
+      System.arraycopy(keys, 0, k, 0, i);
+      System.arraycopy(kids, 0, n, 0, i);
+      System.arraycopy(keys, i, k, i + 1, keys.length - i);
+      System.arraycopy(kids, i, n, i + 1, kids.length - i);
+      k[i] = c;
+      n[i] = new Node();
+      keys = k;
+      kids = n;
+      return n[i];
+    }
+  }
+
+  /**
+   * Receives matching terms.
+   */
+  interface Visitor {
+    /**
+     * @param edits the edit distance of the term from the query word,
+     *  or 0 for exact and prefix matches.
+     * @return false to stop the search.
+     */
+    boolean visit(String term, PostingList postings, int edits);
+  }
+
+  private Node _root = new Node();
+  private int _terms;
+
+  /**
+   * Returns the number of terms.
+   */
+  int size() {
+    return _terms;
+  }
+
+  /**
+   * Returns the postings of <code>term</code>, creating an empty list if
+   * needed.
+   */
+  PostingList postings(String term) {
+    Node node = _root;
+    for (int i = 0; i < term.length(); i++)
+      node = node.addChild(term.charAt(i));
+    if (node.postings == null) {
+      node.postings = new PostingList();
+      _terms++;
+    }
+    return node.postings;
+  }
+
+  /**
+   * Visits the terms starting with <code>prefix</code>, in order.
+   */
+  void prefix(String prefix, Visitor visitor) {
+    Node node = find(prefix);
+    if (node != null)
+      collect(node, new StringBuilder(prefix), visitor);
+  }
+
+  /**
+   * Visits the terms within <code>maxEdits</code> insertions, deletions
+   * or substitutions of <code>word</code>.
+   */
+  void fuzzy(String word, int maxEdits, Visitor visitor) {
+    // A term longer than the word by more than maxEdits cannot match, so
+    // the rows for each depth can be allocated up front.
+    int[][] rows = new int[word.length() + maxEdits + 1][word.length() + 1];
+    for (int i = 0; i < rows[0].length; i++)
+      rows[0][i] = i;
+    StringBuilder term = new StringBuilder();
+    for (int i = 0; i < _root.keys.length; i++) {
+      if (!fuzzy(_root.kids[i], _root.keys[i], word, maxEdits, rows, 1, term, visitor))
+        return;
+    }
+  }
+
+  /**
+   * Removes all terms.
+   */
+  void clear() {
+    _root = new Node();
+    _terms = 0;
+  }
+
+  private Node find(String term) {
+    Node node = _root;
+    for (int i = 0; node != null && i < term.length(); i++)
+      node = node.child(term.charAt(i));
+    return node;
+  }
+
+  private static boolean collect(Node node, StringBuilder term, Visitor visitor) {
+    if (node.postings != null && !visitor.visit(term.toString(), node.postings, 0))
+      return false;
+    for (int i = 0; i < node.keys.length; i++) {
+      term.append(node.keys[i]);
+      boolean more = collect(node.kids[i], term, visitor);
+      term.setLength(term.length() - 1);
+      if (!more)
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean fuzzy(Node node, char c, String word, int maxEdits, int[][] rows, int depth,
+                               StringBuilder term, Visitor visitor) {
+    int[] previous = rows[depth - 1];
+    int[] row = rows[depth];
+    row[0] = previous[0] + 1;
+    int min = row[0];
+    for (int i = 1; i < row.length; i++) {
+      int cost = word.charAt(i - 1) == c ? 0 : 1;
+      row[i] = Math.min(Math.min(row[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+      min = Math.min(min, row[i]);
+    }
+    if (min > maxEdits)
+      return true;
+    term.append(c);
+    try {
+      int edits = row[row.length - 1];
+      if (node.postings != null && edits <= maxEdits && !visitor.visit(term.toString(), node.postings, edits))
+        return false;
+      if (depth + 1 < rows.length) {
+        for (int i = 0; i < node.keys.length; i++) {
+          if (!fuzzy(node.kids[i], node.keys[i], word, maxEdits, rows, depth + 1, term, visitor))
+            return false;
+        }
+      }
+      return true;
+    } finally {
+      term.setLength(term.length() - 1);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package shop.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into normalized search terms.
+ *
+ * <p>Text is decomposed and stripped of accents, lower-cased, and split
+ * at every character that is not a letter or digit, so
+ * <code>"Am&eacute;lie (2001)"</code> yields <code>amelie</code> and
+ * <code>2001</code>.</p>
+ */
+final class Tokenizer {
+  private Tokenizer() {}
+
+  static List<String> tokenize(String text) {
+    String folded = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+    List<String> tokens = new ArrayList<String>();
+    StringBuilder token = new StringBuilder();
+    for (int i = 0; i < folded.length(); i++) {
+      char c = folded.charAt(i);
+      if (Character.getType(c) == Character.NON_SPACING_MARK)
+        continue;
+      if (Character.isLetterOrDigit(c)) {
+        token.append(c);
+      } else if (token.length() > 0) {
+        tokens.add(token.toString());
+        token.setLength(0);
+      }
+    }
+    if (token.length() > 0)
+      tokens.add(token.toString());
+    return tokens;
+  }
+}
@@ -0,0 +1,89 @@
+package shop.command;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import shop.metrics.CommandMetrics;
+import shop.metrics.CommandStats;
+
+public class AdmissionControlTest {
+    /**
+     * Starts a command of <code>type</code> that runs until
+     * <code>release</code> is counted down.
+     */
+    private static Thread hold(AdmissionControl control, String type, CountDownLatch release) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Thread t = new Thread(() -> control.execute(type, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return false;
+            }
+            return true;
+        }));
+        t.start();
+        started.await();
+        return t;
+    }
+
+    @Test
+    public void TestPrioritiesShareCapacity() throws InterruptedException {
+        CommandStats stats = CommandMetrics.stats("list");
+        long failures = stats.getFailureCount();
+        long samples = stats.latency(CommandStats.Phase.RUN).count();
+        AdmissionControl control = new AdmissionControl(4, 1000);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Thread> held = new ArrayList<Thread>();
+        held.add(hold(control, "list", release));
+        held.add(hold(control, "list", release));
+        // Bulk work may use only half the capacity
+        assertEquals(Outcome.OVERLOADED, control.execute("list", () -> true));
+        held.add(hold(control, "add", release));
+        assertEquals(Outcome.OVERLOADED, control.execute("add", () -> true));
+        // Check-outs may use all of it
+        assertEquals(Outcome.OK, control.execute("out", () -> true));
+        held.add(hold(control, "out", release));
+        assertEquals(Outcome.OVERLOADED, control.execute("out", () -> true));
+
+        release.countDown();
+        for (Thread t : held)
+            t.join();
+        assertEquals(Outcome.FAILED, control.execute("in", () -> false));
+        assertEquals(Outcome.OK, control.execute("list", () -> true));
+        assertEquals(1, control.shed("list"));
+        assertEquals(3, control.admitted("list"));
+        assertEquals(0, control.inFlight("list"));
+        // A shed command is a failure, but not a latency sample
+        assertEquals(failures + 1, stats.getFailureCount());
+        assertEquals(samples, stats.latency(CommandStats.Phase.RUN).count());
+        assertTrue(stats.getFailuresByReason().get("overloaded") >= 1);
+    }
+
+    @Test
+    public void TestLimitAdaptsToLatency() {
+        // The commands advance a fake clock, so the latencies are exact
+        AtomicLong now = new AtomicLong();
+        AdmissionControl control = new AdmissionControl(10, 1, now::get);
+        control.setPriority("slow", AdmissionControl.Priority.CRITICAL);
+        assertEquals(10, control.limit("slow"));
+        for (int i = 0; i < 5; i++)
+            control.execute("slow", () -> {
+                now.addAndGet(5_000_000);
+                return true;
+            });
+        assertEquals(5, control.limit("slow"));
+        assertTrue(control.retryAfterMillis("slow") >= 5);
+        for (int i = 0; i < 100; i++)
+            control.execute("slow", () -> true);
+        assertEquals(10, control.limit("slow"));
+        assertThrows(IllegalArgumentException.class,
+            () -> control.setPriority("slow", AdmissionControl.Priority.BULK));
+    }
+}
@@ -0,0 +1,74 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+
+public class CachedInventoryTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2002, "S2");
+    final Comparator<Record> byTitle = (a, b) -> a.video().compareTo(b.video());
+
+    @Test
+    public void TestInvalidatesOnlyChangedVideo() {
+        CachedInventory cache = Data.newCachedInventory(Data.newInventory(), 100);
+        Data.newAddCmd(cache, v1, 2).run();
+        Data.newAddCmd(cache, v2, 1).run();
+        assertEquals(0, cache.get(v1).numOut());
+        assertEquals(1, cache.get(v2).numOwned());
+        assertEquals(0, cache.get(v1).numOut());
+        assertEquals(1, cache.recordStats().hitCount());
+
+        Data.newOutCmd(cache, v1).run();
+        assertEquals(1, cache.get(v1).numOut());
+        assertEquals(1, cache.get(v2).numOwned());
+        assertEquals(2, cache.recordStats().hitCount());
+
+        Data.newUndoCmd(cache).run();
+        assertEquals(0, cache.get(v1).numOut());
+        Data.newRedoCmd(cache).run();
+        assertEquals(1, cache.get(v1).numOut());
+        Data.newClearCmd(cache).run();
+        assertNull(cache.get(v1));
+        Data.newUndoCmd(cache).run();
+        assertEquals(1, cache.get(v1).numOut());
+    }
+
+    @Test
+    public void TestCachesAbsentRecordsAndListings() {
+        CachedInventory cache = Data.newCachedInventory(Data.newInventory(), 100);
+        assertNull(cache.get(v1));
+        assertNull(cache.get(v1));
+        assertEquals(1, cache.recordStats().hitCount());
+        Data.newAddCmd(cache, v2, 1).run();
+        Data.newAddCmd(cache, v1, 1).run();
+        assertNotNull(cache.get(v1));
+
+        assertEquals(v1, cache.iterator(byTitle).next().video());
+        Iterator<Record> i = cache.iterator(byTitle);
+        assertEquals(1, cache.listingStats().hitCount());
+        i.next();
+        assertEquals(v2, i.next().video());
+        Data.newAddCmd(cache, v1, -1).run();
+        assertEquals(v2, cache.iterator(byTitle).next().video());
+        assertEquals(2, cache.listingStats().missCount());
+    }
+
+    @Test
+    public void TestEvictsBeyondMaximumSize() {
+        CachedInventory cache = Data.newCachedInventory(Data.newInventory(), 10);
+        for (int i = 0; i < 100; i++) {
+            Video v = Data.newVideo("T" + i, 2000, "D");
+            Data.newAddCmd(cache, v, 1).run();
+            cache.get(v);
+        }
+        assertTrue(cache.cachedRecords() <= 10);
+        assertTrue(cache.recordStats().evictionCount() >= 90);
+        cache.close();
+        Data.newAddCmd(cache, Data.newVideo("T0", 2000, "D"), 1).run();
+        assertEquals(2, cache.get(Data.newVideo("T0", 2000, "D")).numOwned());
+    }
+}
@@ -0,0 +1,106 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class ChangePublisherTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2002, "S2");
+    final Video v3 = Data.newVideo("K3", 2001, "S3");
+
+    /** Records what it receives and requests nothing by itself. */
+    static final class Recorder implements Flow.Subscriber<Change> {
+        final List<Change> changes = new ArrayList<Change>();
+        Flow.Subscription subscription;
+        Throwable error;
+
+        public void onSubscribe(Flow.Subscription s) { subscription = s; }
+        public void onNext(Change c) { changes.add(c); }
+        public void onError(Throwable t) { error = t; }
+        public void onComplete() {}
+    }
+
+    @Test
+    public void TestCoalescesPerVideo() {
+        InventorySet inventory = (InventorySet) Data.newInventory();
+        ChangePublisher publisher = new ChangePublisher(inventory, Runnable::run, 16);
+        Recorder r = new Recorder();
+        publisher.subscribe(r);
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newAddCmd(inventory, v3, 1).run();
+        Data.newAddCmd(inventory, v3, -1).run();
+        assertTrue(r.changes.isEmpty());
+
+        r.subscription.request(1);
+        assertEquals(1, r.changes.size());
+        assertEquals(v2, r.changes.get(0).video());
+        r.subscription.request(10);
+        assertEquals(2, r.changes.size());
+        Change c = r.changes.get(1);
+        assertEquals(v1, c.video());
+        assertNull(c.oldRecord());
+        assertEquals(2, c.newRecord().numOut());
+        assertEquals(Change.Cause.OUT, c.cause());
+        assertTrue(c.seq() > r.changes.get(0).seq());
+
+        Data.newUndoCmd(inventory).run();
+        Data.newUndoCmd(inventory).run();
+        assertEquals(Change.Cause.UNDO, r.changes.get(2).cause());
+        assertNull(r.changes.get(2).oldRecord());
+        Data.newRedoCmd(inventory).run();
+        assertEquals(Change.Cause.UNDO, r.changes.get(3).cause());
+        assertEquals(Change.Cause.REDO, r.changes.get(4).cause());
+        Data.newClearCmd(inventory).run();
+        assertEquals(Change.Cause.CLEAR, r.changes.get(5).cause());
+        assertNull(r.error);
+    }
+
+    @Test
+    public void TestOverflowAndCancel() {
+        InventorySet inventory = (InventorySet) Data.newInventory();
+        ChangePublisher publisher = new ChangePublisher(inventory, Runnable::run, 2);
+        Recorder slow = new Recorder();
+        Recorder fast = new Recorder();
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        fast.subscription.request(Long.MAX_VALUE);
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        Data.newAddCmd(inventory, v3, 1).run();
+        assertTrue(slow.error instanceof IllegalStateException);
+        assertNull(fast.error);
+        assertEquals(3, fast.changes.size());
+        assertEquals(1, publisher.subscribers());
+
+        fast.subscription.cancel();
+        assertEquals(0, publisher.subscribers());
+        Data.newAddCmd(inventory, v1, 1).run();
+        assertEquals(3, fast.changes.size());
+    }
+
+    @Test
+    public void TestDeliversAsynchronously() throws Exception {
+        Inventory inventory = Data.newInventory();
+        CompletableFuture<Change> first = new CompletableFuture<Change>();
+        Data.changes(inventory).subscribe(new Flow.Subscriber<Change>() {
+            public void onSubscribe(Flow.Subscription s) { s.request(1); }
+            public void onNext(Change c) { first.complete(c); }
+            public void onError(Throwable t) { first.completeExceptionally(t); }
+            public void onComplete() {}
+        });
+        Data.newAddCmd(inventory, v1, 1).run();
+        Change c = first.get(10, TimeUnit.SECONDS);
+        assertEquals(Change.Cause.ADD, c.cause());
+        assertEquals(1, c.newRecord().numOwned());
+    }
+}
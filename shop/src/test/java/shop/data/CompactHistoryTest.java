@@ -0,0 +1,120 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class CompactHistoryTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2004, "S2");
+
+    private static void undo(Inventory inventory, int n) {
+        for (int i = 0; i < n; i++)
+            assertTrue(Data.newUndoCmd(inventory).run());
+    }
+
+    private static void redo(Inventory inventory, int n) {
+        for (int i = 0; i < n; i++)
+            assertTrue(Data.newRedoCmd(inventory).run());
+    }
+
+    @Test
+    public void TestUndoAndRedoEncodedCommands() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 3).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newInCmd(inventory, v1).run();
+        Data.newAddCmd(inventory, v1, -1).run();
+        String after = inventory.toString();
+
+        undo(inventory, 3);
+        assertEquals("VideoObj[title=K1, year=2003, director=S1] [total copies: 3, currently checked out: 1, total rentals: 1]",
+                     inventory.get(v1).toString());
+        redo(inventory, 3);
+        assertEquals(after, inventory.toString());
+
+        undo(inventory, 6);
+        assertEquals(0, inventory.size());
+        assertFalse(Data.newUndoCmd(inventory).run());
+        redo(inventory, 6);
+        assertEquals(after, inventory.toString());
+    }
+
+    @Test
+    public void TestUndoRemovalRestoresRentals() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newInCmd(inventory, v1).run();
+        Data.newAddCmd(inventory, v1, -2).run();
+        assertNull(inventory.get(v1));
+
+        undo(inventory, 1);
+        assertEquals("VideoObj[title=K1, year=2003, director=S1] [total copies: 2, currently checked out: 0, total rentals: 1]",
+                     inventory.get(v1).toString());
+        redo(inventory, 1);
+        assertNull(inventory.get(v1));
+    }
+
+    @Test
+    public void TestRedoThatServesReservations() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newInCmd(inventory, v1).run();
+        undo(inventory, 1);
+        Reservation r = Data.newReservation(inventory, v1);
+
+        // The check-in is redone and hands the copy to the reservation
+        redo(inventory, 1);
+        assertTrue(r.future().isDone());
+        assertEquals("VideoObj[title=K1, year=2003, director=S1] [total copies: 1, currently checked out: 1, total rentals: 2]",
+                     inventory.get(v1).toString());
+
+        undo(inventory, 1);
+        assertEquals("VideoObj[title=K1, year=2003, director=S1] [total copies: 1, currently checked out: 1, total rentals: 1]",
+                     inventory.get(v1).toString());
+        assertEquals(1, ((InventorySet) inventory).waiting(v1));
+    }
+
+    @Test
+    public void TestObjectsAndWordsInterleave() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newTransaction(inventory).checkOut(v1).add(v2, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newClearCmd(inventory).run();
+        String after = inventory.toString();
+
+        undo(inventory, 4);
+        assertEquals(0, inventory.size());
+        redo(inventory, 4);
+        assertEquals(after, inventory.toString());
+        undo(inventory, 1);
+        assertEquals(2, inventory.get(v1).numOut());
+        assertEquals(1, inventory.get(v2).numOwned());
+    }
+
+    @Test
+    public void TestObjectHistoryCanBeSelected() {
+        System.setProperty("shop.history", "objects");
+        final Inventory inventory;
+        try {
+            inventory = Data.newInventory();
+        } finally {
+            System.clearProperty("shop.history");
+        }
+        assertFalse(((InventorySet) inventory).getHistory() instanceof CompactHistory);
+        assertTrue(((InventorySet) Data.newInventory()).getHistory() instanceof CompactHistory);
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newAddCmd(inventory, v1, -1).run();
+        String after = inventory.toString();
+        undo(inventory, 3);
+        assertEquals(0, inventory.size());
+        redo(inventory, 3);
+        assertEquals(after, inventory.toString());
+    }
+}
@@ -2,8 +2,13 @@ package shop.data;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.jupiter.api.Test;
 
+import shop.command.Outcome;
 import shop.command.UndoableCommand;
 
 public class CompositeTest {
@@ -69,4 +74,111 @@ public class CompositeTest {
         assertEquals( "VideoObj[title=K1, year=2003, director=S1] [total copies: 2, currently checked out: 1, total rentals: 1]", inventory.get(v1).toString() );
         assertEquals( "VideoObj[title=K2, year=2002, director=S2] [total copies: 3, currently checked out: 0, total rentals: 0]", inventory.get(v2).toString() );
     }
+
+    @Test
+    public void TestUndoRedoKeepOrder(){
+        final Inventory inventory = Data.newInventory();
+        Composite c = new Composite();
+        c.add(Data.newAddCmd(inventory, v1, 2));
+        c.add(Data.newOutCmd(inventory, v1));
+        c.run();
+        for (int i = 0; i < 2; i++) {
+            c.undo();
+            assertEquals( 0, inventory.size() );
+            c.redo();
+            assertEquals( "VideoObj[title=K1, year=2003, director=S1] [total copies: 2, currently checked out: 1, total rentals: 1]", inventory.get(v1).toString() );
+        }
+    }
+
+    private static Composite restock(Inventory inventory, List<Video> videos, ForkJoinPool pool) {
+        Composite c = new Composite(pool);
+        for (Video v : videos) {
+            c.add(Data.newAddCmd(inventory, v, 2));
+            c.add(Data.newOutCmd(inventory, v));
+        }
+        // A barrier: every video before it is in place
+        c.add(Data.newClearCmd(inventory));
+        for (Video v : videos) {
+            c.add(Data.newAddCmd(inventory, v, 3));
+            c.add(Data.newOutCmd(inventory, v));
+            c.add(Data.newInCmd(inventory, v));
+            c.add(Data.newAddCmd(inventory, v, -1));
+        }
+        return c;
+    }
+
+    private static String contents(Inventory inventory) {
+        List<String> records = new ArrayList<String>();
+        for (Record r : inventory)
+            records.add(r.toString());
+        records.sort(null);
+        return String.join("\n", records);
+    }
+
+    @Test
+    public void TestParallelMatchesSequential(){
+        List<Video> videos = new ArrayList<Video>();
+        for (int i = 0; i < 2000; i++)
+            videos.add(Data.newVideo("Title " + i, 2000, "Director " + i % 7));
+        Inventory expected = Data.newInventory();
+        assertTrue(restock(expected, videos, null).run());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Inventory inventory = Data.newInventory();
+            Composite c = restock(inventory, videos, pool);
+            assertEquals(Outcome.OK, c.execute());
+            assertEquals(contents(expected), contents(inventory));
+            c.undo();
+            assertEquals(0, inventory.size());
+            c.redo();
+            assertEquals(contents(expected), contents(inventory));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void TestParallelReportsFirstFailure(){
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v2, 1).run();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Composite c = new Composite(pool);
+            c.add(Data.newAddCmd(inventory, v2, 1));
+            c.add(Data.newOutCmd(inventory, v1));
+            c.add(Data.newInCmd(inventory, v2));
+            assertEquals(Outcome.NOT_FOUND, c.execute());
+            assertEquals(Outcome.ALREADY_RUN, c.execute());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void TestParallelRentalsKeepOrder(){
+        final Inventory inventory = Data.newInventory();
+        Customer customer = Data.newCustomer(inventory, 1, "Someone");
+        List<Video> videos = new ArrayList<Video>();
+        for (int i = 0; i < 500; i++) {
+            Video v = Data.newVideo("Title " + i, 2000, "Director");
+            Data.newAddCmd(inventory, v, 1).run();
+            videos.add(v);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // Rentals change the customer's list, so they run one by one
+            Composite c = new Composite(pool);
+            for (Video v : videos)
+                c.add(Data.newRentCmd(inventory, customer, v));
+            assertEquals(Outcome.OK, c.execute());
+            assertEquals(videos, Data.customers(inventory).rentals(customer));
+            c.undo();
+            assertTrue(Data.customers(inventory).rentals(customer).isEmpty());
+            c.redo();
+            assertEquals(videos, Data.customers(inventory).rentals(customer));
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
@@ -0,0 +1,109 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import shop.command.Outcome;
+import shop.command.UndoableCommand;
+
+public class CustomerTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2002, "S2");
+
+    @Test
+    public void TestRentAndReturn() {
+        final Inventory inventory = Data.newInventory();
+        Customer c1 = Data.newCustomer(inventory, 1, "Ann");
+        Customer c2 = Data.newCustomer(inventory, 2, "Bob");
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+
+        assertTrue(Data.newRentCmd(inventory, c1, v1).run());
+        assertTrue(Data.newRentCmd(inventory, c1, v2).run());
+        assertTrue(Data.newRentCmd(inventory, c2, v1).run());
+        assertFalse(Data.newRentCmd(inventory, c2, v2).run());
+        Customers customers = Data.customers(inventory);
+        assertEquals(List.of(v1, v2), customers.rentals(c1));
+        assertEquals(2, customers.holders(v1).size());
+
+        assertFalse(Data.newReturnCmd(inventory, c2, v2).run());
+        assertTrue(Data.newReturnCmd(inventory, c1, v1).run());
+        assertEquals(List.of(v2), customers.rentals(c1));
+        assertEquals(List.of(c2), customers.holders(v1));
+        assertEquals(1, inventory.get(v1).numOut());
+    }
+
+    @Test
+    public void TestUndoRedo() {
+        final Inventory inventory = Data.newInventory();
+        Customer c1 = Data.newCustomer(inventory, 1, "Ann");
+        Data.newAddCmd(inventory, v1, 1).run();
+        UndoableCommand rent = Data.newRentCmd(inventory, c1, v1);
+        rent.run();
+        Data.newUndoCmd(inventory).run();
+        assertTrue(Data.customers(inventory).rentals(c1).isEmpty());
+        assertEquals(0, inventory.get(v1).numOut());
+        Data.newRedoCmd(inventory).run();
+        assertEquals(List.of(v1), Data.customers(inventory).rentals(c1));
+        assertEquals(1, inventory.get(v1).numOut());
+    }
+
+    @Test
+    public void TestConcurrentReturnsCheckInOneCopy() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            final Inventory inventory = Data.newInventory();
+            Customer c1 = Data.newCustomer(inventory, 1, "Ann");
+            Customer c2 = Data.newCustomer(inventory, 2, "Bob");
+            Data.newAddCmd(inventory, v1, 2).run();
+            Data.newRentCmd(inventory, c1, v1).run();
+            Data.newRentCmd(inventory, c2, v1).run();
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger returned = new AtomicInteger();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (Data.newReturnCmd(inventory, c1, v1).execute() == Outcome.OK)
+                        returned.incrementAndGet();
+                });
+                threads[t].start();
+            }
+            start.countDown();
+            for (Thread t : threads)
+                t.join();
+            // Only the one rental is returned; Bob's copy stays out
+            assertEquals(1, returned.get());
+            assertEquals(1, inventory.get(v1).numOut());
+            assertEquals(List.of(c2), Data.customers(inventory).holders(v1));
+        }
+    }
+
+    @Test
+    public void TestLongMapMatchesHashMap() {
+        LongMap<Long> map = new LongMap<Long>();
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(5000);
+            if (random.nextBoolean())
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            else
+                assertEquals(expected.remove(key), map.remove(key));
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000; key++)
+            assertEquals(expected.get(key), map.get(key));
+    }
+}
@@ -0,0 +1,160 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class DueDatesTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2002, "S2");
+    final Duration week = Duration.ofDays(7);
+
+    @Test
+    public void TestOverdueFiresOnceAndCheckInEndsLoan() {
+        RentalMetricsTest.ManualClock clock = new RentalMetricsTest.ManualClock();
+        Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        List<String> events = new ArrayList<String>();
+        try (DueDates dueDates = Data.newDueDates(inventory, week, clock)) {
+            dueDates.addListener((video, due) -> events.add(video.title() + " " + due));
+            Instant start = clock.instant();
+            Data.newOutCmd(inventory, v1).run();
+            clock.advance(Duration.ofDays(1));
+            Data.newOutCmd(inventory, v1).run();
+            assertEquals(List.of(start.plus(week), start.plus(Duration.ofDays(8))), dueDates.dueDates(v1));
+
+            clock.advance(Duration.ofDays(6).minusSeconds(1));
+            dueDates.advance();
+            assertTrue(events.isEmpty());
+            clock.advance(Duration.ofSeconds(1));
+            dueDates.advance();
+            dueDates.advance();
+            assertEquals(List.of("K1 " + start.plus(week)), events);
+            assertEquals(2, dueDates.outstanding());
+            assertEquals(1, dueDates.overdue());
+
+            // The copy out longest is the one returned
+            Data.newInCmd(inventory, v1).run();
+            assertEquals(0, dueDates.overdue());
+            assertEquals(List.of(start.plus(Duration.ofDays(8))), dueDates.dueDates(v1));
+            clock.advance(Duration.ofDays(30));
+            dueDates.advance();
+            assertEquals(2, events.size());
+            assertEquals(1, dueDates.overdue());
+        }
+    }
+
+    @Test
+    public void TestUndoEndsNewestLoan() {
+        RentalMetricsTest.ManualClock clock = new RentalMetricsTest.ManualClock();
+        Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        Data.newOutCmd(inventory, v2).run();
+        try (DueDates dueDates = Data.newDueDates(inventory, week, clock)) {
+            // Copies already out get a loan from now
+            assertEquals(1, dueDates.outstanding());
+            Instant start = clock.instant();
+            Data.newOutCmd(inventory, v1).run();
+            clock.advance(Duration.ofDays(1));
+            Data.newOutCmd(inventory, v1).run();
+            Data.newUndoCmd(inventory).run();
+            assertEquals(List.of(start.plus(week)), dueDates.dueDates(v1));
+            Data.newUndoCmd(inventory).run();
+            assertEquals(List.of(), dueDates.dueDates(v1));
+            Data.newRedoCmd(inventory).run();
+            assertEquals(1, dueDates.dueDates(v1).size());
+            Data.newClearCmd(inventory).run();
+            assertEquals(0, dueDates.outstanding());
+
+            clock.advance(Duration.ofDays(60));
+            dueDates.advance();
+            assertEquals(0, dueDates.overdue());
+        }
+    }
+
+    @Test
+    public void TestUndoCheckInRestoresDueDate() {
+        RentalMetricsTest.ManualClock clock = new RentalMetricsTest.ManualClock();
+        Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        List<String> events = new ArrayList<String>();
+        try (DueDates dueDates = Data.newDueDates(inventory, week, clock)) {
+            dueDates.addListener((video, due) -> events.add(video.title() + " " + due));
+            Instant start = clock.instant();
+            Data.newOutCmd(inventory, v1).run();
+            clock.advance(Duration.ofDays(3));
+            Data.newOutCmd(inventory, v1).run();
+            Data.newInCmd(inventory, v1).run();
+            assertEquals(List.of(start.plus(Duration.ofDays(10))), dueDates.dueDates(v1));
+            Data.newUndoCmd(inventory).run();
+            assertEquals(List.of(start.plus(week), start.plus(Duration.ofDays(10))), dueDates.dueDates(v1));
+            Data.newRedoCmd(inventory).run();
+            assertEquals(List.of(start.plus(Duration.ofDays(10))), dueDates.dueDates(v1));
+
+            // An overdue loan comes back overdue, and is not reported again
+            clock.advance(Duration.ofDays(8));
+            dueDates.advance();
+            assertEquals(1, events.size());
+            Data.newInCmd(inventory, v1).run();
+            assertEquals(0, dueDates.overdue());
+            Data.newUndoCmd(inventory).run();
+            assertEquals(1, dueDates.overdue());
+            assertEquals(List.of(start.plus(Duration.ofDays(10))), dueDates.dueDates(v1));
+            dueDates.advance();
+            assertEquals(1, events.size());
+
+            // Undoing and redoing a check-out keeps its due date too
+            Data.newUndoCmd(inventory).run();
+            Data.newUndoCmd(inventory).run();
+            assertEquals(List.of(start.plus(week)), dueDates.dueDates(v1));
+            Data.newRedoCmd(inventory).run();
+            assertEquals(List.of(start.plus(week), start.plus(Duration.ofDays(10))), dueDates.dueDates(v1));
+        }
+    }
+
+    @Test
+    public void TestWheelFiresEachTimerOnTime() {
+        final class T extends TimingWheel.Timer {
+            final long due;
+            T(long due) {
+                this.due = due;
+            }
+        }
+        Random random = new Random(48);
+        TimingWheel<T> wheel = new TimingWheel<T>(0);
+        List<T> timers = new ArrayList<T>();
+        for (int i = 0; i < 200000; i++) {
+            // Mostly within a month of seconds, some far beyond the top wheel
+            long due = i % 1000 == 0 ? (1L << 37) + random.nextInt(1000) : random.nextInt(30 * 86400);
+            T t = new T(due);
+            timers.add(t);
+            wheel.schedule(t, due);
+        }
+        int cancelled = 0;
+        for (int i = 0; i < timers.size(); i += 3) {
+            assertTrue(wheel.cancel(timers.get(i)));
+            cancelled++;
+        }
+        assertFalse(wheel.cancel(timers.get(0)));
+
+        long[] now = { -1 };
+        int[] fired = { 0 };
+        while (wheel.size() > 0) {
+            long before = now[0];
+            now[0] += now[0] < 30 * 86400 ? 1 + random.nextInt(5000) : 1L << 30;
+            long after = now[0];
+            wheel.advance(after, t -> {
+                assertTrue(t.due <= after && t.due > before, t.due + " fired at " + after);
+                fired[0]++;
+            });
+        }
+        assertEquals(timers.size() - cancelled, fired[0]);
+    }
+}
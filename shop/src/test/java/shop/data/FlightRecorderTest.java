@@ -0,0 +1,96 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Records the shop events with the settings in shop.jfc.
+ */
+public class FlightRecorderTest {
+    final Video v1 = Data.newVideo("Recorded 1", 2003, "S1");
+    final Video v2 = Data.newVideo("Recorded 2", 2002, "S2");
+
+    private static Configuration settings() throws Exception {
+        try (Reader reader = new InputStreamReader(
+                FlightRecorderTest.class.getResourceAsStream("/shop.jfc"), StandardCharsets.UTF_8)) {
+            return Configuration.create(reader);
+        }
+    }
+
+    @Test
+    public void TestSettingsEnableShopEvents() throws Exception {
+        Map<String, String> settings = settings().getSettings();
+        for (String event : List.of("shop.Command", "shop.HistorySize", "shop.InventoryScan", "shop.BulkOperation"))
+            assertEquals("true", settings.get(event + "#enabled"), event);
+    }
+
+    @Test
+    public void TestEventsAreRecorded() throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording(settings())) {
+            // Record every command, however fast
+            recording.enable("shop.Command").withThreshold(Duration.ZERO);
+            recording.start();
+            Inventory inventory = Data.newInventory();
+            Data.newAddCmd(inventory, v1, 2).run();
+            Data.newOutCmd(inventory, v2).run();
+            Iterator<Record> sorted = inventory.iterator((a, b) -> a.video().compareTo(b.video()));
+            assertTrue(sorted.hasNext());
+            Data.newClearCmd(inventory).run();
+            Data.newUndoCmd(inventory).run();
+            recording.stop();
+            Path file = Files.createTempFile("shop", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        RecordedEvent add = find(events, "shop.Command",
+            e -> "add".equals(e.getString("command")) && String.valueOf(e.getString("video")).contains("Recorded 1"));
+        assertEquals("run", add.getString("phase"));
+        assertEquals("ok", add.getString("outcome"));
+        RecordedEvent out = find(events, "shop.Command",
+            e -> "out".equals(e.getString("command")) && String.valueOf(e.getString("video")).contains("Recorded 2"));
+        assertEquals("not found", out.getString("outcome"));
+
+        RecordedEvent scan = find(events, "shop.InventoryScan", e -> "sorted iterator".equals(e.getString("operation")));
+        assertEquals(1, scan.getInt("records"));
+        RecordedEvent clear = find(events, "shop.BulkOperation", e -> "clear".equals(e.getString("operation")));
+        assertEquals(1, clear.getInt("size"));
+        find(events, "shop.BulkOperation", e -> "replace".equals(e.getString("operation")));
+
+        RecordedEvent undo = find(events, "shop.HistorySize", e -> "undo".equals(e.getString("action")));
+        assertTrue(undo.getInt("redoable") >= 1);
+    }
+
+    /**
+     * Returns the first event of a type that matches, failing if there is none.
+     */
+    private static RecordedEvent find(List<RecordedEvent> events, String type, Predicate<RecordedEvent> match) {
+        for (RecordedEvent e : events) {
+            if (e.getEventType().getName().equals(type) && match.test(e))
+                return e;
+        }
+        return fail("no " + type + " event in " + events.size());
+    }
+}
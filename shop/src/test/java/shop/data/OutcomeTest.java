@@ -0,0 +1,85 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import shop.command.Outcome;
+import shop.command.UndoableCommand;
+
+public class OutcomeTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2004, "S2");
+
+    @Test
+    public void TestCommandsReportWhyTheyFailed() {
+        final Inventory inventory = Data.newInventory();
+        assertEquals(Outcome.NOT_FOUND, Data.newOutCmd(inventory, v1).execute());
+        assertEquals(Outcome.NOT_FOUND, Data.newInCmd(inventory, v1).execute());
+        assertEquals(Outcome.NOT_FOUND, Data.newAddCmd(inventory, v1, -1).execute());
+
+        assertEquals(Outcome.OK, Data.newAddCmd(inventory, v1, 1).execute());
+        assertEquals(Outcome.NONE_OUT, Data.newInCmd(inventory, v1).execute());
+        assertEquals(Outcome.OK, Data.newOutCmd(inventory, v1).execute());
+        assertEquals(Outcome.NONE_AVAILABLE, Data.newOutCmd(inventory, v1).execute());
+        assertEquals(Outcome.INVALID_CHANGE, Data.newAddCmd(inventory, v1, -1).execute());
+
+        long version = inventory.get(v1).version();
+        assertEquals(Outcome.STALE, Data.newInCmd(inventory, v1, version - 1).execute());
+        assertEquals(Outcome.OK, Data.newInCmd(inventory, v1, version).execute());
+    }
+
+    @Test
+    public void TestFailedCommandChangesNothing() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Record before = inventory.get(v1);
+
+        UndoableCommand c = Data.newOutCmd(inventory, v1);
+        assertFalse(c.run());
+        assertEquals(Outcome.ALREADY_RUN, c.execute());
+        assertEquals(before.version(), inventory.get(v1).version());
+
+        // The failed command is not in the history: undo reverts the check-out.
+        Data.newUndoCmd(inventory).run();
+        assertEquals(0, inventory.get(v1).numOut());
+    }
+
+    @Test
+    public void TestCompositeStopsAtFirstFailure() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Composite c = new Composite();
+        c.add(Data.newOutCmd(inventory, v1));
+        c.add(Data.newOutCmd(inventory, v1));
+        c.add(Data.newAddCmd(inventory, v2, 1));
+
+        assertEquals(Outcome.NONE_AVAILABLE, c.execute());
+        assertNull(inventory.get(v2));
+        assertEquals(Outcome.ALREADY_RUN, c.execute());
+    }
+
+    @Test
+    public void TestTransactionReportsFailedLine() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        assertEquals(Outcome.NOT_FOUND, Data.newTransaction(inventory).checkOut(v1).checkOut(v2).execute());
+        assertEquals(Outcome.NONE_AVAILABLE, Data.newTransaction(inventory).checkOut(v1).checkOut(v1).execute());
+        assertEquals(Outcome.STALE, Data.newTransaction(inventory).checkOut(v1, Record.ABSENT).execute());
+        assertEquals(0, inventory.get(v1).numOut());
+    }
+
+    @Test
+    public void TestReturnOfUnrentedVideo() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        Customer ann = Data.newCustomer(inventory, 1, "Ann");
+        Data.newOutCmd(inventory, v1).run();
+
+        assertEquals(Outcome.NOT_RENTED, Data.newReturnCmd(inventory, ann, v1).execute());
+        assertEquals(Outcome.OK, Data.newRentCmd(inventory, ann, v1).execute());
+        assertEquals(Outcome.OK, Data.newReturnCmd(inventory, ann, v1).execute());
+        assertEquals(1, inventory.get(v1).numOut());
+    }
+}
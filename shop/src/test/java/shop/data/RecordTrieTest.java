@@ -0,0 +1,73 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+public class RecordTrieTest {
+    // "Aa" and "BB" have the same hash code, so these titles all collide.
+    static final String[] TITLES = { "AaAa", "AaBB", "BBAa", "BBBB" };
+
+    private static void assertContents(Map<Video,Record> expected, RecordTrie trie) {
+        assertEquals(expected.size(), trie.size());
+        for (Map.Entry<Video,Record> e : expected.entrySet())
+            assertEquals(e.getValue(), trie.get(e.getKey()));
+        int n = 0;
+        for (Record r : trie) {
+            assertEquals(expected.get(r.video()), r);
+            n++;
+        }
+        assertEquals(expected.size(), n);
+    }
+
+    @Test
+    public void TestMatchesHashMap() {
+        SplittableRandom random = new SplittableRandom(7);
+        Video[] videos = new Video[3000];
+        for (int i = 0; i < videos.length; i++) {
+            String title = i < 40 ? TITLES[i % TITLES.length] : "T" + i;
+            videos[i] = Data.newVideo(title, 1900 + i % 100, "D" + i / 4);
+        }
+        Map<Video,Record> expected = new HashMap<Video,Record>();
+        RecordTrie trie = RecordTrie.EMPTY;
+        for (int n = 0; n < 50000; n++) {
+            Video v = videos[random.nextInt(videos.length)];
+            if (random.nextInt(3) == 0) {
+                expected.remove(v);
+                trie = trie.with(v, null);
+            } else {
+                Record r = InventorySet.newRecord(v, 1 + random.nextInt(5), 0, n);
+                expected.put(v, r);
+                trie = trie.with(v, r);
+            }
+            if (n % 5000 == 0)
+                assertContents(expected, trie);
+        }
+        assertContents(expected, trie);
+        for (Video v : videos)
+            trie = trie.with(v, null);
+        assertContents(new HashMap<Video,Record>(), trie);
+    }
+
+    @Test
+    public void TestOldTriesAreUnchanged() {
+        Video v1 = Data.newVideo("AaAa", 2000, "D");
+        Video v2 = Data.newVideo("BBBB", 2000, "D");
+        assertEquals(v1.hashCode(), v2.hashCode());
+        RecordTrie one = RecordTrie.EMPTY.with(v1, InventorySet.newRecord(v1, 1, 0, 0));
+        RecordTrie two = one.with(v2, InventorySet.newRecord(v2, 2, 0, 0));
+        RecordTrie removed = two.with(v1, null);
+
+        assertEquals(1, one.size());
+        assertNull(one.get(v2));
+        assertEquals(2, two.size());
+        assertEquals(2, two.get(v2).numOwned());
+        assertNull(removed.get(v1));
+        assertEquals(1, two.get(v1).numOwned());
+        assertSame(removed, removed.with(v1, null));
+    }
+}
@@ -0,0 +1,86 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+
+public class RentalMetricsTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2002, "S2");
+
+    /** A clock that only moves when told to. */
+    static final class ManualClock extends Clock {
+        long millis = Instant.parse("2026-01-05T00:00:00Z").toEpochMilli();
+
+        public long millis() { return millis; }
+        public Instant instant() { return Instant.ofEpochMilli(millis); }
+        public ZoneId getZone() { return ZoneOffset.UTC; }
+        public Clock withZone(ZoneId zone) { return this; }
+
+        void advance(Duration d) { millis += d.toMillis(); }
+    }
+
+    private static void rent(Inventory inventory, Video video, int times) {
+        for (int i = 0; i < times; i++) {
+            Data.newOutCmd(inventory, video).run();
+            Data.newInCmd(inventory, video).run();
+        }
+    }
+
+    @Test
+    public void TestCountsSurviveRollups() {
+        ManualClock clock = new ManualClock();
+        RentalMetrics metrics = new RentalMetrics(clock);
+        Inventory inventory = Data.newInventory();
+        Data.addListener(inventory, metrics);
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+
+        for (int hour = 0; hour < 30; hour++) {
+            rent(inventory, v1, 1);
+            if (hour == 5)
+                rent(inventory, v2, 7);
+            clock.advance(Duration.ofMinutes(20));
+            metrics.rollUp();
+            clock.advance(Duration.ofMinutes(40));
+            metrics.rollUp();
+        }
+        assertEquals(30, metrics.rentals(v1, Duration.ofDays(7)));
+        assertEquals(24, metrics.rentals(v1, Duration.ofHours(24)));
+        assertEquals(7, metrics.rentals(v2, Duration.ofDays(7)));
+        assertEquals(0, metrics.rentals(v2, Duration.ofHours(24)));
+        assertEquals(37, metrics.rentals(Duration.ofDays(7)));
+
+        RentalMetrics.HourCount busiest = metrics.busiestHour(Duration.ofDays(7));
+        assertEquals(Instant.parse("2026-01-05T05:00:00Z"), busiest.hour());
+        assertEquals(8, busiest.rentals());
+
+        clock.advance(Duration.ofDays(30));
+        metrics.rollUp();
+        assertEquals(0, metrics.rentals(Duration.ofDays(7)));
+        assertEquals(37, metrics.rentals(Duration.ofDays(60)));
+        assertNull(metrics.busiestHour(Duration.ofDays(7)));
+    }
+
+    @Test
+    public void TestUndoSubtractsRental() {
+        ManualClock clock = new ManualClock();
+        RentalMetrics metrics = new RentalMetrics(clock);
+        Inventory inventory = Data.newInventory();
+        Data.addListener(inventory, metrics);
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newUndoCmd(inventory).run();
+        assertEquals(1, metrics.rentals(v1, Duration.ofHours(1)));
+        Data.newRedoCmd(inventory).run();
+        assertEquals(2, metrics.rentals(v1, Duration.ofHours(1)));
+        assertEquals(0, metrics.rentals(v2, Duration.ofHours(1)));
+    }
+}
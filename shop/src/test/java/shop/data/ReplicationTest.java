@@ -0,0 +1,175 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the primary in the test JVM and each replica in its own JVM.
+ * The replica process is driven through its standard input.
+ */
+public class ReplicationTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2002, "S2");
+    final Video v3 = Data.newVideo("K3", 2001, "S3");
+
+    @Test
+    public void TestReplicasFollowPrimary() throws Exception {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        try (ReplicationPrimary primary = Data.newReplicationPrimary(inventory, 0);
+             ReplicaProcess r1 = new ReplicaProcess(primary.port());
+             ReplicaProcess r2 = new ReplicaProcess(primary.port())) {
+            Data.newAddCmd(inventory, v2, 3).run();
+            Data.newOutCmd(inventory, v1).run();
+            assertEquals(lines(inventory), r1.await(primary.headSeq()));
+            assertEquals(lines(inventory), r2.await(primary.headSeq()));
+
+            Data.newUndoCmd(inventory).run();
+            Data.newClearCmd(inventory).run();
+            Data.newUndoCmd(inventory).run();
+            Data.newRedoCmd(inventory).run();
+            Data.newUndoCmd(inventory).run();
+            assertEquals(lines(inventory), r1.await(primary.headSeq()));
+            assertEquals(lines(inventory), r2.await(primary.headSeq()));
+        }
+    }
+
+    @Test
+    public void TestReplicaCatchesUpAfterDisconnect() throws Exception {
+        final Inventory inventory = Data.newInventory();
+        try (ReplicationPrimary primary = Data.newReplicationPrimary(inventory, 0);
+             ReplicaProcess r1 = new ReplicaProcess(primary.port())) {
+            Data.newAddCmd(inventory, v1, 2).run();
+            assertEquals(lines(inventory), r1.await(primary.headSeq()));
+            r1.command("disconnect");
+            Data.newAddCmd(inventory, v3, 1).run();
+            Data.newOutCmd(inventory, v3).run();
+            Data.newInCmd(inventory, v3).run();
+            r1.command("connect");
+            assertEquals(lines(inventory), r1.await(primary.headSeq()));
+        }
+    }
+
+    @Test
+    public void TestChangesWhileSeedingAreNotLost() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        ReplicationLog log = new ReplicationLog(16);
+        Data.addListener(inventory, log);
+        // A scan that saw the records before the changes below
+        List<Record> scan = new ArrayList<Record>();
+        for (Record r : inventory)
+            scan.add(r);
+        Data.newOutCmd(inventory, v1).run();
+        Data.newAddCmd(inventory, v2, -1).run();
+        Data.newAddCmd(inventory, v3, 1).run();
+        log.seed(scan);
+        ReplicationLog.Snapshot snapshot = log.snapshot();
+        assertEquals(3, snapshot.seq);
+        assertEquals(lines(inventory), lines(snapshot.records));
+    }
+
+    @Test
+    public void TestWritersDoNotWaitForTheLog() throws InterruptedException {
+        final Inventory inventory = Data.newInventory();
+        ReplicationLog log = new ReplicationLog(16);
+        Data.addListener(inventory, log);
+        log.seed(inventory);
+        Thread writer = new Thread(() -> Data.newAddCmd(inventory, v1, 1).run());
+        // A reader holding the log does not hold up changes to the inventory
+        synchronized (log) {
+            writer.start();
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(writer.isAlive());
+        }
+        assertEquals(1, log.head());
+        assertEquals(lines(inventory), lines(log.snapshot().records));
+    }
+
+    static List<String> lines(Iterable<Record> records) {
+        List<String> result = new ArrayList<String>();
+        for (Record r : records)
+            result.add(r.toString());
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * A replica running in a separate JVM.
+     */
+    static final class ReplicaProcess implements AutoCloseable {
+        private final Process _process;
+        private final PrintStream _in;
+        private final BufferedReader _out;
+
+        ReplicaProcess(int port) throws Exception {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            _process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ReplicaMain.class.getName(), Integer.toString(port))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            _in = new PrintStream(_process.getOutputStream(), true);
+            _out = new BufferedReader(new InputStreamReader(_process.getInputStream()));
+        }
+
+        List<String> await(long seq) throws Exception {
+            _in.println("await " + seq);
+            List<String> result = new ArrayList<String>();
+            for (String line = _out.readLine(); !"END".equals(line); line = _out.readLine()) {
+                assertNotNull(line, "replica process exited");
+                result.add(line);
+            }
+            return result;
+        }
+
+        void command(String command) throws Exception {
+            _in.println(command);
+            assertEquals("OK", _out.readLine());
+        }
+
+        public void close() throws Exception {
+            _in.close();
+            if (!_process.waitFor(10, TimeUnit.SECONDS))
+                _process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Entry point of the replica JVM.
+     */
+    public static final class ReplicaMain {
+        public static void main(String[] args) throws Exception {
+            ReplicaInventory replica = Data.newReplica("localhost", Integer.parseInt(args[0]));
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("await ")) {
+                    long seq = Long.parseLong(line.substring(6));
+                    long deadline = System.currentTimeMillis() + 10000;
+                    while (replica.appliedSeq() < seq && System.currentTimeMillis() < deadline)
+                        Thread.sleep(5);
+                    for (String s : lines(replica))
+                        System.out.println(s);
+                    System.out.println("END");
+                } else if (line.equals("disconnect")) {
+                    replica.disconnect();
+                    System.out.println("OK");
+                } else if (line.equals("connect")) {
+                    replica.connect();
+                    System.out.println("OK");
+                }
+            }
+            replica.disconnect();
+        }
+    }
+}
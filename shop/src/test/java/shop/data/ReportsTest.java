@@ -0,0 +1,102 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+public class ReportsTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2003, "S2");
+    final Video v3 = Data.newVideo("K3", 2005, "S1");
+
+    private void fill(Inventory inventory) {
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        Data.newAddCmd(inventory, v3, 4).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newOutCmd(inventory, v3).run();
+        Data.newInCmd(inventory, v3).run();
+        Data.newOutCmd(inventory, v3).run();
+    }
+
+    @Test
+    public void TestGroupings() {
+        final Inventory inventory = Data.newInventory();
+        fill(inventory);
+        Reports reports = Data.newReports(inventory);
+
+        assertEquals(new Totals(3, 7, 2, 3), reports.totals());
+        Map<String, Totals> byDirector = reports.byDirector();
+        assertEquals(List.of("S1", "S2"), List.copyOf(byDirector.keySet()));
+        assertEquals(new Totals(2, 6, 2, 3), byDirector.get("S1"));
+        assertEquals(2.0 / 6, byDirector.get("S1").utilization(), 1e-9);
+        assertEquals(0.0, byDirector.get("S2").utilization());
+        Map<Integer, Totals> byYear = reports.byYear();
+        assertEquals(1, byYear.get(2003).rentals());
+        assertEquals(2, byYear.get(2005).rentals());
+        assertEquals(List.of(v2), reports.neverRented());
+        long out = reports.query(records -> records.filter(r -> r.numOut() > 0).count());
+        assertEquals(2, out);
+    }
+
+    @Test
+    public void TestReportsReadOneVersion() {
+        final Inventory inventory = Data.newInventory(100);
+        fill(inventory);
+        InventorySnapshot before = Data.snapshot(inventory);
+        Data.newClearCmd(inventory).run();
+
+        try (Reports reports = Data.newReports(before, 2)) {
+            assertEquals(3, reports.totals().titles());
+        }
+        assertEquals(0, Data.newReports(inventory).totals().titles());
+    }
+
+    @Test
+    public void TestLargeInventorySplitsCompletely() {
+        final Inventory inventory = Data.newInventory(10);
+        for (int i = 0; i < 20000; i++)
+            Data.newAddCmd(inventory, Data.newVideo("T" + i, 1900 + i % 100, "D" + i % 37), 1 + i % 3).run();
+        try (Reports reports = Data.newReports(inventory, 4)) {
+            Totals totals = reports.totals();
+            assertEquals(20000, totals.titles());
+            assertEquals(39999, totals.owned());
+            assertEquals(37, reports.byDirector().size());
+            assertEquals(100, reports.byYear().size());
+            assertEquals(200, reports.byYear().get(1950).titles());
+            assertEquals(20000, reports.neverRented().size());
+        }
+    }
+
+    @Test
+    public void TestReportsOnLiveInventoryAreConsistent() throws InterruptedException {
+        final Inventory inventory = Data.newCachedInventory(Data.newInventory(), 100);
+        Video[] videos = new Video[200];
+        for (int i = 0; i < videos.length; i++) {
+            videos[i] = Data.newVideo("T" + i, 2000, "D" + i % 7);
+            Data.newAddCmd(inventory, videos[i], 1).run();
+        }
+        Data.newOutCmd(inventory, videos[0]).run();
+        // Move the one checked-out copy around, so exactly one is always out
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; !done.get(); i++) {
+                Video from = videos[i % videos.length];
+                Video to = videos[(i + 1) % videos.length];
+                Data.newTransaction(inventory).checkIn(from).checkOut(to).run();
+            }
+        });
+        writer.start();
+        try (Reports reports = Data.newReports(inventory, 4)) {
+            for (int n = 0; n < 500; n++)
+                assertEquals(1, reports.totals().out());
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import shop.command.Outcome;
+
+import shop.command.UndoableCommand;
+
+public class ReservationTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2002, "S2");
+
+    @Test
+    public void TestCheckInHandsCopyToOldestReservation() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Reservation r1 = Data.newReservation(inventory, v1);
+        Reservation r2 = Data.newReservation(inventory, v1);
+        assertFalse(r1.future().isDone());
+
+        assertTrue(Data.newInCmd(inventory, v1).run());
+        assertTrue(r1.future().isDone());
+        assertFalse(r2.future().isDone());
+        assertEquals(1, inventory.get(v1).numOut());
+        assertEquals(2, inventory.get(v1).numRentals());
+        assertEquals(1, r1.future().join().numOut());
+    }
+
+    @Test
+    public void TestUndoCheckInRequeuesReservation() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Reservation r1 = Data.newReservation(inventory, v1);
+        Reservation r2 = Data.newReservation(inventory, v1);
+        UndoableCommand in = Data.newInCmd(inventory, v1);
+        in.run();
+
+        in.undo();
+        assertEquals("VideoObj[title=K1, year=2003, director=S1] [total copies: 1, currently checked out: 1, total rentals: 1]", inventory.get(v1).toString());
+        assertFalse(r1.future().isDone());
+
+        in.redo();
+        assertTrue(r1.future().isDone());
+        assertFalse(r2.future().isDone());
+        assertEquals(2, inventory.get(v1).numRentals());
+    }
+
+    @Test
+    public void TestAddedCopiesServeWaitlist() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Reservation r1 = Data.newReservation(inventory, v1);
+        Reservation r2 = Data.newReservation(inventory, v1);
+        r1.cancel();
+
+        Data.newAddCmd(inventory, v1, 2).run();
+        assertTrue(r1.future().isCancelled());
+        assertTrue(r2.future().isDone());
+        assertEquals(3, inventory.get(v1).numOwned());
+        assertEquals(2, inventory.get(v1).numOut());
+    }
+
+    @Test
+    public void TestReservationRequiresUnavailableVideo() {
+        final Inventory inventory = Data.newInventory();
+        assertThrows(IllegalArgumentException.class, () -> Data.newReservation(inventory, v1));
+        Data.newAddCmd(inventory, v1, 1).run();
+        assertThrows(IllegalArgumentException.class, () -> Data.newReservation(inventory, v1));
+    }
+
+    @Test
+    public void TestFutureCompletesWithoutLocks() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        Data.newOutCmd(inventory, v2).run();
+        Reservation r1 = Data.newReservation(inventory, v1);
+        // Another thread may reserve and change the video while a dependent action runs
+        CompletableFuture<Outcome> dependent = r1.future().thenApply(rec ->
+            CompletableFuture.supplyAsync(() -> {
+                Data.newReservation(inventory, v2);
+                return Data.newAddCmd(inventory, v1, 1).execute();
+            }).orTimeout(10, TimeUnit.SECONDS).join());
+        assertTrue(Data.newInCmd(inventory, v1).run());
+        assertEquals(Outcome.OK, dependent.join());
+        assertEquals(2, inventory.get(v1).numOwned());
+    }
+
+    @Test
+    public void TestClaimedReservationCannotBeCancelled() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Reservation r1 = Data.newReservation(inventory, v1);
+        Reservation r2 = Data.newReservation(inventory, v1);
+        assertTrue(r1.claim());
+        assertFalse(r1.cancel());
+        assertFalse(r1.isCancelled());
+        assertTrue(r2.cancel());
+        assertFalse(r2.claim());
+    }
+
+    @Test
+    public void TestClearCancelsReservations() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newOutCmd(inventory, v1).run();
+        Reservation r1 = Data.newReservation(inventory, v1);
+        Data.newClearCmd(inventory).run();
+        assertTrue(r1.future().isCancelled());
+        assertEquals(0, ((InventorySet) inventory).waiting(v1));
+        // The restored copies are not handed to the cancelled reservation
+        Data.newUndoCmd(inventory).run();
+        assertTrue(Data.newInCmd(inventory, v1).run());
+        assertEquals(0, inventory.get(v1).numOut());
+    }
+}
@@ -0,0 +1,88 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import shop.data.RentalMetricsTest.ManualClock;
+
+public class SnapshotTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2004, "S2");
+
+    @Test
+    public void TestAsOfVersion() {
+        final Inventory inventory = Data.newInventory(100);
+        Data.newAddCmd(inventory, v1, 2).run();
+        long added = inventory.get(v1).version();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        Data.newClearCmd(inventory).run();
+
+        Inventory past = Data.asOf(inventory, added);
+        assertEquals(1, past.size());
+        assertEquals(0, past.get(v1).numOut());
+        assertNull(past.get(v2));
+
+        Inventory before = Data.asOf(inventory, Data.snapshot(inventory).version() - 2);
+        assertEquals(2, before.size());
+        assertEquals(1, before.get(v1).numOut());
+        assertEquals(0, Data.snapshot(inventory).size());
+        assertEquals(0, Data.asOf(inventory, 0).size());
+    }
+
+    @Test
+    public void TestSnapshotIsNotAffectedByLaterChanges() {
+        final Inventory inventory = Data.newInventory(100);
+        Data.newAddCmd(inventory, v1, 2).run();
+        InventorySnapshot snapshot = Data.snapshot(inventory);
+        Data.newOutCmd(inventory, v1).run();
+        Data.newUndoCmd(inventory).run();
+        Data.newUndoCmd(inventory).run();
+
+        assertNull(inventory.get(v1));
+        assertEquals(0, snapshot.get(v1).numOut());
+        assertEquals(snapshot.toString(), Data.asOf(inventory, snapshot.version()).toString());
+        assertThrows(IllegalArgumentException.class, () -> Data.newOutCmd(snapshot, v1));
+    }
+
+    @Test
+    public void TestAsOfTime() {
+        ManualClock clock = new ManualClock();
+        final Inventory inventory = new InventorySet(100, clock);
+        Instant start = clock.instant();
+        clock.advance(Duration.ofHours(1));
+        Data.newAddCmd(inventory, v1, 1).run();
+        Instant first = clock.instant();
+        clock.advance(Duration.ofHours(1));
+        Data.newOutCmd(inventory, v1).run();
+
+        assertEquals(0, Data.asOf(inventory, start).size());
+        assertEquals(0, Data.asOf(inventory, first.plusSeconds(60)).get(v1).numOut());
+        assertEquals(1, Data.asOf(inventory, clock.instant()).get(v1).numOut());
+        assertEquals(first, Data.asOf(inventory, first.plusSeconds(60)).timestamp());
+        assertThrows(IllegalArgumentException.class, () -> Data.asOf(inventory, start.minusSeconds(1)));
+    }
+
+    @Test
+    public void TestRetention() {
+        final Inventory inventory = Data.newInventory(10);
+        Data.newAddCmd(inventory, v1, 1).run();
+        for (int i = 0; i < 20; i++) {
+            Data.newOutCmd(inventory, v1).run();
+            Data.newInCmd(inventory, v1).run();
+        }
+        long head = Data.snapshot(inventory).version();
+        assertEquals(41, head);
+        // Version 32 is the 16th check-out
+        Record oldest = Data.asOf(inventory, head - 9).get(v1);
+        assertEquals(16, oldest.numRentals());
+        assertEquals(1, oldest.numOut());
+        assertThrows(IllegalArgumentException.class, () -> Data.asOf(inventory, head - 10));
+        assertThrows(IllegalArgumentException.class, () -> Data.asOf(inventory, head + 1));
+        assertThrows(IllegalArgumentException.class, () -> Data.asOf(Data.newInventory(), 0));
+    }
+}
@@ -0,0 +1,88 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+public class SyncTest {
+    private static final int VIDEOS = 20000;
+
+    private static Inventory catalog() {
+        Inventory inventory = Data.newSyncedInventory();
+        for (int i = 0; i < VIDEOS; i++)
+            Data.newAddCmd(inventory, Data.newVideo("Title " + i, 1900 + i % 100, "Director " + i % 500), 1 + i % 3).run();
+        return inventory;
+    }
+
+    private static void assertSameRecords(Inventory expected, Inventory actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Record r : expected)
+            assertEquals(r.toString(), String.valueOf(actual.get(r.video())));
+    }
+
+    @Test
+    public void TestTreeIgnoresOrderAndVersions() {
+        InventorySet a = (InventorySet) Data.newSyncedInventory();
+        InventorySet b = (InventorySet) Data.newSyncedInventory();
+        Video v1 = Data.newVideo("K1", 2003, "S1");
+        Video v2 = Data.newVideo("K2", 2004, "S2");
+        Data.newAddCmd(a, v1, 2).run();
+        Data.newAddCmd(a, v2, 1).run();
+        Data.newAddCmd(b, v2, 1).run();
+        Data.newAddCmd(b, v1, 1).run();
+        assertNotEquals(a.merkle().node(1), b.merkle().node(1));
+        Data.newAddCmd(b, v1, 1).run();
+        assertEquals(a.merkle().node(1), b.merkle().node(1));
+        Data.newUndoCmd(a).run();
+        Data.newUndoCmd(a).run();
+        assertEquals(0, a.merkle().node(1));
+    }
+
+    @Test
+    public void TestSyncFromSendsOnlyDifferences() throws IOException {
+        Inventory office = catalog();
+        Inventory branch = catalog();
+        Video added = Data.newVideo("New", 2020, "Someone");
+        Data.newAddCmd(office, added, 4).run();
+        for (int i = 0; i < 50; i++)
+            Data.newOutCmd(office, Data.newVideo("Title " + i * 7, 1900 + i * 7 % 100, "Director " + i * 7 % 500)).run();
+        for (int i = 0; i < 50; i++)
+            Data.newAddCmd(branch, Data.newVideo("Title " + i * 11, 1900 + i * 11 % 100, "Director " + i * 11 % 500), 1).run();
+
+        try (SyncServer server = Data.newSyncServer(office, 0)) {
+            SyncResult result = Data.syncFrom(branch, "localhost", server.port());
+            assertSameRecords(office, branch);
+            assertTrue(result.records() >= 94 && result.records() <= 101, result.toString());
+            // The whole catalog is about 700 KB on the wire
+            assertTrue(result.bytesSent() + result.bytesReceived() < 64 * 1024, result.toString());
+
+            SyncResult again = Data.syncFrom(branch, "localhost", server.port());
+            // Just the handshake and the roots
+            assertEquals(new SyncResult(0, 0, 13, 16), again);
+        }
+    }
+
+    @Test
+    public void TestSyncToUpdatesServer() throws IOException {
+        Inventory office = Data.newSyncedInventory();
+        Inventory branch = Data.newSyncedInventory();
+        Video v1 = Data.newVideo("K1", 2003, "S1");
+        Video v2 = Data.newVideo("K2", 2004, "S2");
+        Data.newAddCmd(office, v1, 1).run();
+        Data.newAddCmd(branch, v2, 2).run();
+        Data.newOutCmd(branch, v2).run();
+
+        try (SyncServer server = Data.newSyncServer(office, 0)) {
+            SyncResult result = Data.syncTo(branch, "localhost", server.port());
+            assertEquals(2, result.records());
+            assertSameRecords(branch, office);
+        }
+    }
+
+    @Test
+    public void TestPlainInventoryCannotSync() {
+        assertThrows(IllegalArgumentException.class, () -> Data.newSyncServer(Data.newInventory(), 0));
+    }
+}
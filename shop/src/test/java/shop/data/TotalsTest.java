@@ -0,0 +1,55 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+public class TotalsTest {
+    // Sums the records, as the default totals() does.
+    private static Totals summed(Inventory inventory) {
+        long titles = 0, owned = 0, out = 0, rentals = 0;
+        for (Record r : inventory) {
+            titles++;
+            owned += r.numOwned();
+            out += r.numOut();
+            rentals += r.numRentals();
+        }
+        return new Totals(titles, owned, out, rentals);
+    }
+
+    @Test
+    public void TestCountersMatchRecordsThroughUndoAndRedo() {
+        final Inventory inventory = Data.newInventory();
+        Video[] videos = new Video[10];
+        for (int i = 0; i < videos.length; i++)
+            videos[i] = Data.newVideo("T" + i, 2000 + i, "D");
+        SplittableRandom random = new SplittableRandom(3);
+        for (int n = 0; n < 5000; n++) {
+            Video v = videos[random.nextInt(videos.length)];
+            switch (random.nextInt(9)) {
+                case 0: case 1: Data.newAddCmd(inventory, v, random.nextInt(5) - 1).run(); break;
+                case 2: case 3: Data.newOutCmd(inventory, v).run(); break;
+                case 4: Data.newInCmd(inventory, v).run(); break;
+                case 5: Data.newUndoCmd(inventory).run(); break;
+                case 6: Data.newRedoCmd(inventory).run(); break;
+                case 7: Data.newTransaction(inventory).checkOut(v).checkOut(videos[0]).run(); break;
+                default: if (random.nextInt(50) == 0) Data.newClearCmd(inventory).run();
+            }
+            assertEquals(summed(inventory), inventory.totals());
+        }
+    }
+
+    @Test
+    public void TestAvailability() {
+        final Inventory inventory = Data.newInventory();
+        assertEquals(new Totals(0, 0, 0, 0), inventory.totals());
+        assertEquals(0.0, inventory.totals().availability());
+        Video v = Data.newVideo("K1", 2003, "S1");
+        Data.newAddCmd(inventory, v, 4).run();
+        Data.newOutCmd(inventory, v).run();
+        assertEquals(0.75, inventory.totals().availability(), 1e-9);
+        assertEquals(inventory.totals(), Data.newCachedInventory(inventory, 10).totals());
+    }
+}
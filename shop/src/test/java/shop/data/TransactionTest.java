@@ -0,0 +1,116 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class TransactionTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2004, "S2");
+    final Video v3 = Data.newVideo("K3", 2005, "S3");
+
+    @Test
+    public void TestBundleCheckOutIsOneHistoryEntry() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        Data.newAddCmd(inventory, v3, 1).run();
+
+        assertTrue(Data.newTransaction(inventory).checkOut(v3).checkOut(v1).checkOut(v2).run());
+        assertEquals(1, inventory.get(v1).numOut());
+        assertEquals(1, inventory.get(v2).numOut());
+        assertEquals(1, inventory.get(v3).numOut());
+
+        Data.newUndoCmd(inventory).run();
+        assertEquals(0, inventory.get(v1).numOut());
+        assertEquals(0, inventory.get(v2).numOut());
+        assertEquals(0, inventory.get(v3).numOut());
+
+        Data.newRedoCmd(inventory).run();
+        assertEquals(1, inventory.get(v1).numOut());
+        assertEquals(1, inventory.get(v3).numRentals());
+    }
+
+    @Test
+    public void TestFailedLineChangesNothing() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        Data.newOutCmd(inventory, v2).run();
+
+        assertFalse(Data.newTransaction(inventory).checkOut(v1).checkOut(v2).run());
+        assertEquals(0, inventory.get(v1).numOut());
+        assertFalse(Data.newTransaction(inventory).checkOut(v1).add(v3, -1).run());
+        assertEquals(0, inventory.get(v1).numOut());
+        assertNull(inventory.get(v3));
+
+        Data.newUndoCmd(inventory).run();
+        assertEquals(0, inventory.get(v2).numOut());
+    }
+
+    @Test
+    public void TestLinesSeeEarlierLines() {
+        final Inventory inventory = Data.newInventory();
+        assertTrue(Data.newTransaction(inventory).add(v1, 2, Record.ABSENT).checkOut(v1).checkOut(v1).run());
+        assertEquals(2, inventory.get(v1).numOut());
+        assertFalse(Data.newTransaction(inventory).checkIn(v1).checkOut(v1).checkOut(v1).run());
+        assertEquals(2, inventory.get(v1).numOut());
+
+        Data.newUndoCmd(inventory).run();
+        assertNull(inventory.get(v1));
+    }
+
+    @Test
+    public void TestStaleVersionFailsTransaction() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newAddCmd(inventory, v2, 2).run();
+        Record read = inventory.get(v2);
+        Data.newOutCmd(inventory, v2).run();
+
+        assertFalse(Data.newTransaction(inventory).checkOut(v1).checkOut(v2, read.version()).run());
+        assertEquals(0, inventory.get(v1).numOut());
+        assertTrue(Data.newTransaction(inventory).checkOut(v1).checkOut(v2, inventory.get(v2).version()).run());
+    }
+
+    @Test
+    public void TestOverlappingTransactionsDoNotDeadlock() throws InterruptedException {
+        final Inventory inventory = Data.newInventory();
+        Video[] videos = new Video[8];
+        for (int i = 0; i < videos.length; i++) {
+            videos[i] = Data.newVideo("T" + i, 2000 + i, "D");
+            Data.newAddCmd(inventory, videos[i], 3000).run();
+        }
+        AtomicInteger committed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final SplittableRandom random = new SplittableRandom(t);
+            Thread thread = new Thread(() -> {
+                for (int n = 0; n < 500; n++) {
+                    // Name the videos in random order; the transaction locks them in order.
+                    Transaction tx = Data.newTransaction(inventory);
+                    for (int k = 0; k < 3; k++)
+                        tx.checkOut(videos[random.nextInt(videos.length)]);
+                    if (tx.run())
+                        committed.incrementAndGet();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join(60000);
+        for (Thread thread : threads)
+            assertFalse(thread.isAlive());
+        int out = 0;
+        for (Video v : videos)
+            out += inventory.get(v).numOut();
+        assertEquals(4000, committed.get());
+        assertEquals(3 * 4000, out);
+    }
+}
@@ -0,0 +1,136 @@
+package shop.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import shop.command.UndoableCommand;
+
+public class VersionTest {
+    final Video v1 = Data.newVideo("K1", 2003, "S1");
+    final Video v2 = Data.newVideo("K2", 2004, "S2");
+
+    @Test
+    public void TestEveryChangeIncreasesVersion() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        long added = inventory.get(v1).version();
+        assertTrue(added > Record.ABSENT);
+
+        Data.newOutCmd(inventory, v1).run();
+        long out = inventory.get(v1).version();
+        assertTrue(out > added);
+
+        Data.newAddCmd(inventory, v2, 1).run();
+        assertTrue(inventory.get(v2).version() > out);
+        assertEquals(out, inventory.get(v1).version());
+
+        Data.newUndoCmd(inventory).run();
+        Data.newUndoCmd(inventory).run();
+        assertTrue(inventory.get(v1).version() > out);
+    }
+
+    @Test
+    public void TestConditionalCommandsFailWhenStale() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        Record read = inventory.get(v1);
+
+        Data.newOutCmd(inventory, v1).run();
+        assertFalse(Data.newOutCmd(inventory, v1, read.version()).run());
+        assertFalse(Data.newInCmd(inventory, v1, read.version()).run());
+        assertFalse(Data.newAddCmd(inventory, v1, 1, read.version()).run());
+        assertEquals(1, inventory.get(v1).numOut());
+
+        Record current = inventory.get(v1);
+        assertTrue(Data.newInCmd(inventory, v1, current.version()).run());
+        assertEquals(0, inventory.get(v1).numOut());
+    }
+
+    @Test
+    public void TestAddIfAbsent() {
+        final Inventory inventory = Data.newInventory();
+        assertTrue(Data.newAddCmd(inventory, v1, 1, Record.ABSENT).run());
+        assertFalse(Data.newAddCmd(inventory, v1, 1, Record.ABSENT).run());
+        assertEquals(1, inventory.get(v1).numOwned());
+    }
+
+    @Test
+    public void TestConditionalUndoRedo() {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        UndoableCommand out = Data.newOutCmd(inventory, v1, inventory.get(v1).version());
+        assertTrue(out.run());
+        out.undo();
+        assertEquals(0, inventory.get(v1).numOut());
+        // Redo does not check the version read before the command ran.
+        out.redo();
+        assertEquals(1, inventory.get(v1).numOut());
+    }
+
+    @Test
+    public void TestOptimisticCheckOutsNeverOverbook() throws InterruptedException {
+        final Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 50).run();
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (;;) {
+                    Record read = inventory.get(v1);
+                    if (read.numOut() == read.numOwned())
+                        return;
+                    if (Data.newOutCmd(inventory, v1, read.version()).run())
+                        succeeded.incrementAndGet();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(50, succeeded.get());
+        assertEquals(50, inventory.get(v1).numOut());
+        assertEquals(50, inventory.get(v1).numRentals());
+    }
+
+    @Test
+    public void TestConcurrentCommandsOnManyVideos() throws InterruptedException {
+        final Inventory inventory = Data.newInventory();
+        Video[] videos = new Video[16];
+        for (int i = 0; i < videos.length; i++) {
+            videos[i] = Data.newVideo("T" + i, 2000 + i, "D");
+            Data.newAddCmd(inventory, videos[i], 1).run();
+        }
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int n = 0; n < 2000; n++) {
+                    Video v = videos[(n + offset) % videos.length];
+                    // Each thread adds a copy before taking one, so all succeed.
+                    if (Data.newAddCmd(inventory, v, 1).run()
+                        && Data.newOutCmd(inventory, v).run()
+                        && Data.newInCmd(inventory, v).run()
+                        && Data.newAddCmd(inventory, v, -1).run())
+                        succeeded.incrementAndGet();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(8000, succeeded.get());
+        assertEquals(videos.length, inventory.size());
+        for (Video v : videos) {
+            assertEquals(1, inventory.get(v).numOwned());
+            assertEquals(0, inventory.get(v).numOut());
+        }
+    }
+}
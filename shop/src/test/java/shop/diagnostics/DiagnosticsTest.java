@@ -0,0 +1,96 @@
+package shop.diagnostics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DiagnosticsTest {
+    @Test
+    public void TestEventsAreWrittenInOrder() {
+        List<Diagnostic> written = Collections.synchronizedList(new ArrayList<Diagnostic>());
+        Diagnostics diagnostics = new Diagnostics(written::addAll, 1000);
+        for (int i = 0; i < 10; i++)
+            assertTrue(diagnostics.publish("test", "event " + i, i));
+        diagnostics.flush();
+        assertEquals(10, written.size());
+        assertEquals(10, diagnostics.written());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("event " + i, written.get(i).message());
+            assertEquals(i, written.get(i).subject());
+        }
+        diagnostics.close();
+        assertFalse(diagnostics.publish("test", "late", null));
+    }
+
+    @Test
+    public void TestFullRingDropsAndCounts() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Diagnostic> written = Collections.synchronizedList(new ArrayList<Diagnostic>());
+        // A sink that blocks, as a stalled terminal would
+        Diagnostics diagnostics = new Diagnostics(batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            written.addAll(batch);
+        }, 100000);
+        int accepted = 0;
+        for (int i = 0; i < 5000; i++) {
+            if (diagnostics.publish("test", "flood", null))
+                accepted++;
+        }
+        assertTrue(accepted < 5000);
+        assertEquals(5000 - accepted, diagnostics.dropped());
+        release.countDown();
+        diagnostics.close();
+        assertEquals(accepted, diagnostics.written());
+        // The writer notes the drops it has seen with each batch
+        long noted = 0;
+        for (Diagnostic d : written) {
+            if (d.source().equals("diagnostics"))
+                noted += Long.parseLong(d.message().replace(" events dropped", ""));
+        }
+        assertEquals(5000 - accepted, noted);
+    }
+
+    @Test
+    public void TestRateLimit() {
+        Diagnostics diagnostics = new Diagnostics(batch -> {}, 10);
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (diagnostics.publish("test", "event", null))
+                accepted++;
+        }
+        // The window may turn over once during the loop
+        assertTrue(accepted >= 10 && accepted <= 20, "accepted " + accepted);
+        assertEquals(100 - accepted, diagnostics.dropped());
+        diagnostics.close();
+    }
+
+    @Test
+    public void TestFileRotation(@TempDir Path dir) throws IOException {
+        Path log = dir.resolve("shop.log");
+        Diagnostics diagnostics = new Diagnostics(DiagnosticSink.rotatingFile(log, 200, 3), 1000);
+        for (int i = 0; i < 50; i++)
+            diagnostics.publish("test", "event " + i, null);
+        diagnostics.close();
+        assertTrue(Files.exists(log));
+        assertTrue(Files.exists(dir.resolve("shop.log.1")));
+        assertTrue(Files.exists(dir.resolve("shop.log.2")));
+        assertFalse(Files.exists(dir.resolve("shop.log.3")));
+        List<String> last = Files.readAllLines(log);
+        if (last.isEmpty())
+            last = Files.readAllLines(dir.resolve("shop.log.1"));
+        assertTrue(last.get(last.size() - 1).endsWith("test: event 49"));
+    }
+}
@@ -0,0 +1,92 @@
+package shop.load;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+public class LoadGeneratorTest {
+    @Test
+    public void TestZipfFrequencies() {
+        int n = 10;
+        double exponent = 1.1;
+        ZipfSampler zipf = new ZipfSampler(n, exponent);
+        SplittableRandom random = new SplittableRandom(30);
+        int samples = 1000000;
+        int[] counts = new int[n + 1];
+        for (int i = 0; i < samples; i++)
+            counts[zipf.sample(random)]++;
+        double norm = 0;
+        for (int k = 1; k <= n; k++)
+            norm += 1 / Math.pow(k, exponent);
+        for (int k = 1; k <= n; k++) {
+            double expected = 1 / Math.pow(k, exponent) / norm;
+            assertEquals(expected, counts[k] / (double) samples, 0.003, "rank " + k);
+        }
+        assertEquals(0, counts[0]);
+    }
+
+    @Test
+    public void TestWorkloadFileRoundTrip() throws Exception {
+        File file = File.createTempFile("workload", ".wl");
+        file.deleteOnExit();
+        Operation[] ops = Operation.values();
+        try (WorkloadFile.Writer writer = new WorkloadFile.Writer(file.getPath(), 1000, 3)) {
+            for (int i = 0; i < 100; i++)
+                writer.write(ops[i % ops.length], i * 7);
+        }
+        try (WorkloadFile.Reader reader = new WorkloadFile.Reader(file.getPath())) {
+            assertEquals(1000, reader.videos());
+            assertEquals(3, reader.copies());
+            for (int i = 0; i < 100; i++) {
+                assertTrue(reader.next());
+                assertEquals(ops[i % ops.length], reader.op());
+                assertEquals(i * 7, reader.video());
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void TestReplayReproducesRecordedRun() throws Exception {
+        File file = File.createTempFile("workload", ".wl");
+        file.deleteOnExit();
+        String recorded = fingerprint("--videos", "500", "--threads", "4", "--ops", "5000",
+            "--seconds", "60", "--zipf", "1.2", "--record", file.getPath());
+        String replayed = fingerprint("--replay", file.getPath());
+        assertEquals(recorded, replayed);
+    }
+
+    @Test
+    public void TestReplayReproducesRunUnderAdmissionControl() throws Exception {
+        File file = File.createTempFile("workload", ".wl");
+        file.deleteOnExit();
+        String recorded = fingerprint("--videos", "500", "--threads", "4", "--ops", "2000",
+            "--seconds", "60", "--admission", "2", "--record", file.getPath());
+        String replayed = fingerprint("--replay", file.getPath());
+        assertEquals(recorded, replayed);
+    }
+
+    /**
+     * Runs the generator and returns the fingerprint it prints.
+     */
+    private static String fingerprint(String... args) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(buffer, true));
+        try {
+            LoadGenerator.main(args);
+        } finally {
+            System.setOut(out);
+        }
+        for (String line : buffer.toString().split("\n")) {
+            if (line.startsWith("fingerprint: "))
+                return line;
+        }
+        return fail("no fingerprint in:\n" + buffer);
+    }
+}
@@ -0,0 +1,154 @@
+package shop.main;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+
+import org.junit.jupiter.api.Test;
+
+import shop.data.Data;
+import shop.data.Inventory;
+import shop.data.Record;
+import shop.data.Video;
+
+public class InventoryTableModelTest {
+    final Video v1 = Data.newVideo("Alien", 1979, "Ridley Scott");
+    final Video v2 = Data.newVideo("Brazil", 1985, "Terry Gilliam");
+    final Video v3 = Data.newVideo("Casablanca", 1942, "Michael Curtiz");
+
+    /**
+     * Waits until the event dispatch thread has run the updates queued so far.
+     */
+    private static void flush() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {});
+        SwingUtilities.invokeAndWait(() -> {});
+    }
+
+    private static List<String> titles(InventoryTableModel model) {
+        List<String> result = new ArrayList<String>();
+        for (int row = 0; row < model.getRowCount(); row++)
+            result.add((String) model.getValueAt(row, 0));
+        return result;
+    }
+
+    /**
+     * Returns a model whose worker is the calling thread, and the events it fires.
+     */
+    private static InventoryTableModel model(Inventory inventory, List<TableModelEvent> events) throws Exception {
+        InventoryTableModel model = new InventoryTableModel(inventory, Runnable::run, percent -> {});
+        flush();
+        model.addTableModelListener(events::add);
+        return model;
+    }
+
+    @Test
+    public void TestChangesUpdateSingleRows() throws Exception {
+        Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 2).run();
+        Data.newAddCmd(inventory, v3, 1).run();
+        List<TableModelEvent> events = new ArrayList<TableModelEvent>();
+        InventoryTableModel model = model(inventory, events);
+        assertEquals(List.of("Alien", "Casablanca"), titles(model));
+
+        Data.newAddCmd(inventory, v2, 1).run();
+        flush();
+        assertEquals(List.of("Alien", "Brazil", "Casablanca"), titles(model));
+        assertEquals(TableModelEvent.INSERT, events.get(0).getType());
+        assertEquals(1, events.get(0).getFirstRow());
+
+        Data.newOutCmd(inventory, v3).run();
+        flush();
+        assertEquals(1, model.getValueAt(2, 4));
+        assertEquals(TableModelEvent.UPDATE, events.get(1).getType());
+        assertEquals(2, events.get(1).getFirstRow());
+
+        Data.newAddCmd(inventory, v1, -2).run();
+        flush();
+        assertEquals(List.of("Brazil", "Casablanca"), titles(model));
+        assertEquals(TableModelEvent.DELETE, events.get(2).getType());
+        assertEquals(0, events.get(2).getFirstRow());
+        assertEquals(3, events.size());
+        assertEquals(3, model.changeCount());
+    }
+
+    @Test
+    public void TestFilter() throws Exception {
+        Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, v1, 1).run();
+        Data.newAddCmd(inventory, v2, 1).run();
+        List<TableModelEvent> events = new ArrayList<TableModelEvent>();
+        InventoryTableModel model = model(inventory, events);
+        SwingUtilities.invokeAndWait(() -> model.setFilter(" GILLIAM "));
+        flush();
+        assertEquals(List.of("Brazil"), titles(model));
+        // Changes to rows the filter hides are ignored
+        events.clear();
+        Data.newOutCmd(inventory, v1).run();
+        Data.newAddCmd(inventory, v3, 1).run();
+        flush();
+        assertTrue(events.isEmpty());
+        assertEquals(List.of("Brazil"), titles(model));
+    }
+
+    @Test
+    public void TestLargeBatchReloads() throws Exception {
+        Inventory inventory = Data.newInventory();
+        List<TableModelEvent> events = new ArrayList<TableModelEvent>();
+        InventoryTableModel model = model(inventory, events);
+        // Hold the event dispatch thread so the changes arrive as one batch
+        Object lock = new Object();
+        synchronized (lock) {
+            SwingUtilities.invokeLater(() -> {
+                synchronized (lock) {}
+            });
+            for (int i = 0; i < InventoryTableModel.MAX_BATCH + 10; i++)
+                Data.newAddCmd(inventory, Data.newVideo("Video " + (10000 + i), 2000, "Someone"), 1).run();
+        }
+        flush();
+        assertEquals(InventoryTableModel.MAX_BATCH + 10, model.getRowCount());
+        assertEquals("Video 10000", model.getValueAt(0, 0));
+        assertEquals(InventoryTableModel.MAX_BATCH + 1, events.size());
+        TableModelEvent reload = events.get(events.size() - 1);
+        assertEquals(0, reload.getFirstRow());
+        assertEquals(Integer.MAX_VALUE, reload.getLastRow());
+    }
+
+    @Test
+    public void TestSortedRowsMatchesList() {
+        Comparator<Record> order = (a, b) -> a.video().compareTo(b.video());
+        Inventory inventory = Data.newInventory();
+        SortedRows rows = new SortedRows(order);
+        List<Record> expected = new ArrayList<Record>();
+        Random random = new Random(36);
+        for (int n = 0; n < 20000; n++) {
+            Video v = Data.newVideo("Video " + random.nextInt(5000), 2000, "Someone");
+            Data.newAddCmd(inventory, v, 1).run();
+            Record r = inventory.get(v);
+            int i = Collections.binarySearch(expected, r, order);
+            assertEquals(i, rows.indexOf(r));
+            if (i >= 0 && random.nextBoolean()) {
+                expected.remove(i);
+                rows.remove(i);
+            } else if (i >= 0) {
+                expected.set(i, r);
+                rows.set(i, r);
+            } else {
+                expected.add(-i - 1, r);
+                rows.add(-i - 1, r);
+            }
+            assertEquals(expected.size(), rows.size());
+            int probe = random.nextInt(expected.size() + 1) - 1;
+            if (probe >= 0)
+                assertSame(expected.get(probe), rows.get(probe));
+        }
+        for (int row = 0; row < expected.size(); row++)
+            assertSame(expected.get(row), rows.get(row));
+    }
+}
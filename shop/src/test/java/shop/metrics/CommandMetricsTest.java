@@ -0,0 +1,139 @@
+package shop.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import shop.command.Outcome;
+import shop.data.Data;
+import shop.data.Inventory;
+import shop.data.Video;
+import shop.metrics.CommandStats.Phase;
+
+public class CommandMetricsTest {
+    @Test
+    public void TestBucketsCoverEachValue() {
+        Random random = new Random(28);
+        int last = -1;
+        for (long v = 0; v < 5000; v++) {
+            int i = LatencyHistogram.index(v);
+            assertTrue(i == last || i == last + 1, "gap at " + v);
+            last = i;
+            assertTrue(LatencyHistogram.lowerBound(i) <= v && v <= LatencyHistogram.upperBound(i), "bucket of " + v);
+        }
+        for (int n = 0; n < 100000; n++) {
+            long v = random.nextLong() >>> (1 + random.nextInt(63));
+            int i = LatencyHistogram.index(v);
+            long lower = LatencyHistogram.lowerBound(i);
+            long upper = LatencyHistogram.upperBound(i);
+            assertTrue(lower <= v && v <= upper, "bucket of " + v);
+            // Within 12.5% of the bucket's least value
+            assertTrue(lower < 8 || upper - lower < lower / 8, "width of bucket " + i);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void TestPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(0.99));
+        for (long v = 1; v <= 1000; v++)
+            h.record(v * 1000);
+        h.record(-5);
+        assertEquals(1001, h.count());
+        assertEquals(1000000, h.max());
+        assertEquals(500500000L / 1001, h.mean());
+        assertEquals(0, h.percentile(0));
+        assertWithin(500000, h.percentile(0.5));
+        assertWithin(990000, h.percentile(0.99));
+        assertEquals(1000000, h.percentile(1));
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(0.5));
+    }
+
+    @Test
+    public void TestConcurrentRecording() throws InterruptedException {
+        LatencyHistogram h = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            long value = 1000 * (t + 1);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++)
+                    h.record(value);
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(800000, h.count());
+        assertEquals(8000, h.max());
+        // Every thread's counts are found, whichever stripe it used
+        assertWithin(1000, h.percentile(0.125));
+        assertWithin(4000, h.percentile(0.5));
+        assertWithin(8000, h.percentile(0.999));
+        h.reset();
+        assertEquals(0, h.percentile(0.5));
+    }
+
+    /**
+     * Asserts that <code>percentile</code> is an upper bound at most
+     * 12.5% above <code>value</code>.
+     */
+    private static void assertWithin(long value, long percentile) {
+        assertTrue(percentile >= value && percentile <= value + value / 8, percentile + " for " + value);
+    }
+
+    @Test
+    public void TestFailuresAreCountedByReason() {
+        CommandStats stats = CommandMetrics.stats("test.failures");
+        stats.reset();
+        stats.succeeded(Phase.RUN, stats.start());
+        stats.failed(Phase.RUN, stats.start(), "stale");
+        stats.failed(Phase.RUN, stats.start(), "stale");
+        stats.failed(Phase.REDO, stats.start(), null);
+        assertEquals(3, stats.getRunCount());
+        assertEquals(1, stats.getRedoCount());
+        assertEquals(3, stats.getFailureCount());
+        assertEquals(Map.of("stale", 2L, "unknown", 1L), stats.getFailuresByReason());
+        assertEquals(4, stats.latency(Phase.RUN).count() + stats.latency(Phase.REDO).count());
+    }
+
+    @Test
+    public void TestCommandsAreMeasured() {
+        CommandStats stats = CommandMetrics.stats("out");
+        long runs = stats.getRunCount();
+        long undos = stats.getUndoCount();
+        Long notFound = stats.getFailuresByReason().getOrDefault("not found", 0L);
+        Inventory inventory = Data.newInventory();
+        Video v = Data.newVideo("K1", 2003, "S1");
+        assertEquals(Outcome.NOT_FOUND, Data.newOutCmd(inventory, v).execute());
+        Data.newAddCmd(inventory, v, 1).run();
+        Data.newOutCmd(inventory, v).run();
+        Data.newUndoCmd(inventory).run();
+        assertEquals(runs + 2, stats.getRunCount());
+        assertEquals(undos + 1, stats.getUndoCount());
+        assertEquals(notFound + 1, stats.getFailuresByReason().get("not found"));
+    }
+
+    @Test
+    public void TestStatsAreRegisteredWithJmx() throws Exception {
+        CommandStats stats = CommandMetrics.stats("test.jmx");
+        stats.reset();
+        stats.failed(Phase.RUN, stats.start(), "stale");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("shop:type=Commands,name=" + ObjectName.quote("test.jmx"));
+        assertTrue(server.isRegistered(name));
+        assertEquals(1L, server.getAttribute(name, "RunCount"));
+        assertEquals(1L, server.getAttribute(name, "FailureCount"));
+        server.invoke(name, "reset", null, null);
+        assertEquals(0L, stats.getRunCount());
+    }
+}
@@ -0,0 +1,122 @@
+package shop.search;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import shop.data.Data;
+import shop.data.Inventory;
+import shop.data.Video;
+
+public class FederatedSearchTest {
+    final Video godfather = Data.newVideo("The Godfather", 1972, "Francis Ford Coppola");
+    final Video amelie = Data.newVideo("Le Fabuleux Destin d'Am\u00e9lie Poulain", 2001, "Jean-Pierre Jeunet");
+
+    private Inventory inventory(int owned, int out) {
+        Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, godfather, owned).run();
+        for (int i = 0; i < out; i++)
+            Data.newOutCmd(inventory, godfather).run();
+        return inventory;
+    }
+
+    /**
+     * A store that answers after a delay.
+     */
+    private static Store slow(Store store, long millis) {
+        return new Store() {
+            public String name() {
+                return store.name();
+            }
+            public int priority() {
+                return store.priority();
+            }
+            public Availability availability(Video video) throws IOException {
+                pause();
+                return store.availability(video);
+            }
+            public List<FederatedSearch.Match> search(String query, int limit) throws IOException {
+                pause();
+                return store.search(query, limit);
+            }
+            private void pause() throws IOException {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void TestAvailabilityRanking() throws IOException {
+        try (FederatedSearch search = new FederatedSearch(1000)) {
+            search.add(FederatedSearch.local("far", 9, inventory(3, 0)));
+            search.add(FederatedSearch.local("near", 1, inventory(2, 1)));
+            search.add(FederatedSearch.local("nearest", 0, inventory(1, 1)));
+            search.add(FederatedSearch.local("empty", 0, Data.newInventory()));
+            FederatedSearch.Answer<Availability> answer = search.availability(godfather);
+            assertTrue(answer.complete());
+            assertEquals(List.of("near", "far", "nearest"), answer.results().stream().map(Availability::store).toList());
+            assertEquals(1, answer.results().get(0).available());
+            assertEquals(0, answer.results().get(2).available());
+            assertTrue(search.availability(amelie).results().isEmpty());
+        }
+    }
+
+    @Test
+    public void TestSearchMergesStores() throws IOException {
+        Inventory other = inventory(1, 1);
+        Data.newAddCmd(other, amelie, 1).run();
+        try (FederatedSearch search = new FederatedSearch(1000)) {
+            search.add(FederatedSearch.local("a", 2, inventory(1, 0)));
+            search.add(FederatedSearch.local("b", 1, other));
+            FederatedSearch.Answer<FederatedSearch.Match> answer = search.search("godfathr", 10);
+            assertEquals(1, answer.results().size());
+            FederatedSearch.Match match = answer.results().get(0);
+            assertEquals(godfather, match.video());
+            assertEquals(List.of("a", "b"), match.stores().stream().map(Availability::store).toList());
+            List<Availability> stores = search.search("amelie", 10).results().get(0).stores();
+            assertEquals(List.of("b"), stores.stream().map(Availability::store).toList());
+        }
+    }
+
+    @Test
+    public void TestSlowStoresRunInParallel() throws IOException {
+        try (FederatedSearch search = new FederatedSearch(2000)) {
+            for (int i = 0; i < 8; i++)
+                search.add(slow(FederatedSearch.local("s" + i, i, inventory(1, 0)), 200));
+            search.add(slow(FederatedSearch.local("stuck", 0, inventory(1, 0)), 10000), 300);
+            long start = System.nanoTime();
+            FederatedSearch.Answer<Availability> answer = search.availability(godfather);
+            long millis = (System.nanoTime() - start) / 1000000;
+            assertEquals(8, answer.results().size());
+            assertEquals(List.of("stuck"), answer.missing());
+            // Not the 1600ms of calling them in turn
+            assertTrue(millis < 1000, millis + "ms");
+        }
+    }
+
+    @Test
+    public void TestRemoteStore() throws IOException {
+        Inventory inventory = inventory(2, 1);
+        try (StoreServer server = StoreServer.serve(inventory, 0);
+             FederatedSearch search = new FederatedSearch(1000)) {
+            search.add(FederatedSearch.remote("remote", 1, "localhost", server.port()));
+            search.add(FederatedSearch.remote("gone", 2, "localhost", 1));
+            FederatedSearch.Answer<Availability> answer = search.availability(godfather);
+            assertEquals(List.of("gone"), answer.missing());
+            assertEquals(new Availability("remote", 1, godfather, 2, 1), answer.results().get(0));
+            assertTrue(search.availability(amelie).results().isEmpty());
+
+            Data.newAddCmd(inventory, amelie, 1).run();
+            FederatedSearch.Match match = search.search("amelie", 5).results().get(0);
+            assertEquals(amelie, match.video());
+            assertEquals(1, match.stores().get(0).available());
+        }
+    }
+}
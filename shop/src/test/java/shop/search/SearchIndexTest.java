@@ -0,0 +1,153 @@
+package shop.search;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import shop.data.Data;
+import shop.data.Inventory;
+import shop.data.Video;
+
+public class SearchIndexTest {
+    final Video godfather = Data.newVideo("The Godfather", 1972, "Francis Ford Coppola");
+    final Video godfather2 = Data.newVideo("The Godfather Part II", 1974, "Francis Ford Coppola");
+    final Video amelie = Data.newVideo("Le Fabuleux Destin d'Am\u00e9lie Poulain", 2001, "Jean-Pierre Jeunet");
+    final Video sofia = Data.newVideo("Lost in Translation", 2003, "Sofia Coppola");
+
+    private Inventory inventory() {
+        Inventory inventory = Data.newInventory();
+        Data.newAddCmd(inventory, godfather, 1).run();
+        Data.newAddCmd(inventory, godfather2, 1).run();
+        Data.newAddCmd(inventory, amelie, 1).run();
+        return inventory;
+    }
+
+    private static Video first(List<SearchIndex.Hit> hits) {
+        return hits.get(0).video();
+    }
+
+    @Test
+    public void TestExactFuzzyAndPrefix() {
+        SearchIndex index = SearchIndex.index(inventory());
+        assertEquals(3, index.size());
+        assertEquals(2, index.search("godfathr", 10).size());
+        assertEquals(godfather2, first(index.search("godfather part", 10)));
+        assertEquals(2, index.search("copp", 10).size());
+        assertEquals(amelie, first(index.search("AMELIE", 10)));
+        assertTrue(index.search("francs copp", 10).size() == 2);
+        assertTrue(index.search("godfathr copp", 10).size() == 2);
+        assertTrue(index.search("zzzz", 10).isEmpty());
+        assertTrue(index.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    public void TestTitleOutranksDirector() {
+        Inventory inventory = inventory();
+        Video coppola = Data.newVideo("Coppola", 2010, "Someone");
+        Data.newAddCmd(inventory, coppola, 1).run();
+        SearchIndex index = SearchIndex.index(inventory);
+        List<SearchIndex.Hit> hits = index.search("coppola", 10);
+        assertEquals(3, hits.size());
+        assertEquals(coppola, first(hits));
+    }
+
+    @Test
+    public void TestFollowsInventory() {
+        Inventory inventory = inventory();
+        SearchIndex index = SearchIndex.index(inventory);
+        Data.newAddCmd(inventory, sofia, 1).run();
+        assertEquals(3, index.search("coppola", 10).size());
+        Data.newAddCmd(inventory, godfather, -1).run();
+        assertEquals(2, index.search("coppola", 10).size());
+        Data.newUndoCmd(inventory).run();
+        assertEquals(3, index.search("coppola", 10).size());
+        Data.newClearCmd(inventory).run();
+        assertEquals(0, index.size());
+        assertTrue(index.search("coppola", 10).isEmpty());
+        index.close();
+        Data.newAddCmd(inventory, sofia, 1).run();
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void TestWritesWhileIndexing() throws Exception {
+        Inventory inventory = Data.newInventory();
+        int videos = 20000;
+        for (int i = 0; i < videos; i++)
+            Data.newAddCmd(inventory, Data.newVideo("Film " + i, 2000, "Someone"), 1).run();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            for (int j = 0; !stop.get() && j < videos / 2; j++) {
+                boolean ok = Data.newAddCmd(inventory, Data.newVideo("Fresh " + j, 2000, "Someone"), 1).run()
+                    && Data.newOutCmd(inventory, Data.newVideo("Film " + 2 * j, 2000, "Someone")).run()
+                    && Data.newAddCmd(inventory, Data.newVideo("Film " + (2 * j + 1), 2000, "Someone"), -1).run();
+                if (!ok)
+                    failed.incrementAndGet();
+                added.incrementAndGet();
+            }
+        });
+        writer.start();
+        while (added.get() < 100)
+            Thread.yield();
+        SearchIndex index = SearchIndex.index(inventory);
+        stop.set(true);
+        writer.join();
+        assertEquals(0, failed.get());
+        assertEquals(inventory.size(), index.size());
+        assertEquals(added.get(), index.search("fresh", 2 * videos).size());
+        assertEquals(videos - added.get(), index.search("film", 2 * videos).size());
+        Data.newInCmd(inventory, Data.newVideo("Film 0", 2000, "Someone")).run();
+        assertEquals(inventory.size(), index.size());
+        index.close();
+    }
+
+    @Test
+    public void TestBoostByRentals() {
+        Inventory inventory = inventory();
+        SearchIndex index = SearchIndex.index(inventory);
+        for (int i = 0; i < 5; i++) {
+            Data.newOutCmd(inventory, godfather2).run();
+            Data.newInCmd(inventory, godfather2).run();
+        }
+        List<SearchIndex.Hit> hits = index.search("godfather", 2);
+        assertEquals(hits.get(0).score(), hits.get(1).score());
+        assertEquals(godfather2, first(index.search("godfather", 1, true)));
+    }
+
+    @Test
+    public void TestPurgeKeepsLiveDocuments() {
+        Inventory inventory = Data.newInventory();
+        SearchIndex index = SearchIndex.index(inventory);
+        for (int i = 0; i < 3000; i++) {
+            Video v = Data.newVideo("Title " + i, 2000, "Director");
+            Data.newAddCmd(inventory, v, 1).run();
+            if (i % 3 != 0)
+                Data.newAddCmd(inventory, v, -1).run();
+        }
+        assertEquals(1000, index.size());
+        assertEquals(1000, index.search("director", 5000).size());
+        assertEquals(1, index.search("title 2997", 5).stream().filter(h -> h.video().title().equals("Title 2997")).count());
+    }
+
+    @Test
+    public void TestPostingListRoundTrip() {
+        PostingList list = new PostingList();
+        int[] docs = {0, 1, 5, 200, 70000, 1 << 30};
+        for (int doc : docs)
+            list.add(doc, doc % 3 + 1);
+        int[] i = {0};
+        list.forEach((doc, fields) -> {
+            assertEquals(docs[i[0]], doc);
+            assertEquals(doc % 3 + 1, fields);
+            i[0]++;
+        });
+        assertEquals(docs.length, i[0]);
+        assertThrows(IllegalArgumentException.class, () -> list.add(5, 1));
+    }
+}